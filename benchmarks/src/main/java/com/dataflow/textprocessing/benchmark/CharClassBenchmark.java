@@ -0,0 +1,118 @@
+package com.dataflow.textprocessing.benchmark;
+
+import com.dataflow.textprocessing.model.TextDocument;
+import com.dataflow.textprocessing.service.impl.TextProcessingServiceImpl;
+import com.dataflow.textprocessing.util.CharClasses;
+import com.dataflow.textprocessing.util.TextProcessingUtils;
+import com.dataflow.textprocessing.util.WordTokenizer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Character class scanning with the lookup table classifier ({@link Scalar}) and the Vector API
+ * classifier ({@link Vector}), against the regex implementations they replace. Each variant runs in
+ * its own JVM, since the classifier is chosen when {@link CharClasses} is loaded.
+ * <pre>
+ * java -jar target/benchmarks.jar CharClassBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public abstract class CharClassBenchmark {
+    private static final Pattern WORD = Pattern.compile("\\w+");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Pattern SENTENCE = Pattern.compile("[^.!?]+[.!?]+");
+    private static final String[] WORDS = {"the", "quick", "brown", "fox", "jumps", "over", "lazy", "dog",
+            "processing", "a", "Pipeline", "2024", "data_flow"};
+
+    @Param({"1000000"})
+    public int length;
+
+    protected String text;
+    private TextDocument document;
+    private final TextProcessingServiceImpl service = new TextProcessingServiceImpl();
+
+    @Setup
+    public void setUp() {
+        if (CharClasses.isVectorized() != this instanceof Vector) {
+            throw new IllegalStateException("Vector API classifier " + (CharClasses.isVectorized() ? "enabled" : "disabled")
+                    + " in " + getClass().getSimpleName());
+        }
+        Random random = new Random(42);
+        StringBuilder builder = new StringBuilder(length + 16);
+        while (builder.length() < length) {
+            builder.append(WORDS[random.nextInt(WORDS.length)]);
+            int separator = random.nextInt(20);
+            builder.append(separator == 0 ? ".\n\n" : separator == 1 ? ",  " : separator == 2 ? "! " : " ");
+        }
+        text = builder.toString();
+        document = new TextDocument("benchmark", text);
+    }
+
+    @Benchmark
+    public int tokens() {
+        int[] count = {0};
+        WordTokenizer.forEachToken(text, (start, end) -> count[0] += end - start);
+        return count[0];
+    }
+
+    @Benchmark
+    public String collapseWhitespace() {
+        return TextProcessingUtils.normalizeWhitespace(text);
+    }
+
+    @Benchmark
+    public int sentenceTerminators() {
+        return CharClasses.countRuns(text, CharClasses.TERMINATOR);
+    }
+
+    @Benchmark
+    public Map<String, Object> textStatistics() {
+        return service.getTextStatistics(document);
+    }
+
+    @Fork(1)
+    public static class Scalar extends CharClassBenchmark {
+        @Benchmark
+        public int regexTokens() {
+            int count = 0;
+            var matcher = WORD.matcher(text);
+            while (matcher.find()) {
+                count += matcher.end() - matcher.start();
+            }
+            return count;
+        }
+
+        @Benchmark
+        public String regexCollapseWhitespace() {
+            return WHITESPACE.matcher(text).replaceAll(" ").trim();
+        }
+
+        @Benchmark
+        public long regexSentences() {
+            return SENTENCE.matcher(text).results().count();
+        }
+    }
+
+    @Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector",
+            "-D" + CharClasses.VECTOR_PROPERTY + "=true"})
+    public static class Vector extends CharClassBenchmark {
+    }
+}
@@ -0,0 +1,55 @@
+package com.dataflow.textprocessing.util;
+
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Computes class masks with the preferred vector width, classifying 8 to 32 characters per compare.
+ * Compiled only by the {@code vector} build profile, and loaded reflectively by {@link CharClasses}
+ * when the jdk.incubator.vector module is present, so the module never depends on the incubator.
+ */
+final class VectorClassifier implements CharClasses.Classifier {
+    private static final VectorSpecies<Short> SPECIES = ShortVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+
+    VectorClassifier() {
+        if (CharClasses.BLOCK % LANES != 0) {
+            throw new IllegalStateException("Unsupported vector width: " + SPECIES);
+        }
+    }
+
+    @Override
+    public long mask(char[] chars, int offset, int charClass) {
+        long mask = 0;
+        for (int i = 0; i < CharClasses.BLOCK; i += LANES) {
+            ShortVector v = ShortVector.fromCharArray(SPECIES, chars, offset + i);
+            mask |= classify(v, charClass).toLong() << i;
+        }
+        return mask;
+    }
+
+    private static VectorMask<Short> classify(ShortVector v, int charClass) {
+        switch (charClass) {
+            case CharClasses.WORD:
+                // Setting bit 5 folds upper case letters onto lower case ones; out of range values wrap
+                // to large unsigned ones
+                return v.or((short) 0x20).sub((short) 'a').compare(VectorOperators.UNSIGNED_LT, (short) 26)
+                        .or(v.sub((short) '0').compare(VectorOperators.UNSIGNED_LT, (short) 10))
+                        .or(v.eq((short) '_'));
+            case CharClasses.WHITESPACE:
+                return v.sub((short) '\t').compare(VectorOperators.UNSIGNED_LT, (short) 5)
+                        .or(v.eq((short) ' '));
+            case CharClasses.TERMINATOR:
+                return v.eq((short) '.').or(v.eq((short) '!')).or(v.eq((short) '?'));
+            default:
+                throw new IllegalArgumentException("Unknown character class: " + charClass);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return SPECIES.toString();
+    }
+}
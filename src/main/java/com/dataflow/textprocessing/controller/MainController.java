@@ -1,68 +1,222 @@
 package com.dataflow.textprocessing.controller;
 
+import com.dataflow.textprocessing.metrics.Instrumentation;
+import com.dataflow.textprocessing.metrics.MetricsRegistry;
+import com.dataflow.textprocessing.exception.TextProcessingException;
+import com.dataflow.textprocessing.model.Collocation;
+import com.dataflow.textprocessing.model.DocumentVersion;
+import com.dataflow.textprocessing.model.FileResult;
+import com.dataflow.textprocessing.model.NGramCounts;
 import com.dataflow.textprocessing.model.TextDocument;
+import com.dataflow.textprocessing.model.WordCount;
+import com.dataflow.textprocessing.model.WordFrequencySketch;
 import com.dataflow.textprocessing.service.TextProcessingService;
 import com.dataflow.textprocessing.service.TextFormattingService;
+import com.dataflow.textprocessing.service.BatchFileService;
 import com.dataflow.textprocessing.service.BatchProcessingService;
+import com.dataflow.textprocessing.service.DirectoryWatchService;
+import com.dataflow.textprocessing.service.DocumentStoreService;
+import com.dataflow.textprocessing.service.DocumentIngestionService;
+import com.dataflow.textprocessing.service.IncrementalAnalysisService;
+import com.dataflow.textprocessing.service.NGramService;
+import com.dataflow.textprocessing.service.TextAnalysisService;
+import com.dataflow.textprocessing.service.WordFrequencySketchService;
+import com.dataflow.textprocessing.service.SubstringIndexService;
+import com.dataflow.textprocessing.service.impl.AnalysisResultCache;
+import com.dataflow.textprocessing.service.impl.CachingTextAnalysisService;
+import com.dataflow.textprocessing.service.impl.CachingTextProcessingService;
+import com.dataflow.textprocessing.service.impl.DirectoryWatchServiceImpl;
+import com.dataflow.textprocessing.service.impl.DocumentIngestionServiceImpl;
+import com.dataflow.textprocessing.service.impl.DocumentStoreServiceImpl;
+import com.dataflow.textprocessing.service.impl.IncrementalAnalysisServiceImpl;
+import com.dataflow.textprocessing.service.impl.NGramServiceImpl;
+import com.dataflow.textprocessing.service.impl.SubstringIndexServiceImpl;
+import com.dataflow.textprocessing.service.impl.TextAnalysisServiceImpl;
+import com.dataflow.textprocessing.service.impl.TextProcessingServiceImpl;
+import com.dataflow.textprocessing.service.impl.WordFrequencySketchServiceImpl;
+import com.dataflow.textprocessing.service.impl.BatchFileServiceImpl;
+import com.dataflow.textprocessing.util.Cancellation;
+import com.dataflow.textprocessing.util.CompressedFiles;
+import com.dataflow.textprocessing.view.OutputView;
+import javafx.animation.Animation;
+import javafx.animation.PauseTransition;
+import javafx.application.Platform;
+import javafx.beans.binding.Bindings;
+import javafx.beans.binding.BooleanBinding;
+import javafx.beans.value.ChangeListener;
 import javafx.fxml.FXML;
-import javafx.fxml.FXMLLoader;
 import javafx.scene.control.*;
 import javafx.scene.layout.VBox;
 import javafx.scene.layout.GridPane;
 import javafx.geometry.Insets;
+import javafx.util.Duration;
 import javafx.util.Pair;
+import javafx.stage.DirectoryChooser;
 import javafx.stage.FileChooser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.io.IOException;
-import java.nio.file.Files;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 public class MainController {
     private static final Logger logger = LoggerFactory.getLogger(MainController.class);
+    private static final int MAX_REPORTED_POSITIONS = 1000;
+    private static final int FIND_INDEX_MIN_LENGTH = 256 * 1024;
+    private static final Duration FIND_INDEX_DELAY = Duration.seconds(2);
+    private static final int CACHE_MAX_ENTRIES = 256;
+    private static final long CACHE_MAX_WEIGHT = 64L * 1024 * 1024;
+    private static final int WORD_FREQUENCY_TOP_K = 100;
+    private static final int NGRAM_TOP_K = 20;
+    private static final int COLLOCATION_MIN_COUNT = 2;
+    private static final String STORE_PROPERTY = "textprocessing.store";
+    private static final int STORE_MAX_VERSIONS = 10;
+    private static final String BATCH_JOURNAL = ".batch-journal";
 
     @FXML
     private TextArea inputTextArea;
     
     @FXML
-    private TextArea outputTextArea;
+    private OutputView outputView;
     
     @FXML
     private Label statusLabel;
     
     @FXML
     private VBox regexPanelContainer;
+
+    @FXML
+    private CheckMenuItem liveStatisticsMenuItem;
+
+    @FXML
+    private Label liveStatisticsLabel;
+
+    @FXML
+    private CheckMenuItem watchDirectoryMenuItem;
+
+    @FXML
+    private ProgressBar taskProgressBar;
+
+    @FXML
+    private Button cancelTaskButton;
     
+    @FXML
     private RegexPanelController regexPanelController;
+    private final TaskRunner taskRunner = new TaskRunner();
+    private final MetricsRegistry metricsRegistry = new MetricsRegistry();
     private TextProcessingService textProcessingService;
+    private TextAnalysisService textAnalysisService;
     private TextFormattingService textFormattingService;
-    private BatchProcessingService batchProcessingService;
+    private BatchFileService batchFileService;
+    private DirectoryWatchService directoryWatchService;
+    private volatile DirectoryWatchService.WatchSession watchSession;
+    private DocumentStoreService documentStore;
+    private String storedDocumentId;
+    private final DocumentIngestionService documentIngestionService = Instrumentation.instrument(
+            DocumentIngestionService.class, new DocumentIngestionServiceImpl(), metricsRegistry);
+    private final SubstringIndexService substringIndexService = Instrumentation.instrument(
+            SubstringIndexService.class, new SubstringIndexServiceImpl(), metricsRegistry);
+    // Find index state, confined to the FX thread: the index is current while its version is the input's
+    private final PauseTransition findIndexRebuild = new PauseTransition(FIND_INDEX_DELAY);
+    private SubstringIndexService.SubstringIndex findIndex;
+    private long findIndexVersion = -1;
+    private long inputVersion;
+    private boolean findIndexWanted;
+    private boolean findIndexBuilding;
+    private final WordFrequencySketchService wordFrequencySketchService = Instrumentation.instrument(
+            WordFrequencySketchService.class, new WordFrequencySketchServiceImpl(), metricsRegistry);
+    private final NGramService nGramService = Instrumentation.instrument(
+            NGramService.class, new NGramServiceImpl(), metricsRegistry);
+    private final IncrementalAnalysisService incrementalAnalysisService = Instrumentation.instrument(
+            IncrementalAnalysisService.class, new IncrementalAnalysisServiceImpl(), metricsRegistry);
+    private final TextDocument liveDocument = new TextDocument("input", "");
+    private final ChangeListener<String> liveStatisticsListener = (observable, oldText, newText) -> updateLiveStatistics(newText);
+    private final AtomicReference<String> pendingLiveText = new AtomicReference<>();
+    private volatile boolean liveStatisticsEnabled;
+    // Held by a refresh pass while it analyses and by the release after live statistics are turned off
+    private final Object liveStatisticsLock = new Object();
+    private final ChangeListener<String> taskMessageListener = (observable, oldMessage, message) -> {
+        if (message != null && !message.isEmpty()) {
+            statusLabel.setText(message);
+        }
+    };
 
     @FXML
     public void initialize() {
         logger.info("Initializing MainController");
+        AnalysisResultCache analysisCache = new AnalysisResultCache(CACHE_MAX_ENTRIES, CACHE_MAX_WEIGHT);
+        textProcessingService = Instrumentation.instrument(TextProcessingService.class,
+                new CachingTextProcessingService(new TextProcessingServiceImpl(), analysisCache), metricsRegistry);
+        textAnalysisService = Instrumentation.instrument(TextAnalysisService.class,
+                new CachingTextAnalysisService(new TextAnalysisServiceImpl(), analysisCache), metricsRegistry);
+        BatchFileServiceImpl batchFiles = new BatchFileServiceImpl(documentIngestionService);
+        batchFileService = Instrumentation.instrument(BatchFileService.class, batchFiles, metricsRegistry);
+        metricsRegistry.registerGauge("files.queuedReads", batchFiles::getQueuedReads);
+        metricsRegistry.registerGauge("files.queuedWrites", batchFiles::getQueuedWrites);
+        directoryWatchService = new DirectoryWatchServiceImpl(batchFileService, metricsRegistry);
+        metricsRegistry.registerGauge("tasks.queueDepth", taskRunner::getQueueDepth);
+        openDocumentStore();
+        initializeTaskControls();
+        initializeFindIndex();
+        if (regexPanelController == null) {
+            logger.error("Failed to get regex panel controller");
+            showAlert("Error", "Failed to initialize regex panel");
+        } else {
+            regexPanelController.setTaskRunner(taskRunner);
+        }
+    }
+
+    /**
+     * Open the document store at -Dtextprocessing.store, or in the user's home directory; the
+     * application works without it if it cannot be opened
+     */
+    private void openDocumentStore() {
+        String location = System.getProperty(STORE_PROPERTY);
+        Path path = location != null ? Path.of(location)
+            : Path.of(System.getProperty("user.home"), ".dataflow-textprocessing", "documents.log");
         try {
-            FXMLLoader loader = new FXMLLoader(getClass().getResource("/fxml/components/regex-panel.fxml"));
-            VBox regexPanel = (VBox) regexPanelContainer.getChildren().get(0);
-            regexPanelController = loader.getController();
-            if (regexPanelController == null) {
-                logger.error("Failed to get regex panel controller");
-                showAlert("Error", "Failed to initialize regex panel");
-            }
-        } catch (Exception e) {
-            logger.error("Failed to initialize regex panel", e);
-            showAlert("Error", "Failed to initialize regex panel: " + e.getMessage());
+            DocumentStoreServiceImpl store = new DocumentStoreServiceImpl(path);
+            documentStore = Instrumentation.instrument(DocumentStoreService.class, store, metricsRegistry);
+            metricsRegistry.registerGauge("store.queuedWrites", store::getQueuedWrites);
+        } catch (TextProcessingException e) {
+            logger.error("Document store unavailable: {}", e.getMessage());
         }
     }
 
+    private void initializeTaskControls() {
+        BooleanBinding running = Bindings.isNotEmpty(taskRunner.getRunningTasks());
+        taskProgressBar.visibleProperty().bind(running);
+        taskProgressBar.managedProperty().bind(running);
+        cancelTaskButton.visibleProperty().bind(running);
+        cancelTaskButton.managedProperty().bind(running);
+        taskRunner.currentTaskProperty().addListener((observable, oldTask, newTask) -> {
+            if (oldTask != null) {
+                oldTask.messageProperty().removeListener(taskMessageListener);
+            }
+            taskProgressBar.progressProperty().unbind();
+            if (newTask != null) {
+                newTask.messageProperty().addListener(taskMessageListener);
+                taskProgressBar.progressProperty().bind(newTask.progressProperty());
+            }
+        });
+    }
+
     @FXML
     private void handleNew() {
         inputTextArea.clear();
-        outputTextArea.clear();
+        outputView.clear();
+        storedDocumentId = null;
         updateStatus("New document created");
     }
 
@@ -70,20 +224,18 @@ public class MainController {
     private void handleOpen() {
         FileChooser fileChooser = new FileChooser();
         fileChooser.setTitle("Open Text File");
-        fileChooser.getExtensionFilters().add(
-            new FileChooser.ExtensionFilter("Text Files", "*.txt")
+        fileChooser.getExtensionFilters().addAll(
+            new FileChooser.ExtensionFilter("Text Files", "*.txt", "*.txt.gz"),
+            new FileChooser.ExtensionFilter("Compressed Text Files", "*.gz")
         );
         
         File file = fileChooser.showOpenDialog(inputTextArea.getScene().getWindow());
         if (file != null) {
-            try {
-                String content = Files.readString(file.toPath());
+            runInBackground("open file", progress -> documentIngestionService.readDocument(file.toPath()).getContent(), content -> {
                 inputTextArea.setText(content);
+                storedDocumentId = null;
                 updateStatus("File opened: " + file.getName());
-            } catch (IOException e) {
-                logger.error("Failed to open file", e);
-                showAlert("Error", "Failed to open file: " + e.getMessage());
-            }
+            });
         }
     }
 
@@ -91,24 +243,96 @@ public class MainController {
     private void handleSave() {
         FileChooser fileChooser = new FileChooser();
         fileChooser.setTitle("Save Text File");
-        fileChooser.getExtensionFilters().add(
-            new FileChooser.ExtensionFilter("Text Files", "*.txt")
+        fileChooser.getExtensionFilters().addAll(
+            new FileChooser.ExtensionFilter("Text Files", "*.txt", "*.txt.gz"),
+            new FileChooser.ExtensionFilter("Compressed Text Files", "*.gz")
         );
         
         File file = fileChooser.showSaveDialog(inputTextArea.getScene().getWindow());
         if (file != null) {
-            try {
-                Files.writeString(file.toPath(), inputTextArea.getText());
-                updateStatus("File saved: " + file.getName());
-            } catch (IOException e) {
-                logger.error("Failed to save file", e);
-                showAlert("Error", "Failed to save file: " + e.getMessage());
+            String content = inputTextArea.getText();
+            runInBackground("save file", progress -> {
+                Path path = file.toPath();
+                try (Writer writer = CompressedFiles.newBufferedWriter(path, StandardCharsets.UTF_8,
+                        CompressedFiles.hasGzipExtension(path))) {
+                    writer.write(content);
+                }
+                return path;
+            }, path -> updateStatus("File saved: " + file.getName()));
+        }
+    }
+
+    @FXML
+    private void handleStoreDocument() {
+        if (!checkDocumentStore()) {
+            return;
+        }
+        String text = inputTextArea.getText();
+        String previousId = storedDocumentId;
+        // Storing again adds a version of the stored document instead of a copy
+        runInBackground("read document history",
+            progress -> previousId == null ? List.<DocumentVersion>of() : documentStore.history(previousId),
+            history -> storeDocument(text, history.isEmpty() ? null : previousId, history));
+    }
+
+    private void storeDocument(String text, String documentId, List<DocumentVersion> history) {
+        String name;
+        if (documentId == null) {
+            TextInputDialog dialog = new TextInputDialog("input");
+            dialog.setTitle("Store Document");
+            dialog.setHeaderText("Enter a name for the document");
+            name = dialog.showAndWait().orElse(null);
+            if (name == null || name.isBlank()) {
+                return;
             }
+        } else {
+            name = history.get(history.size() - 1).getName();
         }
+        TextDocument document = new TextDocument(name, text);
+        runInBackground("store document", progress -> documentId == null
+                ? documentStore.save(document) : documentStore.saveVersion(documentId, document), version -> {
+            storedDocumentId = version.getDocumentId();
+            updateStatus("Stored " + version.getName() + " as version " + version.getVersion());
+        });
+    }
+
+    @FXML
+    private void handleOpenStoredDocument() {
+        if (!checkDocumentStore()) {
+            return;
+        }
+        runInBackground("list stored documents", progress -> documentStore.list(), this::openStoredDocument);
+    }
+
+    private void openStoredDocument(List<DocumentVersion> documents) {
+        if (documents.isEmpty()) {
+            showAlert("Open Stored Document", "The document store is empty");
+            return;
+        }
+        Map<String, String> idsByLabel = new LinkedHashMap<>();
+        for (DocumentVersion document : documents) {
+            idsByLabel.put(String.format("%s (version %d, %s, %.8s)", document.getName(), document.getVersion(),
+                document.getModifiedAt().withNano(0), document.getDocumentId()), document.getDocumentId());
+        }
+        ChoiceDialog<String> dialog = new ChoiceDialog<>(idsByLabel.keySet().iterator().next(), idsByLabel.keySet());
+        dialog.setTitle("Open Stored Document");
+        dialog.setHeaderText("Select a document");
+        dialog.showAndWait().ifPresent(label -> {
+            String documentId = idsByLabel.get(label);
+            runInBackground("open stored document", progress -> documentStore.load(documentId), document -> {
+                inputTextArea.setText(document.getContent());
+                storedDocumentId = documentId;
+                updateStatus("Opened stored document " + document.getName());
+            });
+        });
     }
 
     @FXML
     private void handleExit() {
+        stopWatching();
+        if (documentStore != null) {
+            documentStore.close();
+        }
         System.exit(0);
     }
 
@@ -116,23 +340,19 @@ public class MainController {
     private void handleProcess() {
         TextDocument document = createDocumentFromInput();
         if (document != null) {
-            try {
-                List<TextDocument> results = textProcessingService.processBatch(List.of(document));
+            runInBackground("process text", progress -> textProcessingService.processBatch(List.of(document)), results -> {
                 if (!results.isEmpty()) {
-                    outputTextArea.setText(results.get(0).getContent());
+                    outputView.setText(results.get(0).getContent());
                     updateStatus("Text processed successfully");
                 }
-            } catch (Exception e) {
-                logger.error("Failed to process text", e);
-                showAlert("Error", "Failed to process text: " + e.getMessage());
-            }
+            });
         }
     }
 
     @FXML
     private void handleClear() {
         inputTextArea.clear();
-        outputTextArea.clear();
+        outputView.clear();
         updateStatus("Cleared");
     }
 
@@ -140,69 +360,210 @@ public class MainController {
     private void handleBatchProcessing() {
         FileChooser fileChooser = new FileChooser();
         fileChooser.setTitle("Select Files for Batch Processing");
-        fileChooser.getExtensionFilters().add(
-            new FileChooser.ExtensionFilter("Text Files", "*.txt")
+        fileChooser.getExtensionFilters().addAll(
+            new FileChooser.ExtensionFilter("Text Files", "*.txt", "*.txt.gz"),
+            new FileChooser.ExtensionFilter("Compressed Text Files", "*.gz")
         );
         
         List<File> files = fileChooser.showOpenMultipleDialog(inputTextArea.getScene().getWindow());
         if (files != null && !files.isEmpty()) {
-            try {
-                List<TextDocument> documents = files.stream()
-                    .map(file -> {
-                        try {
-                            return new TextDocument(
-                                file.getName(),
-                                Files.readString(file.toPath())
-                            );
-                        } catch (IOException e) {
-                            logger.error("Failed to read file: " + file.getName(), e);
-                            return null;
-                        }
-                    })
-                    .filter(doc -> doc != null)
-                    .collect(Collectors.toList());
-
-                batchProcessingService.processBatchWithProgress(documents, new BatchProcessingService.BatchProcessingCallback() {
+            DirectoryChooser directoryChooser = new DirectoryChooser();
+            directoryChooser.setTitle("Select Output Directory (Cancel to Only Show Results)");
+            File outputDirectory = directoryChooser.showDialog(inputTextArea.getScene().getWindow());
+            List<Path> paths = new ArrayList<>(files.size());
+            files.forEach(file -> paths.add(file.toPath()));
+            outputView.clear();
+            runInBackground("process batch", progress -> {
+                // With an output directory the batch is journaled there, so running it again resumes it
+                List<FileResult> results = outputDirectory == null
+                    ? batchFileService.processFiles(paths, null, this::processBatchDocument, batchListener(progress, paths.size()))
+                    : batchFileService.processFiles(paths, outputDirectory.toPath(), this::processBatchDocument,
+                        outputDirectory.toPath().resolve(BATCH_JOURNAL), batchListener(progress, paths.size()));
+                return summarizeBatch(results);
+            }, this::updateStatus);
+        }
+    }
+
+    @FXML
+    private void handleRetryFailedBatchFiles() {
+        DirectoryChooser directoryChooser = new DirectoryChooser();
+        directoryChooser.setTitle("Select Output Directory of the Batch");
+        File outputDirectory = directoryChooser.showDialog(inputTextArea.getScene().getWindow());
+        if (outputDirectory == null) {
+            return;
+        }
+        Path journal = outputDirectory.toPath().resolve(BATCH_JOURNAL);
+        outputView.clear();
+        runInBackground("retry failed batch files", progress -> {
+            int failed = batchFileService.getRetryQueue(journal).size();
+            if (failed == 0) {
+                return "No failed batch files to retry";
+            }
+            return summarizeBatch(batchFileService.retryFailedFiles(journal, outputDirectory.toPath(),
+                this::processBatchDocument, batchListener(progress, failed)));
+        }, this::updateStatus);
+    }
+
+    private TextDocument processBatchDocument(TextDocument document) {
+        return textProcessingService.processBatch(List.of(document)).get(0);
+    }
+
+    /**
+     * Listener reporting batch progress and streaming each result into the view; it runs on I/O and
+     * worker threads, so it only touches thread-safe targets
+     */
+    private BatchFileService.FileResultListener batchListener(TaskRunner.Progress progress, int total) {
+        AtomicInteger completed = new AtomicInteger();
+        return (result, processed) -> {
+            int done = completed.incrementAndGet();
+            progress.update(done, total);
+            progress.message(String.format("Processing %d/%d files", done, total));
+            String fileName = result.getSource().getFileName().toString();
+            if (processed != null) {
+                // Stream each result into the view instead of concatenating the whole batch
+                outputView.append("File: ", fileName, "\n", processed.getContent(), "\n\n");
+            } else {
+                outputView.append("Failed to process ", fileName, ": ",
+                    String.valueOf(result.getError().getMessage()), "\n\n");
+            }
+        };
+    }
+
+    /**
+     * Status line of a finished batch, with the total time spent in each stage
+     */
+    private String summarizeBatch(List<FileResult> results) {
+        long failed = 0;
+        long readNanos = 0;
+        long processNanos = 0;
+        long writeNanos = 0;
+        for (FileResult result : results) {
+            failed += result.isSuccessful() ? 0 : 1;
+            readNanos += result.getReadNanos();
+            processNanos += result.getProcessNanos();
+            writeNanos += result.getWriteNanos();
+        }
+        return String.format("Batch processing completed, %d of %d files failed (read %d ms, process %d ms, write %d ms)",
+            failed, results.size(), readNanos / 1_000_000, processNanos / 1_000_000, writeNanos / 1_000_000);
+    }
+
+    @FXML
+    private void handleWatchDirectory() {
+        if (!watchDirectoryMenuItem.isSelected()) {
+            stopWatching();
+            return;
+        }
+        DirectoryChooser directoryChooser = new DirectoryChooser();
+        directoryChooser.setTitle("Select Directory to Watch");
+        File directory = directoryChooser.showDialog(inputTextArea.getScene().getWindow());
+        if (directory == null) {
+            watchDirectoryMenuItem.setSelected(false);
+            return;
+        }
+        directoryChooser.setTitle("Select Output Directory (Cancel to Only Show Results)");
+        File outputDirectory = directoryChooser.showDialog(inputTextArea.getScene().getWindow());
+        outputView.clear();
+        try {
+            // The listener runs on I/O and worker threads, so it only touches thread-safe targets
+            watchSession = directoryWatchService.watch(directory.toPath(),
+                outputDirectory == null ? null : outputDirectory.toPath(),
+                document -> textProcessingService.processBatch(List.of(document)).get(0),
+                (result, processed) -> {
+                    String fileName = result.getSource().getFileName().toString();
+                    if (processed != null) {
+                        outputView.append("File: ", fileName, "\n", processed.getContent(), "\n\n");
+                    } else {
+                        outputView.append("Failed to process ", fileName, ": ",
+                            String.valueOf(result.getError().getMessage()), "\n\n");
+                    }
+                    DirectoryWatchService.WatchSession session = watchSession;
+                    if (session != null) {
+                        String status = String.format("Watching %s: %d processed, %d failed, %d pending, p99 latency %d ms",
+                            directory.getName(), session.getProcessedCount(), session.getFailedCount(),
+                            session.getPendingCount(), session.getLatencyNanos(0.99) / 1_000_000);
+                        Platform.runLater(() -> statusLabel.setText(status));
+                    }
+                });
+            updateStatus("Watching " + directory + " for files to process");
+        } catch (RuntimeException e) {
+            watchDirectoryMenuItem.setSelected(false);
+            logger.error("Failed to watch directory", e);
+            showAlert("Error", "Failed to watch directory: " + e.getMessage());
+        }
+    }
+
+    private void stopWatching() {
+        DirectoryWatchService.WatchSession session = watchSession;
+        if (session != null) {
+            watchSession = null;
+            session.stop();
+            updateStatus(String.format("Stopped watching %s: %d files processed, %d failed",
+                session.getDirectory().getFileName(), session.getProcessedCount(), session.getFailedCount()));
+        }
+    }
+
+    @FXML
+    private void handleReprocessStoredDocuments() {
+        if (!checkDocumentStore()) {
+            return;
+        }
+        outputView.clear();
+        runInBackground("reprocess stored documents", progress -> {
+            List<String> documentIds = new ArrayList<>();
+            documentStore.list().forEach(document -> documentIds.add(document.getDocumentId()));
+            AtomicInteger failed = new AtomicInteger();
+            documentStore.reprocess(documentIds, document -> textProcessingService.processBatch(List.of(document)).get(0),
+                new BatchProcessingService.BatchProcessingCallback() {
                     @Override
                     public void onProgress(int current, int total) {
-                        updateStatus(String.format("Processing %d/%d files", current, total));
+                        progress.update(current, total);
+                        progress.message(String.format("Reprocessing %d/%d documents", current, total));
+                    }
+
+                    @Override
+                    public void onDocumentProcessed(TextDocument result) {
+                        outputView.append("Document: ", result.getName(), "\n", result.getContent(), "\n\n");
                     }
 
                     @Override
                     public void onComplete(List<TextDocument> results) {
-                        StringBuilder output = new StringBuilder();
-                        for (TextDocument doc : results) {
-                            output.append("File: ").append(doc.getName()).append("\n");
-                            output.append(doc.getContent()).append("\n\n");
-                        }
-                        outputTextArea.setText(output.toString());
-                        updateStatus("Batch processing completed");
                     }
 
                     @Override
-                    public void onError(TextDocument document, Exception e) {
-                        showAlert("Error", "Failed to process " + document.getName() + ": " + e.getMessage());
+                    public void onError(TextDocument document, Exception error) {
+                        failed.incrementAndGet();
+                        outputView.append("Failed to reprocess ", document.getName(), ": ",
+                            String.valueOf(error.getMessage()), "\n\n");
                     }
                 });
-            } catch (Exception e) {
-                logger.error("Failed to process batch", e);
-                showAlert("Error", "Failed to process batch: " + e.getMessage());
-            }
+            return String.format("Reprocessed %d stored documents, %d failed", documentIds.size(), failed.get());
+        }, this::updateStatus);
+    }
+
+    @FXML
+    private void handleCompactDocumentStore() {
+        if (checkDocumentStore()) {
+            runInBackground("compact document store", progress -> documentStore.compact(STORE_MAX_VERSIONS),
+                reclaimed -> updateStatus(String.format("Document store compacted, %d KB reclaimed", reclaimed / 1024)));
         }
     }
 
+    private boolean checkDocumentStore() {
+        if (documentStore == null) {
+            showAlert("Document Store", "The document store could not be opened; see the log for details");
+            return false;
+        }
+        return true;
+    }
+
     @FXML
     private void handleFormatJSON() {
         TextDocument document = createDocumentFromInput();
         if (document != null) {
-            try {
-                TextDocument formatted = textFormattingService.formatJSON(document);
-                outputTextArea.setText(formatted.getContent());
+            runInBackground("format JSON", progress -> textFormattingService.formatJSON(document).getContent(), content -> {
+                outputView.setText(content);
                 updateStatus("JSON formatted");
-            } catch (Exception e) {
-                logger.error("Failed to format JSON", e);
-                showAlert("Error", "Failed to format JSON: " + e.getMessage());
-            }
+            });
         }
     }
 
@@ -210,14 +571,10 @@ public class MainController {
     private void handleFormatXML() {
         TextDocument document = createDocumentFromInput();
         if (document != null) {
-            try {
-                TextDocument formatted = textFormattingService.formatXML(document);
-                outputTextArea.setText(formatted.getContent());
+            runInBackground("format XML", progress -> textFormattingService.formatXML(document).getContent(), content -> {
+                outputView.setText(content);
                 updateStatus("XML formatted");
-            } catch (Exception e) {
-                logger.error("Failed to format XML", e);
-                showAlert("Error", "Failed to format XML: " + e.getMessage());
-            }
+            });
         }
     }
 
@@ -225,14 +582,10 @@ public class MainController {
     private void handleFormatSQL() {
         TextDocument document = createDocumentFromInput();
         if (document != null) {
-            try {
-                TextDocument formatted = textFormattingService.formatSQL(document);
-                outputTextArea.setText(formatted.getContent());
+            runInBackground("format SQL", progress -> textFormattingService.formatSQL(document).getContent(), content -> {
+                outputView.setText(content);
                 updateStatus("SQL formatted");
-            } catch (Exception e) {
-                logger.error("Failed to format SQL", e);
-                showAlert("Error", "Failed to format SQL: " + e.getMessage());
-            }
+            });
         }
     }
 
@@ -246,15 +599,57 @@ public class MainController {
         dialog.showAndWait().ifPresent(language -> {
             TextDocument document = createDocumentFromInput();
             if (document != null) {
-                try {
-                    TextDocument formatted = textFormattingService.formatCode(document, language);
-                    outputTextArea.setText(formatted.getContent());
-                    updateStatus(language + " code formatted");
-                } catch (Exception e) {
-                    logger.error("Failed to format code", e);
-                    showAlert("Error", "Failed to format code: " + e.getMessage());
-                }
+                runInBackground("format code", progress -> textFormattingService.formatCode(document, language).getContent(),
+                    content -> {
+                        outputView.setText(content);
+                        updateStatus(language + " code formatted");
+                    });
+            }
+        });
+    }
+
+    private void initializeFindIndex() {
+        // Edits only bump the version; the index is rebuilt once typing pauses, and only after a find
+        // on a large text asked for it
+        findIndexRebuild.setOnFinished(event -> buildFindIndex());
+        inputTextArea.textProperty().addListener((observable, oldText, newText) -> {
+            inputVersion++;
+            findIndex = null;
+            if (findIndexWanted) {
+                findIndexRebuild.playFromStart();
+            }
+        });
+    }
+
+    private void buildFindIndex() {
+        if (findIndexBuilding) {
+            // The build in progress starts another one when it finds its text outdated
+            return;
+        }
+        String input = inputTextArea.getText();
+        long version = inputVersion;
+        if (input.length() < FIND_INDEX_MIN_LENGTH) {
+            findIndex = null;
+            return;
+        }
+        findIndexBuilding = true;
+        taskRunner.getExecutor().execute(() -> {
+            SubstringIndexService.SubstringIndex index = null;
+            try {
+                index = substringIndexService.buildIndex(new TextDocument("input", input));
+            } catch (RuntimeException e) {
+                logger.warn("Failed to build find index: {}", e.getMessage());
             }
+            SubstringIndexService.SubstringIndex built = index;
+            Platform.runLater(() -> {
+                findIndexBuilding = false;
+                if (version == inputVersion) {
+                    findIndex = built;
+                    findIndexVersion = version;
+                } else if (!findIndexRebuild.getStatus().equals(Animation.Status.RUNNING)) {
+                    buildFindIndex();
+                }
+            });
         });
     }
 
@@ -266,17 +661,69 @@ public class MainController {
         dialog.setContentText("Text:");
 
         dialog.showAndWait().ifPresent(text -> {
+            if (text.isEmpty()) {
+                showAlert("Error", "Please enter some text to find");
+                return;
+            }
             String input = inputTextArea.getText();
-            int index = input.indexOf(text);
-            if (index >= 0) {
-                outputTextArea.setText("Found at position: " + index);
-                inputTextArea.selectRange(index, index + text.length());
-            } else {
-                outputTextArea.setText("Text not found");
+            SubstringIndexService.SubstringIndex index = findIndexVersion == inputVersion ? findIndex : null;
+            if (index == null && input.length() >= FIND_INDEX_MIN_LENGTH) {
+                // Searched directly this time; later finds use the index once it is built
+                findIndexWanted = true;
+                buildFindIndex();
             }
+            runInBackground("find text", progress -> index != null ? locate(index, text) : scan(input, text),
+                    result -> showFindResults(text, result));
         });
     }
 
+    /**
+     * Count the occurrences of a text and collect the offsets of the first ones with an index; pages of
+     * the index are not in text order, so more occurrences than are shown are all located
+     */
+    private static FindResult locate(SubstringIndexService.SubstringIndex index, String text) {
+        int count = index.count(text);
+        if (count <= MAX_REPORTED_POSITIONS) {
+            return new FindResult(count, index.locate(text, 0, MAX_REPORTED_POSITIONS));
+        }
+        return new FindResult(count, Arrays.copyOf(index.locate(text), MAX_REPORTED_POSITIONS));
+    }
+
+    /**
+     * Count the occurrences of a text and collect the offsets of the first ones, without an index
+     */
+    private static FindResult scan(String input, String text) {
+        int[] positions = new int[MAX_REPORTED_POSITIONS];
+        int count = 0;
+        for (int position = input.indexOf(text); position >= 0; position = input.indexOf(text, position + 1)) {
+            if (count < positions.length) {
+                positions[count] = position;
+            }
+            count++;
+            if ((count & 0xFFF) == 0) {
+                Cancellation.checkpoint();
+            }
+        }
+        return new FindResult(count, Arrays.copyOf(positions, Math.min(count, positions.length)));
+    }
+
+    private void showFindResults(String text, FindResult result) {
+        int[] positions = result.positions;
+        if (positions.length > 0) {
+            StringBuilder output = new StringBuilder("Found ").append(result.count).append(" occurrences at positions:\n");
+            for (int position : positions) {
+                output.append(position).append("\n");
+            }
+            if (result.count > positions.length) {
+                output.append("... ").append(result.count - positions.length).append(" more\n");
+            }
+            outputView.setText(output.toString());
+            inputTextArea.selectRange(positions[0], positions[0] + text.length());
+        } else {
+            outputView.setText("Text not found");
+        }
+    }
+
     @FXML
     private void handleReplace() {
         Dialog<Pair<String, String>> dialog = new Dialog<>();
@@ -312,9 +759,10 @@ public class MainController {
             String find = result.getKey();
             String replace = result.getValue();
             String input = inputTextArea.getText();
-            String output = input.replace(find, replace);
-            inputTextArea.setText(output);
-            updateStatus("Text replaced");
+            runInBackground("replace text", progress -> input.replace(find, replace), output -> {
+                inputTextArea.setText(output);
+                updateStatus("Text replaced");
+            });
         });
     }
 
@@ -352,14 +800,11 @@ public class MainController {
         dialog.showAndWait().ifPresent(mode -> {
             TextDocument document = createDocumentFromInput();
             if (document != null) {
-                try {
-                    TextDocument converted = textFormattingService.convertCase(document, mode);
-                    outputTextArea.setText(converted.getContent());
-                    updateStatus("Case converted to " + mode);
-                } catch (Exception e) {
-                    logger.error("Failed to convert case", e);
-                    showAlert("Error", "Failed to convert case: " + e.getMessage());
-                }
+                runInBackground("convert case", progress -> textFormattingService.convertCase(document, mode).getContent(),
+                    content -> {
+                        outputView.setText(content);
+                        updateStatus("Case converted to " + mode);
+                    });
             }
         });
     }
@@ -368,21 +813,61 @@ public class MainController {
     private void handleWordFrequency() {
         TextDocument document = createDocumentFromInput();
         if (document != null) {
-            try {
-                Map<String, Long> frequencies = textProcessingService.analyzeWordFrequency(document);
-                StringBuilder output = new StringBuilder("Word Frequency Analysis:\n\n");
-                frequencies.entrySet().stream()
-                    .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
-                    .forEach(entry -> output.append(entry.getKey())
+            runInBackground("analyze word frequency", progress -> {
+                // The sketch has a fixed size, so high-cardinality text never builds a full frequency map
+                WordFrequencySketch sketch = wordFrequencySketchService.sketch(document);
+                StringBuilder output = new StringBuilder("Word Frequency Analysis:\n\n")
+                    .append("Total words: ").append(sketch.getTotalWords()).append("\n")
+                    .append("Distinct words (estimated): ").append(sketch.estimateDistinctWords()).append("\n\n")
+                    .append("Top ").append(WORD_FREQUENCY_TOP_K).append(" words:\n");
+                for (WordCount entry : sketch.getTopWords(WORD_FREQUENCY_TOP_K)) {
+                    output.append(entry.getWord())
                         .append(": ")
-                        .append(entry.getValue())
-                        .append("\n"));
-                outputTextArea.setText(output.toString());
+                        .append(entry.getCount());
+                    if (entry.getError() > 0) {
+                        output.append(" (±").append(entry.getError()).append(")");
+                    }
+                    output.append("\n");
+                }
+                return output.toString();
+            }, output -> {
+                outputView.setText(output);
                 updateStatus("Word frequency analysis completed");
-            } catch (Exception e) {
-                logger.error("Failed to analyze word frequency", e);
-                showAlert("Error", "Failed to analyze word frequency: " + e.getMessage());
-            }
+            });
+        }
+    }
+
+    @FXML
+    private void handleCollocations() {
+        TextDocument document = createDocumentFromInput();
+        if (document != null) {
+            runInBackground("analyze collocations", progress -> {
+                NGramCounts counts = nGramService.countNGrams(List.of(document));
+                StringBuilder output = new StringBuilder("Collocation Analysis:\n\n");
+                for (int order = 2; order <= counts.getMaxOrder(); order++) {
+                    output.append("Top ").append(order == 2 ? "bigrams" : "trigrams").append(":\n");
+                    for (Map.Entry<String, Long> entry : counts.top(order, NGRAM_TOP_K)) {
+                        output.append(entry.getKey()).append(": ").append(entry.getValue()).append("\n");
+                    }
+                    output.append("\n");
+                }
+                if (counts.getOutOfVocabularyTokens() > 0 || counts.getUncountedTrigrams() > 0) {
+                    output.append(String.format("Memory limits: %d tokens out of vocabulary, %d trigrams uncounted%n%n",
+                        counts.getOutOfVocabularyTokens(), counts.getUncountedTrigrams()));
+                }
+                output.append("Collocations (log-likelihood):\n");
+                for (Collocation collocation : nGramService.findCollocations(counts, COLLOCATION_MIN_COUNT, NGRAM_TOP_K)) {
+                    output.append(collocation.getFirstWord()).append(' ').append(collocation.getSecondWord())
+                        .append(": ").append(collocation.getCount())
+                        .append(String.format(" (llr %.2f, pmi %.2f)", collocation.getLogLikelihood(),
+                            collocation.getPointwiseMutualInformation()))
+                        .append("\n");
+                }
+                return output.toString();
+            }, output -> {
+                outputView.setText(output);
+                updateStatus("Collocation analysis completed");
+            });
         }
     }
 
@@ -420,21 +905,19 @@ public class MainController {
         dialog.showAndWait().ifPresent(result -> {
             TextDocument document = createDocumentFromInput();
             if (document != null) {
-                try {
-                    String startPattern = result.getKey();
-                    String endPattern = result.getValue();
-                    boolean isValid = textProcessingService.isValidRegexPattern(startPattern) && 
-                                   textProcessingService.isValidRegexPattern(endPattern);
-                    if (isValid) {
-                        List<String> extracted = textProcessingService.extractBetweenPatterns(document, startPattern, endPattern);
-                        outputTextArea.setText(String.join("\n\n", extracted));
-                        updateStatus("Pattern extracted successfully");
-                    } else {
-                        showAlert("Error", "Invalid pattern");
-                    }
-                } catch (Exception e) {
-                    logger.error("Failed to extract pattern", e);
-                    showAlert("Error", "Failed to extract pattern: " + e.getMessage());
+                String startPattern = result.getKey();
+                String endPattern = result.getValue();
+                boolean isValid = textProcessingService.isValidRegexPattern(startPattern) && 
+                               textProcessingService.isValidRegexPattern(endPattern);
+                if (isValid) {
+                    runInBackground("extract pattern",
+                        progress -> String.join("\n\n", textProcessingService.extractBetweenPatterns(document, startPattern, endPattern)),
+                        extracted -> {
+                            outputView.setText(extracted);
+                            updateStatus("Pattern extracted successfully");
+                        });
+                } else {
+                    showAlert("Error", "Invalid pattern");
                 }
             }
         });
@@ -444,14 +927,34 @@ public class MainController {
     private void handleTextStatistics() {
         TextDocument document = createDocumentFromInput();
         if (document != null) {
-            try {
-                Map<String, Object> stats = textProcessingService.getTextStatistics(document);
-                outputTextArea.setText(formatStatistics(stats));
-                updateStatus("Text statistics generated");
-            } catch (Exception e) {
-                logger.error("Failed to generate text statistics", e);
-                showAlert("Error", "Failed to generate text statistics: " + e.getMessage());
-            }
+            // The single-pass analysis service produces the same statistics and can be cancelled mid-scan
+            runInBackground("generate text statistics",
+                progress -> formatStatistics(textAnalysisService.getTextStatistics(document)), output -> {
+                    outputView.setText(output);
+                    updateStatus("Text statistics generated");
+                });
+        }
+    }
+
+    @FXML
+    private void handleReadabilityAnalysis() {
+        TextDocument document = createDocumentFromInput();
+        if (document != null) {
+            runInBackground("analyze readability", progress -> {
+                StringBuilder output = new StringBuilder("Readability:\n\n");
+                new TreeMap<>(textAnalysisService.analyzeReadability(document)).forEach((key, value) ->
+                        output.append(key).append(": ").append(String.format("%.2f", value)).append("\n"));
+                output.append("\nSentence Structure:\n\n");
+                new TreeMap<>(textAnalysisService.analyzeSentenceStructure(document)).forEach((key, value) ->
+                        output.append(key).append(": ").append(value).append("\n"));
+                output.append("\nLanguage Patterns:\n\n");
+                new TreeMap<>(textAnalysisService.analyzeLanguagePatterns(document)).forEach((key, value) ->
+                        output.append(key).append(": ").append(value).append("\n"));
+                return output.toString();
+            }, output -> {
+                outputView.setText(output);
+                updateStatus("Readability analysis completed");
+            });
         }
     }
 
@@ -463,29 +966,127 @@ public class MainController {
         dialog.setContentText("Sentences:");
 
         dialog.showAndWait().ifPresent(sentences -> {
+            int maxSentences;
             try {
-                int maxSentences = Integer.parseInt(sentences);
-                TextDocument document = createDocumentFromInput();
-                if (document != null) {
-                    String summary = textProcessingService.generateSummary(document, maxSentences);
-                    outputTextArea.setText(summary);
-                    updateStatus("Summary generated");
-                }
+                maxSentences = Integer.parseInt(sentences);
             } catch (NumberFormatException e) {
                 showAlert("Error", "Please enter a valid number");
-            } catch (Exception e) {
-                logger.error("Failed to generate summary", e);
-                showAlert("Error", "Failed to generate summary: " + e.getMessage());
+                return;
+            }
+            TextDocument document = createDocumentFromInput();
+            if (document != null) {
+                runInBackground("generate summary", progress -> textProcessingService.generateSummary(document, maxSentences),
+                    summary -> {
+                        outputView.setText(summary);
+                        updateStatus("Summary generated");
+                    });
             }
         });
     }
 
+    @FXML
+    private void handleLiveStatistics() {
+        liveStatisticsEnabled = liveStatisticsMenuItem.isSelected();
+        if (liveStatisticsEnabled) {
+            inputTextArea.textProperty().addListener(liveStatisticsListener);
+            updateLiveStatistics(inputTextArea.getText());
+        } else {
+            inputTextArea.textProperty().removeListener(liveStatisticsListener);
+            taskRunner.getExecutor().execute(this::releaseLiveStatistics);
+            liveStatisticsLabel.setText("");
+        }
+    }
+
+    private void updateLiveStatistics(String text) {
+        // Typing only records the latest text; one background pass at a time catches up with it
+        if (pendingLiveText.getAndSet(text) == null) {
+            taskRunner.getExecutor().execute(this::refreshLiveStatistics);
+        }
+    }
+
+    private void refreshLiveStatistics() {
+        String text = pendingLiveText.get();
+        while (true) {
+            Map<String, Object> stats;
+            synchronized (liveStatisticsLock) {
+                // Checked under the lock, so a pass never recreates the state a release dropped
+                if (!liveStatisticsEnabled) {
+                    break;
+                }
+                // Only the chunks around the edit are rescanned
+                liveDocument.setContent(text);
+                stats = incrementalAnalysisService.getTextStatistics(liveDocument);
+            }
+            String summary = String.format("Words: %d  Sentences: %d  Paragraphs: %d  Characters: %d",
+                    stats.get("totalWords"), stats.get("totalSentences"), stats.get("totalParagraphs"),
+                    stats.get("totalCharacters"));
+            Platform.runLater(() -> {
+                if (liveStatisticsEnabled) {
+                    liveStatisticsLabel.setText(summary);
+                }
+            });
+            if (pendingLiveText.compareAndSet(text, null)) {
+                return;
+            }
+            text = pendingLiveText.get();
+        }
+        pendingLiveText.set(null);
+    }
+
+    private void releaseLiveStatistics() {
+        synchronized (liveStatisticsLock) {
+            if (!liveStatisticsEnabled) {
+                incrementalAnalysisService.release(liveDocument.getId());
+            }
+        }
+    }
+
     private String formatStatistics(Map<String, Object> stats) {
         StringBuilder output = new StringBuilder("Text Statistics:\n\n");
         stats.forEach((key, value) -> output.append(key).append(": ").append(value).append("\n"));
         return output.toString();
     }
 
+    @FXML
+    private void handleOperationMetrics() {
+        if (!metricsRegistry.isEnabled()) {
+            showAlert("Operation Metrics", "Metrics are disabled by -D" + MetricsRegistry.ENABLED_PROPERTY + "=false");
+            return;
+        }
+        outputView.setText(metricsRegistry.snapshot().toTable());
+        updateStatus("Operation metrics shown");
+    }
+
+    @FXML
+    private void handleCancelTask() {
+        taskRunner.cancelAll();
+        updateStatus("Cancelled");
+    }
+
+    /**
+     * Occurrence count of a find and the offsets of the occurrences shown
+     */
+    private static final class FindResult {
+        final int count;
+        final int[] positions;
+
+        FindResult(int count, int[] positions) {
+            this.count = count;
+            this.positions = positions;
+        }
+    }
+
+    /**
+     * Run work off the FX thread and show its result on it; a failure is reported as "Failed to {action}"
+     */
+    private <T> void runInBackground(String action, TaskRunner.Work<T> work, Consumer<T> onSuccess) {
+        updateStatus(Character.toUpperCase(action.charAt(0)) + action.substring(1) + "...");
+        taskRunner.submit(action, work, onSuccess, error -> {
+            logger.error("Failed to " + action, error);
+            showAlert("Error", "Failed to " + action + ": " + error.getMessage());
+        });
+    }
+
     private TextDocument createDocumentFromInput() {
         String text = inputTextArea.getText();
         if (text.isEmpty()) {
@@ -1,11 +1,15 @@
 package com.dataflow.textprocessing.controller;
 
+import com.dataflow.textprocessing.model.CompiledReplacement;
+import com.dataflow.textprocessing.util.Cancellation;
 import javafx.fxml.FXML;
 import javafx.scene.control.*;
 import javafx.scene.layout.VBox;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.function.Function;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
@@ -24,6 +28,8 @@ public class RegexPanelController {
     @FXML
     private VBox regexPanel;
 
+    private TaskRunner taskRunner;
+
     @FXML
     public void initialize() {
         logger.info("Initializing RegexPanelController");
@@ -55,24 +61,24 @@ public class RegexPanelController {
 
         try {
             Pattern compiledPattern = Pattern.compile(pattern);
-            String text = resultArea.getText();
-            java.util.regex.Matcher matcher = compiledPattern.matcher(text);
-            
-            StringBuilder results = new StringBuilder();
-            int count = 0;
-            while (matcher.find()) {
-                count++;
-                results.append("Match ").append(count).append(": ")
-                      .append(matcher.group())
-                      .append(" (at position ").append(matcher.start())
-                      .append(")\n");
-            }
-            
-            if (count == 0) {
-                results.append("No matches found.");
-            }
-            
-            resultArea.setText(results.toString());
+            runOnText("find matches", text -> {
+                Matcher matcher = compiledPattern.matcher(Cancellation.interruptible(text));
+                
+                StringBuilder results = new StringBuilder();
+                int count = 0;
+                while (matcher.find()) {
+                    count++;
+                    results.append("Match ").append(count).append(": ")
+                          .append(matcher.group())
+                          .append(" (at position ").append(matcher.start())
+                          .append(")\n");
+                }
+                
+                if (count == 0) {
+                    results.append("No matches found.");
+                }
+                return results.toString();
+            });
         } catch (PatternSyntaxException e) {
             showAlert("Error", "Invalid pattern: " + e.getMessage());
         }
@@ -89,12 +95,13 @@ public class RegexPanelController {
         }
 
         try {
-            Pattern compiledPattern = Pattern.compile(pattern);
-            String text = resultArea.getText();
-            String result = compiledPattern.matcher(text).replaceAll(replacement);
-            resultArea.setText(result);
+            CompiledReplacement compiled = CompiledReplacement.compile(pattern, replacement);
+            runOnText("replace matches", text -> compiled.replace(Cancellation.interruptible(text)));
         } catch (PatternSyntaxException e) {
             showAlert("Error", "Invalid pattern: " + e.getMessage());
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            // Without a task runner, an invalid template fails here at the first match
+            showAlert("Error", "Invalid replacement: " + e.getMessage());
         }
     }
 
@@ -108,23 +115,23 @@ public class RegexPanelController {
 
         try {
             Pattern compiledPattern = Pattern.compile(pattern);
-            String text = resultArea.getText();
-            java.util.regex.Matcher matcher = compiledPattern.matcher(text);
-            
-            StringBuilder results = new StringBuilder();
-            int count = 0;
-            while (matcher.find()) {
-                count++;
-                results.append("Extracted ").append(count).append(": ")
-                      .append(matcher.group())
-                      .append("\n");
-            }
-            
-            if (count == 0) {
-                results.append("No matches found.");
-            }
-            
-            resultArea.setText(results.toString());
+            runOnText("extract matches", text -> {
+                Matcher matcher = compiledPattern.matcher(Cancellation.interruptible(text));
+                
+                StringBuilder results = new StringBuilder();
+                int count = 0;
+                while (matcher.find()) {
+                    count++;
+                    results.append("Extracted ").append(count).append(": ")
+                          .append(matcher.group())
+                          .append("\n");
+                }
+                
+                if (count == 0) {
+                    results.append("No matches found.");
+                }
+                return results.toString();
+            });
         } catch (PatternSyntaxException e) {
             showAlert("Error", "Invalid pattern: " + e.getMessage());
         }
@@ -150,6 +157,22 @@ public class RegexPanelController {
         patternField.setText("\\b\\d{4}-\\d{2}-\\d{2}\\b");
     }
 
+    /**
+     * Transform the panel text in the background and show the result; without a task runner the
+     * transformation runs right away
+     */
+    private void runOnText(String action, Function<String, String> transformation) {
+        String text = resultArea.getText();
+        if (taskRunner == null) {
+            resultArea.setText(transformation.apply(text));
+            return;
+        }
+        taskRunner.submit(action, progress -> transformation.apply(text), resultArea::setText, error -> {
+            logger.error("Failed to " + action, error);
+            showAlert("Error", "Failed to " + action + ": " + error.getMessage());
+        });
+    }
+
     private void showAlert(String title, String content) {
         Alert alert = new Alert(Alert.AlertType.INFORMATION);
         alert.setTitle(title);
@@ -158,6 +181,13 @@ public class RegexPanelController {
         alert.showAndWait();
     }
 
+    /**
+     * Run pattern operations on the given runner instead of the FX thread
+     */
+    public void setTaskRunner(TaskRunner taskRunner) {
+        this.taskRunner = taskRunner;
+    }
+
     public void setText(String text) {
         resultArea.setText(text);
     }
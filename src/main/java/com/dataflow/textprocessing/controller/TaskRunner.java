@@ -0,0 +1,165 @@
+package com.dataflow.textprocessing.controller;
+
+import javafx.beans.property.ReadOnlyObjectProperty;
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.concurrent.Task;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Runs controller work as JavaFX tasks on a shared pool of background threads, so the FX thread only
+ * starts work and shows its results. Cancelling a task interrupts its thread, which the services turn
+ * into a {@link java.util.concurrent.CancellationException} at their next checkpoint. Progress and
+ * messages go through {@link Task}, which coalesces them into one FX update per pulse. All methods
+ * except {@link #getExecutor()} and {@link #getQueueDepth()} must be called on the FX thread.
+ */
+public class TaskRunner {
+    private static final Logger logger = LoggerFactory.getLogger(TaskRunner.class);
+
+    private final ThreadPoolExecutor executor;
+    private final ObservableList<Task<?>> runningTasks = FXCollections.observableArrayList();
+    private final ReadOnlyObjectWrapper<Task<?>> currentTask = new ReadOnlyObjectWrapper<>();
+
+    public TaskRunner() {
+        this(Math.max(2, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * @param threads Number of background threads
+     */
+    public TaskRunner(int threads) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "task-runner-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Start work in the background
+     * @param title Short description shown while the work runs
+     * @param work The work; runs on a background thread
+     * @param onSuccess Receives the result on the FX thread
+     * @param onFailure Receives the error on the FX thread; not called when the task was cancelled
+     * @return The running task
+     */
+    public <T> Task<T> submit(String title, Work<T> work, Consumer<T> onSuccess, Consumer<Throwable> onFailure) {
+        WorkTask<T> task = new WorkTask<>(title, work);
+        task.setOnSucceeded(event -> {
+            finished(task);
+            onSuccess.accept(task.getValue());
+        });
+        task.setOnFailed(event -> {
+            finished(task);
+            onFailure.accept(task.getException());
+        });
+        task.setOnCancelled(event -> {
+            finished(task);
+            logger.info("Cancelled: {}", title);
+        });
+        runningTasks.add(task);
+        currentTask.set(task);
+        executor.execute(task);
+        return task;
+    }
+
+    /**
+     * Cancel all running tasks
+     */
+    public void cancelAll() {
+        for (Task<?> task : new ArrayList<>(runningTasks)) {
+            task.cancel();
+        }
+    }
+
+    /**
+     * Tasks started and not yet finished
+     */
+    public ObservableList<Task<?>> getRunningTasks() {
+        return FXCollections.unmodifiableObservableList(runningTasks);
+    }
+
+    /**
+     * The most recently started task still running, or null
+     */
+    public ReadOnlyObjectProperty<Task<?>> currentTaskProperty() {
+        return currentTask.getReadOnlyProperty();
+    }
+
+    /**
+     * Executor for background work that is not shown as a task; safe to use from any thread
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Number of tasks and other work waiting for a background thread; safe to call from any thread
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public void shutdown() {
+        cancelAll();
+        executor.shutdownNow();
+    }
+
+    private void finished(Task<?> task) {
+        runningTasks.remove(task);
+        if (currentTask.get() == task) {
+            currentTask.set(runningTasks.isEmpty() ? null : runningTasks.get(runningTasks.size() - 1));
+        }
+    }
+
+    /**
+     * Work run by a task
+     */
+    @FunctionalInterface
+    public interface Work<T> {
+        T run(Progress progress) throws Exception;
+    }
+
+    /**
+     * Progress reporting for running work; safe to call as often as convenient
+     */
+    public interface Progress {
+        void update(long done, long total);
+
+        void message(String message);
+    }
+
+    private static final class WorkTask<T> extends Task<T> implements Progress {
+        private final Work<T> work;
+
+        WorkTask(String title, Work<T> work) {
+            this.work = work;
+            updateTitle(title);
+        }
+
+        @Override
+        protected T call() throws Exception {
+            return work.run(this);
+        }
+
+        @Override
+        public void update(long done, long total) {
+            updateProgress(done, total);
+        }
+
+        @Override
+        public void message(String message) {
+            updateMessage(message);
+        }
+    }
+}
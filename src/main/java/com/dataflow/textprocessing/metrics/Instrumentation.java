@@ -0,0 +1,156 @@
+package com.dataflow.textprocessing.metrics;
+
+import com.dataflow.textprocessing.model.DocumentBatch;
+import com.dataflow.textprocessing.model.TextDocument;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Wraps service interfaces so every call is timed into a {@link MetricsRegistry} and reported as an
+ * {@link OperationEvent} to the flight recorder. The wrapper measures latency, the characters of
+ * documents and text passed in, and, where the JVM supports it, the bytes allocated by the calling
+ * thread. With the registry disabled and no recording running a call costs one reflective dispatch
+ * and two flag checks.
+ */
+public final class Instrumentation {
+    private static final com.sun.management.ThreadMXBean THREADS = allocationCountingThreads();
+
+    private Instrumentation() {
+        // Private constructor to prevent instantiation
+    }
+
+    /**
+     * Wrap a service; the wrapper has identity equality and is not recorded for methods inherited from
+     * {@link Object}
+     * @param serviceInterface Interface to record the methods of; operations are named
+     *                         {@code Interface.method}
+     * @param service Implementation receiving the calls
+     * @param registry Registry receiving the statistics
+     * @return The instrumented service
+     */
+    public static <T> T instrument(Class<T> serviceInterface, T service, MetricsRegistry registry) {
+        Map<Method, MetricsRegistry.OperationRecorder> recorders = new HashMap<>();
+        for (Method method : serviceInterface.getMethods()) {
+            recorders.put(method, registry.operation(serviceInterface.getSimpleName() + "." + method.getName()));
+        }
+        InvocationHandler handler = new RecordingHandler(service, registry, recorders);
+        return serviceInterface.cast(Proxy.newProxyInstance(serviceInterface.getClassLoader(),
+                new Class<?>[] {serviceInterface}, handler));
+    }
+
+    private static com.sun.management.ThreadMXBean allocationCountingThreads() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+                return threads;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Characters of document content and text in the arguments; streams and other arguments count as 0.
+     * Only lengths are read, so a batch is counted without copying any content out of it.
+     */
+    static long inputChars(Object[] args) {
+        if (args == null) {
+            return 0;
+        }
+        long chars = 0;
+        for (Object arg : args) {
+            if (arg instanceof TextDocument) {
+                chars += ((TextDocument) arg).getContentLength();
+            } else if (arg instanceof CharSequence) {
+                chars += ((CharSequence) arg).length();
+            } else if (arg instanceof DocumentBatch) {
+                chars += ((DocumentBatch) arg).getTotalContentLength();
+            } else if (arg instanceof Collection) {
+                for (Object element : (Collection<?>) arg) {
+                    if (element instanceof TextDocument) {
+                        chars += ((TextDocument) element).getContentLength();
+                    } else if (element instanceof CharSequence) {
+                        chars += ((CharSequence) element).length();
+                    }
+                }
+            }
+        }
+        return chars;
+    }
+
+    private static final class RecordingHandler implements InvocationHandler {
+        private final Object service;
+        private final MetricsRegistry registry;
+        private final Map<Method, MetricsRegistry.OperationRecorder> recorders;
+
+        RecordingHandler(Object service, MetricsRegistry registry,
+                         Map<Method, MetricsRegistry.OperationRecorder> recorders) {
+            this.service = service;
+            this.registry = registry;
+            this.recorders = recorders;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            MetricsRegistry.OperationRecorder recorder = recorders.get(method);
+            if (recorder == null) {
+                return invokeObjectMethod(proxy, method, args);
+            }
+            OperationEvent event = new OperationEvent();
+            boolean recording = registry.isEnabled();
+            if (!recording && !event.isEnabled()) {
+                return call(method, args);
+            }
+            long chars = inputChars(args);
+            long allocatedBefore = recording && THREADS != null ? THREADS.getCurrentThreadAllocatedBytes() : 0;
+            boolean failed = true;
+            event.begin();
+            long start = System.nanoTime();
+            try {
+                Object result = call(method, args);
+                failed = false;
+                return result;
+            } finally {
+                long nanos = System.nanoTime() - start;
+                event.end();
+                if (recording) {
+                    long allocated = THREADS != null ? THREADS.getCurrentThreadAllocatedBytes() - allocatedBefore : 0;
+                    recorder.record(nanos, chars, allocated, failed);
+                }
+                if (event.shouldCommit()) {
+                    event.operation = recorder.getName();
+                    event.inputChars = chars;
+                    event.failed = failed;
+                    event.commit();
+                }
+            }
+        }
+
+        private Object invokeObjectMethod(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Instrumented " + service;
+                default:
+                    return call(method, args);
+            }
+        }
+
+        private Object call(Method method, Object[] args) throws Throwable {
+            try {
+                return method.invoke(service, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
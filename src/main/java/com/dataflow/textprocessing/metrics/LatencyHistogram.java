@@ -0,0 +1,102 @@
+package com.dataflow.textprocessing.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of non-negative long values with bounded relative error, laid out like an
+ * HdrHistogram: values below 32 get one bucket each, and every further power of two is split into
+ * 32 equal buckets, so any recorded value is reported within about 3% of its true value. The whole
+ * long range fits in 1888 buckets, recording is one atomic increment, and no value is ever dropped
+ * or clamped.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_MASK = SUB_BUCKET_COUNT - 1;
+    private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record one value
+     * @param value The value; negative values are recorded as 0
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.getAndIncrement(bucketIndex(value));
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // Retry until the maximum is at least this value
+        }
+    }
+
+    /**
+     * Largest value recorded, exact
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Copy the bucket counts; recording may continue concurrently
+     */
+    public long[] counts() {
+        long[] copy = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            copy[i] = counts.get(i);
+        }
+        return copy;
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts.set(i, 0);
+        }
+        max.set(0);
+    }
+
+    /**
+     * Value at a quantile of bucket counts taken from {@link #counts()}
+     * @param counts Bucket counts
+     * @param total Sum of the counts
+     * @param quantile Quantile between 0 and 1
+     * @return The largest value equivalent to the bucket holding the quantile, or 0 if nothing was recorded
+     */
+    public static long valueAtQuantile(long[] counts, long total, double quantile) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return highestEquivalentValue(i);
+            }
+        }
+        return highestEquivalentValue(counts.length - 1);
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int shift = magnitude - SUB_BUCKET_BITS;
+        return ((shift + 1) << SUB_BUCKET_BITS) + (int) ((value >>> shift) & SUB_BUCKET_MASK);
+    }
+
+    static long highestEquivalentValue(int index) {
+        int group = index >>> SUB_BUCKET_BITS;
+        long subBucket = index & SUB_BUCKET_MASK;
+        if (group == 0) {
+            return subBucket;
+        }
+        long lowest = (SUB_BUCKET_COUNT + subBucket) << (group - 1);
+        return lowest + (1L << (group - 1)) - 1;
+    }
+}
@@ -0,0 +1,217 @@
+package com.dataflow.textprocessing.metrics;
+
+import com.dataflow.textprocessing.exception.TextProcessingException;
+import com.dataflow.textprocessing.util.CompressedFiles;
+import jdk.jfr.FlightRecorder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * In-process registry of operation latencies and gauges. Services are recorded through
+ * {@link Instrumentation}; recording costs a few atomic increments per call and never locks. A
+ * disabled registry records nothing, so instrumented calls only pay for the check. Gauges are read
+ * when a snapshot is taken and sampled into {@link QueueDepthEvent}s while a flight recording runs.
+ */
+public final class MetricsRegistry {
+    private static final Logger logger = LoggerFactory.getLogger(MetricsRegistry.class);
+
+    /**
+     * System property turning the registry off when set to {@code false}
+     */
+    public static final String ENABLED_PROPERTY = "textprocessing.metrics";
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final Map<String, OperationRecorder> operations = new ConcurrentHashMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    private volatile boolean enabled;
+    private boolean gaugeEventsRegistered;
+
+    /**
+     * Create a registry enabled unless {@value #ENABLED_PROPERTY} is {@code false}
+     */
+    public MetricsRegistry() {
+        this(Boolean.parseBoolean(System.getProperty(ENABLED_PROPERTY, "true")));
+    }
+
+    public MetricsRegistry(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Start or stop recording; statistics recorded so far are kept
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Register a gauge, replacing any gauge of the same name
+     * @param name Gauge name
+     * @param value Supplies the current value; called from snapshot and flight recorder threads
+     */
+    public void registerGauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+        synchronized (this) {
+            if (!gaugeEventsRegistered) {
+                FlightRecorder.addPeriodicEvent(QueueDepthEvent.class, this::emitGaugeEvents);
+                gaugeEventsRegistered = true;
+            }
+        }
+    }
+
+    /**
+     * Record the latency of an operation measured outside {@link Instrumentation}, such as a span
+     * across several services
+     * @param name Operation name
+     * @param nanos Latency in nanoseconds
+     * @param failed Whether the operation failed
+     */
+    public void recordLatency(String name, long nanos, boolean failed) {
+        if (enabled) {
+            operation(name).record(nanos, 0, 0, failed);
+        }
+    }
+
+    /**
+     * Copy the current statistics
+     */
+    public MetricsSnapshot snapshot() {
+        List<OperationStats> stats = new ArrayList<>(operations.size());
+        for (OperationRecorder recorder : operations.values()) {
+            OperationStats operationStats = recorder.stats();
+            if (operationStats.getCount() > 0) {
+                stats.add(operationStats);
+            }
+        }
+        stats.sort(Comparator.comparing(OperationStats::getOperation));
+        Map<String, Long> values = new TreeMap<>();
+        gauges.forEach((name, gauge) -> values.put(name, gauge.getAsLong()));
+        return new MetricsSnapshot(Instant.now(), stats, values);
+    }
+
+    /**
+     * Clear all operation statistics; gauges stay registered
+     */
+    public void reset() {
+        operations.values().forEach(OperationRecorder::reset);
+    }
+
+    /**
+     * Write a snapshot as tab-separated values, one line per operation followed by one per gauge
+     * @param path File to write; replaced atomically
+     */
+    public void exportTsv(Path path) {
+        MetricsSnapshot snapshot = snapshot();
+        try {
+            Path tempFile = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+            try (BufferedWriter writer = CompressedFiles.newBufferedWriter(
+                    tempFile, StandardCharsets.UTF_8, CompressedFiles.hasGzipExtension(path))) {
+                writer.write("# " + snapshot.getTimestamp() + "\n");
+                writer.write("operation\tcount\tfailures\tmean_ns\tp50_ns\tp90_ns\tp99_ns\tp999_ns\tmax_ns"
+                        + "\tinput_chars\tallocated_bytes\n");
+                for (OperationStats stats : snapshot.getOperations()) {
+                    writer.write(stats.getOperation() + '\t' + stats.getCount() + '\t' + stats.getFailures()
+                            + '\t' + stats.getMeanNanos() + '\t' + stats.getP50Nanos() + '\t' + stats.getP90Nanos()
+                            + '\t' + stats.getP99Nanos() + '\t' + stats.getP999Nanos() + '\t' + stats.getMaxNanos()
+                            + '\t' + stats.getInputChars() + '\t' + stats.getAllocatedBytes() + '\n');
+                }
+                for (Map.Entry<String, Long> gauge : snapshot.getGauges().entrySet()) {
+                    writer.write("gauge:" + gauge.getKey() + '\t' + gauge.getValue() + '\n');
+                }
+            }
+            Files.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            logger.info("Exported metrics of {} operations to {}", snapshot.getOperations().size(), path);
+        } catch (IOException e) {
+            logger.error("Error exporting metrics to {}: {}", path, e.getMessage());
+            throw new TextProcessingException("Failed to export metrics", e);
+        }
+    }
+
+    OperationRecorder operation(String name) {
+        return operations.computeIfAbsent(name, OperationRecorder::new);
+    }
+
+    private void emitGaugeEvents() {
+        gauges.forEach((name, gauge) -> {
+            QueueDepthEvent event = new QueueDepthEvent();
+            event.gauge = name;
+            event.depth = gauge.getAsLong();
+            event.commit();
+        });
+    }
+
+    /**
+     * Statistics of one operation
+     */
+    static final class OperationRecorder {
+        private final String name;
+        private final LatencyHistogram latencies = new LatencyHistogram();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder inputChars = new LongAdder();
+        private final LongAdder allocatedBytes = new LongAdder();
+
+        OperationRecorder(String name) {
+            this.name = name;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        void record(long nanos, long chars, long allocated, boolean failed) {
+            latencies.record(nanos);
+            totalNanos.add(nanos);
+            inputChars.add(chars);
+            allocatedBytes.add(allocated);
+            if (failed) {
+                failures.increment();
+            }
+        }
+
+        OperationStats stats() {
+            long[] counts = latencies.counts();
+            long count = 0;
+            for (long bucketCount : counts) {
+                count += bucketCount;
+            }
+            long max = latencies.getMax();
+            long[] percentiles = new long[QUANTILES.length];
+            for (int i = 0; i < QUANTILES.length; i++) {
+                // A bucket's upper bound can exceed the exact maximum
+                percentiles[i] = Math.min(LatencyHistogram.valueAtQuantile(counts, count, QUANTILES[i]), max);
+            }
+            return new OperationStats(name, count, failures.sum(), totalNanos.sum(), percentiles[0], percentiles[1],
+                    percentiles[2], percentiles[3], max, inputChars.sum(), allocatedBytes.sum());
+        }
+
+        void reset() {
+            latencies.reset();
+            totalNanos.reset();
+            failures.reset();
+            inputChars.reset();
+            allocatedBytes.reset();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.dataflow.textprocessing.metrics;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Point-in-time copy of a {@link MetricsRegistry}: statistics of every operation called at least once,
+ * sorted by name, and the current value of every gauge
+ */
+public final class MetricsSnapshot {
+    private final Instant timestamp;
+    private final List<OperationStats> operations;
+    private final Map<String, Long> gauges;
+
+    MetricsSnapshot(Instant timestamp, List<OperationStats> operations, Map<String, Long> gauges) {
+        this.timestamp = timestamp;
+        this.operations = Collections.unmodifiableList(operations);
+        this.gauges = Collections.unmodifiableMap(gauges);
+    }
+
+    public Instant getTimestamp() {
+        return timestamp;
+    }
+
+    public List<OperationStats> getOperations() {
+        return operations;
+    }
+
+    /**
+     * Gauge values by name, sorted by name
+     */
+    public Map<String, Long> getGauges() {
+        return gauges;
+    }
+
+    /**
+     * Format as a fixed-width table for display, latencies in milliseconds
+     */
+    public String toTable() {
+        StringBuilder table = new StringBuilder();
+        int width = "Operation".length();
+        for (OperationStats stats : operations) {
+            width = Math.max(width, stats.getOperation().length());
+        }
+        String header = "%-" + width + "s %8s %6s %10s %10s %10s %10s %10s %12s %12s%n";
+        String row = "%-" + width + "s %8d %6d %10.3f %10.3f %10.3f %10.3f %10.3f %12d %12d%n";
+        table.append(String.format(header, "Operation", "Calls", "Failed", "Mean ms", "p50 ms", "p90 ms",
+                "p99 ms", "Max ms", "Input chars", "Alloc bytes"));
+        for (OperationStats stats : operations) {
+            table.append(String.format(row, stats.getOperation(), stats.getCount(), stats.getFailures(),
+                    millis(stats.getMeanNanos()), millis(stats.getP50Nanos()), millis(stats.getP90Nanos()),
+                    millis(stats.getP99Nanos()), millis(stats.getMaxNanos()), stats.getInputChars(),
+                    stats.getAllocatedBytes()));
+        }
+        if (!gauges.isEmpty()) {
+            table.append('\n');
+            gauges.forEach((name, value) -> table.append(name).append(": ").append(value).append('\n'));
+        }
+        return table.toString();
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+}
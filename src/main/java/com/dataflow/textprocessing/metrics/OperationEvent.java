@@ -0,0 +1,27 @@
+package com.dataflow.textprocessing.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event for one call of an instrumented service operation. Disabled events cost
+ * nothing beyond the allocation the JIT removes, so instrumented code creates one on every call.
+ */
+@Name("com.dataflow.textprocessing.Operation")
+@Label("Text Processing Operation")
+@Category("Text Processing")
+@Description("Call of a text processing service operation")
+@StackTrace(false)
+final class OperationEvent extends jdk.jfr.Event {
+    @Label("Operation")
+    String operation;
+
+    @Label("Input Characters")
+    long inputChars;
+
+    @Label("Failed")
+    boolean failed;
+}
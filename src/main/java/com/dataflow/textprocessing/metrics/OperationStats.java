@@ -0,0 +1,101 @@
+package com.dataflow.textprocessing.metrics;
+
+/**
+ * Statistics of one operation at the time of a {@link MetricsSnapshot}. Latencies are in nanoseconds;
+ * percentiles are accurate to about 3%, the maximum is exact.
+ */
+public final class OperationStats {
+    private final String operation;
+    private final long count;
+    private final long failures;
+    private final long totalNanos;
+    private final long p50Nanos;
+    private final long p90Nanos;
+    private final long p99Nanos;
+    private final long p999Nanos;
+    private final long maxNanos;
+    private final long inputChars;
+    private final long allocatedBytes;
+
+    OperationStats(String operation, long count, long failures, long totalNanos, long p50Nanos, long p90Nanos,
+                   long p99Nanos, long p999Nanos, long maxNanos, long inputChars, long allocatedBytes) {
+        this.operation = operation;
+        this.count = count;
+        this.failures = failures;
+        this.totalNanos = totalNanos;
+        this.p50Nanos = p50Nanos;
+        this.p90Nanos = p90Nanos;
+        this.p99Nanos = p99Nanos;
+        this.p999Nanos = p999Nanos;
+        this.maxNanos = maxNanos;
+        this.inputChars = inputChars;
+        this.allocatedBytes = allocatedBytes;
+    }
+
+    /**
+     * Name of the operation, {@code Interface.method}
+     */
+    public String getOperation() {
+        return operation;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Number of calls ending in an exception, including cancellations
+     */
+    public long getFailures() {
+        return failures;
+    }
+
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    public long getMeanNanos() {
+        return count == 0 ? 0 : totalNanos / count;
+    }
+
+    public long getP50Nanos() {
+        return p50Nanos;
+    }
+
+    public long getP90Nanos() {
+        return p90Nanos;
+    }
+
+    public long getP99Nanos() {
+        return p99Nanos;
+    }
+
+    public long getP999Nanos() {
+        return p999Nanos;
+    }
+
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+
+    /**
+     * Characters of document content and text passed to the operation
+     */
+    public long getInputChars() {
+        return inputChars;
+    }
+
+    /**
+     * Bytes allocated by the calling thread during the operation; work the operation hands to other
+     * threads is not included. 0 where the JVM cannot measure allocation.
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d calls, %d failed, mean %d ns, p99 %d ns, max %d ns",
+                operation, count, failures, getMeanNanos(), p99Nanos, maxNanos);
+    }
+}
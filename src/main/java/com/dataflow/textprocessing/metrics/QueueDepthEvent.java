@@ -0,0 +1,25 @@
+package com.dataflow.textprocessing.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+
+/**
+ * Periodic flight recorder event sampling one gauge of a {@link MetricsRegistry}
+ */
+@Name("com.dataflow.textprocessing.QueueDepth")
+@Label("Text Processing Queue Depth")
+@Category("Text Processing")
+@Description("Sampled value of a work queue gauge")
+@Period("1 s")
+@StackTrace(false)
+final class QueueDepthEvent extends jdk.jfr.Event {
+    @Label("Gauge")
+    String gauge;
+
+    @Label("Depth")
+    long depth;
+}
@@ -0,0 +1,65 @@
+package com.dataflow.textprocessing.model;
+
+import java.util.Objects;
+
+public class Collocation {
+    private final String firstWord;
+    private final String secondWord;
+    private final long count;
+    private final double pointwiseMutualInformation;
+    private final double logLikelihood;
+
+    public Collocation(String firstWord, String secondWord, long count, double pointwiseMutualInformation, double logLikelihood) {
+        this.firstWord = firstWord;
+        this.secondWord = secondWord;
+        this.count = count;
+        this.pointwiseMutualInformation = pointwiseMutualInformation;
+        this.logLikelihood = logLikelihood;
+    }
+
+    // Getters
+    public String getFirstWord() {
+        return firstWord;
+    }
+
+    public String getSecondWord() {
+        return secondWord;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * log2 of how much more often the pair occurs than if its words were independent
+     */
+    public double getPointwiseMutualInformation() {
+        return pointwiseMutualInformation;
+    }
+
+    /**
+     * Dunning's log-likelihood ratio (G²) of the pair's 2x2 contingency table
+     */
+    public double getLogLikelihood() {
+        return logLikelihood;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        Collocation that = (Collocation) o;
+        return count == that.count && firstWord.equals(that.firstWord) && secondWord.equals(that.secondWord);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(firstWord, secondWord, count);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %s (count=%d, pmi=%.3f, llr=%.3f)", firstWord, secondWord, count,
+                pointwiseMutualInformation, logLikelihood);
+    }
+}
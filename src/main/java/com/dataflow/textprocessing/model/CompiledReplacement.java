@@ -0,0 +1,367 @@
+package com.dataflow.textprocessing.model;
+
+import com.dataflow.textprocessing.util.Cancellation;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.regex.MatchResult;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A regex with its replacement parsed once, for replacing matches in any number of texts from any
+ * thread. Templates use the syntax of {@link Matcher#appendReplacement}: {@code $1} and {@code ${name}}
+ * refer to groups and a backslash escapes the next character. As there, an invalid template fails only
+ * when a match is replaced, so a text without matches is returned unchanged. A function may compute
+ * each replacement instead. Every replacement reports the number of matches it replaced.
+ * <p>
+ * Streaming from a {@link Readable} keeps only a window of the input: a match attempt that reaches
+ * the end of the text read so far is retried when more arrives, unless it started more than the
+ * maximum match length before that end. Matches longer than that, and lookbehinds reaching more than 256
+ * characters back, may be missed in streamed text.
+ */
+public final class CompiledReplacement {
+    public static final int DEFAULT_MAX_MATCH_LENGTH = 4096;
+    private static final int READ_BUFFER_SIZE = 32768;
+    private static final int LOOKBEHIND_CONTEXT = 256;
+    private static final int CHECKPOINT_INTERVAL = 1024;
+
+    private final Pattern pattern;
+    private final String replacement;
+    private final Part[] template;
+    // Error part ending the template if it is invalid, reported when the first match is replaced
+    private final Part templateError;
+    private final Function<MatchResult, String> replacer;
+
+    private CompiledReplacement(Pattern pattern, String replacement, Part[] template,
+                                Function<MatchResult, String> replacer) {
+        this.pattern = pattern;
+        this.replacement = replacement;
+        this.template = template;
+        this.templateError = template != null && template[template.length - 1].error != null
+                ? template[template.length - 1] : null;
+        this.replacer = replacer;
+    }
+
+    /**
+     * Compile a regex and replacement template
+     * @param regex The regex pattern to match
+     * @param replacement The replacement template
+     * @throws java.util.regex.PatternSyntaxException If the regex is invalid
+     */
+    public static CompiledReplacement compile(String regex, String replacement) {
+        return compile(Pattern.compile(regex), replacement);
+    }
+
+    /**
+     * Parse a replacement template for a compiled pattern
+     * @param pattern The pattern to match
+     * @param replacement The replacement template
+     */
+    public static CompiledReplacement compile(Pattern pattern, String replacement) {
+        Objects.requireNonNull(replacement);
+        return new CompiledReplacement(pattern, replacement, parse(replacement, pattern.matcher("").groupCount()), null);
+    }
+
+    /**
+     * Replace each match with the text a function computes from it
+     * @param pattern The pattern to match
+     * @param replacer Computes the literal replacement of a match; it must not keep the match result
+     */
+    public static CompiledReplacement withFunction(Pattern pattern, Function<MatchResult, String> replacer) {
+        return new CompiledReplacement(Objects.requireNonNull(pattern), null, null, Objects.requireNonNull(replacer));
+    }
+
+    public Pattern getPattern() {
+        return pattern;
+    }
+
+    /**
+     * The replacement template, or null if replacements are computed by a function
+     */
+    public String getReplacement() {
+        return replacement;
+    }
+
+    /**
+     * Replace every match in a text
+     * @param input Text to search
+     * @return The text with every match replaced
+     */
+    public String replace(CharSequence input) {
+        StringBuilder output = new StringBuilder(input.length() + 16);
+        try {
+            replaceTo(input, output);
+        } catch (IOException e) {
+            // A StringBuilder does not throw
+            throw new UncheckedIOException(e);
+        }
+        return output.toString();
+    }
+
+    /**
+     * Replace every match in a text, appending the result to an output
+     * @param input Text to search
+     * @param output Receives the text with every match replaced
+     * @return Number of matches replaced
+     * @throws IOException If the output fails
+     */
+    public long replaceTo(CharSequence input, Appendable output) throws IOException {
+        Matcher matcher = pattern.matcher(input);
+        long count = 0;
+        int position = 0;
+        while (matcher.find()) {
+            if (++count % CHECKPOINT_INTERVAL == 0) {
+                Cancellation.checkpoint();
+            }
+            output.append(input, position, matcher.start());
+            appendReplacement(matcher, input, output);
+            position = matcher.end();
+        }
+        output.append(input, position, input.length());
+        return count;
+    }
+
+    /**
+     * Replace every match in streamed text, writing the output as the input is read; memory use is
+     * bounded by the read buffer and {@link #DEFAULT_MAX_MATCH_LENGTH}
+     * @param input Text to search
+     * @param output Receives the text with every match replaced
+     * @return Number of matches replaced
+     * @throws IOException If reading or writing fails
+     */
+    public long replaceTo(Readable input, Appendable output) throws IOException {
+        return replaceTo(input, output, DEFAULT_MAX_MATCH_LENGTH);
+    }
+
+    /**
+     * Replace every match in streamed text, writing the output as the input is read
+     * @param input Text to search
+     * @param output Receives the text with every match replaced
+     * @param maxMatchLength Length of the longest match to find; longer ones may be missed or cut short
+     * @return Number of matches replaced
+     * @throws IOException If reading or writing fails
+     */
+    public long replaceTo(Readable input, Appendable output, int maxMatchLength) throws IOException {
+        if (maxMatchLength <= 0) {
+            throw new IllegalArgumentException("Maximum match length must be positive: " + maxMatchLength);
+        }
+        // Scanning only after this much new text bounds the rescanning of undecided attempts to a
+        // quarter of the input
+        int scanThreshold = Math.max(READ_BUFFER_SIZE, 4 * maxMatchLength);
+        StringBuilder buffer = new StringBuilder();
+        CharBuffer chunk = CharBuffer.allocate(READ_BUFFER_SIZE);
+        Matcher matcher = pattern.matcher(buffer).useTransparentBounds(true).useAnchoringBounds(false);
+        long count = 0;
+        // Text before position has been written; the next match attempt starts at searchFrom, which
+        // is one past position after an empty match
+        int position = 0;
+        int searchFrom = 0;
+        boolean endOfInput = false;
+        while (true) {
+            Cancellation.checkpoint();
+            chunk.clear();
+            if (input.read(chunk) < 0) {
+                endOfInput = true;
+            } else {
+                chunk.flip();
+                buffer.append(chunk);
+                if (buffer.length() - searchFrom < scanThreshold) {
+                    continue;
+                }
+            }
+            int length = buffer.length();
+            while (searchFrom <= length) {
+                matcher.region(searchFrom, length);
+                boolean found = matcher.find();
+                if (!endOfInput && (matcher.hitEnd() || found && matcher.requireEnd())
+                        && !(found && matcher.start() <= length - maxMatchLength)) {
+                    // More input may change the outcome of attempts starting in the last
+                    // maxMatchLength characters; everything before them is decided
+                    int decided = length - maxMatchLength;
+                    if (decided > position) {
+                        output.append(buffer, position, decided);
+                        position = decided;
+                        searchFrom = Math.max(searchFrom, decided);
+                    }
+                    break;
+                }
+                if (!found) {
+                    output.append(buffer, position, length);
+                    position = length;
+                    searchFrom = Math.max(searchFrom, length);
+                    break;
+                }
+                if (++count % CHECKPOINT_INTERVAL == 0) {
+                    Cancellation.checkpoint();
+                }
+                output.append(buffer, position, matcher.start());
+                appendReplacement(matcher, buffer, output);
+                position = matcher.end();
+                searchFrom = matcher.start() == matcher.end() ? position + 1 : position;
+            }
+            if (endOfInput) {
+                if (position < length) {
+                    output.append(buffer, position, length);
+                }
+                return count;
+            }
+            // Drop written text, keeping some context for lookbehinds and anchors
+            int drop = position - Math.min(position, LOOKBEHIND_CONTEXT);
+            if (drop > 0 && drop >= buffer.length() / 2) {
+                buffer.delete(0, drop);
+                position -= drop;
+                searchFrom -= drop;
+            }
+        }
+    }
+
+    private void appendReplacement(Matcher matcher, CharSequence input, Appendable output) throws IOException {
+        if (replacer != null) {
+            output.append(replacer.apply(matcher));
+            return;
+        }
+        if (templateError != null) {
+            throw templateError.missingGroup ? new IndexOutOfBoundsException(templateError.error)
+                    : new IllegalArgumentException(templateError.error);
+        }
+        for (Part part : template) {
+            if (part.literal != null) {
+                output.append(part.literal);
+                continue;
+            }
+            int start = part.name != null ? matcher.start(part.name) : matcher.start(part.group);
+            if (start >= 0) {
+                output.append(input, start, part.name != null ? matcher.end(part.name) : matcher.end(part.group));
+            }
+        }
+    }
+
+    /**
+     * Split a template into literal text and group references, resolving multi-digit group numbers
+     * like {@link Matcher#appendReplacement} does; parsing stops at an error, which ends the parts
+     */
+    private static Part[] parse(String replacement, int groupCount) {
+        List<Part> parts = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        int i = 0;
+        while (i < replacement.length()) {
+            char c = replacement.charAt(i++);
+            if (c == '\\') {
+                if (i == replacement.length()) {
+                    parts.add(Part.error("Character to be escaped is missing", false));
+                    return parts.toArray(new Part[0]);
+                }
+                literal.append(replacement.charAt(i++));
+                continue;
+            }
+            if (c != '$') {
+                literal.append(c);
+                continue;
+            }
+            if (i == replacement.length()) {
+                parts.add(Part.error("Illegal group reference: group index is missing", false));
+                return parts.toArray(new Part[0]);
+            }
+            if (literal.length() > 0) {
+                parts.add(new Part(literal.toString(), -1, null));
+                literal.setLength(0);
+            }
+            char next = replacement.charAt(i++);
+            if (next == '{') {
+                int close = replacement.indexOf('}', i);
+                if (close < 0) {
+                    parts.add(Part.error("Named capturing group is missing trailing '}'", false));
+                    return parts.toArray(new Part[0]);
+                }
+                String name = replacement.substring(i, close);
+                if (name.isEmpty() || !isGroupName(name)) {
+                    parts.add(Part.error("Illegal capturing group name '" + name + "'", false));
+                    return parts.toArray(new Part[0]);
+                }
+                parts.add(new Part(null, -1, name));
+                i = close + 1;
+            } else if (next >= '0' && next <= '9') {
+                int group = next - '0';
+                if (group > groupCount) {
+                    parts.add(Part.error("No group " + group, true));
+                    return parts.toArray(new Part[0]);
+                }
+                while (i < replacement.length() && replacement.charAt(i) >= '0' && replacement.charAt(i) <= '9') {
+                    int longer = group * 10 + (replacement.charAt(i) - '0');
+                    if (longer > groupCount) {
+                        break;
+                    }
+                    group = longer;
+                    i++;
+                }
+                parts.add(new Part(null, group, null));
+            } else {
+                parts.add(Part.error("Illegal group reference", false));
+                return parts.toArray(new Part[0]);
+            }
+        }
+        if (literal.length() > 0 || parts.isEmpty()) {
+            parts.add(new Part(literal.toString(), -1, null));
+        }
+        return parts.toArray(new Part[0]);
+    }
+
+    private static boolean isGroupName(String name) {
+        char first = name.charAt(0);
+        if (!(first >= 'a' && first <= 'z' || first >= 'A' && first <= 'Z')) {
+            return false;
+        }
+        for (int i = 1; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "CompiledReplacement{" +
+                "pattern=" + pattern +
+                ", replacement=" + (replacement != null ? replacement : "<function>") +
+                '}';
+    }
+
+    /**
+     * Literal text, a reference to a group by number or name, or the error of an invalid template
+     */
+    private static final class Part {
+        final String literal;
+        final int group;
+        final String name;
+        final String error;
+        final boolean missingGroup;
+
+        Part(String literal, int group, String name) {
+            this(literal, group, name, null, false);
+        }
+
+        private Part(String literal, int group, String name, String error, boolean missingGroup) {
+            this.literal = literal;
+            this.group = group;
+            this.name = name;
+            this.error = error;
+            this.missingGroup = missingGroup;
+        }
+
+        /**
+         * Error reported as {@link Matcher#appendReplacement} reports it: a missing group by index out of
+         * bounds, anything else as an illegal argument
+         */
+        static Part error(String message, boolean missingGroup) {
+            return new Part(null, -1, null, message, missingGroup);
+        }
+    }
+}
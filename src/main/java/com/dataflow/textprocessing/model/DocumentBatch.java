@@ -0,0 +1,213 @@
+package com.dataflow.textprocessing.model;
+
+import java.nio.CharBuffer;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compact, immutable batch of many small documents. Names and contents are stored back to back in two
+ * char arenas with an offset array each, so a document costs a few array slots instead of a
+ * {@link TextDocument} and its strings. Ids are a time-ordered batch prefix followed by the document's
+ * index, and every document shares the batch's creation time, so building a batch needs neither a
+ * random UUID nor a clock read per document.
+ * <p>
+ * The batch is a {@code List<TextDocument>}, so it can be passed to any batch method directly.
+ * {@link #get(int)} returns a lightweight view that copies its name and content out of the arenas only
+ * when they are read; changing a view does not change the batch. {@link #contentView(int)} reads a
+ * document's content without copying it. A batch holds up to about two billion characters; larger
+ * inputs are split into several batches.
+ */
+public final class DocumentBatch extends AbstractList<TextDocument> implements RandomAccess {
+    private static final AtomicLong BATCH_SEQUENCE = new AtomicLong();
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final String idPrefix;
+    private final long createdMillis;
+    private final char[] names;
+    private final int[] nameOffsets;
+    private final char[] contents;
+    private final int[] contentOffsets;
+    private final int size;
+
+    private DocumentBatch(char[] names, int[] nameOffsets, char[] contents, int[] contentOffsets, int size) {
+        this.createdMillis = System.currentTimeMillis();
+        this.idPrefix = String.format("%012x-%04x-%08x-", createdMillis, BATCH_SEQUENCE.incrementAndGet() & 0xffff,
+                ThreadLocalRandom.current().nextInt());
+        this.names = names;
+        this.nameOffsets = nameOffsets;
+        this.contents = contents;
+        this.contentOffsets = contentOffsets;
+        this.size = size;
+    }
+
+    public static Builder builder() {
+        return new Builder(16, 1024);
+    }
+
+    /**
+     * @param expectedDocuments Number of documents the batch will probably hold
+     * @param expectedChars Number of content characters the batch will probably hold
+     */
+    public static Builder builder(int expectedDocuments, int expectedChars) {
+        return new Builder(expectedDocuments, expectedChars);
+    }
+
+    /**
+     * Get a view of a document; each call returns a new view with the same id
+     */
+    @Override
+    public TextDocument get(int index) {
+        checkIndex(index);
+        return new TextDocument(this, index);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Id of a document: the batch prefix, time-ordered across batches, and the index as fixed-width hex
+     */
+    public String getId(int index) {
+        checkIndex(index);
+        char[] id = new char[idPrefix.length() + 8];
+        idPrefix.getChars(0, idPrefix.length(), id, 0);
+        for (int i = 0; i < 8; i++) {
+            id[id.length - 1 - i] = HEX_DIGITS[(index >>> (4 * i)) & 0xf];
+        }
+        return new String(id);
+    }
+
+    public String getName(int index) {
+        checkIndex(index);
+        return new String(names, nameOffsets[index], nameOffsets[index + 1] - nameOffsets[index]);
+    }
+
+    public String getContent(int index) {
+        checkIndex(index);
+        return new String(contents, contentOffsets[index], getContentLength(index));
+    }
+
+    public int getContentLength(int index) {
+        checkIndex(index);
+        return contentOffsets[index + 1] - contentOffsets[index];
+    }
+
+    /**
+     * Get a document's content without copying it out of the batch
+     * @return Read-only view of the content
+     */
+    public CharBuffer contentView(int index) {
+        checkIndex(index);
+        return CharBuffer.wrap(contents, contentOffsets[index], getContentLength(index)).asReadOnlyBuffer();
+    }
+
+    /**
+     * Time the batch was built, shared by all its documents, in milliseconds since the epoch
+     */
+    public long getCreatedMillis() {
+        return createdMillis;
+    }
+
+    /**
+     * Number of content characters of all documents
+     */
+    public long getTotalContentLength() {
+        return contentOffsets[size];
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for batch of " + size);
+        }
+    }
+
+    /**
+     * Collects documents into a batch, growing its arrays as needed
+     */
+    public static final class Builder {
+        private char[] names;
+        private int[] nameOffsets;
+        private char[] contents;
+        private int[] contentOffsets;
+        private int size;
+        private int namesLength;
+        private int contentsLength;
+
+        private Builder(int expectedDocuments, int expectedChars) {
+            int documents = Math.max(expectedDocuments, 1);
+            this.names = new char[Math.max(documents * 8, 16)];
+            this.nameOffsets = new int[documents + 1];
+            this.contents = new char[Math.max(expectedChars, 16)];
+            this.contentOffsets = new int[documents + 1];
+        }
+
+        /**
+         * Add a document
+         * @param name Name of the document
+         * @param content Content of the document
+         * @return This builder
+         */
+        public Builder add(CharSequence name, CharSequence content) {
+            if (size + 2 > nameOffsets.length) {
+                int capacity = grow(nameOffsets.length, size + 2);
+                nameOffsets = Arrays.copyOf(nameOffsets, capacity);
+                contentOffsets = Arrays.copyOf(contentOffsets, capacity);
+            }
+            names = append(names, namesLength, name);
+            namesLength += name.length();
+            contents = append(contents, contentsLength, content);
+            contentsLength += content.length();
+            size++;
+            nameOffsets[size] = namesLength;
+            contentOffsets[size] = contentsLength;
+            return this;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Build the batch; the builder must not be used afterwards
+         */
+        public DocumentBatch build() {
+            DocumentBatch batch = new DocumentBatch(
+                    names.length == namesLength ? names : Arrays.copyOf(names, namesLength),
+                    nameOffsets.length == size + 1 ? nameOffsets : Arrays.copyOf(nameOffsets, size + 1),
+                    contents.length == contentsLength ? contents : Arrays.copyOf(contents, contentsLength),
+                    contentOffsets.length == size + 1 ? contentOffsets : Arrays.copyOf(contentOffsets, size + 1),
+                    size);
+            names = null;
+            contents = null;
+            return batch;
+        }
+
+        private static char[] append(char[] arena, int length, CharSequence text) {
+            int needed = length + text.length();
+            if (needed < 0 || needed > Integer.MAX_VALUE - 8) {
+                throw new IllegalStateException("Document batch exceeds " + Integer.MAX_VALUE + " characters");
+            }
+            if (needed > arena.length) {
+                arena = Arrays.copyOf(arena, grow(arena.length, needed));
+            }
+            if (text instanceof String) {
+                ((String) text).getChars(0, text.length(), arena, length);
+            } else {
+                for (int i = 0; i < text.length(); i++) {
+                    arena[length + i] = text.charAt(i);
+                }
+            }
+            return arena;
+        }
+
+        private static int grow(int capacity, int needed) {
+            long grown = Math.max((long) capacity * 2, needed);
+            return (int) Math.min(grown, Integer.MAX_VALUE - 8);
+        }
+    }
+}
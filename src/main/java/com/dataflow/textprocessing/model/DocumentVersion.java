@@ -0,0 +1,73 @@
+package com.dataflow.textprocessing.model;
+
+import com.dataflow.textprocessing.util.ContentHash;
+import java.time.LocalDateTime;
+
+/**
+ * One stored version of a document: its name and the hash of its content at the time it was saved.
+ * Versions of a document are numbered from 1 in the order they were saved.
+ */
+public class DocumentVersion {
+    private final String documentId;
+    private final int version;
+    private final String name;
+    private final ContentHash contentHash;
+    private final int contentBytes;
+    private final LocalDateTime createdAt;
+    private final LocalDateTime modifiedAt;
+
+    public DocumentVersion(String documentId, int version, String name, ContentHash contentHash, int contentBytes,
+                           LocalDateTime createdAt, LocalDateTime modifiedAt) {
+        this.documentId = documentId;
+        this.version = version;
+        this.name = name;
+        this.contentHash = contentHash;
+        this.contentBytes = contentBytes;
+        this.createdAt = createdAt;
+        this.modifiedAt = modifiedAt;
+    }
+
+    // Getters
+    public String getDocumentId() {
+        return documentId;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public ContentHash getContentHash() {
+        return contentHash;
+    }
+
+    /**
+     * Size of the content encoded as UTF-8
+     */
+    public int getContentBytes() {
+        return contentBytes;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public LocalDateTime getModifiedAt() {
+        return modifiedAt;
+    }
+
+    @Override
+    public String toString() {
+        return "DocumentVersion{" +
+                "documentId=" + documentId +
+                ", version=" + version +
+                ", name=" + name +
+                ", contentHash=" + contentHash +
+                ", contentBytes=" + contentBytes +
+                ", modifiedAt=" + modifiedAt +
+                '}';
+    }
+}
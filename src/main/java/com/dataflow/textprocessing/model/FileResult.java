@@ -0,0 +1,89 @@
+package com.dataflow.textprocessing.model;
+
+import java.nio.file.Path;
+
+/**
+ * Outcome and I/O timings of one file of a batch. Times are in nanoseconds and cover only the stage
+ * itself, not the time spent waiting for an I/O slot or worker thread.
+ */
+public class FileResult {
+    private final Path source;
+    private final Path output;
+    private final long bytesRead;
+    private final long bytesWritten;
+    private final long readNanos;
+    private final long processNanos;
+    private final long writeNanos;
+    private final Throwable error;
+
+    public FileResult(Path source, Path output, long bytesRead, long bytesWritten, long readNanos,
+                      long processNanos, long writeNanos, Throwable error) {
+        this.source = source;
+        this.output = output;
+        this.bytesRead = bytesRead;
+        this.bytesWritten = bytesWritten;
+        this.readNanos = readNanos;
+        this.processNanos = processNanos;
+        this.writeNanos = writeNanos;
+        this.error = error;
+    }
+
+    // Getters
+    public Path getSource() {
+        return source;
+    }
+
+    /**
+     * File the processed document was written to, or null if it was not written
+     */
+    public Path getOutput() {
+        return output;
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public long getReadNanos() {
+        return readNanos;
+    }
+
+    /**
+     * Time to decode, process and encode the document
+     */
+    public long getProcessNanos() {
+        return processNanos;
+    }
+
+    public long getWriteNanos() {
+        return writeNanos;
+    }
+
+    /**
+     * Error that stopped this file, or null if it succeeded
+     */
+    public Throwable getError() {
+        return error;
+    }
+
+    public boolean isSuccessful() {
+        return error == null;
+    }
+
+    @Override
+    public String toString() {
+        return "FileResult{" +
+                "source=" + source +
+                ", bytesRead=" + bytesRead +
+                ", bytesWritten=" + bytesWritten +
+                ", readNanos=" + readNanos +
+                ", processNanos=" + processNanos +
+                ", writeNanos=" + writeNanos +
+                ", error=" + error +
+                '}';
+    }
+}
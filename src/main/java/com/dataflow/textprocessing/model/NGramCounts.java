@@ -0,0 +1,235 @@
+package com.dataflow.textprocessing.model;
+
+import com.dataflow.textprocessing.util.WordTokenizer;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Unigram, bigram and trigram counts of a corpus. Words are lower cased and numbered from 1; an n-gram
+ * is stored as a long key packing its word ids, 31 bits per word for bigrams and 21 bits per word for
+ * trigrams, so trigrams only cover the first {@link #MAX_TRIGRAM_WORD_ID} distinct words; occurrences
+ * of trigrams with a later word are counted in {@link #getUncountedTrigrams()} only. Keys of each
+ * order are sorted, so lookups are binary searches. When counting ran into its memory budget, n-grams
+ * seen at most {@link #getPruneThreshold()} times at a pruning point were dropped and their counts
+ * are lower bounds, and words first seen after the vocabulary filled its share of the budget are
+ * counted in {@link #getOutOfVocabularyTokens()} only.
+ */
+public class NGramCounts {
+    public static final int MAX_ORDER = 3;
+    public static final int MAX_BIGRAM_WORD_ID = Integer.MAX_VALUE;
+    public static final int MAX_TRIGRAM_WORD_ID = (1 << 21) - 1;
+
+    private final String[] vocabulary;
+    private final long[] unigramCounts;
+    private final long totalTokens;
+    private final long[][] keys;
+    private final long[][] counts;
+    private final long pruneThreshold;
+    private final long outOfVocabularyTokens;
+    private final long uncountedTrigrams;
+    private volatile Map<String, Integer> wordIds;
+
+    /**
+     * @param vocabulary Words by id; index 0 is unused
+     * @param unigramCounts Occurrences by word id
+     * @param totalTokens Number of tokens counted
+     * @param keys Sorted packed keys, indexed by order; orders 0 and 1 are unused
+     * @param counts Counts matching the keys
+     * @param pruneThreshold Highest count dropped while pruning, 0 if nothing was pruned
+     * @param outOfVocabularyTokens Tokens of words left out of the vocabulary
+     * @param uncountedTrigrams Trigram occurrences left out because a word id does not fit the key
+     */
+    public NGramCounts(String[] vocabulary, long[] unigramCounts, long totalTokens, long[][] keys, long[][] counts,
+                       long pruneThreshold, long outOfVocabularyTokens, long uncountedTrigrams) {
+        this.vocabulary = vocabulary;
+        this.unigramCounts = unigramCounts;
+        this.totalTokens = totalTokens;
+        this.keys = keys;
+        this.counts = counts;
+        this.pruneThreshold = pruneThreshold;
+        this.outOfVocabularyTokens = outOfVocabularyTokens;
+        this.uncountedTrigrams = uncountedTrigrams;
+    }
+
+    /**
+     * Pack word ids into an n-gram key
+     */
+    public static long pack(int... wordIds) {
+        int bits = bitsPerWord(wordIds.length);
+        long key = 0;
+        for (int id : wordIds) {
+            key = key << bits | id;
+        }
+        return key;
+    }
+
+    /**
+     * Unpack an n-gram key into word ids
+     */
+    public static void unpack(long key, int order, int[] wordIds) {
+        int bits = bitsPerWord(order);
+        long mask = (1L << bits) - 1;
+        for (int i = order - 1; i >= 0; i--) {
+            wordIds[i] = (int) (key & mask);
+            key >>>= bits;
+        }
+    }
+
+    /**
+     * Number of bits used per word id in keys of the given order
+     */
+    public static int bitsPerWord(int order) {
+        if (order < 2 || order > MAX_ORDER) {
+            throw new IllegalArgumentException("N-gram order must be between 2 and " + MAX_ORDER + ": " + order);
+        }
+        return order == 2 ? 31 : 21;
+    }
+
+    /**
+     * Get the count of an n-gram of one to three words
+     */
+    public long count(String... words) {
+        int[] ids = new int[words.length];
+        for (int i = 0; i < words.length; i++) {
+            Integer id = getWordIds().get(WordTokenizer.normalize(words[i], 0, words[i].length()));
+            if (id == null || words.length == 3 && id > MAX_TRIGRAM_WORD_ID) {
+                return 0;
+            }
+            ids[i] = id;
+        }
+        if (words.length == 1) {
+            return unigramCounts[ids[0]];
+        }
+        if (words.length > getMaxOrder()) {
+            return 0;
+        }
+        int index = Arrays.binarySearch(keys[words.length], pack(ids));
+        return index >= 0 ? counts[words.length][index] : 0;
+    }
+
+    /**
+     * Get the n-grams of an order with the highest counts
+     * @param order N-gram order, 1 for single words
+     * @param k Maximum number of n-grams
+     * @return N-grams, words joined by spaces, in descending order of count
+     */
+    public List<Map.Entry<String, Long>> top(int order, int k) {
+        PriorityQueue<Map.Entry<String, Long>> heap = new PriorityQueue<>(Map.Entry.comparingByValue());
+        forEach(order, (ids, count) -> {
+            if (heap.size() < k || count > heap.peek().getValue()) {
+                heap.add(new AbstractMap.SimpleImmutableEntry<>(join(ids), count));
+                if (heap.size() > k) {
+                    heap.poll();
+                }
+            }
+        });
+        List<Map.Entry<String, Long>> result = new ArrayList<>(heap);
+        result.sort(Map.Entry.<String, Long>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()));
+        return result;
+    }
+
+    /**
+     * Visit every n-gram of an order; the id array is reused between calls
+     * @param order N-gram order, 1 for single words
+     */
+    public void forEach(int order, NGramConsumer consumer) {
+        int[] ids = new int[order];
+        if (order == 1) {
+            for (int id = 1; id < unigramCounts.length; id++) {
+                if (unigramCounts[id] > 0) {
+                    ids[0] = id;
+                    consumer.accept(ids, unigramCounts[id]);
+                }
+            }
+            return;
+        }
+        if (order > getMaxOrder()) {
+            return;
+        }
+        long[] orderKeys = keys[order];
+        long[] orderCounts = counts[order];
+        for (int i = 0; i < orderKeys.length; i++) {
+            unpack(orderKeys[i], order, ids);
+            consumer.accept(ids, orderCounts[i]);
+        }
+    }
+
+    public String getWord(int id) {
+        return vocabulary[id];
+    }
+
+    public long getUnigramCount(int id) {
+        return unigramCounts[id];
+    }
+
+    /**
+     * Number of distinct words
+     */
+    public int getVocabularySize() {
+        return vocabulary.length - 1;
+    }
+
+    /**
+     * Number of distinct n-grams of an order
+     */
+    public int size(int order) {
+        if (order == 1) {
+            return getVocabularySize();
+        }
+        return order <= getMaxOrder() ? keys[order].length : 0;
+    }
+
+    public int getMaxOrder() {
+        return keys.length - 1;
+    }
+
+    public long getTotalTokens() {
+        return totalTokens;
+    }
+
+    public long getPruneThreshold() {
+        return pruneThreshold;
+    }
+
+    public long getOutOfVocabularyTokens() {
+        return outOfVocabularyTokens;
+    }
+
+    public long getUncountedTrigrams() {
+        return uncountedTrigrams;
+    }
+
+    private String join(int[] ids) {
+        StringBuilder joined = new StringBuilder(vocabulary[ids[0]]);
+        for (int i = 1; i < ids.length; i++) {
+            joined.append(' ').append(vocabulary[ids[i]]);
+        }
+        return joined.toString();
+    }
+
+    private Map<String, Integer> getWordIds() {
+        Map<String, Integer> ids = wordIds;
+        if (ids == null) {
+            ids = new HashMap<>(vocabulary.length * 2);
+            for (int id = 1; id < vocabulary.length; id++) {
+                ids.put(vocabulary[id], id);
+            }
+            wordIds = ids;
+        }
+        return ids;
+    }
+
+    /**
+     * Callback receiving the word ids and count of an n-gram
+     */
+    @FunctionalInterface
+    public interface NGramConsumer {
+        void accept(int[] wordIds, long count);
+    }
+}
@@ -0,0 +1,72 @@
+package com.dataflow.textprocessing.model;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Output of running a pipeline plan over one document or stream, with the time spent in each step of
+ * the plan
+ */
+public class PipelineResult {
+    private final TextDocument document;
+    private final List<Map<String, Object>> statistics;
+    private final Map<String, Long> stepNanos;
+    private final long linesRead;
+    private final long linesWritten;
+
+    public PipelineResult(TextDocument document, List<Map<String, Object>> statistics, Map<String, Long> stepNanos,
+                          long linesRead, long linesWritten) {
+        this.document = document;
+        this.statistics = statistics;
+        this.stepNanos = stepNanos;
+        this.linesRead = linesRead;
+        this.linesWritten = linesWritten;
+    }
+
+    /**
+     * The processed document, or null if the output was streamed to a writer
+     */
+    public TextDocument getDocument() {
+        return document;
+    }
+
+    /**
+     * Statistics computed by the statistics stages of the pipeline, in pipeline order
+     */
+    public List<Map<String, Object>> getStatistics() {
+        return Collections.unmodifiableList(statistics);
+    }
+
+    /**
+     * Statistics of the last statistics stage, or null if the pipeline has none
+     */
+    public Map<String, Object> getFinalStatistics() {
+        return statistics.isEmpty() ? null : statistics.get(statistics.size() - 1);
+    }
+
+    /**
+     * Time spent in each step of the plan, by step description in plan order; fused stages share one
+     * step
+     */
+    public Map<String, Long> getStepNanos() {
+        return Collections.unmodifiableMap(stepNanos);
+    }
+
+    public long getLinesRead() {
+        return linesRead;
+    }
+
+    public long getLinesWritten() {
+        return linesWritten;
+    }
+
+    @Override
+    public String toString() {
+        return "PipelineResult{" +
+                "linesRead=" + linesRead +
+                ", linesWritten=" + linesWritten +
+                ", stepNanos=" + stepNanos +
+                '}';
+    }
+}
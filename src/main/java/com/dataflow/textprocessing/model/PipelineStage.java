@@ -0,0 +1,178 @@
+package com.dataflow.textprocessing.model;
+
+import com.dataflow.textprocessing.service.TextProcessingService;
+
+import java.util.Objects;
+
+/**
+ * One declared operation of a processing pipeline. Text is processed as lines separated by
+ * {@code \n}; most stages work on each line separately, so consecutive stages run in a single pass.
+ * Stages that need every line before producing output, such as sorting or a regex replacement over
+ * the whole text, are noted below.
+ */
+public final class PipelineStage {
+    public enum Kind {
+        NORMALIZE_WHITESPACE,
+        REPLACE,
+        REPLACE_IN_LINES,
+        CONVERT_CASE,
+        COLLAPSE_SPACES,
+        TRIM_LINES,
+        REMOVE_BLANK_LINES,
+        KEEP_LINES,
+        REMOVE_DUPLICATE_LINES,
+        SORT_LINES,
+        STATISTICS
+    }
+
+    private final Kind kind;
+    private final String pattern;
+    private final String replacement;
+    private final TextProcessingService.CaseMode caseMode;
+    private final boolean ascending;
+
+    private PipelineStage(Kind kind, String pattern, String replacement, TextProcessingService.CaseMode caseMode,
+                          boolean ascending) {
+        this.kind = kind;
+        this.pattern = pattern;
+        this.replacement = replacement;
+        this.caseMode = caseMode;
+        this.ascending = ascending;
+    }
+
+    /**
+     * Trim the text and replace every run of whitespace, line breaks included, with one space, like
+     * the default document processing; the result is a single line
+     */
+    public static PipelineStage normalizeWhitespace() {
+        return new PipelineStage(Kind.NORMALIZE_WHITESPACE, null, null, null, false);
+    }
+
+    /**
+     * Replace every match of a regex in the whole text, so matches may span lines; needs the whole
+     * text unless the pattern is a literal without line breaks
+     * @param pattern The regex pattern to match
+     * @param replacement The replacement, which may refer to groups as {@code $1}
+     */
+    public static PipelineStage replace(String pattern, String replacement) {
+        return new PipelineStage(Kind.REPLACE, Objects.requireNonNull(pattern), Objects.requireNonNull(replacement), null, false);
+    }
+
+    /**
+     * Replace every match of a regex within each line
+     * @param pattern The regex pattern to match
+     * @param replacement The replacement, which may refer to groups as {@code $1}
+     */
+    public static PipelineStage replaceInLines(String pattern, String replacement) {
+        return new PipelineStage(Kind.REPLACE_IN_LINES, Objects.requireNonNull(pattern), Objects.requireNonNull(replacement), null, false);
+    }
+
+    /**
+     * Convert the case of every character: TITLE capitalizes the first letter of each word and
+     * SENTENCE the first letter of each sentence, lower casing the others
+     */
+    public static PipelineStage convertCase(TextProcessingService.CaseMode mode) {
+        return new PipelineStage(Kind.CONVERT_CASE, null, null, Objects.requireNonNull(mode), false);
+    }
+
+    /**
+     * Replace runs of whitespace within each line with one space and trim the line
+     */
+    public static PipelineStage collapseSpaces() {
+        return new PipelineStage(Kind.COLLAPSE_SPACES, null, null, null, false);
+    }
+
+    public static PipelineStage trimLines() {
+        return new PipelineStage(Kind.TRIM_LINES, null, null, null, false);
+    }
+
+    /**
+     * Drop lines holding only whitespace
+     */
+    public static PipelineStage removeBlankLines() {
+        return new PipelineStage(Kind.REMOVE_BLANK_LINES, null, null, null, false);
+    }
+
+    /**
+     * Keep only the lines containing a match of a regex
+     */
+    public static PipelineStage keepLines(String pattern) {
+        return new PipelineStage(Kind.KEEP_LINES, Objects.requireNonNull(pattern), null, null, false);
+    }
+
+    /**
+     * Drop lines equal to an earlier line, keeping the first occurrence
+     */
+    public static PipelineStage removeDuplicateLines() {
+        return new PipelineStage(Kind.REMOVE_DUPLICATE_LINES, null, null, null, false);
+    }
+
+    /**
+     * Sort the lines; needs every line before producing output
+     */
+    public static PipelineStage sortLines(boolean ascending) {
+        return new PipelineStage(Kind.SORT_LINES, null, null, null, ascending);
+    }
+
+    /**
+     * Compute the statistics of {@link TextProcessingService#getTextStatistics} of the text as it is
+     * at this point of the pipeline, without changing it
+     */
+    public static PipelineStage statistics() {
+        return new PipelineStage(Kind.STATISTICS, null, null, null, false);
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * Regex pattern of a replace or filter stage, otherwise null
+     */
+    public String getPattern() {
+        return pattern;
+    }
+
+    public String getReplacement() {
+        return replacement;
+    }
+
+    public TextProcessingService.CaseMode getCaseMode() {
+        return caseMode;
+    }
+
+    public boolean isAscending() {
+        return ascending;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        PipelineStage that = (PipelineStage) o;
+        return ascending == that.ascending && kind == that.kind && Objects.equals(pattern, that.pattern)
+                && Objects.equals(replacement, that.replacement) && caseMode == that.caseMode;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(kind, pattern, replacement, caseMode, ascending);
+    }
+
+    @Override
+    public String toString() {
+        switch (kind) {
+            case REPLACE:
+            case REPLACE_IN_LINES:
+                return kind.name().toLowerCase() + "(" + pattern + " -> " + replacement + ")";
+            case KEEP_LINES:
+                return "keep_lines(" + pattern + ")";
+            case CONVERT_CASE:
+                return "convert_case(" + caseMode + ")";
+            case SORT_LINES:
+                return "sort_lines(" + (ascending ? "ascending" : "descending") + ")";
+            default:
+                return kind.name().toLowerCase();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.dataflow.textprocessing.model;
+
+import java.util.Objects;
+
+public class SearchHit {
+    private final String documentId;
+    private final String documentName;
+    private final int offset;
+    private final int length;
+
+    public SearchHit(String documentId, String documentName, int offset, int length) {
+        this.documentId = documentId;
+        this.documentName = documentName;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    // Getters
+    public String getDocumentId() {
+        return documentId;
+    }
+
+    public String getDocumentName() {
+        return documentName;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        SearchHit that = (SearchHit) o;
+        return offset == that.offset && length == that.length && Objects.equals(documentId, that.documentId);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(documentId, offset, length);
+    }
+
+    @Override
+    public String toString() {
+        return documentName + " [" + offset + ", " + (offset + length) + ")";
+    }
+}
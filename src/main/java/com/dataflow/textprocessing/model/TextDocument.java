@@ -1,52 +1,127 @@
 package com.dataflow.textprocessing.model;
 
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class TextDocument {
+    private static final AtomicLong WRITES = new AtomicLong();
+
     private String id;
     private String name;
     private String content;
+    private final long createdMillis;
     private LocalDateTime createdAt;
     private LocalDateTime modifiedAt;
+    private long version;
+    // Batch the document is a view of, holding the fields not read yet; null for standalone documents
+    private final DocumentBatch batch;
+    private final int index;
 
     public TextDocument(String name, String content) {
         this.id = java.util.UUID.randomUUID().toString();
         this.name = name;
         this.content = content;
-        this.createdAt = LocalDateTime.now();
-        this.modifiedAt = LocalDateTime.now();
+        // The timestamps are only converted when asked for
+        this.createdMillis = System.currentTimeMillis();
+        this.batch = null;
+        this.index = -1;
+    }
+
+    /**
+     * Restore a document with its identity and timestamps, as when loading it from storage
+     */
+    public TextDocument(String id, String name, String content, LocalDateTime createdAt, LocalDateTime modifiedAt) {
+        this.id = id;
+        this.name = name;
+        this.content = content;
+        this.createdMillis = 0;
+        this.createdAt = createdAt;
+        this.modifiedAt = modifiedAt;
+        this.batch = null;
+        this.index = -1;
+    }
+
+    /**
+     * View of a document of a batch; fields are copied out of the batch when first read
+     */
+    TextDocument(DocumentBatch batch, int index) {
+        this.createdMillis = batch.getCreatedMillis();
+        this.batch = batch;
+        this.index = index;
     }
 
     // Getters and Setters
     public String getId() {
+        if (id == null && batch != null) {
+            id = batch.getId(index);
+        }
         return id;
     }
 
     public String getName() {
+        if (name == null && batch != null) {
+            name = batch.getName(index);
+        }
         return name;
     }
 
     public void setName(String name) {
         this.name = name;
         this.modifiedAt = LocalDateTime.now();
+        this.version = WRITES.incrementAndGet();
     }
 
     public String getContent() {
+        if (content == null && batch != null) {
+            content = batch.getContent(index);
+        }
         return content;
     }
 
+    /**
+     * Get the length of the content; a document of a batch answers without copying its content out
+     */
+    public int getContentLength() {
+        if (content == null && batch != null) {
+            return batch.getContentLength(index);
+        }
+        return content == null ? 0 : content.length();
+    }
+
     public void setContent(String content) {
         this.content = content;
         this.modifiedAt = LocalDateTime.now();
+        this.version = WRITES.incrementAndGet();
     }
 
     public LocalDateTime getCreatedAt() {
+        if (createdAt == null) {
+            createdAt = LocalDateTime.ofInstant(Instant.ofEpochMilli(createdMillis), ZoneId.systemDefault());
+        }
         return createdAt;
     }
 
     public LocalDateTime getModifiedAt() {
-        return modifiedAt;
+        return modifiedAt == null ? getCreatedAt() : modifiedAt;
+    }
+
+    /**
+     * Get the number of the last change of this document, 0 if it was not changed since it was created
+     * or restored. Changes of all documents are numbered in one increasing sequence, so unlike the
+     * modification time this tells apart changes made within the same clock tick.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Get the number of the last change of any document; while it stays the same, no document changed
+     */
+    public static long getLastVersion() {
+        return WRITES.get();
     }
 
     @Override
@@ -54,11 +129,11 @@ public class TextDocument {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         TextDocument that = (TextDocument) o;
-        return Objects.equals(id, that.id);
+        return Objects.equals(getId(), that.getId());
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(id);
+        return Objects.hash(getId());
     }
-} 
\ No newline at end of file
+}
\ No newline at end of file
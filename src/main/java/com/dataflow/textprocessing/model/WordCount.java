@@ -0,0 +1,55 @@
+package com.dataflow.textprocessing.model;
+
+import java.util.Objects;
+
+/**
+ * Estimated count of a word, as reported by a {@link WordFrequencySketch}
+ */
+public class WordCount {
+    private final String word;
+    private final long count;
+    private final long error;
+
+    public WordCount(String word, long count, long error) {
+        this.word = word;
+        this.count = count;
+        this.error = error;
+    }
+
+    // Getters
+    public String getWord() {
+        return word;
+    }
+
+    /**
+     * Upper bound of the word's count
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Maximum overestimation of the count; the word occurred at least count - error times
+     */
+    public long getError() {
+        return error;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        WordCount that = (WordCount) o;
+        return count == that.count && error == that.error && word.equals(that.word);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(word, count, error);
+    }
+
+    @Override
+    public String toString() {
+        return word + "=" + count + (error > 0 ? " (±" + error + ")" : "");
+    }
+}
@@ -0,0 +1,136 @@
+package com.dataflow.textprocessing.model;
+
+import com.dataflow.textprocessing.util.Cancellation;
+import com.dataflow.textprocessing.util.ContentHash;
+import com.dataflow.textprocessing.util.CountMinSketch;
+import com.dataflow.textprocessing.util.HyperLogLog;
+import com.dataflow.textprocessing.util.SpaceSaving;
+import com.dataflow.textprocessing.util.WordTokenizer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fixed-size summary of the word frequencies of one or more documents: the top words (Space-Saving),
+ * count estimates for any word (Count-Min Sketch) and the number of distinct words (HyperLogLog).
+ * Words are lower cased like in exact word frequency analysis. Sketches built with the same
+ * configuration can be merged.
+ */
+public class WordFrequencySketch {
+    public static final int DEFAULT_TOP_K_CAPACITY = 1000;
+    public static final double DEFAULT_EPSILON = 0.0002;
+    public static final double DEFAULT_DELTA = 0.001;
+    public static final int DEFAULT_HLL_PRECISION = 14;
+    private static final int CHECKPOINT_INTERVAL = 1 << 16;
+
+    private final SpaceSaving heavyHitters;
+    private final CountMinSketch counts;
+    private final HyperLogLog distinctWords;
+
+    public WordFrequencySketch() {
+        this(DEFAULT_TOP_K_CAPACITY, DEFAULT_EPSILON, DEFAULT_DELTA, DEFAULT_HLL_PRECISION);
+    }
+
+    /**
+     * @param topKCapacity Number of heavy hitter counters
+     * @param epsilon Count estimates exceed the true count by at most epsilon times the total word count...
+     * @param delta ...except with this probability
+     * @param hllPrecision Distinct count precision; the relative error is about 1.04 / sqrt(2^precision)
+     */
+    public WordFrequencySketch(int topKCapacity, double epsilon, double delta, int hllPrecision) {
+        this.heavyHitters = new SpaceSaving(topKCapacity);
+        this.counts = new CountMinSketch(epsilon, delta);
+        this.distinctWords = new HyperLogLog(hllPrecision);
+    }
+
+    /**
+     * Add one occurrence of a word
+     */
+    public void add(String word) {
+        String normalized = WordTokenizer.normalize(word, 0, word.length());
+        long hash = ContentHash.of(normalized).getLow();
+        heavyHitters.add(normalized, 1);
+        counts.add(hash, 1);
+        distinctWords.add(hash);
+    }
+
+    /**
+     * Add every word of a text
+     */
+    public void addText(CharSequence text) {
+        int[] nextCheckpoint = {CHECKPOINT_INTERVAL};
+        WordTokenizer.forEachToken(text, (start, end) -> {
+            if (start >= nextCheckpoint[0]) {
+                Cancellation.checkpoint();
+                nextCheckpoint[0] = start + CHECKPOINT_INTERVAL;
+            }
+            String word = WordTokenizer.normalize(text, start, end);
+            long hash = ContentHash.of(word).getLow();
+            heavyHitters.add(word, 1);
+            counts.add(hash, 1);
+            distinctWords.add(hash);
+        });
+    }
+
+    /**
+     * Merge another sketch with the same configuration into this one
+     * @return This sketch
+     */
+    public WordFrequencySketch merge(WordFrequencySketch other) {
+        heavyHitters.merge(other.heavyHitters);
+        counts.merge(other.counts);
+        distinctWords.merge(other.distinctWords);
+        return this;
+    }
+
+    /**
+     * Estimate how often a word occurs; the estimate is never below the true count
+     */
+    public long estimateCount(String word) {
+        String normalized = WordTokenizer.normalize(word, 0, word.length());
+        long estimate = counts.estimate(ContentHash.of(normalized).getLow());
+        long tracked = heavyHitters.count(normalized);
+        return tracked >= 0 ? Math.min(estimate, tracked) : estimate;
+    }
+
+    /**
+     * Estimate the number of distinct words
+     */
+    public long estimateDistinctWords() {
+        return distinctWords.estimate();
+    }
+
+    /**
+     * Get the total number of words added
+     */
+    public long getTotalWords() {
+        return counts.getTotalCount();
+    }
+
+    /**
+     * Get the most frequent words with upper bounds of their counts
+     * @param k Maximum number of words, at most the top-K capacity
+     */
+    public List<WordCount> getTopWords(int k) {
+        List<SpaceSaving.Entry> top = heavyHitters.top(k);
+        List<WordCount> words = new ArrayList<>(top.size());
+        for (SpaceSaving.Entry entry : top) {
+            words.add(new WordCount(entry.getItem(), entry.getCount(), entry.getError()));
+        }
+        return words;
+    }
+
+    /**
+     * Maximum overestimate of {@link #estimateCount(String)}, holding with probability 1 - delta
+     */
+    public long getCountErrorBound() {
+        return (long) Math.ceil(counts.getEpsilon() * counts.getTotalCount());
+    }
+
+    /**
+     * Relative standard error of {@link #estimateDistinctWords()}
+     */
+    public double getDistinctRelativeError() {
+        return distinctWords.getRelativeError();
+    }
+}
@@ -0,0 +1,93 @@
+package com.dataflow.textprocessing.service;
+
+import com.dataflow.textprocessing.model.FileResult;
+import com.dataflow.textprocessing.model.TextDocument;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+public interface BatchFileService {
+    /**
+     * Read, process and write files as a pipeline: reads and writes run asynchronously with a bounded
+     * number in flight, while documents already read are processed on worker threads. A file that
+     * fails does not stop the others. Interrupting the calling thread cancels the files not finished.
+     * @param files Files to read
+     * @param outputDirectory Directory receiving each processed document as UTF-8 under the name of
+     *                        its source file, gzip compressed if that name ends in {@code .gz}, or
+     *                        null to not write results
+     * @param operation Processing applied to each document
+     * @param listener Receives each file's result as soon as it is complete
+     * @return Results in the order of the files
+     * @throws IllegalArgumentException If two files have the same name, so their outputs would collide
+     */
+    List<FileResult> processFiles(List<Path> files, Path outputDirectory,
+                                  BatchProcessingService.BatchOperation<TextDocument> operation,
+                                  FileResultListener listener);
+
+    /**
+     * Process files as a resumable job whose progress is kept in a journal. Files the journal records
+     * as completed are skipped while neither their source nor their output changed, so a job stopped
+     * by a crash or cancellation resumes where it stopped. Files that fail are kept in the journal's
+     * retry queue and skipped by later runs until they are retried with {@link #retryFailedFiles} or
+     * their source changes. Outputs replace their previous version atomically, so processing a file
+     * again is harmless.
+     * @param files Files to read
+     * @param outputDirectory Directory receiving each processed document, named as by
+     *                        {@link #processFiles(List, Path, BatchProcessingService.BatchOperation, FileResultListener)}
+     * @param operation Processing applied to each document
+     * @param journal Journal file of the job, created if missing; used by one job at a time
+     * @param listener Receives the result of each file processed in this run
+     * @return Results of the files processed in this run, in the order of the files
+     * @throws IllegalArgumentException If two files have the same name, so their outputs would collide
+     */
+    List<FileResult> processFiles(List<Path> files, Path outputDirectory,
+                                  BatchProcessingService.BatchOperation<TextDocument> operation, Path journal,
+                                  FileResultListener listener);
+
+    /**
+     * Process the files in a journal's retry queue again; files failing again stay in the queue
+     * @param journal Journal file of the job
+     * @param outputDirectory Directory receiving each processed document
+     * @param operation Processing applied to each document
+     * @param listener Receives the result of each file retried
+     * @return Results of the files retried, in the order they failed
+     */
+    List<FileResult> retryFailedFiles(Path journal, Path outputDirectory,
+                                      BatchProcessingService.BatchOperation<TextDocument> operation,
+                                      FileResultListener listener);
+
+    /**
+     * Get the files a journaled job failed to process and has not yet processed successfully
+     * @param journal Journal file of the job
+     * @return The failed files in the order they failed, empty if the journal does not exist
+     */
+    List<Path> getRetryQueue(Path journal);
+
+    /**
+     * Read a file asynchronously
+     * @param path File to read
+     * @return The document named after the file
+     */
+    CompletableFuture<TextDocument> readDocument(Path path);
+
+    /**
+     * Write a document's content as UTF-8 asynchronously, gzip compressed if the file name ends in
+     * {@code .gz}; the file is replaced atomically
+     * @param document Document to write
+     * @param path Target file
+     * @return Number of bytes written
+     */
+    CompletableFuture<Long> writeDocument(TextDocument document, Path path);
+
+    /**
+     * Receives file results; called from I/O and worker threads, one file at a time per file but
+     * possibly concurrently for different files
+     */
+    interface FileResultListener {
+        /**
+         * @param result Outcome and timings of the file
+         * @param processed The processed document, or null if the file failed
+         */
+        void onFileCompleted(FileResult result, TextDocument processed);
+    }
+}
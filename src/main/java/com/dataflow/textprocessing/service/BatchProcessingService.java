@@ -30,6 +30,13 @@ public interface BatchProcessingService {
      */
     interface BatchProcessingCallback {
         void onProgress(int current, int total);
+
+        /**
+         * Called for each document as soon as it is processed, in completion order
+         */
+        default void onDocumentProcessed(TextDocument result) {
+        }
+
         void onComplete(List<TextDocument> results);
         void onError(TextDocument document, Exception error);
     }
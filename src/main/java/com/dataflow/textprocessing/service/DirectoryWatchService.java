@@ -0,0 +1,52 @@
+package com.dataflow.textprocessing.service;
+
+import com.dataflow.textprocessing.model.TextDocument;
+import java.nio.file.Path;
+
+public interface DirectoryWatchService {
+    /**
+     * Continuously process the files arriving in a directory, and the files already in it. A file is
+     * processed once it has not changed for a quiet period, so files still being written and rapid
+     * rewrites are processed once; small files are processed together in batches. A file rewritten
+     * after it was processed is processed again.
+     * @param directory Directory to watch; subdirectories are not watched
+     * @param outputDirectory Directory receiving each processed document, or null to not write results;
+     *                        must not be the watched directory
+     * @param operation Processing applied to each document
+     * @param listener Receives each file's result as soon as it is complete
+     * @return The running session
+     */
+    WatchSession watch(Path directory, Path outputDirectory, BatchProcessingService.BatchOperation<TextDocument> operation,
+                       BatchFileService.FileResultListener listener);
+
+    /**
+     * A running directory watch
+     */
+    interface WatchSession {
+        Path getDirectory();
+
+        /**
+         * Number of files processed successfully
+         */
+        long getProcessedCount();
+
+        long getFailedCount();
+
+        /**
+         * Number of files seen but not yet processed, including those waiting for their quiet period
+         */
+        int getPendingCount();
+
+        /**
+         * Time from a file's first change to its processed result, at a quantile of the files processed
+         * @param quantile Quantile between 0 and 1
+         * @return Latency in nanoseconds, or 0 if no file was processed
+         */
+        long getLatencyNanos(double quantile);
+
+        /**
+         * Stop watching and cancel the files being processed; returns once the session has stopped
+         */
+        void stop();
+    }
+}
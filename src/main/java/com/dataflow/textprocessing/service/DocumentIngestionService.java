@@ -0,0 +1,41 @@
+package com.dataflow.textprocessing.service;
+
+import com.dataflow.textprocessing.model.TextDocument;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+
+public interface DocumentIngestionService {
+    /**
+     * Read a text file of any supported encoding, decompressing it if it is gzip
+     * @param path File to read
+     * @return Document named after the file, without a {@code .gz} extension
+     */
+    TextDocument readDocument(Path path);
+
+    /**
+     * Decode text of any supported encoding; a byte order mark is removed
+     * @param bytes Encoded text, possibly gzip compressed
+     * @return The text
+     */
+    String decode(byte[] bytes);
+
+    /**
+     * Detect the encoding from a byte order mark, or failing that from the bytes themselves:
+     * UTF-16 by its zero bytes, UTF-8 by being well-formed, and windows-1252 otherwise
+     * @param bytes Encoded text; only the start is examined
+     * @return The detected encoding
+     */
+    Charset detectCharset(byte[] bytes);
+
+    /**
+     * What to do with bytes that are not valid in the detected encoding
+     */
+    enum MalformedInputPolicy {
+        /** Replace each malformed sequence with U+FFFD */
+        REPLACE,
+        /** Drop malformed sequences */
+        SKIP,
+        /** Fail with the offset of the first malformed sequence */
+        REPORT
+    }
+}
@@ -0,0 +1,88 @@
+package com.dataflow.textprocessing.service;
+
+import com.dataflow.textprocessing.model.DocumentVersion;
+import com.dataflow.textprocessing.model.TextDocument;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+public interface DocumentStoreService {
+    /**
+     * Save a document as a new version under its id; saving the same name and content as the latest
+     * version again stores nothing. Returns once the version is durable.
+     * @param document Document to save
+     * @return The stored version
+     */
+    DocumentVersion save(TextDocument document);
+
+    /**
+     * Save the name and content of a document as a new version of another document, so results of
+     * processing keep the identity of their source instead of becoming copies under new ids
+     * @param documentId Id of the document the revision belongs to
+     * @param revision Document holding the new name and content
+     * @return The stored version
+     */
+    DocumentVersion saveVersion(String documentId, TextDocument revision);
+
+    /**
+     * Load the latest version of a document
+     * @param documentId Id of the document
+     * @return The document, or null if it is not stored
+     */
+    TextDocument load(String documentId);
+
+    /**
+     * Load a specific version of a document
+     * @param documentId Id of the document
+     * @param version Version number, starting at 1
+     * @return The document as it was in that version, or null if the version is not stored
+     */
+    TextDocument load(String documentId, int version);
+
+    /**
+     * Get the latest content of a document as UTF-8 without copying it out of the store
+     * @param documentId Id of the document
+     * @return Read-only buffer over the stored bytes, or null if the document is not stored
+     */
+    ByteBuffer contentBytes(String documentId);
+
+    /**
+     * Get all stored versions of a document, oldest first
+     * @param documentId Id of the document
+     * @return The versions, empty if the document is not stored
+     */
+    List<DocumentVersion> history(String documentId);
+
+    /**
+     * Get the latest version of every stored document, ordered by name
+     */
+    List<DocumentVersion> list();
+
+    /**
+     * Delete a document and all its versions; the space is reclaimed by {@link #compact(int)}
+     * @param documentId Id of the document
+     * @return true if the document was stored
+     */
+    boolean delete(String documentId);
+
+    /**
+     * Process stored documents by id and save each result as a new version of its source
+     * @param documentIds Ids of the documents to process
+     * @param operation Processing applied to the latest version of each document
+     * @param callback Receives progress, results and failures; a failed document does not stop the others
+     */
+    void reprocess(List<String> documentIds, BatchProcessingService.BatchOperation<TextDocument> operation,
+                   BatchProcessingService.BatchProcessingCallback callback);
+
+    /**
+     * Rewrite the store without deleted documents, versions beyond the retained ones and content no
+     * retained version refers to
+     * @param maxVersions Number of most recent versions to keep per document
+     * @return Number of bytes reclaimed
+     */
+    long compact(int maxVersions);
+
+    /**
+     * Close the store after all pending saves are durable
+     */
+    void close();
+}
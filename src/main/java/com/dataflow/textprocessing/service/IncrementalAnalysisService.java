@@ -0,0 +1,26 @@
+package com.dataflow.textprocessing.service;
+
+import com.dataflow.textprocessing.model.TextDocument;
+import java.util.Map;
+
+public interface IncrementalAnalysisService {
+    /**
+     * Get text statistics for the document, rescanning only the parts of the content that changed
+     * since the document was last analysed
+     * @param document The document to analyse
+     * @return Statistics with the same keys as {@link TextAnalysisService#getTextStatistics(TextDocument)}
+     */
+    Map<String, Object> getTextStatistics(TextDocument document);
+
+    /**
+     * Analyze word frequency in the document, rescanning only the changed parts of the content
+     */
+    Map<String, Long> analyzeWordFrequency(TextDocument document);
+
+    /**
+     * Drop the analysis state kept for a document
+     * @param documentId The id of the document
+     * @return true if state was kept for the document
+     */
+    boolean release(String documentId);
+}
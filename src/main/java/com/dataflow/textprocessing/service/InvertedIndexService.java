@@ -0,0 +1,74 @@
+package com.dataflow.textprocessing.service;
+
+import com.dataflow.textprocessing.model.SearchHit;
+import com.dataflow.textprocessing.model.TextDocument;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+public interface InvertedIndexService {
+    /**
+     * Add a document to the index, re-indexing it only if it was modified since it was last indexed
+     * @param document The document to index
+     * @return true if the document was (re)indexed, false if the indexed version is up to date
+     */
+    boolean indexDocument(TextDocument document);
+
+    /**
+     * Add or refresh a collection of documents
+     * @param documents The documents to index
+     * @return Number of documents that were (re)indexed
+     */
+    int indexDocuments(Collection<TextDocument> documents);
+
+    /**
+     * Remove a document from the index
+     * @param documentId The id of the document to remove
+     * @return true if the document was indexed
+     */
+    boolean removeDocument(String documentId);
+
+    /**
+     * Find every occurrence of a single word
+     * @param term The word to search for (case insensitive)
+     * @return Hits ordered by document and offset
+     */
+    List<SearchHit> searchTerm(String term);
+
+    /**
+     * Find every occurrence of consecutive words
+     * @param phrase The words to search for (case insensitive, punctuation ignored)
+     * @return Hits spanning the whole phrase, ordered by document and offset
+     */
+    List<SearchHit> searchPhrase(String phrase);
+
+    /**
+     * Find every occurrence of words starting with a prefix
+     * @param prefix The word prefix to search for (case insensitive)
+     * @return Hits ordered by document and offset
+     */
+    List<SearchHit> searchPrefix(String prefix);
+
+    /**
+     * Get the ids of all indexed documents
+     */
+    Set<String> getIndexedDocumentIds();
+
+    /**
+     * Get the number of distinct words in the index
+     */
+    int getTermCount();
+
+    /**
+     * Write the index to disk, replacing any existing file
+     * @param path The index file
+     */
+    void save(Path path);
+
+    /**
+     * Replace the index content with an index previously written by {@link #save(Path)}
+     * @param path The index file
+     */
+    void load(Path path);
+}
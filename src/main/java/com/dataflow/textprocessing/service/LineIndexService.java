@@ -0,0 +1,117 @@
+package com.dataflow.textprocessing.service;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.List;
+
+public interface LineIndexService {
+    /**
+     * Index the line starts of a UTF-8 text, scanning large texts in parallel
+     * @param text UTF-8 text between the position and the limit of the buffer, which may be memory mapped
+     * @return Index over the text
+     */
+    LineIndex buildIndex(ByteBuffer text);
+
+    /**
+     * Map a UTF-8 file and index its lines, reusing the sidecar index file next to it (the file name
+     * followed by {@code .lines}) when it records the file's current size and modification time, and
+     * writing a new one otherwise
+     * @param file File of at most 2 GiB
+     * @return Index over the mapped file
+     */
+    LineIndex open(Path file);
+
+    /**
+     * Write the line offsets of an index to disk, replacing any existing file
+     * @param index The index to write
+     * @param path The index file
+     */
+    void save(LineIndex index, Path path);
+
+    /**
+     * Read line offsets previously written by {@link #save(LineIndex, Path)}
+     * @param path The index file
+     * @param text The indexed text, of the length recorded in the file
+     * @return Index over the text
+     */
+    LineIndex load(Path path, ByteBuffer text);
+
+    /**
+     * Interface for random access to the lines of a UTF-8 text. Lines are separated by {@code '\n'},
+     * which is not part of a line; a {@code '\r'} before it is kept. An empty text has no lines, and a
+     * text ending with a line break has no empty line after it. Offsets are byte offsets from the start
+     * of the text.
+     */
+    interface LineIndex {
+        /**
+         * Get the number of lines
+         */
+        int getLineCount();
+
+        /**
+         * Get the length of the indexed text in bytes
+         */
+        int length();
+
+        /**
+         * Get the offset of the first byte of a line
+         * @param line Line number, starting at 0
+         */
+        int lineStart(int line);
+
+        /**
+         * Get the offset just past the last byte of a line, before its line break
+         * @param line Line number, starting at 0
+         */
+        int lineEnd(int line);
+
+        /**
+         * Find the line holding a byte, such as the offset of a search hit
+         * @param offset Byte offset in the text
+         * @return Line number, starting at 0
+         */
+        int lineAt(int offset);
+
+        /**
+         * Decode a line
+         * @param line Line number, starting at 0
+         */
+        String getLine(int line);
+
+        /**
+         * Decode a range of lines
+         * @param fromLine First line (inclusive)
+         * @param toLine Last line (exclusive)
+         */
+        List<String> getLines(int fromLine, int toLine);
+
+        /**
+         * Get the bytes of a range of lines with the line breaks between them, without copying
+         * @param fromLine First line (inclusive)
+         * @param toLine Last line (exclusive)
+         * @return Read-only buffer from the start of the first line to the end of the last line
+         */
+        ByteBuffer slice(int fromLine, int toLine);
+
+        /**
+         * Sort a range of lines by comparing their bytes, which orders well-formed UTF-8 like
+         * {@link String#compareTo}, and write them joined by line breaks
+         * @param fromLine First line (inclusive)
+         * @param toLine Last line (exclusive)
+         * @param ascending Sort order
+         * @param output Receives the sorted lines; it is flushed but not closed
+         * @return Number of lines written
+         */
+        long sortLines(int fromLine, int toLine, boolean ascending, OutputStream output);
+
+        /**
+         * Write the first occurrence of each distinct line of a range, in order, joined by line breaks
+         * @param fromLine First line (inclusive)
+         * @param toLine Last line (exclusive)
+         * @param output Receives the lines; it is flushed but not closed
+         * @return Number of lines written
+         */
+        long removeDuplicateLines(int fromLine, int toLine, OutputStream output);
+    }
+}
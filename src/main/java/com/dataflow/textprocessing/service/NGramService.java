@@ -0,0 +1,56 @@
+package com.dataflow.textprocessing.service;
+
+import com.dataflow.textprocessing.model.Collocation;
+import com.dataflow.textprocessing.model.NGramCounts;
+import com.dataflow.textprocessing.model.TextDocument;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
+
+public interface NGramService {
+    /**
+     * Count the words, bigrams and trigrams of a collection of documents
+     * @param documents The documents to count
+     * @return Counts of all documents
+     */
+    NGramCounts countNGrams(Collection<TextDocument> documents);
+
+    /**
+     * Count the words, bigrams and trigrams of a stream of documents; a parallel stream is counted on
+     * several threads. Documents are not retained, so the stream may be larger than memory.
+     * @param documents The documents to count
+     * @return Counts of all documents
+     */
+    NGramCounts countNGrams(Stream<TextDocument> documents);
+
+    /**
+     * Find word pairs occurring together more often than chance
+     * @param counts Counts to search
+     * @param minCount Minimum number of occurrences of a pair
+     * @param limit Maximum number of collocations
+     * @return Collocations in descending order of log-likelihood ratio
+     */
+    List<Collocation> findCollocations(NGramCounts counts, int minCount, int limit);
+
+    /**
+     * Write counts as tab separated lines of order, n-gram and count
+     * @param counts Counts to write
+     * @param path Target file
+     */
+    void exportTsv(NGramCounts counts, Path path);
+
+    /**
+     * Write counts in a compact binary format
+     * @param counts Counts to write
+     * @param path Target file
+     */
+    void exportBinary(NGramCounts counts, Path path);
+
+    /**
+     * Read counts written by {@link #exportBinary(NGramCounts, Path)}
+     * @param path Source file
+     * @return The counts
+     */
+    NGramCounts loadBinary(Path path);
+}
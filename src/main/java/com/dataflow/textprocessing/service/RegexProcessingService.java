@@ -1,5 +1,6 @@
 package com.dataflow.textprocessing.service;
 
+import com.dataflow.textprocessing.model.CompiledReplacement;
 import com.dataflow.textprocessing.model.TextDocument;
 import java.util.List;
 
@@ -34,6 +35,11 @@ public interface RegexProcessingService {
      */
     String replaceAllMatches(TextDocument document, String pattern, String replacement);
 
+    /**
+     * Compile a pattern and replacement template for reuse across documents
+     */
+    CompiledReplacement compileReplacement(String pattern, String replacement);
+
     /**
      * Check if a regex pattern is valid
      */
@@ -0,0 +1,58 @@
+package com.dataflow.textprocessing.service;
+
+import com.dataflow.textprocessing.model.TextDocument;
+import java.nio.file.Path;
+
+public interface SubstringIndexService {
+    /**
+     * Build a full-text substring index over the document content
+     * @param document The document to index
+     * @return Index answering count and locate queries for any substring
+     */
+    SubstringIndex buildIndex(TextDocument document);
+
+    /**
+     * Write an index to disk, replacing any existing file
+     * @param index The index to write
+     * @param path The index file
+     */
+    void save(SubstringIndex index, Path path);
+
+    /**
+     * Open an index previously written by {@link #save(SubstringIndex, Path)}, memory mapping its content
+     * @param path The index file
+     * @return The loaded index
+     */
+    SubstringIndex load(Path path);
+
+    /**
+     * Interface for a substring index over a single text
+     */
+    interface SubstringIndex {
+        /**
+         * Count the occurrences of a substring, in time proportional to its length
+         */
+        int count(String substring);
+
+        /**
+         * Find the start offsets of all occurrences of a substring, in ascending order
+         */
+        int[] locate(String substring);
+
+        /**
+         * Find the start offsets of a page of the occurrences of a substring, locating only those.
+         * Pages follow the index's own order, so together they cover every occurrence once, but a
+         * page is not the next occurrences in the text.
+         * @param substring The substring to find
+         * @param from Number of occurrences to skip
+         * @param limit Maximum number of occurrences to locate
+         * @return Offsets of the page, in ascending order
+         */
+        int[] locate(String substring, int from, int limit);
+
+        /**
+         * Get the length of the indexed text
+         */
+        int length();
+    }
+}
@@ -0,0 +1,52 @@
+package com.dataflow.textprocessing.service;
+
+import com.dataflow.textprocessing.model.PipelineResult;
+import com.dataflow.textprocessing.model.PipelineStage;
+import com.dataflow.textprocessing.model.TextDocument;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.List;
+
+public interface TextPipelineService {
+    /**
+     * Build an execution plan for a chain of stages: redundant stages are dropped, character-level
+     * stages are fused into one pass over each line, and consecutive line-level stages run in one
+     * iteration over the lines
+     * @param stages Stages in the order they apply
+     * @return Plan reusable for any number of documents, from any thread
+     */
+    Plan plan(List<PipelineStage> stages);
+
+    /**
+     * Run a plan over a document
+     * @param plan Plan to run
+     * @param document Document to process; it is not changed
+     * @return The processed document under the same name, with statistics and step timings
+     */
+    PipelineResult execute(Plan plan, TextDocument document);
+
+    /**
+     * Run a plan over a stream of text, writing the output as it is produced; memory use is bounded by
+     * the longest line unless the plan has steps that need the whole text
+     * @param plan Plan to run
+     * @param input Text to process
+     * @param output Receives the processed text
+     * @return Statistics and step timings, without a document
+     */
+    PipelineResult executeTo(Plan plan, Reader input, Writer output);
+
+    /**
+     * Compiled pipeline
+     */
+    interface Plan {
+        /**
+         * Stages as declared
+         */
+        List<PipelineStage> getStages();
+
+        /**
+         * Steps the plan runs, each naming the stages it fuses
+         */
+        List<String> describe();
+    }
+}
@@ -1,5 +1,6 @@
 package com.dataflow.textprocessing.service;
 
+import com.dataflow.textprocessing.model.CompiledReplacement;
 import com.dataflow.textprocessing.model.TextDocument;
 import java.util.List;
 import java.util.Map;
@@ -83,6 +84,14 @@ public interface TextProcessingService {
     // New regex operations
     List<String> extractMatches(TextDocument document, String pattern);
     String replaceAllMatches(TextDocument document, String pattern, String replacement);
+
+    /**
+     * Compile a pattern and replacement template for reuse across documents; recently compiled pairs
+     * are cached, and the replace operations above share the cache
+     * @throws IllegalArgumentException If the pattern is invalid; an invalid template fails when a match
+     * is replaced, as with {@link java.util.regex.Matcher#appendReplacement}
+     */
+    CompiledReplacement compileReplacement(String pattern, String replacement);
     boolean isValidRegexPattern(String pattern);
 
     // Advanced processing
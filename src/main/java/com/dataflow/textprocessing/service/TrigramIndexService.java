@@ -0,0 +1,63 @@
+package com.dataflow.textprocessing.service;
+
+import com.dataflow.textprocessing.model.SearchHit;
+import com.dataflow.textprocessing.model.TextDocument;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+public interface TrigramIndexService {
+    /**
+     * Add a document to the index, re-indexing it only if it was modified since it was last indexed
+     * @param document The document to index
+     * @return true if the document was (re)indexed, false if the indexed version is up to date
+     */
+    boolean indexDocument(TextDocument document);
+
+    /**
+     * Add or refresh a collection of documents
+     * @param documents The documents to index
+     * @return Number of documents that were (re)indexed
+     */
+    int indexDocuments(Collection<TextDocument> documents);
+
+    /**
+     * Remove a document from the index
+     * @param documentId The id of the document to remove
+     * @return true if the document was indexed
+     */
+    boolean removeDocument(String documentId);
+
+    /**
+     * Search all indexed documents for a regex pattern, only scanning documents
+     * that contain the trigrams every match of the pattern requires
+     * @param pattern The regex pattern to search for
+     * @return Hits ordered by document and offset
+     */
+    List<SearchHit> searchPattern(String pattern);
+
+    /**
+     * Get the ids of the documents that may contain a match of the pattern
+     * @param pattern The regex pattern to plan
+     * @return Candidate document ids, a superset of the documents containing a match
+     */
+    Set<String> findCandidates(String pattern);
+
+    /**
+     * Get the number of indexed documents
+     */
+    int getDocumentCount();
+
+    /**
+     * Write the index to disk, replacing any existing file
+     * @param path The index file
+     */
+    void save(Path path);
+
+    /**
+     * Replace the index content with an index previously written by {@link #save(Path)}
+     * @param path The index file
+     */
+    void load(Path path);
+}
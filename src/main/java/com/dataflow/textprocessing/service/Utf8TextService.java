@@ -0,0 +1,79 @@
+package com.dataflow.textprocessing.service;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Text operations on UTF-8 bytes, without decoding them into strings. Each operation reads the bytes
+ * between the position and the limit of a buffer, which may be memory mapped, and leaves the
+ * position unchanged. Results match the string operations of {@link TextProcessingService} on the
+ * decoded text; only strings returned are decoded.
+ */
+public interface Utf8TextService {
+    /**
+     * Map a UTF-8 file into memory read-only; a byte order mark is skipped
+     * @param path File of at most 2 GiB
+     * @return Buffer over the text
+     */
+    ByteBuffer map(Path path);
+
+    /**
+     * Count the lines: the line breaks, plus one if the text does not end with a line break
+     * @param text UTF-8 text
+     * @return Number of lines, 0 for an empty text
+     */
+    long countLines(ByteBuffer text);
+
+    /**
+     * Count the non-overlapping occurrences of a literal
+     * @param text UTF-8 text
+     * @param literal Text to find, not empty
+     * @return Number of occurrences
+     */
+    long countOccurrences(ByteBuffer text, String literal);
+
+    /**
+     * Find the lines containing a literal
+     * @param text UTF-8 text
+     * @param literal Text to find, not empty
+     * @param maxLines Maximum number of lines to return
+     * @return The matching lines in text order, without line breaks
+     */
+    List<String> findLines(ByteBuffer text, String literal, int maxLines);
+
+    /**
+     * Count words like {@link TextProcessingService#analyzeWordFrequency}
+     * @param text UTF-8 text
+     * @return Map of lower case words and their frequencies
+     */
+    Map<String, Long> analyzeWordFrequency(ByteBuffer text);
+
+    /**
+     * Compute the statistics of {@link TextProcessingService#getTextStatistics}, with characters
+     * counted in UTF-16 code units like the string operation
+     * @param text UTF-8 text
+     * @return Map of statistic names and values
+     */
+    Map<String, Object> getTextStatistics(ByteBuffer text);
+
+    /**
+     * Sort the lines like {@link TextProcessingService#sortLines}, writing the result as UTF-8
+     * @param text UTF-8 text
+     * @param ascending Sort order
+     * @param output Receives the sorted lines; it is flushed but not closed
+     * @return Number of lines written
+     */
+    long sortLines(ByteBuffer text, boolean ascending, OutputStream output);
+
+    /**
+     * Remove duplicate lines like {@link TextProcessingService#removeDuplicates}, writing the result
+     * as UTF-8
+     * @param text UTF-8 text
+     * @param output Receives the first occurrence of each line; it is flushed but not closed
+     * @return Number of lines written
+     */
+    long removeDuplicateLines(ByteBuffer text, OutputStream output);
+}
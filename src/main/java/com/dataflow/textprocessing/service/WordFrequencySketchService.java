@@ -0,0 +1,21 @@
+package com.dataflow.textprocessing.service;
+
+import com.dataflow.textprocessing.model.TextDocument;
+import com.dataflow.textprocessing.model.WordFrequencySketch;
+import java.util.Collection;
+
+public interface WordFrequencySketchService {
+    /**
+     * Summarise the word frequencies of a document in fixed memory
+     * @param document The document to analyse
+     * @return Sketch of the document's words
+     */
+    WordFrequencySketch sketch(TextDocument document);
+
+    /**
+     * Summarise the word frequencies of a collection of documents into one merged sketch
+     * @param documents The documents to analyse
+     * @return Sketch of the words of all documents
+     */
+    WordFrequencySketch sketchAll(Collection<TextDocument> documents);
+}
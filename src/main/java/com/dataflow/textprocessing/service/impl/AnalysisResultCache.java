@@ -0,0 +1,488 @@
+package com.dataflow.textprocessing.service.impl;
+
+import com.dataflow.textprocessing.exception.TextProcessingException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Content addressed cache for analysis results. Entries are keyed by the length and SHA-256 digest of
+ * the document content plus the operation and its parameters, so an unchanged text hits the cache whatever document
+ * object carries it. The memory tier is LRU, bounded by entry count and estimated weight; an optional
+ * directory acts as a second tier that survives restarts, bounded by total file size with the least
+ * recently used files deleted first. Disk entries are versioned and only deserialized into collections,
+ * strings and boxed primitives. Concurrent requests for the same key are computed once.
+ */
+public class AnalysisResultCache {
+    private static final Logger logger = LoggerFactory.getLogger(AnalysisResultCache.class);
+    public static final long DEFAULT_MAX_DISK_BYTES = 256L * 1024 * 1024;
+    private static final int MAGIC = 0x54504352; // "TPCR"
+    private static final int FORMAT_VERSION = 2;
+    private static final String RESULT_SUFFIX = ".result";
+
+    private final int maxEntries;
+    private final long maxWeight;
+    private final Path diskDirectory;
+    private final long maxDiskBytes;
+    private final Object diskLock = new Object();
+    private long diskBytes;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<CacheKey, CacheEntry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<CacheKey, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+    private long weight;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder diskHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Create a memory-only cache
+     * @param maxEntries Maximum number of cached results
+     * @param maxWeight Maximum estimated size of all cached results, in bytes
+     */
+    public AnalysisResultCache(int maxEntries, long maxWeight) {
+        this(maxEntries, maxWeight, null);
+    }
+
+    /**
+     * Create a cache backed by a directory for results evicted from, or never loaded into, memory
+     * @param maxEntries Maximum number of cached results
+     * @param maxWeight Maximum estimated size of all cached results, in bytes
+     * @param diskDirectory Directory of the second tier, or null for a memory-only cache
+     */
+    public AnalysisResultCache(int maxEntries, long maxWeight, Path diskDirectory) {
+        this(maxEntries, maxWeight, diskDirectory, DEFAULT_MAX_DISK_BYTES);
+    }
+
+    /**
+     * Create a cache backed by a directory of bounded size
+     * @param maxEntries Maximum number of cached results
+     * @param maxWeight Maximum estimated size of all cached results, in bytes
+     * @param diskDirectory Directory of the second tier, or null for a memory-only cache
+     * @param maxDiskBytes Maximum total size of the result files in the directory
+     */
+    public AnalysisResultCache(int maxEntries, long maxWeight, Path diskDirectory, long maxDiskBytes) {
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxWeight;
+        this.diskDirectory = diskDirectory;
+        this.maxDiskBytes = maxDiskBytes;
+        if (diskDirectory != null) {
+            try {
+                Files.createDirectories(diskDirectory);
+                diskBytes = resultFiles().stream().mapToLong(AnalysisResultCache::sizeOf).sum();
+            } catch (IOException e) {
+                throw new TextProcessingException("Failed to create cache directory " + diskDirectory, e);
+            }
+        }
+    }
+
+    /**
+     * Return the cached result of an operation on the content, computing and caching it on a miss
+     * @param content The analysed content
+     * @param operation Name of the operation
+     * @param parameters Operation parameters that influence the result
+     * @param computation Computes the result on a miss
+     * @return The cached or computed result
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getOrCompute(String content, String operation, List<?> parameters, Supplier<T> computation) {
+        CacheKey key = new CacheKey(content, operation, parameters);
+        Object value = getFromMemory(key);
+        if (value != null) {
+            hits.increment();
+            return (T) value;
+        }
+        value = getFromDisk(key);
+        if (value != null) {
+            diskHits.increment();
+            putInMemory(key, value);
+            return (T) value;
+        }
+
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> running = inFlight.putIfAbsent(key, future);
+        if (running != null) {
+            // Another thread is computing the same result; wait for it instead of computing again
+            coalesced.increment();
+            try {
+                return (T) running.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                }
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+        misses.increment();
+        try {
+            T computed = computation.get();
+            putInMemory(key, computed);
+            putOnDisk(key, computed);
+            future.complete(computed);
+            return computed;
+        } catch (Throwable e) {
+            // Errors too, or the threads waiting for this computation would never wake up
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key);
+        }
+    }
+
+    /**
+     * Remove all results from memory and disk
+     */
+    public void clear() {
+        lock.lock();
+        try {
+            entries.clear();
+            weight = 0;
+        } finally {
+            lock.unlock();
+        }
+        if (diskDirectory != null) {
+            synchronized (diskLock) {
+                try {
+                    for (Path file : resultFiles()) {
+                        Files.deleteIfExists(file);
+                    }
+                    diskBytes = 0;
+                } catch (IOException e) {
+                    logger.warn("Failed to clear cache directory {}: {}", diskDirectory, e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Get a snapshot of the cache counters
+     */
+    public Statistics getStatistics() {
+        lock.lock();
+        try {
+            return new Statistics(hits.sum(), diskHits.sum(), misses.sum(), coalesced.sum(), evictions.sum(),
+                    entries.size(), weight);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Object getFromMemory(CacheKey key) {
+        lock.lock();
+        try {
+            CacheEntry entry = entries.get(key);
+            return entry == null ? null : entry.value;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void putInMemory(CacheKey key, Object value) {
+        long entryWeight = estimateWeight(value);
+        if (entryWeight > maxWeight) {
+            return;
+        }
+        lock.lock();
+        try {
+            CacheEntry previous = entries.put(key, new CacheEntry(value, entryWeight));
+            weight += entryWeight - (previous == null ? 0 : previous.weight);
+            Iterator<CacheEntry> eldest = entries.values().iterator();
+            while ((entries.size() > maxEntries || weight > maxWeight) && eldest.hasNext()) {
+                weight -= eldest.next().weight;
+                eldest.remove();
+                evictions.increment();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Object getFromDisk(CacheKey key) {
+        if (diskDirectory == null) {
+            return null;
+        }
+        Path file = diskDirectory.resolve(key.fileName());
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            in.setObjectInputFilter(ResultFilters.VALUES);
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION || !in.readUTF().equals(key.toString())) {
+                return null;
+            }
+            Object value = in.readObject();
+            // The file times order eviction, so a read counts as a use
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            return value;
+        } catch (IOException | ClassNotFoundException e) {
+            logger.warn("Ignoring unreadable cache file {}: {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    private void putOnDisk(CacheKey key, Object value) {
+        if (diskDirectory == null || !(value instanceof Serializable)) {
+            return;
+        }
+        try {
+            Path tempFile = Files.createTempFile(diskDirectory, "result", ".tmp");
+            try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeUTF(key.toString());
+                out.writeObject(value);
+            }
+            long size = Files.size(tempFile);
+            if (size > maxDiskBytes) {
+                Files.delete(tempFile);
+                return;
+            }
+            Path file = diskDirectory.resolve(key.fileName());
+            synchronized (diskLock) {
+                long replaced = sizeOf(file);
+                Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                diskBytes += size - replaced;
+                if (diskBytes > maxDiskBytes) {
+                    trimDisk();
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to write {} to the cache directory: {}", key, e.getMessage());
+        }
+    }
+
+    /**
+     * Delete the least recently used result files until the directory is within its bound
+     */
+    private void trimDisk() throws IOException {
+        List<Path> files = resultFiles();
+        Map<Path, FileTime> times = new HashMap<>();
+        for (Path file : files) {
+            try {
+                times.put(file, Files.getLastModifiedTime(file));
+            } catch (IOException e) {
+                times.put(file, FileTime.fromMillis(0));
+            }
+        }
+        files.sort(Comparator.comparing(times::get));
+        for (Iterator<Path> oldest = files.iterator(); diskBytes > maxDiskBytes && oldest.hasNext(); ) {
+            Path file = oldest.next();
+            long size = sizeOf(file);
+            if (Files.deleteIfExists(file)) {
+                diskBytes -= size;
+                evictions.increment();
+            }
+        }
+    }
+
+    private List<Path> resultFiles() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(diskDirectory, "*" + RESULT_SUFFIX)) {
+            stream.forEach(files::add);
+        }
+        return files;
+    }
+
+    private static long sizeOf(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Rough heap footprint of a result, in bytes
+     */
+    static long estimateWeight(Object value) {
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof CharSequence) {
+            return 40 + 2L * ((CharSequence) value).length();
+        }
+        if (value instanceof Map) {
+            long total = 64;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                total += 32 + estimateWeight(entry.getKey()) + estimateWeight(entry.getValue());
+            }
+            return total;
+        }
+        if (value instanceof Collection) {
+            long total = 64;
+            for (Object element : (Collection<?>) value) {
+                total += 8 + estimateWeight(element);
+            }
+            return total;
+        }
+        return 16;
+    }
+
+    private static final class CacheEntry {
+        final Object value;
+        final long weight;
+
+        CacheEntry(Object value, long weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * Key of a result. The content is identified by its length and SHA-256 digest rather than a fast
+     * non-cryptographic hash, since a collision would return the result of another text.
+     */
+    private static final class CacheKey {
+        private static final int DIGEST_CHUNK = 4096;
+
+        final int length;
+        final byte[] digest;
+        final String operation;
+        final List<?> parameters;
+
+        CacheKey(String content, String operation, List<?> parameters) {
+            this.length = content.length();
+            this.digest = digest(content);
+            this.operation = operation;
+            this.parameters = List.copyOf(parameters);
+        }
+
+        /**
+         * SHA-256 of the UTF-16 code units of the text in little-endian order, encoded a chunk at a time
+         */
+        private static byte[] digest(String content) {
+            MessageDigest sha256;
+            try {
+                sha256 = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new TextProcessingException("SHA-256 is not available", e);
+            }
+            char[] chars = new char[Math.min(content.length(), DIGEST_CHUNK)];
+            byte[] bytes = new byte[chars.length * 2];
+            for (int start = 0; start < content.length(); start += chars.length) {
+                int count = Math.min(chars.length, content.length() - start);
+                content.getChars(start, start + count, chars, 0);
+                for (int i = 0; i < count; i++) {
+                    bytes[2 * i] = (byte) chars[i];
+                    bytes[2 * i + 1] = (byte) (chars[i] >>> 8);
+                }
+                sha256.update(bytes, 0, 2 * count);
+            }
+            return sha256.digest();
+        }
+
+        String fileName() {
+            StringBuilder name = new StringBuilder(HexFormat.of().formatHex(digest)).append('-').append(length)
+                    .append('-').append(operation);
+            for (Object parameter : parameters) {
+                name.append('-').append(String.valueOf(parameter).replaceAll("[^A-Za-z0-9]", "_"));
+            }
+            return name.append(RESULT_SUFFIX).toString();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            CacheKey that = (CacheKey) o;
+            return length == that.length && Arrays.equals(digest, that.digest) && operation.equals(that.operation)
+                    && parameters.equals(that.parameters);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(length, Arrays.hashCode(digest), operation, parameters);
+        }
+
+        @Override
+        public String toString() {
+            return HexFormat.of().formatHex(digest) + ":" + length + ":" + operation + parameters;
+        }
+    }
+
+    /**
+     * Snapshot of cache counters
+     */
+    public static final class Statistics {
+        private final long hits;
+        private final long diskHits;
+        private final long misses;
+        private final long coalesced;
+        private final long evictions;
+        private final int entries;
+        private final long weight;
+
+        Statistics(long hits, long diskHits, long misses, long coalesced, long evictions, int entries, long weight) {
+            this.hits = hits;
+            this.diskHits = diskHits;
+            this.misses = misses;
+            this.coalesced = coalesced;
+            this.evictions = evictions;
+            this.entries = entries;
+            this.weight = weight;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getDiskHits() {
+            return diskHits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        /**
+         * Requests that waited for the same result being computed by another thread
+         */
+        public long getCoalesced() {
+            return coalesced;
+        }
+
+        public long getEvictions() {
+            return evictions;
+        }
+
+        public int getEntries() {
+            return entries;
+        }
+
+        public long getWeight() {
+            return weight;
+        }
+
+        /**
+         * Fraction of requests served from memory or disk; requests that waited for a computation in
+         * progress were not served from the cache
+         */
+        public double getHitRatio() {
+            long requests = hits + diskHits + misses + coalesced;
+            return requests == 0 ? 0.0 : (double) (hits + diskHits) / requests;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("hits=%d diskHits=%d misses=%d coalesced=%d hitRatio=%.2f evictions=%d entries=%d weight=%d",
+                    hits, diskHits, misses, coalesced, getHitRatio(), evictions, entries, weight);
+        }
+    }
+}
@@ -0,0 +1,588 @@
+package com.dataflow.textprocessing.service.impl;
+
+import com.dataflow.textprocessing.exception.TextProcessingException;
+import com.dataflow.textprocessing.model.FileResult;
+import com.dataflow.textprocessing.model.TextDocument;
+import com.dataflow.textprocessing.service.BatchFileService;
+import com.dataflow.textprocessing.service.BatchProcessingService;
+import com.dataflow.textprocessing.service.DocumentIngestionService;
+import com.dataflow.textprocessing.util.CompressedFiles;
+import com.dataflow.textprocessing.util.DirectBufferPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Batch file I/O on {@link AsynchronousFileChannel}s. Reads and writes each have a limit of operations
+ * in flight; operations beyond it wait in a queue and start as earlier ones complete, so no thread
+ * blocks on a free slot. Each operation moves data through a pooled direct buffer, which spares the
+ * channel a temporary direct copy per call. Decoding and processing run on worker threads while
+ * other files are read and written, and the number of files between read and write is bounded so a
+ * slow processing stage cannot fill memory with read documents.
+ */
+public class BatchFileServiceImpl implements BatchFileService {
+    private static final Logger logger = LoggerFactory.getLogger(BatchFileServiceImpl.class);
+    private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+
+    static final int DEFAULT_MAX_READS = 32;
+    static final int DEFAULT_MAX_WRITES = 16;
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private final DocumentIngestionService ingestionService;
+    private final ExecutorService ioThreads;
+    private final ExecutorService workers;
+    private final int workerThreads;
+    private final DirectBufferPool buffers;
+    private final InFlightLimit reads;
+    private final InFlightLimit writes;
+
+    public BatchFileServiceImpl(DocumentIngestionService ingestionService) {
+        this(ingestionService, DEFAULT_MAX_READS, DEFAULT_MAX_WRITES, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param ingestionService Service decoding the bytes read
+     * @param maxReads Maximum number of reads in flight
+     * @param maxWrites Maximum number of writes in flight
+     * @param workerThreads Number of threads decoding and processing documents
+     */
+    public BatchFileServiceImpl(DocumentIngestionService ingestionService, int maxReads, int maxWrites,
+                                int workerThreads) {
+        this.ingestionService = ingestionService;
+        int pool = POOL_NUMBER.incrementAndGet();
+        // File channels complete their operations on these threads, one per operation in flight
+        this.ioThreads = Executors.newFixedThreadPool(maxReads + maxWrites, daemonThreads("file-io-" + pool + "-"));
+        this.workers = Executors.newFixedThreadPool(workerThreads, daemonThreads("file-worker-" + pool + "-"));
+        this.workerThreads = workerThreads;
+        this.buffers = new DirectBufferPool(BUFFER_SIZE, maxReads + maxWrites);
+        this.reads = new InFlightLimit(maxReads);
+        this.writes = new InFlightLimit(maxWrites);
+    }
+
+    @Override
+    public List<FileResult> processFiles(List<Path> files, Path outputDirectory,
+                                         BatchProcessingService.BatchOperation<TextDocument> operation,
+                                         FileResultListener listener) {
+        requireDistinctOutputs(files, outputDirectory);
+        return run(files, null, outputDirectory, operation, null, listener);
+    }
+
+    @Override
+    public List<FileResult> processFiles(List<Path> files, Path outputDirectory,
+                                         BatchProcessingService.BatchOperation<TextDocument> operation, Path journal,
+                                         FileResultListener listener) {
+        requireOutputDirectory(outputDirectory);
+        requireDistinctOutputs(files, outputDirectory);
+        try (BatchJournal opened = BatchJournal.open(journal)) {
+            List<Path> remaining = new ArrayList<>(files.size());
+            List<BatchJournal.SourceState> states = new ArrayList<>(files.size());
+            for (Path file : files) {
+                BatchJournal.SourceState state = BatchJournal.SourceState.of(file);
+                if (!opened.canSkip(file, state, outputDirectory.resolve(file.getFileName()))) {
+                    remaining.add(file);
+                    states.add(state);
+                }
+            }
+            if (remaining.size() < files.size()) {
+                logger.info("Resuming batch from {}: skipping {} files completed or waiting for retry", journal,
+                        files.size() - remaining.size());
+            }
+            return run(remaining, states, outputDirectory, operation, opened, listener);
+        }
+    }
+
+    @Override
+    public List<FileResult> retryFailedFiles(Path journal, Path outputDirectory,
+                                             BatchProcessingService.BatchOperation<TextDocument> operation,
+                                             FileResultListener listener) {
+        requireOutputDirectory(outputDirectory);
+        try (BatchJournal opened = BatchJournal.open(journal)) {
+            List<Path> failed = opened.failedSources();
+            requireDistinctOutputs(failed, outputDirectory);
+            List<BatchJournal.SourceState> states = new ArrayList<>(failed.size());
+            failed.forEach(file -> states.add(BatchJournal.SourceState.of(file)));
+            logger.info("Retrying {} failed files from {}", failed.size(), journal);
+            return run(failed, states, outputDirectory, operation, opened, listener);
+        }
+    }
+
+    @Override
+    public List<Path> getRetryQueue(Path journal) {
+        if (!Files.exists(journal)) {
+            return List.of();
+        }
+        try (BatchJournal opened = BatchJournal.open(journal)) {
+            return opened.failedSources();
+        }
+    }
+
+    /**
+     * Run files through the pipeline, recording each outcome in the journal if there is one
+     * @param states State of each source when it was selected, or null without a journal
+     */
+    private List<FileResult> run(List<Path> files, List<BatchJournal.SourceState> states, Path outputDirectory,
+                                 BatchProcessingService.BatchOperation<TextDocument> operation, BatchJournal journal,
+                                 FileResultListener listener) {
+        logger.info("Starting batch of {} files", files.size());
+        FileResult[] results = new FileResult[files.size()];
+        Semaphore pendingFiles = new Semaphore(reads.limit + writes.limit + 2 * workerThreads);
+        CountDownLatch finished = new CountDownLatch(files.size());
+        AtomicBoolean cancelled = new AtomicBoolean();
+        try {
+            for (int i = 0; i < files.size(); i++) {
+                pendingFiles.acquire();
+                int index = i;
+                FileJob job = new FileJob(files.get(i), outputDirectory);
+                job.run(operation, cancelled).whenComplete((processed, error) -> {
+                    results[index] = job.result(error);
+                    try {
+                        if (journal != null) {
+                            journal.record(states.get(index), results[index]);
+                        }
+                        listener.onFileCompleted(results[index], error == null ? processed : null);
+                    } finally {
+                        pendingFiles.release();
+                        finished.countDown();
+                    }
+                });
+            }
+            finished.await();
+        } catch (InterruptedException e) {
+            cancelled.set(true);
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Batch file processing cancelled");
+        }
+        long failed = Arrays.stream(results).filter(result -> !result.isSuccessful()).count();
+        logger.info("Finished batch of {} files, {} failed", files.size(), failed);
+        return Arrays.asList(results);
+    }
+
+    @Override
+    public CompletableFuture<TextDocument> readDocument(Path path) {
+        return read(path).thenApplyAsync(read -> decode(path, read.bytes), workers);
+    }
+
+    @Override
+    public CompletableFuture<Long> writeDocument(TextDocument document, Path path) {
+        return CompletableFuture.supplyAsync(() -> encode(document, path), workers)
+                .thenCompose(bytes -> write(path, bytes))
+                .thenApply(written -> (long) written.bytes.length);
+    }
+
+    /**
+     * Number of reads waiting for a slot
+     */
+    public int getQueuedReads() {
+        return reads.queued();
+    }
+
+    /**
+     * Number of writes waiting for a slot
+     */
+    public int getQueuedWrites() {
+        return writes.queued();
+    }
+
+    /**
+     * Stop the I/O and worker threads
+     */
+    public void shutdown() {
+        workers.shutdownNow();
+        ioThreads.shutdownNow();
+    }
+
+    private static void requireOutputDirectory(Path outputDirectory) {
+        if (outputDirectory == null) {
+            throw new IllegalArgumentException("A journaled batch needs an output directory");
+        }
+    }
+
+    /**
+     * Outputs are named after their sources, so sources of the same name in different directories
+     * would overwrite each other's output
+     */
+    private static void requireDistinctOutputs(List<Path> files, Path outputDirectory) {
+        if (outputDirectory == null) {
+            return;
+        }
+        Map<Path, Path> sourcesByName = new HashMap<>();
+        for (Path file : files) {
+            Path other = sourcesByName.putIfAbsent(file.getFileName(), file);
+            if (other != null) {
+                throw new IllegalArgumentException("Files " + other + " and " + file + " would both be written to "
+                        + outputDirectory.resolve(file.getFileName()));
+            }
+        }
+    }
+
+    private TextDocument decode(Path path, byte[] bytes) {
+        return new TextDocument(CompressedFiles.stripGzipExtension(path.getFileName().toString()),
+                ingestionService.decode(bytes));
+    }
+
+    /**
+     * Encode a document as UTF-8, compressed if the target is a gzip file
+     */
+    private static byte[] encode(TextDocument document, Path target) {
+        byte[] bytes = document.getContent().getBytes(StandardCharsets.UTF_8);
+        if (!CompressedFiles.hasGzipExtension(target)) {
+            return bytes;
+        }
+        try {
+            return CompressedFiles.compress(bytes);
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private CompletableFuture<IoResult> read(Path path) {
+        CompletableFuture<IoResult> result = new CompletableFuture<>();
+        reads.start(() -> {
+            AsynchronousFileChannel channel = null;
+            try {
+                channel = AsynchronousFileChannel.open(path, Set.of(StandardOpenOption.READ), ioThreads);
+                long size = channel.size();
+                if (size > Integer.MAX_VALUE - 8) {
+                    throw new IOException("File too large: " + size + " bytes");
+                }
+                new ReadHandler(channel, new byte[(int) size], result).next();
+            } catch (IOException | RuntimeException e) {
+                closeQuietly(channel);
+                reads.finished();
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    private CompletableFuture<IoResult> write(Path path, byte[] bytes) {
+        CompletableFuture<IoResult> result = new CompletableFuture<>();
+        writes.start(() -> {
+            AsynchronousFileChannel channel = null;
+            try {
+                Path tempFile = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+                channel = AsynchronousFileChannel.open(tempFile,
+                        Set.of(StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING), ioThreads);
+                new WriteHandler(channel, tempFile, path, bytes, result).next();
+            } catch (IOException | RuntimeException e) {
+                closeQuietly(channel);
+                writes.finished();
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    private static void closeQuietly(AsynchronousFileChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.warn("Error closing file channel: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Make a rename in a directory durable. Not every platform can open a directory; there the rename
+     * is as durable as the file system makes it.
+     */
+    private static void syncDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            logger.debug("Cannot sync directory {}: {}", directory, e.getMessage());
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * One file going through read, process and write, recording the time of each stage
+     */
+    private final class FileJob {
+        private final Path source;
+        private final Path output;
+        private volatile long bytesRead;
+        private volatile long bytesWritten;
+        private volatile long readNanos;
+        private volatile long processNanos;
+        private volatile long writeNanos;
+
+        FileJob(Path source, Path outputDirectory) {
+            this.source = source;
+            this.output = outputDirectory == null ? null : outputDirectory.resolve(source.getFileName());
+        }
+
+        CompletableFuture<TextDocument> run(BatchProcessingService.BatchOperation<TextDocument> operation,
+                                            AtomicBoolean cancelled) {
+            if (output != null && output.toAbsolutePath().normalize().equals(source.toAbsolutePath().normalize())) {
+                return CompletableFuture.failedFuture(
+                        new TextProcessingException("Output would overwrite " + source.getFileName()));
+            }
+            CompletableFuture<TextDocument> processed = read(source).thenApplyAsync(read -> {
+                bytesRead = read.bytes.length;
+                readNanos = read.nanos;
+                checkCancelled(cancelled);
+                long start = System.nanoTime();
+                try {
+                    return operation.process(decode(source, read.bytes));
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                } finally {
+                    processNanos = System.nanoTime() - start;
+                }
+            }, workers);
+            if (output == null) {
+                return processed;
+            }
+            return processed.thenCompose(document -> {
+                checkCancelled(cancelled);
+                long start = System.nanoTime();
+                byte[] bytes = encode(document, output);
+                processNanos += System.nanoTime() - start;
+                return write(output, bytes).thenApply(written -> {
+                    bytesWritten = written.bytes.length;
+                    writeNanos = written.nanos;
+                    return document;
+                });
+            });
+        }
+
+        FileResult result(Throwable error) {
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            if (cause != null) {
+                logger.error("Error processing file {}: {}", source, cause.getMessage());
+            }
+            return new FileResult(source, cause == null ? output : null, bytesRead, bytesWritten, readNanos,
+                    processNanos, writeNanos, cause);
+        }
+
+        private void checkCancelled(AtomicBoolean cancelled) {
+            if (cancelled.get()) {
+                throw new CancellationException("Batch file processing cancelled");
+            }
+        }
+    }
+
+    /**
+     * Bytes moved by one read or write and the time from its start to its completion
+     */
+    private static final class IoResult {
+        final byte[] bytes;
+        final long nanos;
+
+        IoResult(byte[] bytes, long nanos) {
+            this.bytes = bytes;
+            this.nanos = nanos;
+        }
+    }
+
+    /**
+     * Reads a whole file through one pooled buffer, issuing the next read from each completion
+     */
+    private final class ReadHandler implements CompletionHandler<Integer, Void> {
+        private final AsynchronousFileChannel channel;
+        private final byte[] data;
+        private final CompletableFuture<IoResult> result;
+        private final ByteBuffer buffer = buffers.acquire();
+        private final long start = System.nanoTime();
+        private int position;
+
+        ReadHandler(AsynchronousFileChannel channel, byte[] data, CompletableFuture<IoResult> result) {
+            this.channel = channel;
+            this.data = data;
+            this.result = result;
+        }
+
+        void next() {
+            if (position == data.length) {
+                finish(null);
+                return;
+            }
+            buffer.clear().limit(Math.min(buffer.capacity(), data.length - position));
+            channel.read(buffer, position, null, this);
+        }
+
+        @Override
+        public void completed(Integer count, Void attachment) {
+            if (count < 0) {
+                // The file shrank since its size was taken
+                finish(null);
+                return;
+            }
+            buffer.flip().get(data, position, count);
+            position += count;
+            next();
+        }
+
+        @Override
+        public void failed(Throwable error, Void attachment) {
+            finish(error);
+        }
+
+        private void finish(Throwable error) {
+            closeQuietly(channel);
+            buffers.release(buffer);
+            reads.finished();
+            if (error != null) {
+                result.completeExceptionally(error);
+            } else {
+                byte[] bytes = position == data.length ? data : Arrays.copyOf(data, position);
+                result.complete(new IoResult(bytes, System.nanoTime() - start));
+            }
+        }
+    }
+
+    /**
+     * Writes a whole file through one pooled buffer into a temporary file, then moves it into place
+     */
+    private final class WriteHandler implements CompletionHandler<Integer, Void> {
+        private final AsynchronousFileChannel channel;
+        private final Path tempFile;
+        private final Path target;
+        private final byte[] data;
+        private final CompletableFuture<IoResult> result;
+        private final ByteBuffer buffer = buffers.acquire().limit(0);
+        private final long start = System.nanoTime();
+        private int written;
+
+        WriteHandler(AsynchronousFileChannel channel, Path tempFile, Path target, byte[] data,
+                     CompletableFuture<IoResult> result) {
+            this.channel = channel;
+            this.tempFile = tempFile;
+            this.target = target;
+            this.data = data;
+            this.result = result;
+        }
+
+        void next() {
+            if (!buffer.hasRemaining()) {
+                if (written == data.length) {
+                    finish(null);
+                    return;
+                }
+                buffer.clear();
+                buffer.put(data, written, Math.min(buffer.capacity(), data.length - written)).flip();
+            }
+            channel.write(buffer, written, null, this);
+        }
+
+        @Override
+        public void completed(Integer count, Void attachment) {
+            written += count;
+            next();
+        }
+
+        @Override
+        public void failed(Throwable error, Void attachment) {
+            finish(error);
+        }
+
+        private void finish(Throwable error) {
+            buffers.release(buffer);
+            try {
+                if (error == null) {
+                    // The data must be on disk before the rename makes it visible, and the rename before the
+                    // journal records the file as done, or a crash could leave a recorded but empty output
+                    channel.force(true);
+                    closeQuietly(channel);
+                    Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    syncDirectory(target.toAbsolutePath().getParent());
+                }
+            } catch (IOException e) {
+                error = e;
+            } finally {
+                closeQuietly(channel);
+                writes.finished();
+            }
+            if (error != null) {
+                try {
+                    Files.deleteIfExists(tempFile);
+                } catch (IOException e) {
+                    logger.warn("Error deleting {}: {}", tempFile, e.getMessage());
+                }
+                result.completeExceptionally(error);
+            } else {
+                result.complete(new IoResult(data, System.nanoTime() - start));
+            }
+        }
+    }
+
+    /**
+     * Limit on operations in flight; operations over the limit queue up and start as others finish
+     */
+    private static final class InFlightLimit {
+        final int limit;
+        private final ArrayDeque<Runnable> queued = new ArrayDeque<>();
+        private int running;
+
+        InFlightLimit(int limit) {
+            this.limit = limit;
+        }
+
+        /**
+         * Start an operation now or when a slot frees; the operation must call {@link #finished()}
+         */
+        void start(Runnable operation) {
+            synchronized (this) {
+                if (running == limit) {
+                    queued.add(operation);
+                    return;
+                }
+                running++;
+            }
+            operation.run();
+        }
+
+        void finished() {
+            Runnable next;
+            synchronized (this) {
+                next = queued.poll();
+                if (next == null) {
+                    running--;
+                    return;
+                }
+            }
+            next.run();
+        }
+
+        synchronized int queued() {
+            return queued.size();
+        }
+    }
+}
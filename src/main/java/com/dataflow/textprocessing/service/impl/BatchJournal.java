@@ -0,0 +1,387 @@
+package com.dataflow.textprocessing.service.impl;
+
+import com.dataflow.textprocessing.exception.TextProcessingException;
+import com.dataflow.textprocessing.model.FileResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.zip.CRC32C;
+
+/**
+ * Completion journal of a resumable file batch. Each finished file appends a record of its outcome
+ * along with the size and modification time its source had when the file was started, so a later run
+ * can tell which files are done and whether they changed since; the latest record of a file wins.
+ * <p>
+ * Records are collected in memory and appended with one write and one {@code fsync} per checkpoint,
+ * taken every {@value #CHECKPOINT_RECORDS} records or at the first record a second after the previous
+ * checkpoint, and on close. A crash loses at most the records since the last checkpoint, and a resumed
+ * run processes those files again. Every record carries a CRC32C; an incomplete record at the end of
+ * the journal, left by a crash, is discarded when the journal is opened. A journal is locked while
+ * open, so only one job uses it at a time.
+ */
+final class BatchJournal implements AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(BatchJournal.class);
+
+    private static final int MAGIC = 0x54504a4e; // "TPJN"
+    private static final int FORMAT_VERSION = 1;
+    private static final int FILE_HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final int MAX_RECORD_SIZE = 1 << 20;
+    private static final byte COMPLETED_RECORD = 1;
+    private static final byte FAILED_RECORD = 2;
+    private static final int CHECKPOINT_RECORDS = 256;
+    private static final long CHECKPOINT_NANOS = 1_000_000_000L;
+    private static final int MAX_ERROR_LENGTH = 1000;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final FileLock lock;
+    private final Map<String, Entry> entries;
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private int pendingRecords;
+    private long lastCheckpoint = System.nanoTime();
+    private IOException writeError;
+    private boolean closed;
+
+    private BatchJournal(Path path, FileChannel channel, FileLock lock, Map<String, Entry> entries) {
+        this.path = path;
+        this.channel = channel;
+        this.lock = lock;
+        this.entries = entries;
+    }
+
+    /**
+     * Open a journal, creating it if missing
+     * @param path Journal file
+     * @return The open journal
+     */
+    static BatchJournal open(Path path) {
+        FileChannel channel = null;
+        try {
+            Path parent = path.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            FileLock lock = tryLock(channel);
+            if (lock == null) {
+                throw new TextProcessingException("Batch journal is in use by another job: " + path);
+            }
+            Map<String, Entry> entries = new LinkedHashMap<>();
+            long size = channel.size();
+            long end;
+            if (size < FILE_HEADER_SIZE) {
+                if (size > 0) {
+                    logger.warn("Reinitializing batch journal {} with an incomplete header", path);
+                    channel.truncate(0);
+                }
+                ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE).putInt(MAGIC).putInt(FORMAT_VERSION).flip();
+                while (header.hasRemaining()) {
+                    channel.write(header, FILE_HEADER_SIZE - header.remaining());
+                }
+                channel.force(true);
+                end = FILE_HEADER_SIZE;
+            } else {
+                end = recover(path, channel, entries);
+                if (end < size) {
+                    logger.warn("Discarding {} bytes of incomplete records at the end of {}", size - end, path);
+                    channel.truncate(end);
+                }
+            }
+            channel.position(end);
+            logger.info("Opened batch journal {} with {} files", path, entries.size());
+            return new BatchJournal(path, channel, lock, entries);
+        } catch (IOException e) {
+            closeQuietly(channel);
+            logger.error("Error opening batch journal {}: {}", path, e.getMessage());
+            throw new TextProcessingException("Failed to open batch journal", e);
+        } catch (RuntimeException e) {
+            closeQuietly(channel);
+            throw e;
+        }
+    }
+
+    /**
+     * Check whether a file needs no processing in this run: it completed and neither its source nor
+     * its output changed since, or it failed and waits in the retry queue with its source unchanged.
+     * Outputs are synced and renamed into place before they are recorded, so a recorded output of the
+     * recorded size holds the complete result.
+     * @param source Source file
+     * @param state Size and modification time of the source now
+     * @param output File the result is written to
+     */
+    synchronized boolean canSkip(Path source, SourceState state, Path output) {
+        Entry entry = entries.get(key(source));
+        if (entry == null || state.size < 0 || entry.size != state.size || entry.modified != state.modified) {
+            return false;
+        }
+        if (!entry.completed) {
+            return true;
+        }
+        if (!entry.output.equals(key(output))) {
+            return false;
+        }
+        try {
+            return Files.size(output) == entry.bytesWritten;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Record the outcome of a file; cancelled files are not recorded, so they are processed again
+     * @param state Size and modification time of the source when the file was started
+     * @param result Outcome of the file
+     */
+    synchronized void record(SourceState state, FileResult result) {
+        if (closed || result.getError() instanceof CancellationException) {
+            return;
+        }
+        Entry entry = result.isSuccessful()
+                ? new Entry(true, state.size, state.modified, key(result.getOutput()), result.getBytesWritten(), "")
+                : new Entry(false, state.size, state.modified, "", 0, describe(result.getError()));
+        String source = key(result.getSource());
+        // Re-insert so the retry queue keeps the order files last failed in
+        entries.remove(source);
+        entries.put(source, entry);
+        if (writeError != null) {
+            return;
+        }
+        try {
+            appendRecord(source, entry);
+            if (++pendingRecords >= CHECKPOINT_RECORDS || System.nanoTime() - lastCheckpoint >= CHECKPOINT_NANOS) {
+                checkpoint();
+            }
+        } catch (IOException e) {
+            logger.error("Error writing batch journal {}: {}", path, e.getMessage());
+            writeError = e;
+        }
+    }
+
+    /**
+     * Files whose latest outcome is a failure, in the order they failed
+     */
+    synchronized List<Path> failedSources() {
+        List<Path> failed = new ArrayList<>();
+        entries.forEach((source, entry) -> {
+            if (!entry.completed) {
+                failed.add(Paths.get(source));
+            }
+        });
+        return failed;
+    }
+
+    /**
+     * Make the recorded outcomes durable and release the journal
+     * @throws TextProcessingException if some outcomes could not be written
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (writeError == null) {
+                checkpoint();
+            }
+        } catch (IOException e) {
+            logger.error("Error writing batch journal {}: {}", path, e.getMessage());
+            writeError = e;
+        } finally {
+            try {
+                lock.release();
+            } catch (IOException e) {
+                logger.warn("Error unlocking batch journal {}: {}", path, e.getMessage());
+            }
+            closeQuietly(channel);
+        }
+        if (writeError != null) {
+            throw new TextProcessingException("Failed to write batch journal", writeError);
+        }
+    }
+
+    private void appendRecord(String source, Entry entry) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(64 + source.length() + entry.output.length());
+        DataOutputStream out = new DataOutputStream(body);
+        out.writeByte(entry.completed ? COMPLETED_RECORD : FAILED_RECORD);
+        out.writeUTF(source);
+        out.writeLong(entry.size);
+        out.writeLong(entry.modified);
+        if (entry.completed) {
+            out.writeUTF(entry.output);
+            out.writeLong(entry.bytesWritten);
+        } else {
+            out.writeUTF(entry.error);
+        }
+        byte[] bytes = body.toByteArray();
+        CRC32C crc = new CRC32C();
+        crc.update(bytes);
+        DataOutputStream record = new DataOutputStream(pending);
+        record.writeInt(bytes.length);
+        record.writeInt((int) crc.getValue());
+        record.write(bytes);
+    }
+
+    private void checkpoint() throws IOException {
+        if (pendingRecords > 0) {
+            ByteBuffer buffer = ByteBuffer.wrap(pending.toByteArray());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+            pending.reset();
+            pendingRecords = 0;
+        }
+        lastCheckpoint = System.nanoTime();
+    }
+
+    /**
+     * Replay the records of a journal, stopping at the first incomplete or corrupt one
+     * @return End of the last valid record
+     */
+    private static long recover(Path path, FileChannel channel, Map<String, Entry> entries) throws IOException {
+        channel.position(0);
+        InputStream stream = new BufferedInputStream(Channels.newInputStream(channel), 64 * 1024);
+        DataInputStream in = new DataInputStream(stream);
+        if (in.readInt() != MAGIC) {
+            throw new TextProcessingException("Not a batch journal: " + path);
+        }
+        int version = in.readInt();
+        if (version != FORMAT_VERSION) {
+            throw new TextProcessingException("Unsupported batch journal format version: " + version);
+        }
+        long position = FILE_HEADER_SIZE;
+        try {
+            while (true) {
+                int length = in.readInt();
+                int checksum = in.readInt();
+                if (length <= 0 || length > MAX_RECORD_SIZE) {
+                    break;
+                }
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                CRC32C crc = new CRC32C();
+                crc.update(bytes);
+                if ((int) crc.getValue() != checksum || !apply(bytes, entries)) {
+                    break;
+                }
+                position += RECORD_HEADER_SIZE + length;
+            }
+        } catch (EOFException e) {
+            // Incomplete record at the end
+        }
+        return position;
+    }
+
+    private static boolean apply(byte[] bytes, Map<String, Entry> entries) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        byte type = in.readByte();
+        String source = in.readUTF();
+        long size = in.readLong();
+        long modified = in.readLong();
+        Entry entry;
+        if (type == COMPLETED_RECORD) {
+            entry = new Entry(true, size, modified, in.readUTF(), in.readLong(), "");
+        } else if (type == FAILED_RECORD) {
+            entry = new Entry(false, size, modified, "", 0, in.readUTF());
+        } else {
+            return false;
+        }
+        entries.remove(source);
+        entries.put(source, entry);
+        return true;
+    }
+
+    private static FileLock tryLock(FileChannel channel) throws IOException {
+        try {
+            return channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // Held by a job in this process
+            return null;
+        }
+    }
+
+    private static String key(Path path) {
+        return path.toAbsolutePath().normalize().toString();
+    }
+
+    private static String describe(Throwable error) {
+        String description = String.valueOf(error);
+        return description.length() > MAX_ERROR_LENGTH ? description.substring(0, MAX_ERROR_LENGTH) : description;
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.warn("Error closing batch journal: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Size and modification time of a source file, which tell whether it changed since it was journaled
+     */
+    static final class SourceState {
+        final long size;
+        final long modified;
+
+        private SourceState(long size, long modified) {
+            this.size = size;
+            this.modified = modified;
+        }
+
+        /**
+         * @return The state of the file, or a state matching no journaled one if it cannot be read
+         */
+        static SourceState of(Path source) {
+            try {
+                return new SourceState(Files.size(source), Files.getLastModifiedTime(source).toMillis());
+            } catch (IOException e) {
+                return new SourceState(-1, -1);
+            }
+        }
+    }
+
+    private static final class Entry {
+        final boolean completed;
+        final long size;
+        final long modified;
+        final String output;
+        final long bytesWritten;
+        final String error;
+
+        Entry(boolean completed, long size, long modified, String output, long bytesWritten, String error) {
+            this.completed = completed;
+            this.size = size;
+            this.modified = modified;
+            this.output = output;
+            this.bytesWritten = bytesWritten;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.dataflow.textprocessing.service.impl;
+
+import com.dataflow.textprocessing.exception.TextProcessingException;
+import com.dataflow.textprocessing.model.TextDocument;
+import com.dataflow.textprocessing.service.BatchProcessingService;
+import com.dataflow.textprocessing.service.TextProcessingService;
+import com.dataflow.textprocessing.util.Cancellation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Processes batches on a dedicated pool of worker threads. The calling thread submits the documents,
+ * then receives results in completion order, so callbacks always run on the calling thread, one at a
+ * time. Interrupting the calling thread cancels the documents not processed yet.
+ */
+public class BatchProcessingServiceImpl implements BatchProcessingService {
+    private static final Logger logger = LoggerFactory.getLogger(BatchProcessingServiceImpl.class);
+    private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+
+    private final TextProcessingService processingService;
+    private final ThreadPoolExecutor executor;
+
+    public BatchProcessingServiceImpl(TextProcessingService processingService) {
+        this(processingService, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param processingService Service processing each document
+     * @param threads Number of worker threads
+     */
+    public BatchProcessingServiceImpl(TextProcessingService processingService, int threads) {
+        this.processingService = processingService;
+        int pool = POOL_NUMBER.incrementAndGet();
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "batch-" + pool + "-worker-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public List<TextDocument> processBatch(List<TextDocument> documents) {
+        return processBatchWithOperation(documents, this::process);
+    }
+
+    @Override
+    public CompletableFuture<List<TextDocument>> processBatchAsync(List<TextDocument> documents) {
+        // Not on the worker pool: the batch blocks while its documents run there
+        return CompletableFuture.supplyAsync(() -> processBatch(documents));
+    }
+
+    @Override
+    public void processBatchWithProgress(List<TextDocument> documents, BatchProcessingCallback callback) {
+        logger.info("Starting batch processing of {} documents", documents.size());
+        TextDocument[] results = new TextDocument[documents.size()];
+        int failed = run(documents, this::process, (index, result, error) -> {
+            if (error != null) {
+                logger.error("Error processing document {}: {}", documents.get(index).getId(), error.getMessage());
+                callback.onError(documents.get(index), error);
+            } else {
+                results[index] = result;
+                callback.onDocumentProcessed(result);
+            }
+        }, callback::onProgress);
+        List<TextDocument> processed = new ArrayList<>(documents.size() - failed);
+        for (TextDocument result : results) {
+            if (result != null) {
+                processed.add(result);
+            }
+        }
+        logger.info("Finished batch processing: {} processed, {} failed", processed.size(), failed);
+        callback.onComplete(processed);
+    }
+
+    @Override
+    public <T> List<T> processBatchWithOperation(List<TextDocument> documents, BatchOperation<T> operation) {
+        List<T> results = new ArrayList<>(documents.size());
+        for (int i = 0; i < documents.size(); i++) {
+            results.add(null);
+        }
+        run(documents, operation, (index, result, error) -> {
+            if (error != null) {
+                logger.error("Error processing document {}: {}", documents.get(index).getId(), error.getMessage());
+                throw new TextProcessingException("Batch processing failed", error);
+            }
+            results.set(index, result);
+        }, (current, total) -> { });
+        return results;
+    }
+
+    /**
+     * Number of documents waiting for a worker thread
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Stop the worker threads; batches still running are cancelled
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private TextDocument process(TextDocument document) {
+        return processingService.processBatch(List.of(document)).get(0);
+    }
+
+    /**
+     * Run an operation over all documents on the worker threads and hand each outcome to the consumer
+     * on the calling thread
+     * @return Number of failed documents
+     */
+    private <T> int run(List<TextDocument> documents, BatchOperation<T> operation, OutcomeConsumer<T> consumer,
+                        ProgressConsumer progress) {
+        ExecutorCompletionService<Outcome<T>> completion = new ExecutorCompletionService<>(executor);
+        List<Future<Outcome<T>>> futures = new ArrayList<>(documents.size());
+        for (int i = 0; i < documents.size(); i++) {
+            int index = i;
+            futures.add(completion.submit(() -> {
+                Cancellation.checkpoint();
+                try {
+                    return new Outcome<>(index, operation.process(documents.get(index)), null);
+                } catch (Exception e) {
+                    return new Outcome<>(index, null, e);
+                }
+            }));
+        }
+        int failed = 0;
+        try {
+            for (int done = 1; done <= documents.size(); done++) {
+                Cancellation.checkpoint();
+                Outcome<T> outcome = completion.take().get();
+                if (outcome.error != null) {
+                    failed++;
+                }
+                consumer.accept(outcome.index, outcome.result, outcome.error);
+                progress.accept(done, documents.size());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Batch processing cancelled");
+        } catch (ExecutionException e) {
+            throw new TextProcessingException("Batch processing failed", e.getCause());
+        } finally {
+            // Nothing left to cancel after a complete run; after a failure or cancellation this stops the rest
+            futures.forEach(future -> future.cancel(true));
+        }
+        return failed;
+    }
+
+    private static final class Outcome<T> {
+        final int index;
+        final T result;
+        final Exception error;
+
+        Outcome(int index, T result, Exception error) {
+            this.index = index;
+            this.result = result;
+            this.error = error;
+        }
+    }
+
+    @FunctionalInterface
+    private interface OutcomeConsumer<T> {
+        void accept(int index, T result, Exception error);
+    }
+
+    @FunctionalInterface
+    private interface ProgressConsumer {
+        void accept(int current, int total);
+    }
+}
@@ -0,0 +1,187 @@
+package com.dataflow.textprocessing.service.impl;
+
+import com.dataflow.textprocessing.model.TextDocument;
+import com.dataflow.textprocessing.service.BatchProcessingService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Worker process of {@link ShardedBatchProcessingService}. It reads shards from standard input, runs
+ * the named operation over their documents and writes the results to standard output, until its input
+ * is closed. Logging goes to standard error, which the coordinator passes through.
+ * <p>
+ * A shard is the shard id, the mode, the operation class name, the document count and each document's
+ * name and content. The reply is the shard id, the result count and a tagged result per document, or
+ * a single merged result for an aggregate.
+ */
+public final class BatchWorker {
+    private static final Logger logger = LoggerFactory.getLogger(BatchWorker.class);
+
+    static final byte PER_DOCUMENT = 1;
+    static final byte AGGREGATE = 2;
+    static final byte RESULT_DOCUMENT = 1;
+    static final byte RESULT_OBJECT = 2;
+    static final byte RESULT_NULL = 3;
+    static final byte RESULT_ERROR = 4;
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+    private final Map<String, BatchProcessingService.BatchOperation<?>> operations = new HashMap<>();
+
+    private BatchWorker() {
+    }
+
+    public static void main(String[] args) {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(FileDescriptor.in), STREAM_BUFFER_SIZE));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), STREAM_BUFFER_SIZE));
+        // Standard output carries the protocol; anything printed goes to standard error instead
+        System.setOut(System.err);
+        logger.info("Batch worker {} started", ProcessHandle.current().pid());
+        BatchWorker worker = new BatchWorker();
+        try {
+            while (worker.serve(in, out)) {
+                out.flush();
+            }
+        } catch (IOException e) {
+            logger.error("Batch worker {} stopped: {}", ProcessHandle.current().pid(), e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Run one shard
+     * @return false once the coordinator closed the input
+     */
+    private boolean serve(DataInputStream in, DataOutputStream out) throws IOException {
+        int shardId;
+        try {
+            shardId = in.readInt();
+        } catch (EOFException e) {
+            return false;
+        }
+        byte mode = in.readByte();
+        String operationClass = readString(in);
+        int count = in.readInt();
+        TextDocument[] documents = new TextDocument[count];
+        for (int i = 0; i < count; i++) {
+            documents[i] = new TextDocument(readString(in), readString(in));
+        }
+        out.writeInt(shardId);
+        BatchProcessingService.BatchOperation<?> operation;
+        try {
+            operation = operation(operationClass);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            String message = "Cannot create operation " + operationClass + ": " + e;
+            int results = mode == AGGREGATE ? 1 : count;
+            out.writeInt(results);
+            for (int i = 0; i < results; i++) {
+                writeError(out, message);
+            }
+            return true;
+        }
+        if (mode == AGGREGATE) {
+            out.writeInt(1);
+            writeAggregate(out, (ShardedBatchProcessingService.AggregateOperation<?>) operation, documents);
+        } else {
+            out.writeInt(count);
+            for (TextDocument document : documents) {
+                Object result;
+                try {
+                    result = operation.process(document);
+                } catch (Exception e) {
+                    logger.error("Error processing document {}: {}", document.getName(), e.getMessage());
+                    writeError(out, e.toString());
+                    continue;
+                }
+                writeResult(out, result);
+            }
+        }
+        return true;
+    }
+
+    private <A> void writeAggregate(DataOutputStream out, ShardedBatchProcessingService.AggregateOperation<A> operation,
+                                    TextDocument[] documents) throws IOException {
+        A merged = null;
+        for (TextDocument document : documents) {
+            try {
+                A result = operation.process(document);
+                merged = merged == null ? result : operation.merge(merged, result);
+            } catch (Exception e) {
+                logger.error("Error processing document {}: {}", document.getName(), e.getMessage());
+                writeError(out, e.toString());
+                return;
+            }
+        }
+        writeResult(out, merged);
+    }
+
+    private BatchProcessingService.BatchOperation<?> operation(String className) throws ReflectiveOperationException {
+        BatchProcessingService.BatchOperation<?> operation = operations.get(className);
+        if (operation == null) {
+            operation = (BatchProcessingService.BatchOperation<?>) Class.forName(className).getDeclaredConstructor().newInstance();
+            operations.put(className, operation);
+        }
+        return operation;
+    }
+
+    private static void writeResult(DataOutputStream out, Object result) throws IOException {
+        if (result == null) {
+            out.writeByte(RESULT_NULL);
+        } else if (result instanceof TextDocument) {
+            TextDocument document = (TextDocument) result;
+            out.writeByte(RESULT_DOCUMENT);
+            writeString(out, document.getName());
+            writeString(out, document.getContent());
+        } else if (result instanceof Serializable) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream objects = new ObjectOutputStream(bytes)) {
+                objects.writeObject(result);
+            }
+            out.writeByte(RESULT_OBJECT);
+            out.writeInt(bytes.size());
+            bytes.writeTo(out);
+        } else {
+            writeError(out, "Result is not serializable: " + result.getClass().getName());
+        }
+    }
+
+    private static void writeError(DataOutputStream out, String message) throws IOException {
+        out.writeByte(RESULT_ERROR);
+        writeString(out, message);
+    }
+
+    /**
+     * Write a string as its UTF-8 length and bytes; unlike {@link DataOutputStream#writeUTF} it has no
+     * length limit
+     */
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Invalid string length: " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
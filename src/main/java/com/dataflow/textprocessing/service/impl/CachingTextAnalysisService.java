@@ -0,0 +1,64 @@
+package com.dataflow.textprocessing.service.impl;
+
+import com.dataflow.textprocessing.model.TextDocument;
+import com.dataflow.textprocessing.service.TextAnalysisService;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decorator serving every {@link TextAnalysisService} operation from an {@link AnalysisResultCache}.
+ */
+public class CachingTextAnalysisService implements TextAnalysisService {
+    private final TextAnalysisService delegate;
+    private final AnalysisResultCache cache;
+
+    public CachingTextAnalysisService(TextAnalysisService delegate, AnalysisResultCache cache) {
+        this.delegate = delegate;
+        this.cache = cache;
+    }
+
+    @Override
+    public Map<String, Long> analyzeWordFrequency(TextDocument document) {
+        return Collections.unmodifiableMap(cache.getOrCompute(document.getContent(), "analyzeWordFrequency", List.of(),
+                () -> delegate.analyzeWordFrequency(document)));
+    }
+
+    @Override
+    public Map<String, Object> getTextStatistics(TextDocument document) {
+        return Collections.unmodifiableMap(cache.getOrCompute(document.getContent(), "getTextStatistics", List.of(),
+                () -> delegate.getTextStatistics(document)));
+    }
+
+    @Override
+    public String generateSummary(TextDocument document, int maxSentences) {
+        return cache.getOrCompute(document.getContent(), "generateSummary", List.of(maxSentences),
+                () -> delegate.generateSummary(document, maxSentences));
+    }
+
+    @Override
+    public Map<String, Object> analyzeSentenceStructure(TextDocument document) {
+        return Collections.unmodifiableMap(cache.getOrCompute(document.getContent(), "analyzeSentenceStructure", List.of(),
+                () -> delegate.analyzeSentenceStructure(document)));
+    }
+
+    @Override
+    public Map<String, Double> analyzeReadability(TextDocument document) {
+        return Collections.unmodifiableMap(cache.getOrCompute(document.getContent(), "analyzeReadability", List.of(),
+                () -> delegate.analyzeReadability(document)));
+    }
+
+    @Override
+    public Map<String, Object> analyzeLanguagePatterns(TextDocument document) {
+        return Collections.unmodifiableMap(cache.getOrCompute(document.getContent(), "analyzeLanguagePatterns", List.of(),
+                () -> delegate.analyzeLanguagePatterns(document)));
+    }
+
+    /**
+     * Get the counters of the underlying cache
+     */
+    public AnalysisResultCache.Statistics getCacheStatistics() {
+        return cache.getStatistics();
+    }
+}
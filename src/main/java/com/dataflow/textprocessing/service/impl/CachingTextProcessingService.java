@@ -0,0 +1,123 @@
+package com.dataflow.textprocessing.service.impl;
+
+import com.dataflow.textprocessing.model.CompiledReplacement;
+import com.dataflow.textprocessing.model.TextDocument;
+import com.dataflow.textprocessing.service.TextProcessingService;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decorator serving the analysis operations of a {@link TextProcessingService} from an
+ * {@link AnalysisResultCache}. All other operations are delegated unchanged.
+ */
+public class CachingTextProcessingService implements TextProcessingService {
+    private final TextProcessingService delegate;
+    private final AnalysisResultCache cache;
+
+    public CachingTextProcessingService(TextProcessingService delegate, AnalysisResultCache cache) {
+        this.delegate = delegate;
+        this.cache = cache;
+    }
+
+    @Override
+    public List<String> searchPattern(TextDocument document, String pattern) {
+        return delegate.searchPattern(document, pattern);
+    }
+
+    @Override
+    public TextDocument replacePattern(TextDocument document, String pattern, String replacement) {
+        return delegate.replacePattern(document, pattern, replacement);
+    }
+
+    @Override
+    public Map<String, Long> analyzeWordFrequency(TextDocument document) {
+        return Collections.unmodifiableMap(cache.getOrCompute(document.getContent(), "analyzeWordFrequency", List.of(),
+                () -> delegate.analyzeWordFrequency(document)));
+    }
+
+    @Override
+    public List<String> extractBetweenPatterns(TextDocument document, String startPattern, String endPattern) {
+        return delegate.extractBetweenPatterns(document, startPattern, endPattern);
+    }
+
+    @Override
+    public String generateSummary(TextDocument document, int maxSentences) {
+        return cache.getOrCompute(document.getContent(), "generateSummary", List.of(maxSentences),
+                () -> delegate.generateSummary(document, maxSentences));
+    }
+
+    @Override
+    public TextDocument convertCase(TextDocument document, CaseMode mode) {
+        return delegate.convertCase(document, mode);
+    }
+
+    @Override
+    public Map<String, Object> getTextStatistics(TextDocument document) {
+        return Collections.unmodifiableMap(cache.getOrCompute(document.getContent(), "getTextStatistics", List.of(),
+                () -> delegate.getTextStatistics(document)));
+    }
+
+    @Override
+    public boolean validatePattern(TextDocument document, String pattern) {
+        return delegate.validatePattern(document, pattern);
+    }
+
+    @Override
+    public List<String> extractMatches(TextDocument document, String pattern) {
+        return delegate.extractMatches(document, pattern);
+    }
+
+    @Override
+    public String replaceAllMatches(TextDocument document, String pattern, String replacement) {
+        return delegate.replaceAllMatches(document, pattern, replacement);
+    }
+
+    @Override
+    public CompiledReplacement compileReplacement(String pattern, String replacement) {
+        return delegate.compileReplacement(pattern, replacement);
+    }
+
+    @Override
+    public boolean isValidRegexPattern(String pattern) {
+        return delegate.isValidRegexPattern(pattern);
+    }
+
+    @Override
+    public TextDocument removeDuplicates(TextDocument document) {
+        return delegate.removeDuplicates(document);
+    }
+
+    @Override
+    public TextDocument sortLines(TextDocument document, boolean ascending) {
+        return delegate.sortLines(document, ascending);
+    }
+
+    @Override
+    public TextDocument formatJSON(TextDocument document) {
+        return delegate.formatJSON(document);
+    }
+
+    @Override
+    public TextDocument formatXML(TextDocument document) {
+        return delegate.formatXML(document);
+    }
+
+    @Override
+    public List<TextDocument> processBatch(List<TextDocument> documents) {
+        return delegate.processBatch(documents);
+    }
+
+    @Override
+    public void processBatchAsync(List<TextDocument> documents, BatchProcessingCallback callback) {
+        delegate.processBatchAsync(documents, callback);
+    }
+
+    /**
+     * Get the counters of the underlying cache
+     */
+    public AnalysisResultCache.Statistics getCacheStatistics() {
+        return cache.getStatistics();
+    }
+}
@@ -0,0 +1,395 @@
+package com.dataflow.textprocessing.service.impl;
+
+import com.dataflow.textprocessing.exception.TextProcessingException;
+import com.dataflow.textprocessing.metrics.LatencyHistogram;
+import com.dataflow.textprocessing.metrics.MetricsRegistry;
+import com.dataflow.textprocessing.model.TextDocument;
+import com.dataflow.textprocessing.service.BatchFileService;
+import com.dataflow.textprocessing.service.BatchProcessingService;
+import com.dataflow.textprocessing.service.DirectoryWatchService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Drop-folder ingestion on a {@link WatchService}. Events only mark a file as changed; the file is
+ * taken once neither an event nor a size change was seen for the quiet period, so a file written in
+ * many chunks or rewritten several times in a row is read once, complete. Settled files are grouped
+ * into batches of up to a number of files or bytes and run through {@link BatchFileService}, which
+ * bounds the reads, writes and processing in flight; at most a few batches run at a time, and files
+ * beyond them wait as pending, so a burst of arrivals queues on disk rather than in memory.
+ * <p>
+ * End-to-end latency runs from the first change of a file to its processed result, including the
+ * quiet period and any wait for a batch slot.
+ */
+public class DirectoryWatchServiceImpl implements DirectoryWatchService {
+    private static final Logger logger = LoggerFactory.getLogger(DirectoryWatchServiceImpl.class);
+    private static final AtomicInteger SESSION_NUMBER = new AtomicInteger();
+
+    static final long DEFAULT_QUIET_PERIOD_MILLIS = 500;
+    static final int DEFAULT_MAX_BATCH_FILES = 64;
+    static final long DEFAULT_MAX_BATCH_BYTES = 16L * 1024 * 1024;
+    static final int DEFAULT_MAX_CONCURRENT_BATCHES = 2;
+    static final String LATENCY_OPERATION = "DirectoryWatchService.fileLatency";
+    private static final long BUSY_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+    private final BatchFileService batchFileService;
+    private final MetricsRegistry metricsRegistry;
+    private final long quietPeriodNanos;
+    private final int maxBatchFiles;
+    private final long maxBatchBytes;
+    private final int maxConcurrentBatches;
+
+    /**
+     * @param batchFileService Service reading, processing and writing the files
+     * @param metricsRegistry Registry receiving end-to-end latencies, or null
+     */
+    public DirectoryWatchServiceImpl(BatchFileService batchFileService, MetricsRegistry metricsRegistry) {
+        this(batchFileService, metricsRegistry, DEFAULT_QUIET_PERIOD_MILLIS, DEFAULT_MAX_BATCH_FILES,
+                DEFAULT_MAX_BATCH_BYTES, DEFAULT_MAX_CONCURRENT_BATCHES);
+    }
+
+    /**
+     * @param batchFileService Service reading, processing and writing the files
+     * @param metricsRegistry Registry receiving end-to-end latencies, or null
+     * @param quietPeriodMillis Time a file must stay unchanged before it is processed
+     * @param maxBatchFiles Maximum number of files processed as one batch
+     * @param maxBatchBytes Size from which a batch takes no more files
+     * @param maxConcurrentBatches Maximum number of batches processed at a time
+     */
+    public DirectoryWatchServiceImpl(BatchFileService batchFileService, MetricsRegistry metricsRegistry,
+                                     long quietPeriodMillis, int maxBatchFiles, long maxBatchBytes,
+                                     int maxConcurrentBatches) {
+        this.batchFileService = batchFileService;
+        this.metricsRegistry = metricsRegistry;
+        this.quietPeriodNanos = TimeUnit.MILLISECONDS.toNanos(quietPeriodMillis);
+        this.maxBatchFiles = maxBatchFiles;
+        this.maxBatchBytes = maxBatchBytes;
+        this.maxConcurrentBatches = maxConcurrentBatches;
+    }
+
+    @Override
+    public WatchSession watch(Path directory, Path outputDirectory,
+                              BatchProcessingService.BatchOperation<TextDocument> operation,
+                              BatchFileService.FileResultListener listener) {
+        if (!Files.isDirectory(directory)) {
+            throw new IllegalArgumentException("Not a directory: " + directory);
+        }
+        if (outputDirectory != null && outputDirectory.toAbsolutePath().normalize()
+                .equals(directory.toAbsolutePath().normalize())) {
+            // Every result written would arrive as a new file
+            throw new IllegalArgumentException("Output directory must differ from the watched directory: " + directory);
+        }
+        Session session = new Session(directory, outputDirectory, operation, listener);
+        try {
+            session.start();
+        } catch (IOException e) {
+            logger.error("Error watching {}: {}", directory, e.getMessage());
+            throw new TextProcessingException("Failed to watch " + directory, e);
+        }
+        logger.info("Watching {} for files to process", directory);
+        return session;
+    }
+
+    /**
+     * Temporary and hidden files are written by other tools on their way to a final name
+     */
+    private static boolean isIgnored(Path path) {
+        String name = path.getFileName().toString();
+        return name.startsWith(".") || name.endsWith(".tmp") || name.endsWith("~");
+    }
+
+    private final class Session implements WatchSession {
+        private final Path directory;
+        private final Path outputDirectory;
+        private final BatchProcessingService.BatchOperation<TextDocument> operation;
+        private final BatchFileService.FileResultListener listener;
+        private final int number = SESSION_NUMBER.incrementAndGet();
+        private final Map<Path, PendingFile> pending = new ConcurrentHashMap<>();
+        // Arrival times of the files being processed, which are not taken again until they are done
+        private final Map<Path, Long> inFlight = new ConcurrentHashMap<>();
+        private final AtomicInteger runningBatches = new AtomicInteger();
+        private final LongAdder processed = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LatencyHistogram latencies = new LatencyHistogram();
+        private final ExecutorService batches;
+        private WatchService watchService;
+        private Thread watcher;
+        private volatile boolean stopped;
+
+        Session(Path directory, Path outputDirectory, BatchProcessingService.BatchOperation<TextDocument> operation,
+                BatchFileService.FileResultListener listener) {
+            this.directory = directory;
+            this.outputDirectory = outputDirectory;
+            this.operation = operation;
+            this.listener = listener;
+            AtomicInteger threadNumber = new AtomicInteger();
+            this.batches = Executors.newFixedThreadPool(maxConcurrentBatches, runnable -> {
+                Thread thread = new Thread(runnable, "directory-watch-" + number + "-batch-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        void start() throws IOException {
+            watchService = directory.getFileSystem().newWatchService();
+            // Registered before the initial scan, so no file arriving in between is missed
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            watcher = new Thread(this::run, "directory-watch-" + number);
+            watcher.setDaemon(true);
+            watcher.start();
+        }
+
+        @Override
+        public Path getDirectory() {
+            return directory;
+        }
+
+        @Override
+        public long getProcessedCount() {
+            return processed.sum();
+        }
+
+        @Override
+        public long getFailedCount() {
+            return failed.sum();
+        }
+
+        @Override
+        public int getPendingCount() {
+            return pending.size() + inFlight.size();
+        }
+
+        @Override
+        public long getLatencyNanos(double quantile) {
+            long[] counts = latencies.counts();
+            long total = 0;
+            for (long count : counts) {
+                total += count;
+            }
+            return Math.min(LatencyHistogram.valueAtQuantile(counts, total, quantile), latencies.getMax());
+        }
+
+        @Override
+        public void stop() {
+            if (stopped) {
+                return;
+            }
+            stopped = true;
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                logger.warn("Error closing watch service of {}: {}", directory, e.getMessage());
+            }
+            batches.shutdownNow();
+            try {
+                watcher.join();
+                batches.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            logger.info("Stopped watching {}: {} files processed, {} failed", directory, processed.sum(), failed.sum());
+        }
+
+        private void run() {
+            scanDirectory();
+            while (!stopped) {
+                WatchKey key;
+                try {
+                    long wait = nextWaitNanos();
+                    key = wait < 0 ? watchService.take() : watchService.poll(wait, TimeUnit.NANOSECONDS);
+                } catch (InterruptedException | ClosedWatchServiceException e) {
+                    break;
+                }
+                if (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            logger.warn("Missed file events in {}, rescanning", directory);
+                            scanDirectory();
+                        } else if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                            pending.remove(directory.resolve((Path) event.context()));
+                        } else {
+                            changed(directory.resolve((Path) event.context()));
+                        }
+                    }
+                    if (!key.reset()) {
+                        logger.error("Watched directory {} is no longer accessible", directory);
+                        break;
+                    }
+                }
+                dispatchSettled();
+            }
+        }
+
+        private void scanDirectory() {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+                for (Path file : files) {
+                    changed(file);
+                }
+            } catch (IOException e) {
+                logger.error("Error listing {}: {}", directory, e.getMessage());
+            }
+        }
+
+        private void changed(Path file) {
+            if (isIgnored(file) || !Files.isRegularFile(file)) {
+                return;
+            }
+            long size;
+            try {
+                size = Files.size(file);
+            } catch (IOException e) {
+                // Removed again before it could be looked at
+                return;
+            }
+            long now = System.nanoTime();
+            // Repeated events for a file coalesce; its arrival stays the first of them
+            pending.computeIfAbsent(file, path -> new PendingFile(now)).changed(now, size);
+        }
+
+        /**
+         * Time until the earliest pending file may have settled, or -1 to wait for the next event
+         */
+        private long nextWaitNanos() {
+            if (pending.isEmpty()) {
+                return -1;
+            }
+            if (runningBatches.get() >= maxConcurrentBatches) {
+                // Finished batches raise no event, so look again shortly
+                return BUSY_POLL_NANOS;
+            }
+            long now = System.nanoTime();
+            long wait = quietPeriodNanos;
+            for (Map.Entry<Path, PendingFile> entry : pending.entrySet()) {
+                long settlesIn = entry.getValue().lastChangeNanos + quietPeriodNanos - now;
+                wait = Math.min(wait, inFlight.containsKey(entry.getKey()) ? BUSY_POLL_NANOS : settlesIn);
+            }
+            return Math.max(wait, TimeUnit.MILLISECONDS.toNanos(1));
+        }
+
+        private void dispatchSettled() {
+            if (pending.isEmpty() || runningBatches.get() >= maxConcurrentBatches) {
+                return;
+            }
+            long now = System.nanoTime();
+            List<Map.Entry<Path, PendingFile>> settled = new ArrayList<>();
+            for (Map.Entry<Path, PendingFile> entry : pending.entrySet()) {
+                PendingFile file = entry.getValue();
+                // A file rewritten while it is processed is taken again once that run is done
+                if (now - file.lastChangeNanos >= quietPeriodNanos && !inFlight.containsKey(entry.getKey())
+                        && isUnchanged(entry.getKey(), file, now)) {
+                    settled.add(entry);
+                }
+            }
+            settled.sort(Comparator.comparingLong(entry -> entry.getValue().arrivalNanos));
+
+            List<Path> batch = new ArrayList<>();
+            long batchBytes = 0;
+            for (Map.Entry<Path, PendingFile> entry : settled) {
+                if (runningBatches.get() >= maxConcurrentBatches) {
+                    break;
+                }
+                pending.remove(entry.getKey());
+                inFlight.put(entry.getKey(), entry.getValue().arrivalNanos);
+                batch.add(entry.getKey());
+                batchBytes += entry.getValue().size;
+                if (batch.size() >= maxBatchFiles || batchBytes >= maxBatchBytes) {
+                    submit(batch);
+                    batch = new ArrayList<>();
+                    batchBytes = 0;
+                }
+            }
+            if (!batch.isEmpty()) {
+                submit(batch);
+            }
+        }
+
+        /**
+         * Check that a file's size still matches its last event, for writers whose appends raise no event
+         */
+        private boolean isUnchanged(Path path, PendingFile file, long now) {
+            try {
+                long size = Files.size(path);
+                if (size == file.size) {
+                    return true;
+                }
+                file.changed(now, size);
+            } catch (IOException e) {
+                pending.remove(path);
+            }
+            return false;
+        }
+
+        private void submit(List<Path> files) {
+            runningBatches.incrementAndGet();
+            try {
+                batches.execute(() -> runBatch(files));
+            } catch (RuntimeException e) {
+                // Stopped while dispatching
+                files.forEach(inFlight::remove);
+                runningBatches.decrementAndGet();
+            }
+        }
+
+        private void runBatch(List<Path> files) {
+            logger.debug("Processing batch of {} files from {}", files.size(), directory);
+            try {
+                batchFileService.processFiles(files, outputDirectory, operation, (result, document) -> {
+                    Long arrival = inFlight.remove(result.getSource());
+                    if (arrival != null) {
+                        long latency = System.nanoTime() - arrival;
+                        latencies.record(latency);
+                        if (metricsRegistry != null) {
+                            metricsRegistry.recordLatency(LATENCY_OPERATION, latency, !result.isSuccessful());
+                        }
+                    }
+                    (result.isSuccessful() ? processed : failed).increment();
+                    listener.onFileCompleted(result, document);
+                });
+            } catch (CancellationException e) {
+                logger.debug("Cancelled batch of {} files from {}", files.size(), directory);
+            } catch (RuntimeException e) {
+                logger.error("Error processing batch from {}: {}", directory, e.getMessage());
+            } finally {
+                files.forEach(inFlight::remove);
+                runningBatches.decrementAndGet();
+            }
+        }
+    }
+
+    private static final class PendingFile {
+        final long arrivalNanos;
+        volatile long lastChangeNanos;
+        volatile long size;
+
+        PendingFile(long arrivalNanos) {
+            this.arrivalNanos = arrivalNanos;
+        }
+
+        void changed(long nanos, long newSize) {
+            lastChangeNanos = nanos;
+            size = newSize;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package com.dataflow.textprocessing.service.impl;
+
+import com.dataflow.textprocessing.exception.TextProcessingException;
+import com.dataflow.textprocessing.model.TextDocument;
+import com.dataflow.textprocessing.service.DocumentIngestionService;
+import com.dataflow.textprocessing.util.Cancellation;
+import com.dataflow.textprocessing.util.CompressedFiles;
+import com.dataflow.textprocessing.util.Utf8;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Reads files into documents in one copy from bytes to String wherever the input allows; gzip input
+ * is recognized by its magic number and decompressed first. UTF-8 is
+ * validated with a word-at-a-time ASCII scan and then decoded by {@link String} itself; only malformed
+ * input, a {@link MalformedInputPolicy#SKIP} policy or an encoding other than UTF-8 under a strict
+ * policy go through a {@link CharsetDecoder}. Large UTF-8 input is validated and decoded in chunks on
+ * the common pool, split at character boundaries, and joined in one more copy.
+ */
+public class DocumentIngestionServiceImpl implements DocumentIngestionService {
+    private static final Logger logger = LoggerFactory.getLogger(DocumentIngestionServiceImpl.class);
+
+    static final int DEFAULT_PARALLEL_THRESHOLD = 8 * 1024 * 1024;
+    private static final int PARALLEL_CHUNK_SIZE = 2 * 1024 * 1024;
+    private static final int DETECTION_SAMPLE_SIZE = 64 * 1024;
+    private static final Charset WINDOWS_1252 = Charset.forName("windows-1252");
+    private static final Charset UTF_32BE = Charset.forName("UTF-32BE");
+    private static final Charset UTF_32LE = Charset.forName("UTF-32LE");
+
+    private final MalformedInputPolicy policy;
+    private final int parallelThreshold;
+
+    public DocumentIngestionServiceImpl() {
+        this(MalformedInputPolicy.REPLACE, DEFAULT_PARALLEL_THRESHOLD);
+    }
+
+    /**
+     * @param policy Handling of input not valid in the detected encoding
+     * @param parallelThreshold Size in bytes from which UTF-8 input is decoded on several threads
+     */
+    public DocumentIngestionServiceImpl(MalformedInputPolicy policy, int parallelThreshold) {
+        this.policy = policy;
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    @Override
+    public TextDocument readDocument(Path path) {
+        String name = CompressedFiles.stripGzipExtension(path.getFileName().toString());
+        byte[] bytes;
+        try (InputStream in = CompressedFiles.newInputStream(path)) {
+            bytes = in.readAllBytes();
+        } catch (IOException e) {
+            logger.error("Error reading {}: {}", path, e.getMessage());
+            throw new TextProcessingException("Failed to read " + name, e);
+        }
+        return new TextDocument(name, decode(bytes, name));
+    }
+
+    @Override
+    public String decode(byte[] bytes) {
+        return decode(bytes, "input");
+    }
+
+    @Override
+    public Charset detectCharset(byte[] bytes) {
+        return detect(bytes).charset;
+    }
+
+    private String decode(byte[] bytes, String source) {
+        if (CompressedFiles.isGzip(bytes)) {
+            try {
+                bytes = CompressedFiles.decompress(bytes);
+            } catch (IOException e) {
+                logger.error("Error decompressing {}: {}", source, e.getMessage());
+                throw new TextProcessingException("Failed to decompress " + source, e);
+            }
+        }
+        Encoding encoding = detect(bytes);
+        logger.debug("Decoding {} bytes of {} as {}", bytes.length, source, encoding.charset);
+        if (encoding.charset == StandardCharsets.UTF_8 && bytes.length - encoding.bomLength >= parallelThreshold
+                && ForkJoinPool.getCommonPoolParallelism() > 1) {
+            return decodeUtf8InChunks(bytes, encoding.bomLength, source);
+        }
+        return decodeRange(bytes, encoding.bomLength, bytes.length, encoding.charset, source);
+    }
+
+    private String decodeUtf8InChunks(byte[] bytes, int from, String source) {
+        int chunks = (int) ((bytes.length - from + (long) PARALLEL_CHUNK_SIZE - 1) / PARALLEL_CHUNK_SIZE);
+        int[] bounds = new int[chunks + 1];
+        bounds[0] = from;
+        bounds[chunks] = bytes.length;
+        for (int i = 1; i < chunks; i++) {
+            bounds[i] = Utf8.alignToSequenceStart(bytes, from + i * PARALLEL_CHUNK_SIZE);
+        }
+        String[] parts = new String[chunks];
+        IntStream.range(0, chunks).parallel().forEach(i ->
+                parts[i] = decodeRange(bytes, bounds[i], bounds[i + 1], StandardCharsets.UTF_8, source));
+        Cancellation.checkpoint();
+        return String.join("", parts);
+    }
+
+    private String decodeRange(byte[] bytes, int from, int to, Charset charset, String source) {
+        if (charset == StandardCharsets.UTF_8) {
+            int malformed = Utf8.firstMalformed(bytes, from, to);
+            if (malformed < 0) {
+                return new String(bytes, from, to - from, charset);
+            }
+            if (policy == MalformedInputPolicy.REPORT) {
+                throw malformedInput(source, charset, malformed);
+            }
+            if (policy == MalformedInputPolicy.REPLACE) {
+                logger.warn("Replacing malformed UTF-8 in {} from byte {}", source, malformed);
+                return new String(bytes, from, to - from, charset);
+            }
+        } else if (policy == MalformedInputPolicy.REPLACE) {
+            return new String(bytes, from, to - from, charset);
+        }
+        CodingErrorAction action = policy == MalformedInputPolicy.SKIP ? CodingErrorAction.IGNORE : CodingErrorAction.REPORT;
+        CharsetDecoder decoder = charset.newDecoder().onMalformedInput(action).onUnmappableCharacter(action);
+        ByteBuffer input = ByteBuffer.wrap(bytes, from, to - from);
+        try {
+            return decoder.decode(input).toString();
+        } catch (CharacterCodingException e) {
+            throw malformedInput(source, charset, input.position());
+        }
+    }
+
+    private static TextProcessingException malformedInput(String source, Charset charset, int offset) {
+        logger.error("Malformed {} input in {} at byte {}", charset, source, offset);
+        return new TextProcessingException("Malformed " + charset + " input in " + source + " at byte " + offset);
+    }
+
+    private static Encoding detect(byte[] bytes) {
+        if (startsWith(bytes, 0xEF, 0xBB, 0xBF)) {
+            return new Encoding(StandardCharsets.UTF_8, 3);
+        }
+        if (startsWith(bytes, 0xFF, 0xFE, 0x00, 0x00)) {
+            return new Encoding(UTF_32LE, 4);
+        }
+        if (startsWith(bytes, 0x00, 0x00, 0xFE, 0xFF)) {
+            return new Encoding(UTF_32BE, 4);
+        }
+        if (startsWith(bytes, 0xFE, 0xFF)) {
+            return new Encoding(StandardCharsets.UTF_16BE, 2);
+        }
+        if (startsWith(bytes, 0xFF, 0xFE)) {
+            return new Encoding(StandardCharsets.UTF_16LE, 2);
+        }
+        int sampleSize = Math.min(bytes.length, DETECTION_SAMPLE_SIZE);
+        // Latin text in UTF-16 has a zero in every other byte, which no 8-bit encoding of text has
+        int evenZeros = 0;
+        int oddZeros = 0;
+        for (int i = 0; i + 1 < sampleSize; i += 2) {
+            if (bytes[i] == 0) {
+                evenZeros++;
+            }
+            if (bytes[i + 1] == 0) {
+                oddZeros++;
+            }
+        }
+        // Compared without dividing, so short samples without any zero in the other column qualify
+        int pairs = sampleSize / 2;
+        if (pairs > 0 && oddZeros * 10 > pairs * 3 && evenZeros * 20 < pairs) {
+            return new Encoding(StandardCharsets.UTF_16LE, 0);
+        }
+        if (pairs > 0 && evenZeros * 10 > pairs * 3 && oddZeros * 20 < pairs) {
+            return new Encoding(StandardCharsets.UTF_16BE, 0);
+        }
+        int malformed = Utf8.firstMalformed(bytes, 0, sampleSize);
+        // A sequence cut off by the end of the sample does not count against UTF-8
+        if (malformed < 0 || (sampleSize < bytes.length && malformed > sampleSize - 4)) {
+            return new Encoding(StandardCharsets.UTF_8, 0);
+        }
+        return new Encoding(WINDOWS_1252, 0);
+    }
+
+    private static boolean startsWith(byte[] bytes, int... prefix) {
+        if (bytes.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if ((bytes[i] & 0xFF) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final class Encoding {
+        final Charset charset;
+        final int bomLength;
+
+        Encoding(Charset charset, int bomLength) {
+            this.charset = charset;
+            this.bomLength = bomLength;
+        }
+    }
+}
@@ -0,0 +1,1050 @@
+package com.dataflow.textprocessing.service.impl;
+
+import com.dataflow.textprocessing.exception.TextProcessingException;
+import com.dataflow.textprocessing.model.DocumentVersion;
+import com.dataflow.textprocessing.model.TextDocument;
+import com.dataflow.textprocessing.service.BatchProcessingService;
+import com.dataflow.textprocessing.service.DocumentStoreService;
+import com.dataflow.textprocessing.util.Cancellation;
+import com.dataflow.textprocessing.util.ContentHash;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Append-only document store in a single log file. Content is stored once per content hash, and each
+ * save appends a small version record pointing at it, so saving unchanged or repeated text costs a
+ * few dozen bytes. Every record carries a CRC32C; an incomplete record at the end of the log, left by
+ * a crash, is discarded when the store is opened.
+ * <p>
+ * All writes go through one writer thread. It takes every save waiting in its queue, appends them
+ * with one gathering write and makes them durable with one {@code fsync}, so concurrent savers share
+ * the cost of a sync (group commit). Saves become visible to readers only once durable. Reads map
+ * the log into memory and never touch the writer; {@link #contentBytes(String)} returns the mapped
+ * bytes themselves.
+ * <p>
+ * The id index is held in memory. On close and after compaction it is written to a hint file next to
+ * the log, and opening the store loads the hint and scans only the log written after it, so startup
+ * time does not grow with the size of the stored content.
+ */
+public class DocumentStoreServiceImpl implements DocumentStoreService {
+    private static final Logger logger = LoggerFactory.getLogger(DocumentStoreServiceImpl.class);
+    private static final AtomicInteger STORE_NUMBER = new AtomicInteger();
+    private static final SecureRandom GENERATIONS = new SecureRandom();
+
+    private static final int MAGIC = 0x54504453; // "TPDS"
+    private static final int HINT_MAGIC = 0x54504448; // "TPDH"
+    private static final int FORMAT_VERSION = 1;
+    private static final int FILE_HEADER_SIZE = 16;
+    private static final int RECORD_HEADER_SIZE = 9;
+    private static final int HASH_SIZE = 16;
+    private static final byte BLOB_RECORD = 1;
+    private static final byte VERSION_RECORD = 2;
+    private static final byte DELETE_RECORD = 3;
+    private static final int MAX_BATCH = 1024;
+    private static final int SCAN_BUFFER_SIZE = 64 * 1024;
+    private static final String HINT_SUFFIX = ".hint";
+
+    private final Path path;
+    private final Path hintPath;
+    private final boolean syncOnCommit;
+    private final BlockingQueue<Command> commands = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private volatile State state;
+    private volatile boolean closed;
+
+    // Owned by the writer thread after construction
+    private FileChannel channel;
+    private long generation;
+    private long stagedEnd;
+    private final List<ByteBuffer> stagedBuffers = new ArrayList<>();
+    private final List<Runnable> stagedUpdates = new ArrayList<>();
+    private final List<Command> stagedCommands = new ArrayList<>();
+    private final Map<ContentHash, BlobRef> stagedBlobs = new HashMap<>();
+    private final Map<ContentHash, byte[]> stagedContents = new HashMap<>();
+    private final Map<String, DocumentVersion> stagedHeads = new HashMap<>();
+
+    /**
+     * Open or create a store whose saves return once they are on disk
+     * @param path Log file of the store
+     */
+    public DocumentStoreServiceImpl(Path path) {
+        this(path, true);
+    }
+
+    /**
+     * Open or create a store
+     * @param path Log file of the store
+     * @param syncOnCommit Whether saves wait for {@code fsync}; without it a crash can lose the most
+     *                     recent saves, but never corrupts older ones
+     */
+    public DocumentStoreServiceImpl(Path path, boolean syncOnCommit) {
+        this.path = path.toAbsolutePath();
+        this.hintPath = this.path.resolveSibling(this.path.getFileName() + HINT_SUFFIX);
+        this.syncOnCommit = syncOnCommit;
+        try {
+            open();
+        } catch (IOException | RuntimeException e) {
+            closeQuietly(channel);
+            logger.error("Error opening document store {}: {}", path, e.getMessage());
+            throw e instanceof TextProcessingException ? (TextProcessingException) e
+                    : new TextProcessingException("Failed to open document store " + path, e);
+        }
+        writer = new Thread(this::runWriter, "document-store-writer-" + STORE_NUMBER.incrementAndGet());
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    public DocumentVersion save(TextDocument document) {
+        return saveVersion(document.getId(), document);
+    }
+
+    @Override
+    public DocumentVersion saveVersion(String documentId, TextDocument revision) {
+        return await(saveAsync(documentId, revision));
+    }
+
+    @Override
+    public TextDocument load(String documentId) {
+        return read(current -> {
+            DocumentVersion[] versions = current.histories.get(documentId);
+            return versions == null ? null : toDocument(current, versions[versions.length - 1]);
+        });
+    }
+
+    @Override
+    public TextDocument load(String documentId, int version) {
+        return read(current -> {
+            DocumentVersion[] versions = current.histories.get(documentId);
+            if (versions == null) {
+                return null;
+            }
+            for (DocumentVersion stored : versions) {
+                if (stored.getVersion() == version) {
+                    return toDocument(current, stored);
+                }
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public ByteBuffer contentBytes(String documentId) {
+        return read(current -> {
+            DocumentVersion[] versions = current.histories.get(documentId);
+            if (versions == null) {
+                return null;
+            }
+            BlobRef blob = current.blobs.get(versions[versions.length - 1].getContentHash());
+            return current.file.slice(blob.offset, blob.length);
+        });
+    }
+
+    @Override
+    public List<DocumentVersion> history(String documentId) {
+        ensureOpen();
+        DocumentVersion[] versions = state.histories.get(documentId);
+        return versions == null ? List.of() : List.of(versions);
+    }
+
+    @Override
+    public List<DocumentVersion> list() {
+        ensureOpen();
+        List<DocumentVersion> latest = new ArrayList<>();
+        for (DocumentVersion[] versions : state.histories.values()) {
+            latest.add(versions[versions.length - 1]);
+        }
+        latest.sort(Comparator.comparing(DocumentVersion::getName).thenComparing(DocumentVersion::getDocumentId));
+        return latest;
+    }
+
+    @Override
+    public boolean delete(String documentId) {
+        return await(submit(new DeleteCommand(documentId)));
+    }
+
+    @Override
+    public void reprocess(List<String> documentIds, BatchProcessingService.BatchOperation<TextDocument> operation,
+                          BatchProcessingService.BatchProcessingCallback callback) {
+        logger.info("Reprocessing {} stored documents", documentIds.size());
+        List<TextDocument> results = new ArrayList<>(documentIds.size());
+        // Saves are not waited for one by one, so the writer commits them in groups while processing goes on
+        ArrayDeque<PendingSave> pending = new ArrayDeque<>();
+        for (int i = 0; i < documentIds.size(); i++) {
+            Cancellation.checkpoint();
+            String documentId = documentIds.get(i);
+            TextDocument document = load(documentId);
+            if (document == null) {
+                callback.onError(new TextDocument(documentId, documentId, "", LocalDateTime.now(), LocalDateTime.now()),
+                        new TextProcessingException("Document not stored: " + documentId));
+            } else {
+                try {
+                    TextDocument processed = operation.process(document);
+                    pending.add(new PendingSave(document, processed, saveAsync(documentId, processed)));
+                } catch (CancellationException e) {
+                    throw e;
+                } catch (Exception e) {
+                    logger.error("Error reprocessing document {}: {}", documentId, e.getMessage());
+                    callback.onError(document, e);
+                }
+            }
+            while (!pending.isEmpty() && pending.peek().version.isDone()) {
+                finishSave(pending.poll(), results, callback);
+            }
+            callback.onProgress(i + 1, documentIds.size());
+        }
+        while (!pending.isEmpty()) {
+            finishSave(pending.poll(), results, callback);
+        }
+        logger.info("Reprocessed {} stored documents, {} failed", results.size(), documentIds.size() - results.size());
+        callback.onComplete(results);
+    }
+
+    @Override
+    public long compact(int maxVersions) {
+        if (maxVersions < 1) {
+            throw new IllegalArgumentException("At least one version must be kept: " + maxVersions);
+        }
+        return await(submit(new CompactCommand(maxVersions)));
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            commands.add(new CloseCommand());
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Number of saves, deletes and compactions waiting for the writer
+     */
+    public int getQueuedWrites() {
+        return commands.size();
+    }
+
+    /**
+     * Size of the durable part of the log
+     */
+    public long getLogSize() {
+        return state.file.committedLength;
+    }
+
+    private CompletableFuture<DocumentVersion> saveAsync(String documentId, TextDocument revision) {
+        String content = revision.getContent();
+        return submit(new AppendCommand(documentId, revision.getName(), content.getBytes(StandardCharsets.UTF_8),
+                ContentHash.of(content), revision.getCreatedAt(), revision.getModifiedAt()));
+    }
+
+    private void finishSave(PendingSave save, List<TextDocument> results,
+                            BatchProcessingService.BatchProcessingCallback callback) {
+        try {
+            DocumentVersion version = await(save.version);
+            TextDocument stored = new TextDocument(version.getDocumentId(), version.getName(),
+                    save.processed.getContent(), version.getCreatedAt(), version.getModifiedAt());
+            results.add(stored);
+            callback.onDocumentProcessed(stored);
+        } catch (TextProcessingException e) {
+            callback.onError(save.source, e);
+        }
+    }
+
+    private TextDocument toDocument(State current, DocumentVersion version) throws IOException {
+        BlobRef blob = current.blobs.get(version.getContentHash());
+        byte[] bytes = new byte[blob.length];
+        current.file.slice(blob.offset, blob.length).get(bytes);
+        return new TextDocument(version.getDocumentId(), version.getName(), new String(bytes, StandardCharsets.UTF_8),
+                version.getCreatedAt(), version.getModifiedAt());
+    }
+
+    /**
+     * Run a read against the current state, retrying on the new state if compaction replaced the log
+     * while it ran
+     */
+    private <T> T read(StateRead<T> action) {
+        while (true) {
+            ensureOpen();
+            State current = state;
+            try {
+                return action.read(current);
+            } catch (ClosedChannelException e) {
+                Thread.yield();
+            } catch (IOException e) {
+                logger.error("Error reading document store {}: {}", path, e.getMessage());
+                throw new TextProcessingException("Failed to read document store", e);
+            }
+        }
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new TextProcessingException("Document store is closed");
+        }
+    }
+
+    private <T> CompletableFuture<T> submit(Command command) {
+        synchronized (this) {
+            ensureOpen();
+            commands.add(command);
+        }
+        @SuppressWarnings("unchecked")
+        CompletableFuture<T> result = (CompletableFuture<T>) command.future;
+        return result;
+    }
+
+    /**
+     * Wait for a write; an interrupted caller stops waiting, but the write may still be committed
+     */
+    private static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Operation cancelled");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new TextProcessingException("Document store operation failed", e.getCause());
+        }
+    }
+
+    private void open() throws IOException {
+        Files.createDirectories(path.getParent());
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = channel.size();
+        if (size < FILE_HEADER_SIZE) {
+            if (size > 0) {
+                logger.warn("Reinitializing document store {} with an incomplete header", path);
+                channel.truncate(0);
+            }
+            generation = GENERATIONS.nextLong();
+            writeFully(channel, fileHeader(generation));
+            channel.force(true);
+            size = FILE_HEADER_SIZE;
+        } else {
+            ByteBuffer header = newBuffer(FILE_HEADER_SIZE);
+            readFully(channel, header, 0);
+            header.flip();
+            if (header.getInt() != MAGIC) {
+                throw new TextProcessingException("Not a document store file: " + path);
+            }
+            int version = header.getInt();
+            if (version != FORMAT_VERSION) {
+                throw new TextProcessingException("Unsupported document store format version: " + version);
+            }
+            generation = header.getLong();
+        }
+
+        long startTime = System.nanoTime();
+        State recovered = loadHint(size);
+        long scanFrom = recovered == null ? FILE_HEADER_SIZE : recovered.file.committedLength;
+        if (recovered == null) {
+            recovered = new State(new LogFile(path));
+        }
+        long end = recover(recovered, scanFrom, size);
+        if (end < size) {
+            logger.warn("Discarding {} bytes of incomplete records at the end of {}", size - end, path);
+            channel.truncate(end);
+        }
+        channel.position(end);
+        recovered.file.committedLength = end;
+        stagedEnd = end;
+        state = recovered;
+        logger.info("Opened document store {} with {} documents in {} ms (scanned {} bytes)", path,
+                recovered.histories.size(), (System.nanoTime() - startTime) / 1_000_000, size - scanFrom);
+    }
+
+    /**
+     * Replay log records from a position into the state, stopping at the first incomplete or corrupt one
+     * @return End of the last valid record
+     */
+    private long recover(State target, long position, long size) throws IOException {
+        ByteBuffer header = newBuffer(RECORD_HEADER_SIZE);
+        ByteBuffer chunk = newBuffer(SCAN_BUFFER_SIZE);
+        while (position + RECORD_HEADER_SIZE <= size) {
+            header.clear();
+            readFully(channel, header, position);
+            header.flip();
+            int bodyLength = header.getInt();
+            int checksum = header.getInt();
+            byte type = header.get();
+            long bodyStart = position + RECORD_HEADER_SIZE;
+            if (bodyLength < 0 || bodyStart + bodyLength > size) {
+                break;
+            }
+            CRC32C crc = new CRC32C();
+            crc.update(type);
+            ByteBuffer body = readChecked(bodyStart, bodyLength, type == BLOB_RECORD ? HASH_SIZE : bodyLength, crc, chunk);
+            if ((int) crc.getValue() != checksum || !apply(target, type, body, bodyStart, bodyLength)) {
+                break;
+            }
+            position = bodyStart + bodyLength;
+        }
+        return position;
+    }
+
+    private boolean apply(State target, byte type, ByteBuffer body, long bodyStart, int bodyLength) {
+        if (type == BLOB_RECORD) {
+            if (bodyLength < HASH_SIZE) {
+                return false;
+            }
+            ContentHash hash = new ContentHash(body.getLong(), body.getLong());
+            target.blobs.put(hash, new BlobRef(bodyStart + HASH_SIZE, bodyLength - HASH_SIZE));
+            return true;
+        }
+        if (type == VERSION_RECORD) {
+            ContentHash hash = new ContentHash(body.getLong(), body.getLong());
+            BlobRef blob = target.blobs.get(hash);
+            if (blob == null) {
+                return false;
+            }
+            int version = body.getInt();
+            LocalDateTime createdAt = getDateTime(body);
+            LocalDateTime modifiedAt = getDateTime(body);
+            String documentId = getString(body);
+            String name = getString(body);
+            applyVersion(target, new DocumentVersion(documentId, version, name, hash, blob.length, createdAt, modifiedAt));
+            return true;
+        }
+        if (type == DELETE_RECORD) {
+            target.histories.remove(getString(body));
+            return true;
+        }
+        return false;
+    }
+
+    private static void applyVersion(State target, DocumentVersion version) {
+        target.histories.compute(version.getDocumentId(), (id, versions) -> {
+            if (versions == null) {
+                return new DocumentVersion[] {version};
+            }
+            DocumentVersion[] extended = Arrays.copyOf(versions, versions.length + 1);
+            extended[versions.length] = version;
+            return extended;
+        });
+    }
+
+    private void runWriter() {
+        List<Command> batch = new ArrayList<>();
+        boolean running = true;
+        while (running) {
+            try {
+                batch.add(commands.take());
+            } catch (InterruptedException e) {
+                continue;
+            }
+            commands.drainTo(batch, MAX_BATCH - 1);
+            for (Command command : batch) {
+                try {
+                    if (command instanceof AppendCommand) {
+                        stageAppend((AppendCommand) command);
+                    } else if (command instanceof DeleteCommand) {
+                        stageDelete((DeleteCommand) command);
+                    } else if (command instanceof CompactCommand) {
+                        commit();
+                        command.future.complete(compactLog(((CompactCommand) command).maxVersions));
+                    } else {
+                        commit();
+                        closeLog();
+                        command.future.complete(null);
+                        running = false;
+                    }
+                } catch (IOException e) {
+                    logger.error("Error writing document store {}: {}", path, e.getMessage());
+                    command.future.completeExceptionally(new TextProcessingException("Failed to write document store", e));
+                } catch (RuntimeException e) {
+                    command.future.completeExceptionally(e);
+                }
+            }
+            commit();
+            batch.clear();
+        }
+        logger.info("Closed document store {}", path);
+    }
+
+    private void stageAppend(AppendCommand command) throws IOException {
+        BlobRef blob = stagedBlobs.get(command.hash);
+        if (blob == null) {
+            blob = state.blobs.get(command.hash);
+        }
+        // Content is stored by hash, so text colliding with stored text must not be saved as that text
+        if (blob != null && !isStoredContent(command.hash, blob, command.content)) {
+            logger.error("Content of document {} collides with stored content of hash {}", command.documentId, command.hash);
+            throw new TextProcessingException("Content hash collision; document " + command.documentId + " not saved");
+        }
+        DocumentVersion head = head(command.documentId);
+        if (head != null && head.getContentHash().equals(command.hash) && head.getName().equals(command.name)) {
+            command.result = head;
+            stagedCommands.add(command);
+            return;
+        }
+        if (blob == null) {
+            ByteBuffer hash = newBuffer(HASH_SIZE).putLong(command.hash.getHigh()).putLong(command.hash.getLow()).flip();
+            BlobRef added = new BlobRef(stagedEnd + RECORD_HEADER_SIZE + HASH_SIZE, command.content.length);
+            stage(BLOB_RECORD, hash, ByteBuffer.wrap(command.content));
+            stagedBlobs.put(command.hash, added);
+            stagedContents.put(command.hash, command.content);
+            stagedUpdates.add(() -> state.blobs.put(command.hash, added));
+            blob = added;
+        }
+        // Versions keep the creation time of the document, whatever document object carried the revision
+        LocalDateTime createdAt = head == null ? command.createdAt : head.getCreatedAt();
+        DocumentVersion version = new DocumentVersion(command.documentId, head == null ? 1 : head.getVersion() + 1,
+                command.name, command.hash, blob.length, createdAt, command.modifiedAt);
+        stage(VERSION_RECORD, encodeVersion(version));
+        stagedHeads.put(command.documentId, version);
+        stagedUpdates.add(() -> applyVersion(state, version));
+        command.result = version;
+        stagedCommands.add(command);
+    }
+
+    /**
+     * Whether content is byte for byte the stored blob of its hash, staged or committed
+     */
+    private boolean isStoredContent(ContentHash hash, BlobRef blob, byte[] content) throws IOException {
+        if (blob.length != content.length) {
+            return false;
+        }
+        byte[] staged = stagedContents.get(hash);
+        if (staged != null) {
+            return Arrays.equals(staged, content);
+        }
+        return state.file.slice(blob.offset, blob.length).equals(ByteBuffer.wrap(content));
+    }
+
+    private void stageDelete(DeleteCommand command) {
+        boolean stored = head(command.documentId) != null;
+        if (stored) {
+            byte[] id = command.documentId.getBytes(StandardCharsets.UTF_8);
+            stage(DELETE_RECORD, newBuffer(4 + id.length).putInt(id.length).put(id).flip());
+            stagedHeads.put(command.documentId, null);
+            stagedUpdates.add(() -> state.histories.remove(command.documentId));
+        }
+        command.result = stored;
+        stagedCommands.add(command);
+    }
+
+    /**
+     * Latest version of a document including staged writes, or null if it is not stored
+     */
+    private DocumentVersion head(String documentId) {
+        if (stagedHeads.containsKey(documentId)) {
+            return stagedHeads.get(documentId);
+        }
+        DocumentVersion[] versions = state.histories.get(documentId);
+        return versions == null ? null : versions[versions.length - 1];
+    }
+
+    private void stage(byte type, ByteBuffer... body) {
+        ByteBuffer[] record = record(type, body);
+        stagedBuffers.addAll(Arrays.asList(record));
+        for (ByteBuffer buffer : record) {
+            stagedEnd += buffer.remaining();
+        }
+    }
+
+    /**
+     * Write and sync the staged records, then publish them to readers and complete their commands
+     */
+    private void commit() {
+        if (stagedCommands.isEmpty() && stagedBuffers.isEmpty()) {
+            return;
+        }
+        LogFile file = state.file;
+        try {
+            if (!stagedBuffers.isEmpty()) {
+                ByteBuffer[] buffers = stagedBuffers.toArray(new ByteBuffer[0]);
+                long remaining = stagedEnd - file.committedLength;
+                while (remaining > 0) {
+                    remaining -= channel.write(buffers);
+                }
+                if (syncOnCommit) {
+                    channel.force(false);
+                }
+                // Published before the index so a reader finding a new entry can map its bytes
+                file.committedLength = stagedEnd;
+            }
+            stagedUpdates.forEach(Runnable::run);
+            stagedCommands.forEach(command -> command.future.complete(command.result));
+        } catch (IOException e) {
+            logger.error("Error writing document store {}: {}", path, e.getMessage());
+            TextProcessingException failure = new TextProcessingException("Failed to write document store", e);
+            stagedCommands.forEach(command -> command.future.completeExceptionally(failure));
+            try {
+                channel.truncate(file.committedLength);
+                channel.position(file.committedLength);
+            } catch (IOException truncateError) {
+                logger.error("Error truncating document store {}: {}", path, truncateError.getMessage());
+            }
+            stagedEnd = file.committedLength;
+        } finally {
+            stagedBuffers.clear();
+            stagedUpdates.clear();
+            stagedCommands.clear();
+            stagedBlobs.clear();
+            stagedContents.clear();
+            stagedHeads.clear();
+        }
+    }
+
+    /**
+     * Copy the retained versions and their content into a new log and replace the old one with it.
+     * Content records are copied verbatim with {@link FileChannel#transferTo}.
+     */
+    private long compactLog(int maxVersions) throws IOException {
+        State old = state;
+        long oldSize = old.file.committedLength;
+        long newGeneration = GENERATIONS.nextLong();
+        Path tempFile = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+        FileChannel target = FileChannel.open(tempFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        State compacted = new State(new LogFile(path));
+        long position;
+        try {
+            position = writeFully(target, fileHeader(newGeneration));
+            for (DocumentVersion[] versions : old.histories.values()) {
+                for (int i = Math.max(0, versions.length - maxVersions); i < versions.length; i++) {
+                    DocumentVersion version = versions[i];
+                    if (!compacted.blobs.containsKey(version.getContentHash())) {
+                        BlobRef blob = old.blobs.get(version.getContentHash());
+                        long recordLength = RECORD_HEADER_SIZE + HASH_SIZE + blob.length;
+                        long copied = 0;
+                        while (copied < recordLength) {
+                            copied += channel.transferTo(blob.offset - HASH_SIZE - RECORD_HEADER_SIZE + copied,
+                                    recordLength - copied, target);
+                        }
+                        compacted.blobs.put(version.getContentHash(),
+                                new BlobRef(position + RECORD_HEADER_SIZE + HASH_SIZE, blob.length));
+                        position += recordLength;
+                    }
+                    position += writeFully(target, record(VERSION_RECORD, encodeVersion(version)));
+                    applyVersion(compacted, version);
+                }
+            }
+            target.force(true);
+        } catch (IOException | RuntimeException e) {
+            closeQuietly(target);
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+        // Readers of the old log retry on the new state once it is published
+        old.file.retire();
+        Files.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        closeQuietly(channel);
+        channel = target;
+        generation = newGeneration;
+        compacted.file.committedLength = position;
+        stagedEnd = position;
+        state = compacted;
+        writeHint(compacted);
+        logger.info("Compacted document store {} from {} to {} bytes", path, oldSize, position);
+        return oldSize - position;
+    }
+
+    private void closeLog() {
+        State current = state;
+        try {
+            writeHint(current);
+        } catch (IOException e) {
+            logger.warn("Error writing document store hint {}: {}", hintPath, e.getMessage());
+        }
+        current.file.retire();
+        closeQuietly(channel);
+    }
+
+    /**
+     * Write the index with the log length it covers, so the next open only scans what follows
+     */
+    private void writeHint(State current) throws IOException {
+        Path tempFile = Files.createTempFile(path.getParent(), hintPath.getFileName().toString(), ".tmp");
+        CRC32C crc = new CRC32C();
+        try (DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(tempFile)), crc))) {
+            out.writeInt(HINT_MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(generation);
+            out.writeLong(current.file.committedLength);
+            out.writeInt(current.blobs.size());
+            for (Map.Entry<ContentHash, BlobRef> blob : current.blobs.entrySet()) {
+                out.writeLong(blob.getKey().getHigh());
+                out.writeLong(blob.getKey().getLow());
+                out.writeLong(blob.getValue().offset);
+                out.writeInt(blob.getValue().length);
+            }
+            out.writeInt(current.histories.size());
+            for (DocumentVersion[] versions : current.histories.values()) {
+                writeString(out, versions[0].getDocumentId());
+                out.writeInt(versions.length);
+                for (DocumentVersion version : versions) {
+                    out.writeInt(version.getVersion());
+                    writeString(out, version.getName());
+                    out.writeLong(version.getContentHash().getHigh());
+                    out.writeLong(version.getContentHash().getLow());
+                    writeDateTime(out, version.getCreatedAt());
+                    writeDateTime(out, version.getModifiedAt());
+                }
+            }
+            out.writeInt((int) crc.getValue());
+        } catch (IOException e) {
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+        Files.move(tempFile, hintPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Load the index from the hint file if it belongs to this log
+     * @return State holding the index, with the covered log length as committed length, or null
+     */
+    private State loadHint(long logSize) {
+        if (!Files.exists(hintPath)) {
+            return null;
+        }
+        CRC32C crc = new CRC32C();
+        try (DataInputStream in = new DataInputStream(new CheckedInputStream(
+                new BufferedInputStream(Files.newInputStream(hintPath)), crc))) {
+            if (in.readInt() != HINT_MAGIC || in.readInt() != FORMAT_VERSION || in.readLong() != generation) {
+                logger.info("Ignoring document store hint {} of another log", hintPath);
+                return null;
+            }
+            long covered = in.readLong();
+            if (covered < FILE_HEADER_SIZE || covered > logSize) {
+                logger.warn("Ignoring document store hint {} beyond the end of the log", hintPath);
+                return null;
+            }
+            State loaded = new State(new LogFile(path));
+            int blobCount = in.readInt();
+            for (int i = 0; i < blobCount; i++) {
+                ContentHash hash = new ContentHash(in.readLong(), in.readLong());
+                loaded.blobs.put(hash, new BlobRef(in.readLong(), in.readInt()));
+            }
+            int documentCount = in.readInt();
+            for (int i = 0; i < documentCount; i++) {
+                String documentId = readString(in);
+                DocumentVersion[] versions = new DocumentVersion[in.readInt()];
+                for (int v = 0; v < versions.length; v++) {
+                    int version = in.readInt();
+                    String name = readString(in);
+                    ContentHash hash = new ContentHash(in.readLong(), in.readLong());
+                    BlobRef blob = loaded.blobs.get(hash);
+                    if (blob == null) {
+                        throw new IOException("Version refers to missing content " + hash);
+                    }
+                    versions[v] = new DocumentVersion(documentId, version, name, hash, blob.length,
+                            readDateTime(in), readDateTime(in));
+                }
+                loaded.histories.put(documentId, versions);
+            }
+            int expected = (int) crc.getValue();
+            if (in.readInt() != expected) {
+                throw new IOException("Checksum mismatch");
+            }
+            loaded.file.committedLength = covered;
+            return loaded;
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Ignoring unreadable document store hint {}: {}", hintPath, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Read a record body, updating the checksum with all of it
+     * @param keep Number of leading bytes to return
+     */
+    private ByteBuffer readChecked(long position, int length, int keep, CRC32C crc, ByteBuffer chunk) throws IOException {
+        ByteBuffer kept = newBuffer(Math.min(length, keep));
+        long end = position + length;
+        while (position < end) {
+            chunk.clear().limit((int) Math.min(chunk.capacity(), end - position));
+            readFully(channel, chunk, position);
+            chunk.flip();
+            position += chunk.remaining();
+            crc.update(chunk.duplicate());
+            if (kept.hasRemaining()) {
+                chunk.limit(Math.min(chunk.limit(), kept.remaining()));
+                kept.put(chunk);
+            }
+        }
+        return kept.flip();
+    }
+
+    private static ByteBuffer[] record(byte type, ByteBuffer... body) {
+        CRC32C crc = new CRC32C();
+        crc.update(type);
+        long bodyLength = 0;
+        for (ByteBuffer part : body) {
+            bodyLength += part.remaining();
+            crc.update(part.duplicate());
+        }
+        ByteBuffer[] record = new ByteBuffer[body.length + 1];
+        record[0] = newBuffer(RECORD_HEADER_SIZE).putInt(Math.toIntExact(bodyLength)).putInt((int) crc.getValue())
+                .put(type).flip();
+        System.arraycopy(body, 0, record, 1, body.length);
+        return record;
+    }
+
+    private static ByteBuffer encodeVersion(DocumentVersion version) {
+        byte[] id = version.getDocumentId().getBytes(StandardCharsets.UTF_8);
+        byte[] name = version.getName().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer body = newBuffer(HASH_SIZE + 4 + 2 * 12 + 4 + id.length + 4 + name.length);
+        body.putLong(version.getContentHash().getHigh()).putLong(version.getContentHash().getLow())
+                .putInt(version.getVersion());
+        putDateTime(body, version.getCreatedAt());
+        putDateTime(body, version.getModifiedAt());
+        body.putInt(id.length).put(id).putInt(name.length).put(name);
+        return body.flip();
+    }
+
+    private static ByteBuffer fileHeader(long generation) {
+        return newBuffer(FILE_HEADER_SIZE).putInt(MAGIC).putInt(FORMAT_VERSION).putLong(generation).flip();
+    }
+
+    private static void putDateTime(ByteBuffer buffer, LocalDateTime dateTime) {
+        buffer.putLong(dateTime.toEpochSecond(ZoneOffset.UTC)).putInt(dateTime.getNano());
+    }
+
+    private static LocalDateTime getDateTime(ByteBuffer buffer) {
+        return LocalDateTime.ofEpochSecond(buffer.getLong(), buffer.getInt(), ZoneOffset.UTC);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeDateTime(DataOutputStream out, LocalDateTime dateTime) throws IOException {
+        out.writeLong(dateTime.toEpochSecond(ZoneOffset.UTC));
+        out.writeInt(dateTime.getNano());
+    }
+
+    private static LocalDateTime readDateTime(DataInputStream in) throws IOException {
+        return LocalDateTime.ofEpochSecond(in.readLong(), in.readInt(), ZoneOffset.UTC);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static ByteBuffer newBuffer(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static long writeFully(FileChannel target, ByteBuffer... buffers) throws IOException {
+        long total = 0;
+        for (ByteBuffer buffer : buffers) {
+            total += buffer.remaining();
+        }
+        long remaining = total;
+        while (remaining > 0) {
+            remaining -= target.write(buffers);
+        }
+        return total;
+    }
+
+    private static void readFully(FileChannel source, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int count = source.read(buffer, position);
+            if (count < 0) {
+                throw new EOFException("Unexpected end of document store");
+            }
+            position += count;
+        }
+    }
+
+    private static void closeQuietly(FileChannel toClose) {
+        if (toClose != null) {
+            try {
+                toClose.close();
+            } catch (IOException e) {
+                logger.warn("Error closing document store file: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Index of one log file: content by hash and version history by document id. The maps are
+     * updated only by the writer; each history array is replaced whole, never modified.
+     */
+    private static final class State {
+        final LogFile file;
+        final Map<ContentHash, BlobRef> blobs = new ConcurrentHashMap<>();
+        final Map<String, DocumentVersion[]> histories = new ConcurrentHashMap<>();
+
+        State(LogFile file) {
+            this.file = file;
+        }
+    }
+
+    /**
+     * Read side of a log file: a read-only mapping of its durable part, extended as the log grows
+     */
+    private static final class LogFile {
+        final Path path;
+        volatile long committedLength;
+        private volatile ByteBuffer mapping;
+        private FileChannel readChannel;
+        private boolean retired;
+
+        LogFile(Path path) {
+            this.path = path;
+        }
+
+        ByteBuffer slice(long offset, int length) throws IOException {
+            ByteBuffer mapped = mapping;
+            if (mapped != null && offset + length <= mapped.capacity()) {
+                return mapped.slice((int) offset, length);
+            }
+            synchronized (this) {
+                if (retired) {
+                    throw new ClosedChannelException();
+                }
+                // An interrupt during a channel operation closes the channel, so check before mapping
+                Cancellation.checkpoint();
+                try {
+                    if (readChannel == null || !readChannel.isOpen()) {
+                        readChannel = FileChannel.open(path, StandardOpenOption.READ);
+                    }
+                    long size = committedLength;
+                    if (size > Integer.MAX_VALUE) {
+                        return readChannel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+                    }
+                    mapping = readChannel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                    return mapping.slice((int) offset, length);
+                } catch (ClosedByInterruptException e) {
+                    throw new CancellationException("Operation cancelled");
+                }
+            }
+        }
+
+        /**
+         * Stop reading; buffers already handed out stay valid
+         */
+        synchronized void retire() {
+            retired = true;
+            closeQuietly(readChannel);
+        }
+    }
+
+    private static final class BlobRef {
+        final long offset;
+        final int length;
+
+        BlobRef(long offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private interface StateRead<T> {
+        T read(State state) throws IOException;
+    }
+
+    private static final class PendingSave {
+        final TextDocument source;
+        final TextDocument processed;
+        final CompletableFuture<DocumentVersion> version;
+
+        PendingSave(TextDocument source, TextDocument processed, CompletableFuture<DocumentVersion> version) {
+            this.source = source;
+            this.processed = processed;
+            this.version = version;
+        }
+    }
+
+    private abstract static class Command {
+        final CompletableFuture<Object> future = new CompletableFuture<>();
+        Object result;
+    }
+
+    private static final class AppendCommand extends Command {
+        final String documentId;
+        final String name;
+        final byte[] content;
+        final ContentHash hash;
+        final LocalDateTime createdAt;
+        final LocalDateTime modifiedAt;
+
+        AppendCommand(String documentId, String name, byte[] content, ContentHash hash,
+                      LocalDateTime createdAt, LocalDateTime modifiedAt) {
+            this.documentId = documentId;
+            this.name = name;
+            this.content = content;
+            this.hash = hash;
+            this.createdAt = createdAt;
+            this.modifiedAt = modifiedAt;
+        }
+    }
+
+    private static final class DeleteCommand extends Command {
+        final String documentId;
+
+        DeleteCommand(String documentId) {
+            this.documentId = documentId;
+        }
+    }
+
+    private static final class CompactCommand extends Command {
+        final int maxVersions;
+
+        CompactCommand(int maxVersions) {
+            this.maxVersions = maxVersions;
+        }
+    }
+
+    private static final class CloseCommand extends Command {
+    }
+}
@@ -0,0 +1,95 @@
+package com.dataflow.textprocessing.service.impl;
+
+import com.dataflow.textprocessing.service.SubstringIndexService;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * FM-index: the Burrows-Wheeler transform of the text stored in a wavelet matrix, plus a sample of
+ * the suffix array. Counting uses backward search, locating walks LF steps to the nearest sample.
+ * Symbol 0 is the end-of-text sentinel, symbol k is the k-th smallest character of the text.
+ */
+final class FmIndex implements SubstringIndexService.SubstringIndex {
+    final char[] alphabet;
+    final int[] counts;
+    final WaveletMatrix bwt;
+    final RankBitVector sampled;
+    final IntBuffer samples;
+    final int sampleRate;
+    private final int length;
+
+    FmIndex(char[] alphabet, int[] counts, WaveletMatrix bwt, RankBitVector sampled, IntBuffer samples,
+            int sampleRate, int length) {
+        this.alphabet = alphabet;
+        this.counts = counts;
+        this.bwt = bwt;
+        this.sampled = sampled;
+        this.samples = samples;
+        this.sampleRate = sampleRate;
+        this.length = length;
+    }
+
+    @Override
+    public int count(String substring) {
+        long range = range(substring);
+        return (int) (range >>> 32) - (int) range;
+    }
+
+    @Override
+    public int[] locate(String substring) {
+        return locate(substring, 0, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int[] locate(String substring, int from, int limit) {
+        if (from < 0 || limit < 0) {
+            throw new IllegalArgumentException("Negative page bounds: " + from + ", " + limit);
+        }
+        long range = range(substring);
+        int start = (int) Math.min((int) range + (long) from, (int) (range >>> 32));
+        int end = (int) Math.min((int) (range >>> 32), start + (long) limit);
+        int[] positions = new int[end - start];
+        for (int row = start; row < end; row++) {
+            positions[row - start] = textPosition(row);
+        }
+        Arrays.sort(positions);
+        return positions;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Backward search for the rows of the suffixes starting with the substring
+     * @return The exclusive end row in the upper 32 bits and the start row in the lower 32 bits
+     */
+    private long range(String substring) {
+        if (substring.isEmpty() || length == 0) {
+            return 0;
+        }
+        int start = 0;
+        int end = length + 1;
+        for (int i = substring.length() - 1; i >= 0 && start < end; i--) {
+            int symbol = Arrays.binarySearch(alphabet, substring.charAt(i)) + 1;
+            if (symbol <= 0) {
+                return 0;
+            }
+            start = counts[symbol] + bwt.rank(symbol, start);
+            end = counts[symbol] + bwt.rank(symbol, end);
+        }
+        return start < end ? ((long) end << 32) | start : 0;
+    }
+
+    private int textPosition(int row) {
+        int steps = 0;
+        while (!sampled.get(row)) {
+            long symbolAndRank = bwt.accessAndRank(row);
+            row = counts[(int) (symbolAndRank >>> 32)] + (int) symbolAndRank;
+            steps++;
+        }
+        return samples.get(sampled.rank1(row)) + steps;
+    }
+}
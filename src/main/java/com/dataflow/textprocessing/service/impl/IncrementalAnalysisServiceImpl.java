@@ -0,0 +1,57 @@
+package com.dataflow.textprocessing.service.impl;
+
+import com.dataflow.textprocessing.model.TextDocument;
+import com.dataflow.textprocessing.service.IncrementalAnalysisService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps an {@link IncrementalTextAnalyzer} per document id. Each call diffs the document content
+ * against the analysed content, so typing into a large document costs a scan of the common prefix
+ * and suffix plus the chunks around the edit instead of a full re-analysis.
+ */
+public class IncrementalAnalysisServiceImpl implements IncrementalAnalysisService {
+    private static final Logger logger = LoggerFactory.getLogger(IncrementalAnalysisServiceImpl.class);
+
+    private final Map<String, IncrementalTextAnalyzer> analyzers = new ConcurrentHashMap<>();
+
+    @Override
+    public Map<String, Object> getTextStatistics(TextDocument document) {
+        IncrementalTextAnalyzer analyzer = analyzerFor(document);
+        synchronized (analyzer) {
+            analyzer.update(document.getContent());
+            return analyzer.getStatistics();
+        }
+    }
+
+    @Override
+    public Map<String, Long> analyzeWordFrequency(TextDocument document) {
+        IncrementalTextAnalyzer analyzer = analyzerFor(document);
+        synchronized (analyzer) {
+            analyzer.update(document.getContent());
+            return analyzer.getWordFrequency();
+        }
+    }
+
+    @Override
+    public boolean release(String documentId) {
+        IncrementalTextAnalyzer analyzer = analyzers.get(documentId);
+        if (analyzer == null) {
+            return false;
+        }
+        // Wait for an update in progress, which holds the analyzer's lock
+        synchronized (analyzer) {
+            return analyzers.remove(documentId, analyzer);
+        }
+    }
+
+    private IncrementalTextAnalyzer analyzerFor(TextDocument document) {
+        return analyzers.computeIfAbsent(document.getId(), id -> {
+            logger.debug("Starting incremental analysis of document {}", id);
+            return new IncrementalTextAnalyzer("");
+        });
+    }
+}
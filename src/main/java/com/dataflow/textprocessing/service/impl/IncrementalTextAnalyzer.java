@@ -0,0 +1,351 @@
+package com.dataflow.textprocessing.service.impl;
+
+import com.dataflow.textprocessing.util.WordTokenizer;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Text statistics kept up to date across edits. The text is split into chunks that never cut through
+ * a word; a treap over the chunks keeps per-chunk partial counts aggregated up to the root, so an edit
+ * only rescans the chunks around it and the totals are updated in O(log n). Character, word length and
+ * word frequency histograms are adjusted by the difference of the rescanned chunks.
+ * Instances are not thread safe.
+ */
+final class IncrementalTextAnalyzer {
+    private static final int TARGET_CHUNK_SIZE = 4096;
+
+    private String content = "";
+    private Node root;
+    private final long[] characterCounts = new long[Character.MAX_VALUE + 1];
+    private long[] wordLengthCounts = new long[32];
+    private final Map<String, long[]> wordCounts = new HashMap<>();
+
+    IncrementalTextAnalyzer(String content) {
+        update(content);
+    }
+
+    String getContent() {
+        return content;
+    }
+
+    /**
+     * Bring the statistics in line with the new content, rescanning only the chunks around the
+     * range where it differs from the current content
+     */
+    void update(String newContent) {
+        String oldContent = content;
+        if (oldContent.equals(newContent)) {
+            return;
+        }
+        int maxCommon = Math.min(oldContent.length(), newContent.length());
+        int prefix = 0;
+        while (prefix < maxCommon && oldContent.charAt(prefix) == newContent.charAt(prefix)) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < maxCommon - prefix
+                && oldContent.charAt(oldContent.length() - 1 - suffix) == newContent.charAt(newContent.length() - 1 - suffix)) {
+            suffix++;
+        }
+        applyEdit(newContent, prefix, oldContent.length() - suffix);
+    }
+
+    /**
+     * Replace a range of the current content
+     * @param offset Start of the replaced range
+     * @param removedLength Length of the replaced range
+     * @param insertedText Text inserted in place of the range
+     */
+    void applyEdit(int offset, int removedLength, String insertedText) {
+        String newContent = content.substring(0, offset) + insertedText + content.substring(offset + removedLength);
+        applyEdit(newContent, offset, offset + removedLength);
+    }
+
+    private void applyEdit(String newContent, int editStart, int oldEditEnd) {
+        String oldContent = content;
+        if (root == null) {
+            root = buildChunks(newContent, 0, newContent.length());
+            content = newContent;
+            return;
+        }
+        // Include the chunks holding the characters on both sides of the edit, so the chunk
+        // boundaries left in place still separate unchanged characters
+        int first = chunkIndexAt(Math.max(editStart - 1, 0));
+        int last = chunkIndexAt(Math.min(oldEditEnd, oldContent.length() - 1));
+        Node[] head = split(root, first);
+        Node[] middle = split(head[1], last - first + 1);
+        int regionStart = length(head[0]);
+        int regionEnd = regionStart + length(middle[0]);
+
+        scan(oldContent, regionStart, regionEnd, -1);
+        Node rebuilt = buildChunks(newContent, regionStart, regionEnd + newContent.length() - oldContent.length());
+        root = merge(merge(head[0], rebuilt), middle[1]);
+        content = newContent;
+    }
+
+    /**
+     * Get the statistics of the current content, using the keys of {@code getTextStatistics}
+     */
+    Map<String, Object> getStatistics() {
+        Summary total = root == null ? Summary.EMPTY : root.total;
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("totalCharacters", content.length());
+        stats.put("totalWords", (int) total.words);
+        stats.put("totalSentences", (int) (total.terminatorRuns - (total.startsWithTerminator ? 1 : 0)));
+        stats.put("totalParagraphs", (int) (total.hasText ? total.paragraphBreaks + 1 : 0));
+
+        Map<Integer, Long> wordLengths = new HashMap<>();
+        for (int length = 1; length < wordLengthCounts.length; length++) {
+            if (wordLengthCounts[length] > 0) {
+                wordLengths.put(length, wordLengthCounts[length]);
+            }
+        }
+        stats.put("wordLengthDistribution", wordLengths);
+
+        Map<Character, Long> charFreq = new HashMap<>();
+        for (int c = 0; c < characterCounts.length; c++) {
+            if (characterCounts[c] > 0) {
+                charFreq.put((char) c, characterCounts[c]);
+            }
+        }
+        stats.put("characterFrequency", charFreq);
+        return stats;
+    }
+
+    /**
+     * Get the lower case word frequencies of the current content
+     */
+    Map<String, Long> getWordFrequency() {
+        Map<String, Long> frequencies = new HashMap<>(wordCounts.size() * 2);
+        wordCounts.forEach((word, count) -> frequencies.put(word, count[0]));
+        return frequencies;
+    }
+
+    private Node buildChunks(String text, int from, int to) {
+        Node result = null;
+        int start = from;
+        while (start < to) {
+            int end = Math.min(start + TARGET_CHUNK_SIZE, to);
+            while (end < to && WordTokenizer.isWordChar(text.charAt(end - 1)) && WordTokenizer.isWordChar(text.charAt(end))) {
+                end++;
+            }
+            result = merge(result, new Node(end - start, scan(text, start, end, 1)));
+            start = end;
+        }
+        return result;
+    }
+
+    /**
+     * Summarise a chunk and add its characters and words to (or remove them from) the histograms
+     */
+    private Summary scan(String text, int from, int to, int sign) {
+        Summary summary = new Summary();
+        summary.startsWithTerminator = isTerminator(text.charAt(from));
+        summary.endsWithTerminator = isTerminator(text.charAt(to - 1));
+        boolean previousWord = false;
+        boolean previousTerminator = false;
+        int wordStart = 0;
+        long newlines = 0;
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            characterCounts[Character.toLowerCase(c)] += sign;
+
+            boolean word = WordTokenizer.isWordChar(c);
+            if (word && !previousWord) {
+                summary.words++;
+                wordStart = i;
+            } else if (!word && previousWord) {
+                countWord(text, wordStart, i, sign);
+            }
+            previousWord = word;
+
+            boolean terminator = isTerminator(c);
+            if (terminator && !previousTerminator) {
+                summary.terminatorRuns++;
+            }
+            previousTerminator = terminator;
+
+            if (isWhitespace(c)) {
+                if (c == '\n') {
+                    newlines++;
+                }
+            } else {
+                if (!summary.hasText) {
+                    summary.hasText = true;
+                    summary.leadingNewlines = newlines;
+                } else if (newlines >= 2) {
+                    summary.paragraphBreaks++;
+                }
+                newlines = 0;
+            }
+        }
+        if (previousWord) {
+            countWord(text, wordStart, to, sign);
+        }
+        summary.trailingNewlines = newlines;
+        if (!summary.hasText) {
+            summary.leadingNewlines = newlines;
+        }
+        return summary;
+    }
+
+    private void countWord(String text, int start, int end, int sign) {
+        int length = end - start;
+        if (length >= wordLengthCounts.length) {
+            wordLengthCounts = Arrays.copyOf(wordLengthCounts, Math.max(length + 1, wordLengthCounts.length * 2));
+        }
+        wordLengthCounts[length] += sign;
+
+        String word = WordTokenizer.normalize(text, start, end);
+        long[] count = wordCounts.computeIfAbsent(word, w -> new long[1]);
+        count[0] += sign;
+        if (count[0] == 0) {
+            wordCounts.remove(word);
+        }
+    }
+
+    private static boolean isTerminator(char c) {
+        return c == '.' || c == '!' || c == '?';
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    private int chunkIndexAt(int position) {
+        Node node = root;
+        int index = 0;
+        int remaining = position;
+        while (true) {
+            int leftLength = length(node.left);
+            if (remaining < leftLength) {
+                node = node.left;
+            } else if (remaining < leftLength + node.length) {
+                return index + count(node.left);
+            } else {
+                remaining -= leftLength + node.length;
+                index += count(node.left) + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    /**
+     * Split a treap after its first {@code k} chunks
+     */
+    private static Node[] split(Node node, int k) {
+        if (node == null) {
+            return new Node[2];
+        }
+        if (count(node.left) >= k) {
+            Node[] parts = split(node.left, k);
+            node.left = parts[1];
+            node.update();
+            return new Node[] {parts[0], node};
+        }
+        Node[] parts = split(node.right, k - count(node.left) - 1);
+        node.right = parts[0];
+        node.update();
+        return new Node[] {node, parts[1]};
+    }
+
+    private static Node merge(Node left, Node right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            left.update();
+            return left;
+        }
+        right.left = merge(left, right.left);
+        right.update();
+        return right;
+    }
+
+    private static int count(Node node) {
+        return node == null ? 0 : node.count;
+    }
+
+    private static int length(Node node) {
+        return node == null ? 0 : node.totalLength;
+    }
+
+    private static final class Node {
+        final int length;
+        final Summary summary;
+        final int priority = ThreadLocalRandom.current().nextInt();
+        Node left;
+        Node right;
+        int count;
+        int totalLength;
+        Summary total;
+
+        Node(int length, Summary summary) {
+            this.length = length;
+            this.summary = summary;
+            update();
+        }
+
+        void update() {
+            count = 1 + IncrementalTextAnalyzer.count(left) + IncrementalTextAnalyzer.count(right);
+            totalLength = length + IncrementalTextAnalyzer.length(left) + IncrementalTextAnalyzer.length(right);
+            Summary combined = summary;
+            if (left != null) {
+                combined = Summary.combine(left.total, combined);
+            }
+            if (right != null) {
+                combined = Summary.combine(combined, right.total);
+            }
+            total = combined;
+        }
+    }
+
+    /**
+     * Counts of a run of text that can be combined with the counts of the adjacent run. Sentences are
+     * runs of terminators, minus a leading one; paragraphs are separated by whitespace holding two newlines.
+     */
+    private static final class Summary {
+        static final Summary EMPTY = new Summary();
+
+        long words;
+        long terminatorRuns;
+        boolean startsWithTerminator;
+        boolean endsWithTerminator;
+        boolean hasText;
+        long leadingNewlines;
+        long trailingNewlines;
+        long paragraphBreaks;
+
+        static Summary combine(Summary left, Summary right) {
+            Summary result = new Summary();
+            result.words = left.words + right.words;
+            result.terminatorRuns = left.terminatorRuns + right.terminatorRuns
+                    - (left.endsWithTerminator && right.startsWithTerminator ? 1 : 0);
+            result.startsWithTerminator = left.startsWithTerminator;
+            result.endsWithTerminator = right.endsWithTerminator;
+            result.hasText = left.hasText || right.hasText;
+            if (!left.hasText) {
+                result.leadingNewlines = left.leadingNewlines + right.leadingNewlines;
+                result.trailingNewlines = right.hasText ? right.trailingNewlines : left.trailingNewlines + right.trailingNewlines;
+                result.paragraphBreaks = right.paragraphBreaks;
+            } else if (!right.hasText) {
+                result.leadingNewlines = left.leadingNewlines;
+                result.trailingNewlines = left.trailingNewlines + right.leadingNewlines;
+                result.paragraphBreaks = left.paragraphBreaks;
+            } else {
+                result.leadingNewlines = left.leadingNewlines;
+                result.trailingNewlines = right.trailingNewlines;
+                result.paragraphBreaks = left.paragraphBreaks + right.paragraphBreaks
+                        + (left.trailingNewlines + right.leadingNewlines >= 2 ? 1 : 0);
+            }
+            return result;
+        }
+    }
+}
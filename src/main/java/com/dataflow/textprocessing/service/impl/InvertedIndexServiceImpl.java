@@ -0,0 +1,530 @@
+package com.dataflow.textprocessing.service.impl;
+
+import com.dataflow.textprocessing.exception.TextProcessingException;
+import com.dataflow.textprocessing.model.SearchHit;
+import com.dataflow.textprocessing.model.TextDocument;
+import com.dataflow.textprocessing.service.InvertedIndexService;
+import com.dataflow.textprocessing.util.CompressedFiles;
+import com.dataflow.textprocessing.util.VarIntCodec;
+import com.dataflow.textprocessing.util.WordTokenizer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Positional inverted index mapping each lower case word to the documents and offsets it occurs at.
+ * The on-disk format front-codes the sorted dictionary and stores postings as delta-encoded varints.
+ */
+public class InvertedIndexServiceImpl implements InvertedIndexService {
+    private static final Logger logger = LoggerFactory.getLogger(InvertedIndexServiceImpl.class);
+    private static final int MAGIC = 0x54504958; // "TPIX"
+    private static final int FORMAT_VERSION = 1;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private NavigableMap<String, PostingList> postings = new TreeMap<>();
+    private Map<String, IndexedDocument> documentsById = new HashMap<>();
+    private Map<Integer, IndexedDocument> documentsByOrdinal = new HashMap<>();
+    private int nextOrdinal;
+
+    @Override
+    public boolean indexDocument(TextDocument document) {
+        if (isUpToDate(document)) {
+            return false;
+        }
+
+        // Tokenize outside the lock so concurrent batch workers only serialize on the merge; the version
+        // is read first, so an edit made meanwhile leaves the document stale
+        long version = document.getVersion();
+        LocalDateTime modifiedAt = document.getModifiedAt();
+        String content = document.getContent();
+        Map<String, OccurrenceBuilder> occurrences = new HashMap<>();
+        int[] position = {0};
+        WordTokenizer.forEachToken(content, (start, end) ->
+                occurrences.computeIfAbsent(WordTokenizer.normalize(content, start, end), term -> new OccurrenceBuilder())
+                        .add(position[0]++, start));
+
+        lock.writeLock().lock();
+        try {
+            IndexedDocument previous = documentsById.get(document.getId());
+            if (previous != null) {
+                if (previous.isCurrent(version, modifiedAt)) {
+                    return false;
+                }
+                unindex(previous);
+            }
+            IndexedDocument indexed = new IndexedDocument(nextOrdinal++, document.getId(), document.getName(),
+                    version, modifiedAt, occurrences.keySet().toArray(new String[0]));
+            occurrences.forEach((term, builder) ->
+                    postings.computeIfAbsent(term, t -> new PostingList()).add(indexed.ordinal, builder.toArray()));
+            documentsById.put(indexed.id, indexed);
+            documentsByOrdinal.put(indexed.ordinal, indexed);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        logger.debug("Indexed document {} with {} words", document.getId(), position[0]);
+        return true;
+    }
+
+    @Override
+    public int indexDocuments(Collection<TextDocument> documents) {
+        int indexed = 0;
+        for (TextDocument document : documents) {
+            if (indexDocument(document)) {
+                indexed++;
+            }
+        }
+        logger.info("Indexed {} of {} documents", indexed, documents.size());
+        return indexed;
+    }
+
+    @Override
+    public boolean removeDocument(String documentId) {
+        lock.writeLock().lock();
+        try {
+            IndexedDocument indexed = documentsById.get(documentId);
+            if (indexed == null) {
+                return false;
+            }
+            unindex(indexed);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<SearchHit> searchTerm(String term) {
+        List<String> terms = WordTokenizer.tokenize(term);
+        if (terms.size() != 1) {
+            return terms.isEmpty() ? List.of() : searchPhrase(term);
+        }
+        lock.readLock().lock();
+        try {
+            List<SearchHit> hits = new ArrayList<>();
+            PostingList postingList = postings.get(terms.get(0));
+            if (postingList != null) {
+                int length = terms.get(0).length();
+                for (int i = 0; i < postingList.size; i++) {
+                    IndexedDocument document = documentsByOrdinal.get(postingList.documents[i]);
+                    int[] occurrences = postingList.occurrences[i];
+                    for (int j = 1; j < occurrences.length; j += 2) {
+                        hits.add(new SearchHit(document.id, document.name, occurrences[j], length));
+                    }
+                }
+            }
+            return hits;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<SearchHit> searchPhrase(String phrase) {
+        List<String> terms = WordTokenizer.tokenize(phrase);
+        if (terms.size() <= 1) {
+            return terms.isEmpty() ? List.of() : searchTerm(terms.get(0));
+        }
+        lock.readLock().lock();
+        try {
+            PostingList[] lists = new PostingList[terms.size()];
+            PostingList rarest = null;
+            for (int i = 0; i < lists.length; i++) {
+                lists[i] = postings.get(terms.get(i));
+                if (lists[i] == null) {
+                    return List.of();
+                }
+                if (rarest == null || lists[i].size < rarest.size) {
+                    rarest = lists[i];
+                }
+            }
+
+            List<SearchHit> hits = new ArrayList<>();
+            int lastLength = terms.get(terms.size() - 1).length();
+            int[][] documentOccurrences = new int[lists.length][];
+            for (int d = 0; d < rarest.size; d++) {
+                int ordinal = rarest.documents[d];
+                boolean inAll = true;
+                for (int i = 0; i < lists.length && inAll; i++) {
+                    int index = lists[i].indexOf(ordinal);
+                    inAll = index >= 0;
+                    if (inAll) {
+                        documentOccurrences[i] = lists[i].occurrences[index];
+                    }
+                }
+                if (!inAll) {
+                    continue;
+                }
+                IndexedDocument document = documentsByOrdinal.get(ordinal);
+                int[] first = documentOccurrences[0];
+                for (int j = 0; j < first.length; j += 2) {
+                    int lastOffset = matchPhraseAt(documentOccurrences, first[j]);
+                    if (lastOffset >= 0) {
+                        hits.add(new SearchHit(document.id, document.name, first[j + 1],
+                                lastOffset + lastLength - first[j + 1]));
+                    }
+                }
+            }
+            return hits;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<SearchHit> searchPrefix(String prefix) {
+        List<String> terms = WordTokenizer.tokenize(prefix);
+        if (terms.size() != 1) {
+            return List.of();
+        }
+        String normalized = terms.get(0);
+        lock.readLock().lock();
+        try {
+            SortedMap<Integer, List<SearchHit>> byDocument = new TreeMap<>();
+            for (Map.Entry<String, PostingList> entry
+                    : postings.subMap(normalized, true, normalized + Character.MAX_VALUE, false).entrySet()) {
+                PostingList postingList = entry.getValue();
+                int length = entry.getKey().length();
+                for (int i = 0; i < postingList.size; i++) {
+                    IndexedDocument document = documentsByOrdinal.get(postingList.documents[i]);
+                    List<SearchHit> documentHits = byDocument.computeIfAbsent(document.ordinal, o -> new ArrayList<>());
+                    int[] occurrences = postingList.occurrences[i];
+                    for (int j = 1; j < occurrences.length; j += 2) {
+                        documentHits.add(new SearchHit(document.id, document.name, occurrences[j], length));
+                    }
+                }
+            }
+            List<SearchHit> hits = new ArrayList<>();
+            for (List<SearchHit> documentHits : byDocument.values()) {
+                documentHits.sort(Comparator.comparingInt(SearchHit::getOffset));
+                hits.addAll(documentHits);
+            }
+            return hits;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Set<String> getIndexedDocumentIds() {
+        lock.readLock().lock();
+        try {
+            return new HashSet<>(documentsById.keySet());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int getTermCount() {
+        lock.readLock().lock();
+        try {
+            return postings.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void save(Path path) {
+        lock.readLock().lock();
+        try {
+            Path tempFile = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    CompressedFiles.newOutputStream(tempFile, CompressedFiles.hasGzipExtension(path))))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                writeDocuments(out);
+                writePostings(out);
+            }
+            Files.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            logger.info("Saved index with {} documents and {} terms to {}", documentsById.size(), postings.size(), path);
+        } catch (IOException e) {
+            logger.error("Error saving index to {}: {}", path, e.getMessage());
+            throw new TextProcessingException("Failed to save index", e);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void load(Path path) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(CompressedFiles.newInputStream(path)))) {
+            if (in.readInt() != MAGIC) {
+                throw new TextProcessingException("Not an index file: " + path);
+            }
+            int version = in.readInt();
+            if (version != FORMAT_VERSION) {
+                throw new TextProcessingException("Unsupported index format version: " + version);
+            }
+            Map<Integer, IndexedDocument> loadedByOrdinal = new HashMap<>();
+            int loadedNextOrdinal = readDocuments(in, loadedByOrdinal);
+            Map<Integer, List<String>> termsByOrdinal = new HashMap<>();
+            NavigableMap<String, PostingList> loadedPostings = readPostings(in, termsByOrdinal);
+
+            Map<String, IndexedDocument> loadedById = new HashMap<>();
+            for (IndexedDocument document : loadedByOrdinal.values()) {
+                document.terms = termsByOrdinal.getOrDefault(document.ordinal, List.of()).toArray(new String[0]);
+                loadedById.put(document.id, document);
+            }
+
+            lock.writeLock().lock();
+            try {
+                postings = loadedPostings;
+                documentsById = loadedById;
+                documentsByOrdinal = loadedByOrdinal;
+                nextOrdinal = loadedNextOrdinal;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            logger.info("Loaded index with {} documents and {} terms from {}", loadedById.size(), loadedPostings.size(), path);
+        } catch (IOException e) {
+            logger.error("Error loading index from {}: {}", path, e.getMessage());
+            throw new TextProcessingException("Failed to load index", e);
+        }
+    }
+
+    private boolean isUpToDate(TextDocument document) {
+        lock.readLock().lock();
+        try {
+            IndexedDocument indexed = documentsById.get(document.getId());
+            return indexed != null && indexed.isCurrent(document.getVersion(), document.getModifiedAt());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void unindex(IndexedDocument document) {
+        for (String term : document.terms) {
+            PostingList postingList = postings.get(term);
+            if (postingList != null && postingList.remove(document.ordinal) && postingList.size == 0) {
+                postings.remove(term);
+            }
+        }
+        documentsById.remove(document.id);
+        documentsByOrdinal.remove(document.ordinal);
+    }
+
+    /**
+     * Check that each following phrase term occurs right after the first one
+     * @return The offset of the last phrase term, or -1 if the phrase does not continue
+     */
+    private static int matchPhraseAt(int[][] documentOccurrences, int firstPosition) {
+        int lastOffset = -1;
+        for (int i = 1; i < documentOccurrences.length; i++) {
+            int index = findPosition(documentOccurrences[i], firstPosition + i);
+            if (index < 0) {
+                return -1;
+            }
+            lastOffset = documentOccurrences[i][index + 1];
+        }
+        return lastOffset;
+    }
+
+    private static int findPosition(int[] occurrences, int position) {
+        int low = 0;
+        int high = occurrences.length / 2 - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int value = occurrences[mid * 2];
+            if (value < position) {
+                low = mid + 1;
+            } else if (value > position) {
+                high = mid - 1;
+            } else {
+                return mid * 2;
+            }
+        }
+        return -1;
+    }
+
+    private void writeDocuments(DataOutputStream out) throws IOException {
+        VarIntCodec.writeVarInt(out, nextOrdinal);
+        VarIntCodec.writeVarInt(out, documentsByOrdinal.size());
+        int previousOrdinal = 0;
+        for (IndexedDocument document : new TreeMap<>(documentsByOrdinal).values()) {
+            VarIntCodec.writeVarInt(out, document.ordinal - previousOrdinal);
+            previousOrdinal = document.ordinal;
+            VarIntCodec.writeString(out, document.id);
+            VarIntCodec.writeString(out, document.name);
+            VarIntCodec.writeVarLong(out, document.modifiedAt.toEpochSecond(ZoneOffset.UTC));
+            VarIntCodec.writeVarInt(out, document.modifiedAt.getNano());
+        }
+    }
+
+    private static int readDocuments(DataInputStream in, Map<Integer, IndexedDocument> byOrdinal) throws IOException {
+        int nextOrdinal = VarIntCodec.readVarInt(in);
+        int count = VarIntCodec.readVarInt(in);
+        int ordinal = 0;
+        for (int i = 0; i < count; i++) {
+            ordinal += VarIntCodec.readVarInt(in);
+            String id = VarIntCodec.readString(in);
+            String name = VarIntCodec.readString(in);
+            LocalDateTime modifiedAt = LocalDateTime.ofEpochSecond(
+                    VarIntCodec.readVarLong(in), VarIntCodec.readVarInt(in), ZoneOffset.UTC);
+            // Versions are numbered per process; a restored document is at version 0
+            byOrdinal.put(ordinal, new IndexedDocument(ordinal, id, name, 0, modifiedAt, null));
+        }
+        return nextOrdinal;
+    }
+
+    private void writePostings(DataOutputStream out) throws IOException {
+        VarIntCodec.writeVarInt(out, postings.size());
+        String previousTerm = "";
+        for (Map.Entry<String, PostingList> entry : postings.entrySet()) {
+            String term = entry.getKey();
+            int shared = commonPrefixLength(previousTerm, term);
+            VarIntCodec.writeVarInt(out, shared);
+            VarIntCodec.writeString(out, term.substring(shared));
+            previousTerm = term;
+
+            PostingList postingList = entry.getValue();
+            VarIntCodec.writeVarInt(out, postingList.size);
+            int previousOrdinal = 0;
+            for (int i = 0; i < postingList.size; i++) {
+                VarIntCodec.writeVarInt(out, postingList.documents[i] - previousOrdinal);
+                previousOrdinal = postingList.documents[i];
+                int[] occurrences = postingList.occurrences[i];
+                VarIntCodec.writeVarInt(out, occurrences.length / 2);
+                int previousPosition = 0;
+                int previousOffset = 0;
+                for (int j = 0; j < occurrences.length; j += 2) {
+                    VarIntCodec.writeVarInt(out, occurrences[j] - previousPosition);
+                    VarIntCodec.writeVarInt(out, occurrences[j + 1] - previousOffset);
+                    previousPosition = occurrences[j];
+                    previousOffset = occurrences[j + 1];
+                }
+            }
+        }
+    }
+
+    private static NavigableMap<String, PostingList> readPostings(DataInputStream in,
+            Map<Integer, List<String>> termsByOrdinal) throws IOException {
+        NavigableMap<String, PostingList> loaded = new TreeMap<>();
+        int termCount = VarIntCodec.readVarInt(in);
+        String previousTerm = "";
+        for (int t = 0; t < termCount; t++) {
+            int shared = VarIntCodec.readVarInt(in);
+            String term = previousTerm.substring(0, shared) + VarIntCodec.readString(in);
+            previousTerm = term;
+
+            PostingList postingList = new PostingList();
+            int documentCount = VarIntCodec.readVarInt(in);
+            int ordinal = 0;
+            for (int i = 0; i < documentCount; i++) {
+                ordinal += VarIntCodec.readVarInt(in);
+                int[] occurrences = new int[VarIntCodec.readVarInt(in) * 2];
+                int position = 0;
+                int offset = 0;
+                for (int j = 0; j < occurrences.length; j += 2) {
+                    position += VarIntCodec.readVarInt(in);
+                    offset += VarIntCodec.readVarInt(in);
+                    occurrences[j] = position;
+                    occurrences[j + 1] = offset;
+                }
+                postingList.add(ordinal, occurrences);
+                termsByOrdinal.computeIfAbsent(ordinal, o -> new ArrayList<>()).add(term);
+            }
+            loaded.put(term, postingList);
+        }
+        return loaded;
+    }
+
+    private static int commonPrefixLength(String a, String b) {
+        int max = Math.min(a.length(), b.length());
+        int i = 0;
+        while (i < max && a.charAt(i) == b.charAt(i)) {
+            i++;
+        }
+        return i;
+    }
+
+    private static class IndexedDocument {
+        final int ordinal;
+        final String id;
+        final String name;
+        final long version;
+        final LocalDateTime modifiedAt;
+        String[] terms;
+
+        IndexedDocument(int ordinal, String id, String name, long version, LocalDateTime modifiedAt, String[] terms) {
+            this.ordinal = ordinal;
+            this.id = id;
+            this.name = name;
+            this.version = version;
+            this.modifiedAt = modifiedAt;
+            this.terms = terms;
+        }
+
+        /**
+         * Check whether this entry indexes a document as it is: the version tells apart edits within one
+         * clock tick, the modification time documents restored from storage, which are all at version 0
+         */
+        boolean isCurrent(long documentVersion, LocalDateTime documentModifiedAt) {
+            return version == documentVersion && modifiedAt.equals(documentModifiedAt);
+        }
+    }
+
+    /**
+     * Documents containing a term, sorted by ordinal. Each entry holds interleaved (word position, char offset) pairs.
+     */
+    private static class PostingList {
+        int[] documents = new int[4];
+        int[][] occurrences = new int[4][];
+        int size;
+
+        void add(int ordinal, int[] documentOccurrences) {
+            if (size == documents.length) {
+                documents = Arrays.copyOf(documents, size * 2);
+                occurrences = Arrays.copyOf(occurrences, size * 2);
+            }
+            documents[size] = ordinal;
+            occurrences[size] = documentOccurrences;
+            size++;
+        }
+
+        int indexOf(int ordinal) {
+            return Arrays.binarySearch(documents, 0, size, ordinal);
+        }
+
+        boolean remove(int ordinal) {
+            int index = indexOf(ordinal);
+            if (index < 0) {
+                return false;
+            }
+            System.arraycopy(documents, index + 1, documents, index, size - index - 1);
+            System.arraycopy(occurrences, index + 1, occurrences, index, size - index - 1);
+            occurrences[--size] = null;
+            return true;
+        }
+    }
+
+    private static class OccurrenceBuilder {
+        private int[] values = new int[4];
+        private int length;
+
+        void add(int position, int offset) {
+            if (length + 2 > values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            values[length++] = position;
+            values[length++] = offset;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, length);
+        }
+    }
+}
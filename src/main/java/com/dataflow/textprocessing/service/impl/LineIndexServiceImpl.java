@@ -0,0 +1,214 @@
+package com.dataflow.textprocessing.service.impl;
+
+import com.dataflow.textprocessing.exception.TextProcessingException;
+import com.dataflow.textprocessing.service.LineIndexService;
+import com.dataflow.textprocessing.service.Utf8TextService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Builds {@link LineOffsetIndex}es and stores their offsets in sidecar files: a header with the text
+ * length, the line count and the size and modification time of the indexed file, followed by the line
+ * offsets as little-endian {@code int}s.
+ */
+public class LineIndexServiceImpl implements LineIndexService {
+    private static final Logger logger = LoggerFactory.getLogger(LineIndexServiceImpl.class);
+    private static final int MAGIC = 0x54504C49; // "TPLI"
+    private static final int FORMAT_VERSION = 2;
+    private static final int HEADER_SIZE = 32;
+    // Source size and time written by save(LineIndex, Path), which does not know the indexed file
+    private static final long UNKNOWN_SOURCE = -1;
+    private static final int IO_BUFFER_SIZE = 1 << 20;
+    private static final String SIDECAR_SUFFIX = ".lines";
+
+    private final Utf8TextService utf8TextService;
+
+    public LineIndexServiceImpl() {
+        this(new Utf8TextServiceImpl());
+    }
+
+    /**
+     * @param utf8TextService Service mapping the files to index
+     */
+    public LineIndexServiceImpl(Utf8TextService utf8TextService) {
+        this.utf8TextService = utf8TextService;
+    }
+
+    @Override
+    public LineIndex buildIndex(ByteBuffer text) {
+        return LineOffsetIndex.build(text);
+    }
+
+    @Override
+    public LineIndex open(Path file) {
+        // Read before mapping, so a change made while indexing leaves the sidecar out of date
+        BasicFileAttributes source = attributes(file);
+        ByteBuffer text = utf8TextService.map(file);
+        Path sidecar = file.resolveSibling(file.getFileName() + SIDECAR_SUFFIX);
+        if (source != null && isCurrent(sidecar, source)) {
+            try {
+                return load(sidecar, text);
+            } catch (TextProcessingException e) {
+                logger.warn("Rebuilding line index {}: {}", sidecar, e.getMessage());
+            }
+        }
+        LineIndex index = buildIndex(text);
+        try {
+            save(index, sidecar, source == null ? UNKNOWN_SOURCE : source.size(),
+                    source == null ? UNKNOWN_SOURCE : source.lastModifiedTime().toMillis());
+        } catch (TextProcessingException e) {
+            // The index still works, it is just built again next time
+            logger.warn("Could not write line index {}: {}", sidecar, e.getMessage());
+        }
+        return index;
+    }
+
+    @Override
+    public void save(LineIndex index, Path path) {
+        save(index, path, UNKNOWN_SOURCE, UNKNOWN_SOURCE);
+    }
+
+    private void save(LineIndex index, Path path, long sourceSize, long sourceModifiedMillis) {
+        if (!(index instanceof LineOffsetIndex)) {
+            throw new TextProcessingException("Unsupported line index type: " + index.getClass().getName());
+        }
+        int[] offsets = ((LineOffsetIndex) index).offsets();
+        try {
+            Path tempFile = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+            try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.allocate(IO_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                buffer.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(index.length()).putInt(index.getLineCount())
+                        .putLong(sourceSize).putLong(sourceModifiedMillis);
+                for (int offset : offsets) {
+                    if (!buffer.hasRemaining()) {
+                        write(channel, buffer);
+                    }
+                    buffer.putInt(offset);
+                }
+                write(channel, buffer);
+            }
+            Files.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            logger.info("Saved line index of {} lines to {}", index.getLineCount(), path);
+        } catch (IOException e) {
+            logger.error("Error saving line index to {}: {}", path, e.getMessage());
+            throw new TextProcessingException("Failed to save line index", e);
+        }
+    }
+
+    @Override
+    public LineIndex load(Path path, ByteBuffer text) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(IO_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.limit(HEADER_SIZE);
+            read(channel, buffer);
+            if (buffer.getInt() != MAGIC) {
+                throw new TextProcessingException("Not a line index file: " + path);
+            }
+            int version = buffer.getInt();
+            if (version != FORMAT_VERSION) {
+                throw new TextProcessingException("Unsupported line index format version: " + version);
+            }
+            int length = buffer.getInt();
+            int lineCount = buffer.getInt();
+            if (length != text.remaining()) {
+                throw new TextProcessingException("Line index " + path + " is for " + length
+                        + " bytes of text, not " + text.remaining());
+            }
+            if (lineCount < 0 || channel.size() != HEADER_SIZE + (lineCount + 1L) * Integer.BYTES) {
+                throw new TextProcessingException("Truncated line index file: " + path);
+            }
+
+            int[] offsets = new int[lineCount + 1];
+            int loaded = 0;
+            while (loaded < offsets.length) {
+                buffer.clear().limit(Math.min(buffer.capacity(), (offsets.length - loaded) * Integer.BYTES));
+                read(channel, buffer);
+                int count = buffer.remaining() / Integer.BYTES;
+                buffer.asIntBuffer().get(offsets, loaded, count);
+                loaded += count;
+            }
+            if (!isValid(offsets, length)) {
+                throw new TextProcessingException("Corrupt line index file: " + path);
+            }
+            logger.info("Loaded line index of {} lines from {}", lineCount, path);
+            return new LineOffsetIndex(text.slice(), offsets);
+        } catch (IOException e) {
+            logger.error("Error loading line index from {}: {}", path, e.getMessage());
+            throw new TextProcessingException("Failed to load line index", e);
+        }
+    }
+
+    /**
+     * Whether line starts are increasing and inside the text, so the index never reads outside it
+     */
+    private static boolean isValid(int[] offsets, int length) {
+        int lineCount = offsets.length - 1;
+        if (offsets[0] != 0 || offsets[lineCount] < length || offsets[lineCount] > length + 1) {
+            return false;
+        }
+        for (int line = 1; line <= lineCount; line++) {
+            if (offsets[line] <= offsets[line - 1]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Whether a sidecar records the size and modification time the indexed file has now
+     */
+    private static boolean isCurrent(Path sidecar, BasicFileAttributes source) {
+        if (!Files.exists(sidecar)) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(sidecar, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            read(channel, header);
+            return header.getInt() == MAGIC && header.getInt() == FORMAT_VERSION
+                    && header.getLong(16) == source.size()
+                    && header.getLong(24) == source.lastModifiedTime().toMillis();
+        } catch (IOException e) {
+            logger.debug("Cannot read the header of {}: {}", sidecar, e.getMessage());
+            return false;
+        }
+    }
+
+    private static BasicFileAttributes attributes(Path file) {
+        try {
+            return Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (IOException e) {
+            logger.debug("Cannot read the attributes of {}: {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Fill the buffer up to its limit, then flip it for reading
+     */
+    private static void read(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+        buffer.flip();
+    }
+}
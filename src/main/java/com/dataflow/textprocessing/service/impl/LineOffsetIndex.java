@@ -0,0 +1,419 @@
+package com.dataflow.textprocessing.service.impl;
+
+import com.dataflow.textprocessing.exception.TextProcessingException;
+import com.dataflow.textprocessing.service.LineIndexService.LineIndex;
+import com.dataflow.textprocessing.util.Cancellation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Line index holding the start offset of every line of a UTF-8 text in one {@code int} array, followed
+ * by the offset one past the line break ending the last line (virtual if the text does not end with
+ * one), so a line ends one byte before the next line starts. Line breaks are found eight bytes at a
+ * time; large texts are split into chunks whose line breaks are counted in parallel, after which each
+ * chunk writes its offsets from the running total of the counts before it.
+ * <p>
+ * Line operations sort and compare line numbers and read the text through the offsets, so no line is
+ * decoded unless it is returned as a string.
+ */
+final class LineOffsetIndex implements LineIndex {
+    private static final Logger logger = LoggerFactory.getLogger(LineOffsetIndex.class);
+    static final long ONES = 0x0101010101010101L;
+    private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+    private static final int CHUNK_SIZE = 1 << 22;
+    private static final int INSERTION_SORT_THRESHOLD = 12;
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+
+    private final ByteBuffer text;
+    private final int[] offsets;
+    private final int lineCount;
+
+    /**
+     * @param text Text starting at index 0 of the buffer and ending at its limit
+     * @param offsets Line starts followed by the end offset, as built by {@link #build(ByteBuffer)}
+     */
+    LineOffsetIndex(ByteBuffer text, int[] offsets) {
+        this.text = text;
+        this.offsets = offsets;
+        this.lineCount = offsets.length - 1;
+    }
+
+    /**
+     * Index the text between the position and the limit of a buffer
+     */
+    static LineOffsetIndex build(ByteBuffer buffer) {
+        ByteBuffer text = buffer.slice();
+        int length = text.limit();
+        if (length == 0) {
+            return new LineOffsetIndex(text, new int[] {0});
+        }
+        if (length == Integer.MAX_VALUE) {
+            // The end offset of a last line without a line break would not fit in an int
+            throw new TextProcessingException("Text too large to index: " + length + " bytes");
+        }
+        int chunks = (int) ((length + (long) CHUNK_SIZE - 1) / CHUNK_SIZE);
+        boolean parallel = chunks > 1 && ForkJoinPool.getCommonPoolParallelism() > 1;
+        int[] breaks = new int[chunks];
+        chunks(chunks, parallel).forEach(i -> {
+            Cancellation.checkpoint();
+            breaks[i] = countBreaks(text, i * CHUNK_SIZE, chunkEnd(i, length));
+        });
+
+        // Chunk i writes the starts following its line breaks from firstStart[i]
+        int[] firstStart = new int[chunks];
+        int starts = 1;
+        for (int i = 0; i < chunks; i++) {
+            firstStart[i] = starts;
+            starts += breaks[i];
+        }
+        boolean endsWithBreak = text.get(length - 1) == '\n';
+        int[] offsets = new int[endsWithBreak ? starts : starts + 1];
+        if (!endsWithBreak) {
+            offsets[starts] = length + 1;
+        }
+        chunks(chunks, parallel).forEach(i -> {
+            Cancellation.checkpoint();
+            collectStarts(text, i * CHUNK_SIZE, chunkEnd(i, length), offsets, firstStart[i]);
+        });
+        Cancellation.checkpoint();
+        logger.debug("Indexed {} lines in {} bytes using {} chunks", offsets.length - 1, length, chunks);
+        return new LineOffsetIndex(text, offsets);
+    }
+
+    private static int chunkEnd(int chunk, int length) {
+        return (int) Math.min(length, (chunk + 1L) * CHUNK_SIZE);
+    }
+
+    private static IntStream chunks(int chunks, boolean parallel) {
+        IntStream indexes = IntStream.range(0, chunks);
+        return parallel ? indexes.parallel() : indexes;
+    }
+
+    /**
+     * Set the high bit of exactly the zero bytes of a word
+     */
+    static long zeroBytes(long word) {
+        return ~((word & LOW_BITS) + LOW_BITS | word | LOW_BITS);
+    }
+
+    private static int countBreaks(ByteBuffer text, int from, int to) {
+        ByteBuffer longs = text.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int breaks = 0;
+        int i = from;
+        while (to - i >= Long.BYTES) {
+            breaks += Long.bitCount(zeroBytes(longs.getLong(i) ^ ONES * '\n'));
+            i += Long.BYTES;
+        }
+        for (; i < to; i++) {
+            if (text.get(i) == '\n') {
+                breaks++;
+            }
+        }
+        return breaks;
+    }
+
+    private static void collectStarts(ByteBuffer text, int from, int to, int[] offsets, int index) {
+        ByteBuffer longs = text.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int i = from;
+        while (to - i >= Long.BYTES) {
+            long breaks = zeroBytes(longs.getLong(i) ^ ONES * '\n');
+            while (breaks != 0) {
+                offsets[index++] = i + Long.numberOfTrailingZeros(breaks) / 8 + 1;
+                breaks &= breaks - 1;
+            }
+            i += Long.BYTES;
+        }
+        for (; i < to; i++) {
+            if (text.get(i) == '\n') {
+                offsets[index++] = i + 1;
+            }
+        }
+    }
+
+    /**
+     * Line starts followed by the end offset
+     */
+    int[] offsets() {
+        return offsets;
+    }
+
+    /**
+     * Number of lines without the empty lines at the end of the text, which
+     * {@link String#split(String)} drops
+     */
+    int splitLineCount() {
+        int count = lineCount;
+        while (count > 0 && offsets[count - 1] == offsets[count] - 1) {
+            count--;
+        }
+        return count;
+    }
+
+    @Override
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    @Override
+    public int length() {
+        return text.limit();
+    }
+
+    @Override
+    public int lineStart(int line) {
+        return offsets[Objects.checkIndex(line, lineCount)];
+    }
+
+    @Override
+    public int lineEnd(int line) {
+        return offsets[Objects.checkIndex(line, lineCount) + 1] - 1;
+    }
+
+    @Override
+    public int lineAt(int offset) {
+        Objects.checkIndex(offset, length());
+        int index = Arrays.binarySearch(offsets, 0, lineCount, offset);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    @Override
+    public String getLine(int line) {
+        return decode(lineStart(line), lineEnd(line));
+    }
+
+    @Override
+    public List<String> getLines(int fromLine, int toLine) {
+        Objects.checkFromToIndex(fromLine, toLine, lineCount);
+        List<String> lines = new ArrayList<>(toLine - fromLine);
+        for (int line = fromLine; line < toLine; line++) {
+            lines.add(decode(offsets[line], offsets[line + 1] - 1));
+        }
+        return lines;
+    }
+
+    @Override
+    public ByteBuffer slice(int fromLine, int toLine) {
+        Objects.checkFromToIndex(fromLine, toLine, lineCount);
+        if (fromLine == toLine) {
+            return ByteBuffer.allocate(0).asReadOnlyBuffer();
+        }
+        int start = offsets[fromLine];
+        return text.slice(start, offsets[toLine] - 1 - start).asReadOnlyBuffer();
+    }
+
+    @Override
+    public long sortLines(int fromLine, int toLine, boolean ascending, OutputStream output) {
+        Objects.checkFromToIndex(fromLine, toLine, lineCount);
+        int[] order = new int[toLine - fromLine];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = fromLine + i;
+        }
+        sort(order, 0, order.length, 0);
+        if (!ascending) {
+            for (int i = 0, j = order.length - 1; i < j; i++, j--) {
+                swap(order, i, j);
+            }
+        }
+        write(order, order.length, output);
+        return order.length;
+    }
+
+    @Override
+    public long removeDuplicateLines(int fromLine, int toLine, OutputStream output) {
+        Objects.checkFromToIndex(fromLine, toLine, lineCount);
+        int lines = toLine - fromLine;
+        int[] table = new int[Integer.highestOneBit(Math.max(16, lines * 2 - 1)) << 1];
+        int mask = table.length - 1;
+        int[] unique = new int[lines];
+        int uniqueCount = 0;
+        for (int line = fromLine; line < toLine; line++) {
+            if ((line - fromLine) % 4096 == 0) {
+                Cancellation.checkpoint();
+            }
+            int slot = hash(line) & mask;
+            boolean duplicate = false;
+            // Slots hold line number + 1, so zero marks an empty slot
+            while (table[slot] != 0) {
+                if (equal(table[slot] - 1, line)) {
+                    duplicate = true;
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+            if (!duplicate) {
+                table[slot] = line + 1;
+                unique[uniqueCount++] = line;
+            }
+        }
+        write(unique, uniqueCount, output);
+        return uniqueCount;
+    }
+
+    /**
+     * Sort lines with a three-way radix quicksort on one byte at a time, so lines sharing long
+     * prefixes, like timestamps, are not compared from their start again at every level
+     * @param order Line numbers to sort between lo (inclusive) and hi (exclusive)
+     * @param depth Number of leading bytes all lines in the range share
+     */
+    private void sort(int[] order, int lo, int hi, int depth) {
+        while (hi - lo > 1) {
+            if (hi - lo < INSERTION_SORT_THRESHOLD) {
+                insertionSort(order, lo, hi, depth);
+                return;
+            }
+            Cancellation.checkpoint();
+            int middle = (lo + hi) >>> 1;
+            int pivot = median(digit(order[lo], depth), digit(order[middle], depth), digit(order[hi - 1], depth));
+            int lt = lo;
+            int gt = hi - 1;
+            int i = lo;
+            while (i <= gt) {
+                int d = digit(order[i], depth);
+                if (d < pivot) {
+                    swap(order, lt++, i++);
+                } else if (d > pivot) {
+                    swap(order, i, gt--);
+                } else {
+                    i++;
+                }
+            }
+            sort(order, lo, lt, depth);
+            sort(order, gt + 1, hi, depth);
+            if (pivot < 0) {
+                // The lines equal to the pivot all ended
+                return;
+            }
+            lo = lt;
+            hi = gt + 1;
+            depth++;
+        }
+    }
+
+    private void insertionSort(int[] order, int lo, int hi, int depth) {
+        for (int i = lo + 1; i < hi; i++) {
+            int line = order[i];
+            int j = i;
+            while (j > lo && compare(order[j - 1], line, depth) > 0) {
+                order[j] = order[j - 1];
+                j--;
+            }
+            order[j] = line;
+        }
+    }
+
+    private int compare(int a, int b, int depth) {
+        while (true) {
+            int da = digit(a, depth);
+            int db = digit(b, depth);
+            if (da != db || da < 0) {
+                return Integer.compare(da, db);
+            }
+            depth++;
+        }
+    }
+
+    /**
+     * Sort key of the byte at a depth of a line, -1 past its end. Lines sharing the bytes before the
+     * depth are aligned on sequence boundaries, so when two keys differ at a lead byte both are lead
+     * bytes; supplementary lead bytes F0-F4 move below the EE-EF leads of U+E000-U+FFFF, as their
+     * surrogates sort in UTF-16.
+     */
+    private int digit(int line, int depth) {
+        int position = offsets[line] + depth;
+        if (position >= offsets[line + 1] - 1) {
+            return -1;
+        }
+        int b = text.get(position) & 0xFF;
+        if (b >= 0xEE && b <= 0xEF) {
+            return b + 5;
+        }
+        if (b >= 0xF0 && b <= 0xF4) {
+            return b - 2;
+        }
+        return b;
+    }
+
+    private static int median(int a, int b, int c) {
+        return Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+    }
+
+    private static void swap(int[] order, int i, int j) {
+        int swap = order[i];
+        order[i] = order[j];
+        order[j] = swap;
+    }
+
+    private int hash(int line) {
+        int hash = 0;
+        for (int i = offsets[line], end = offsets[line + 1] - 1; i < end; i++) {
+            hash = 31 * hash + text.get(i);
+        }
+        return (int) (LongCountTable.mix(hash) >>> 32);
+    }
+
+    private boolean equal(int a, int b) {
+        int start = offsets[a];
+        int length = offsets[a + 1] - 1 - start;
+        if (length != offsets[b + 1] - 1 - offsets[b]) {
+            return false;
+        }
+        return text.slice(start, length).equals(text.slice(offsets[b], length));
+    }
+
+    private String decode(int from, int to) {
+        if (text.hasArray()) {
+            return new String(text.array(), text.arrayOffset() + from, to - from, StandardCharsets.UTF_8);
+        }
+        byte[] bytes = new byte[to - from];
+        text.get(from, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Write lines joined by line breaks
+     */
+    private void write(int[] lines, int count, OutputStream output) {
+        byte[] buffer = new byte[OUTPUT_BUFFER_SIZE];
+        int used = 0;
+        try {
+            for (int k = 0; k < count; k++) {
+                if (k > 0) {
+                    if (used == buffer.length) {
+                        output.write(buffer, 0, used);
+                        used = 0;
+                    }
+                    buffer[used++] = '\n';
+                }
+                int position = offsets[lines[k]];
+                int end = offsets[lines[k] + 1] - 1;
+                while (position < end) {
+                    if (used == buffer.length) {
+                        output.write(buffer, 0, used);
+                        used = 0;
+                    }
+                    int length = Math.min(end - position, buffer.length - used);
+                    text.get(position, buffer, used, length);
+                    position += length;
+                    used += length;
+                }
+            }
+            output.write(buffer, 0, used);
+            output.flush();
+        } catch (IOException e) {
+            logger.error("Error writing lines: {}", e.getMessage());
+            throw new TextProcessingException("Failed to write lines", e);
+        }
+    }
+}
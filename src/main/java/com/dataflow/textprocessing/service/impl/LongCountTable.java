@@ -0,0 +1,166 @@
+package com.dataflow.textprocessing.service.impl;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash table from non-zero long keys to long counts, with linear probing. Zero marks
+ * an empty slot. Not thread safe.
+ */
+final class LongCountTable {
+    private static final int MIN_CAPACITY = 16;
+    private static final int HISTOGRAM_SIZE = 1024;
+
+    private long[] keys;
+    private long[] counts;
+    private int mask;
+    private int size;
+
+    LongCountTable(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(MIN_CAPACITY, expectedSize * 2 - 1)) << 1;
+        keys = new long[capacity];
+        counts = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    void add(long key, long delta) {
+        int slot = slot(key);
+        while (true) {
+            long current = keys[slot];
+            if (current == key) {
+                counts[slot] += delta;
+                return;
+            }
+            if (current == 0) {
+                keys[slot] = key;
+                counts[slot] = delta;
+                if (++size * 2 > keys.length) {
+                    resize(keys.length * 2);
+                }
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    long get(long key) {
+        int slot = slot(key);
+        while (true) {
+            long current = keys[slot];
+            if (current == key) {
+                return counts[slot];
+            }
+            if (current == 0) {
+                return 0;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Drop all entries with a count of at most the threshold
+     * @return Number of dropped entries
+     */
+    int prune(long threshold) {
+        long[] oldKeys = keys;
+        long[] oldCounts = counts;
+        int before = size;
+        keys = new long[oldKeys.length];
+        counts = new long[oldKeys.length];
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0 && oldCounts[i] > threshold) {
+                insertNew(oldKeys[i], oldCounts[i]);
+            }
+        }
+        return before - size;
+    }
+
+    /**
+     * Find the lowest threshold at which {@link #prune(long)} drops at least a number of entries, from
+     * a histogram of the counts; only counts beyond the histogram are sorted, which is rare since
+     * pruning targets the rarest entries
+     * @param entries Number of entries to drop, at most the size
+     */
+    long pruneThresholdFor(int entries) {
+        int[] histogram = new int[HISTOGRAM_SIZE];
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0) {
+                histogram[(int) Math.min(counts[i], HISTOGRAM_SIZE - 1)]++;
+            }
+        }
+        int dropped = 0;
+        for (int count = 0; count < HISTOGRAM_SIZE - 1; count++) {
+            dropped += histogram[count];
+            if (dropped >= entries) {
+                return count;
+            }
+        }
+        long[] large = new long[histogram[HISTOGRAM_SIZE - 1]];
+        int next = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0 && counts[i] >= HISTOGRAM_SIZE - 1) {
+                large[next++] = counts[i];
+            }
+        }
+        Arrays.sort(large);
+        return large[entries - dropped - 1];
+    }
+
+    void clear() {
+        Arrays.fill(keys, 0);
+        size = 0;
+    }
+
+    void forEach(EntryConsumer consumer) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0) {
+                consumer.accept(keys[i], counts[i]);
+            }
+        }
+    }
+
+    /**
+     * Mix the key bits so packed ids that differ only in their low bits spread over the table
+     */
+    static long mix(long key) {
+        long z = key * 0x9E3779B97F4A7C15L;
+        return z ^ (z >>> 29);
+    }
+
+    private int slot(long key) {
+        return (int) (mix(key) >>> 32) & mask;
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        long[] oldCounts = counts;
+        keys = new long[capacity];
+        counts = new long[capacity];
+        mask = capacity - 1;
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                insertNew(oldKeys[i], oldCounts[i]);
+            }
+        }
+    }
+
+    private void insertNew(long key, long count) {
+        int slot = slot(key);
+        while (keys[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        counts[slot] = count;
+        size++;
+    }
+
+    @FunctionalInterface
+    interface EntryConsumer {
+        void accept(long key, long count);
+    }
+}
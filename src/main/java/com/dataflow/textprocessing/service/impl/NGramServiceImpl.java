@@ -0,0 +1,571 @@
+package com.dataflow.textprocessing.service.impl;
+
+import com.dataflow.textprocessing.exception.TextProcessingException;
+import com.dataflow.textprocessing.model.Collocation;
+import com.dataflow.textprocessing.model.NGramCounts;
+import com.dataflow.textprocessing.model.TextDocument;
+import com.dataflow.textprocessing.service.NGramService;
+import com.dataflow.textprocessing.util.Cancellation;
+import com.dataflow.textprocessing.util.CompressedFiles;
+import com.dataflow.textprocessing.util.VarIntCodec;
+import com.dataflow.textprocessing.util.WordTokenizer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Counts n-grams with every word mapped to an integer id and every n-gram packed into a long key
+ * (see {@link NGramCounts}). Each counting thread buffers counts in a private table and periodically
+ * flushes them into lock-striped shared shards. A quarter of the memory budget goes to the vocabulary
+ * and unigram counts; once it is used up, new words are counted as out of vocabulary and break n-grams
+ * like sentence ends. The shards share the rest; a shard outgrowing its share drops its rarest
+ * n-grams at a rising threshold, so only rare n-grams lose counts. N-grams do not span sentence
+ * terminators or documents.
+ */
+public class NGramServiceImpl implements NGramService {
+    public static final int DEFAULT_MAX_ORDER = 3;
+    public static final long DEFAULT_MEMORY_BUDGET = 256L * 1024 * 1024;
+    private static final Logger logger = LoggerFactory.getLogger(NGramServiceImpl.class);
+    private static final int MAGIC = 0x54504E47; // "TPNG"
+    private static final int FORMAT_VERSION = 2;
+    private static final int SHARD_BITS = 6;
+    private static final int SHARDS = 1 << SHARD_BITS;
+    private static final int LOCAL_FLUSH_SIZE = 1 << 14;
+    private static final int CHECKPOINT_TOKENS = 1 << 14;
+    // Key and count at a load factor of at most one half
+    private static final int BYTES_PER_ENTRY = 32;
+    // Map node, String, Integer and unigram count of a vocabulary word, besides its characters
+    private static final int BYTES_PER_WORD = 128;
+
+    private final int maxOrder;
+    private final long memoryBudget;
+
+    public NGramServiceImpl() {
+        this(DEFAULT_MAX_ORDER, DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * @param maxOrder Longest n-gram counted, 2 or 3
+     * @param memoryBudget Approximate number of bytes the vocabulary and shared n-gram tables may use
+     */
+    public NGramServiceImpl(int maxOrder, long memoryBudget) {
+        if (maxOrder < 2 || maxOrder > NGramCounts.MAX_ORDER) {
+            throw new IllegalArgumentException("N-gram order must be between 2 and " + NGramCounts.MAX_ORDER + ": " + maxOrder);
+        }
+        if (memoryBudget < 2L * BYTES_PER_ENTRY * SHARDS * maxOrder) {
+            throw new IllegalArgumentException("Memory budget too small: " + memoryBudget);
+        }
+        this.maxOrder = maxOrder;
+        this.memoryBudget = memoryBudget;
+    }
+
+    @Override
+    public NGramCounts countNGrams(Collection<TextDocument> documents) {
+        logger.debug("Counting n-grams of {} documents", documents.size());
+        return countNGrams(documents.parallelStream());
+    }
+
+    @Override
+    public NGramCounts countNGrams(Stream<TextDocument> documents) {
+        CountingRun run = new CountingRun();
+        documents.forEach(run::add);
+        NGramCounts counts = run.finish();
+        logger.info("Counted {} tokens, {} words, {} bigrams, {} trigrams (prune threshold {}, {} tokens out of "
+                + "vocabulary, {} trigrams uncounted)", counts.getTotalTokens(), counts.getVocabularySize(),
+                counts.size(2), counts.size(3), counts.getPruneThreshold(), counts.getOutOfVocabularyTokens(),
+                counts.getUncountedTrigrams());
+        return counts;
+    }
+
+    @Override
+    public List<Collocation> findCollocations(NGramCounts counts, int minCount, int limit) {
+        logger.debug("Finding up to {} collocations occurring at least {} times", limit, minCount);
+        if (limit <= 0 || counts.getMaxOrder() < 2) {
+            return new ArrayList<>();
+        }
+        Comparator<Collocation> byLogLikelihood = Comparator.comparingDouble(Collocation::getLogLikelihood);
+        PriorityQueue<Collocation> heap = new PriorityQueue<>(byLogLikelihood);
+        long total = counts.getTotalTokens();
+        counts.forEach(2, (ids, count) -> {
+            if (count < minCount) {
+                return;
+            }
+            long first = counts.getUnigramCount(ids[0]);
+            long second = counts.getUnigramCount(ids[1]);
+            double logLikelihood = logLikelihoodRatio(count, first, second, total);
+            if (heap.size() < limit || logLikelihood > heap.peek().getLogLikelihood()) {
+                double pmi = Math.log((double) count * total / ((double) first * second)) / Math.log(2);
+                heap.add(new Collocation(counts.getWord(ids[0]), counts.getWord(ids[1]), count, pmi, logLikelihood));
+                if (heap.size() > limit) {
+                    heap.poll();
+                }
+            }
+        });
+        List<Collocation> collocations = new ArrayList<>(heap);
+        collocations.sort(byLogLikelihood.reversed());
+        return collocations;
+    }
+
+    @Override
+    public void exportTsv(NGramCounts counts, Path path) {
+        try {
+            Path tempFile = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+            try (PrintWriter out = new PrintWriter(CompressedFiles.newBufferedWriter(
+                    tempFile, StandardCharsets.UTF_8, CompressedFiles.hasGzipExtension(path)))) {
+                for (int order = 1; order <= counts.getMaxOrder(); order++) {
+                    int currentOrder = order;
+                    counts.forEach(order, (ids, count) -> {
+                        out.print(currentOrder);
+                        out.print('\t');
+                        for (int i = 0; i < ids.length; i++) {
+                            if (i > 0) {
+                                out.print(' ');
+                            }
+                            out.print(counts.getWord(ids[i]));
+                        }
+                        out.print('\t');
+                        out.print(count);
+                        out.print('\n');
+                    });
+                }
+                if (out.checkError()) {
+                    throw new IOException("Write to " + tempFile + " failed");
+                }
+            }
+            Files.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            logger.info("Exported n-gram counts to {}", path);
+        } catch (IOException e) {
+            logger.error("Error exporting n-gram counts to {}: {}", path, e.getMessage());
+            throw new TextProcessingException("Failed to export n-gram counts", e);
+        }
+    }
+
+    @Override
+    public void exportBinary(NGramCounts counts, Path path) {
+        try {
+            Path tempFile = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    CompressedFiles.newOutputStream(tempFile, CompressedFiles.hasGzipExtension(path))))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                VarIntCodec.writeVarInt(out, counts.getMaxOrder());
+                VarIntCodec.writeVarLong(out, counts.getTotalTokens());
+                VarIntCodec.writeVarLong(out, counts.getPruneThreshold());
+                VarIntCodec.writeVarLong(out, counts.getOutOfVocabularyTokens());
+                VarIntCodec.writeVarLong(out, counts.getUncountedTrigrams());
+                VarIntCodec.writeVarInt(out, counts.getVocabularySize());
+                for (int id = 1; id <= counts.getVocabularySize(); id++) {
+                    VarIntCodec.writeString(out, counts.getWord(id));
+                    VarIntCodec.writeVarLong(out, counts.getUnigramCount(id));
+                }
+                for (int order = 2; order <= counts.getMaxOrder(); order++) {
+                    writeOrder(out, counts, order);
+                }
+            }
+            Files.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            logger.info("Exported n-gram counts to {}", path);
+        } catch (IOException e) {
+            logger.error("Error exporting n-gram counts to {}: {}", path, e.getMessage());
+            throw new TextProcessingException("Failed to export n-gram counts", e);
+        }
+    }
+
+    @Override
+    public NGramCounts loadBinary(Path path) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(CompressedFiles.newInputStream(path)))) {
+            if (in.readInt() != MAGIC) {
+                throw new TextProcessingException("Not an n-gram file: " + path);
+            }
+            int version = in.readInt();
+            if (version < 1 || version > FORMAT_VERSION) {
+                throw new TextProcessingException("Unsupported n-gram format version: " + version);
+            }
+            int order = VarIntCodec.readVarInt(in);
+            if (order < 2 || order > NGramCounts.MAX_ORDER) {
+                throw new TextProcessingException("Unsupported n-gram order: " + order);
+            }
+            long totalTokens = VarIntCodec.readVarLong(in);
+            long pruneThreshold = VarIntCodec.readVarLong(in);
+            // Version 1 files predate the out of vocabulary and uncounted trigram totals
+            long outOfVocabularyTokens = version >= 2 ? VarIntCodec.readVarLong(in) : 0;
+            long uncountedTrigrams = version >= 2 ? VarIntCodec.readVarLong(in) : 0;
+            int vocabularySize = VarIntCodec.readVarInt(in);
+            String[] vocabulary = new String[vocabularySize + 1];
+            long[] unigramCounts = new long[vocabularySize + 1];
+            for (int id = 1; id <= vocabularySize; id++) {
+                vocabulary[id] = VarIntCodec.readString(in);
+                unigramCounts[id] = VarIntCodec.readVarLong(in);
+            }
+            long[][] keys = new long[order + 1][];
+            long[][] counts = new long[order + 1][];
+            for (int n = 2; n <= order; n++) {
+                int size = VarIntCodec.readVarInt(in);
+                keys[n] = new long[size];
+                counts[n] = new long[size];
+                long key = 0;
+                for (int i = 0; i < size; i++) {
+                    key += VarIntCodec.readVarLong(in);
+                    keys[n][i] = key;
+                }
+                for (int i = 0; i < size; i++) {
+                    counts[n][i] = VarIntCodec.readVarLong(in);
+                }
+            }
+            logger.info("Loaded n-gram counts with {} words from {}", vocabularySize, path);
+            return new NGramCounts(vocabulary, unigramCounts, totalTokens, keys, counts, pruneThreshold,
+                    outOfVocabularyTokens, uncountedTrigrams);
+        } catch (IOException e) {
+            logger.error("Error loading n-gram counts from {}: {}", path, e.getMessage());
+            throw new TextProcessingException("Failed to load n-gram counts", e);
+        }
+    }
+
+    /**
+     * Keys are written as deltas from the previous key and counts after all keys, so both compress
+     * to a few bytes per n-gram
+     */
+    private static void writeOrder(DataOutputStream out, NGramCounts counts, int order) throws IOException {
+        int size = counts.size(order);
+        long[] keys = new long[size];
+        long[] values = new long[size];
+        int[] next = {0};
+        counts.forEach(order, (ids, count) -> {
+            keys[next[0]] = NGramCounts.pack(ids);
+            values[next[0]++] = count;
+        });
+        VarIntCodec.writeVarInt(out, size);
+        long previous = 0;
+        for (long key : keys) {
+            VarIntCodec.writeVarLong(out, key - previous);
+            previous = key;
+        }
+        for (long value : values) {
+            VarIntCodec.writeVarLong(out, value);
+        }
+    }
+
+    /**
+     * Dunning's log-likelihood ratio G² of the 2x2 contingency table of a word pair
+     */
+    private static double logLikelihoodRatio(long pair, long first, long second, long total) {
+        long k11 = pair;
+        long k12 = Math.max(0, first - pair);
+        long k21 = Math.max(0, second - pair);
+        long k22 = Math.max(0, total - k11 - k12 - k21);
+        double rowEntropy = entropy(k11 + k12, k21 + k22);
+        double columnEntropy = entropy(k11 + k21, k12 + k22);
+        double matrixEntropy = entropy(k11, k12, k21, k22);
+        return Math.max(0.0, 2.0 * (rowEntropy + columnEntropy - matrixEntropy));
+    }
+
+    private static double entropy(long... counts) {
+        long sum = 0;
+        double result = 0.0;
+        for (long count : counts) {
+            result -= xLogX(count);
+            sum += count;
+        }
+        return result + xLogX(sum);
+    }
+
+    private static double xLogX(long x) {
+        return x == 0 ? 0.0 : x * Math.log(x);
+    }
+
+    /**
+     * State of one counting call: the shared vocabulary and shards plus one buffer per thread. Workers
+     * are held by the run rather than in thread locals, so pool threads keep nothing once the run is
+     * finished and dropped.
+     */
+    private final class CountingRun {
+        private final Map<String, Integer> wordIds = new ConcurrentHashMap<>();
+        private final AtomicInteger nextWordId = new AtomicInteger(1);
+        private final AtomicLong vocabularyBytes = new AtomicLong();
+        private final long vocabularyBudget = memoryBudget / 4;
+        private final Shard[][] shards = new Shard[maxOrder + 1][SHARDS];
+        private final Map<Thread, Worker> workers = new ConcurrentHashMap<>();
+        private long[] unigramCounts = new long[1024];
+
+        CountingRun() {
+            int shardCapacity = (int) Math.min(Integer.MAX_VALUE / 4,
+                    (memoryBudget - vocabularyBudget) / BYTES_PER_ENTRY / ((long) (maxOrder - 1) * SHARDS));
+            for (int order = 2; order <= maxOrder; order++) {
+                for (int i = 0; i < SHARDS; i++) {
+                    shards[order][i] = new Shard(shardCapacity);
+                }
+            }
+        }
+
+        void add(TextDocument document) {
+            workers.computeIfAbsent(Thread.currentThread(), thread -> new Worker(this)).count(document.getContent());
+        }
+
+        /**
+         * Get the id of a word, numbering new words while the vocabulary is within its budget
+         * @return Word id, or 0 for a new word once the budget is used up
+         */
+        int wordId(String word) {
+            Integer id = wordIds.get(word);
+            if (id != null) {
+                return id;
+            }
+            if (vocabularyBytes.get() >= vocabularyBudget) {
+                return 0;
+            }
+            return wordIds.computeIfAbsent(word, w -> {
+                vocabularyBytes.addAndGet(BYTES_PER_WORD + w.length());
+                return nextWordId.getAndIncrement();
+            });
+        }
+
+        synchronized void addUnigrams(long[] ids, long[] counts, int count) {
+            for (int i = 0; i < count; i++) {
+                int id = (int) ids[i];
+                if (id >= unigramCounts.length) {
+                    unigramCounts = Arrays.copyOf(unigramCounts, Math.max(id + 1, unigramCounts.length * 2));
+                }
+                unigramCounts[id] += counts[i];
+            }
+        }
+
+        NGramCounts finish() {
+            long totalTokens = 0;
+            long outOfVocabularyTokens = 0;
+            long uncountedTrigrams = 0;
+            for (Worker worker : workers.values()) {
+                for (int order = 1; order <= maxOrder; order++) {
+                    worker.flush(order);
+                }
+                totalTokens += worker.tokens;
+                outOfVocabularyTokens += worker.outOfVocabularyTokens;
+                uncountedTrigrams += worker.uncountedTrigrams;
+            }
+            long[] unigrams = Arrays.copyOf(unigramCounts, nextWordId.get());
+            String[] vocabulary = new String[unigrams.length];
+            wordIds.forEach((word, id) -> vocabulary[id] = word);
+
+            long[][] keys = new long[maxOrder + 1][];
+            long[][] counts = new long[maxOrder + 1][];
+            long pruneThreshold = 0;
+            for (int order = 2; order <= maxOrder; order++) {
+                int size = 0;
+                for (Shard shard : shards[order]) {
+                    size += shard.size();
+                    pruneThreshold = Math.max(pruneThreshold, shard.pruneThreshold);
+                }
+                long[] orderKeys = new long[size];
+                int[] next = {0};
+                for (Shard shard : shards[order]) {
+                    shard.forEach((key, count) -> orderKeys[next[0]++] = key);
+                }
+                Arrays.parallelSort(orderKeys);
+                long[] orderCounts = new long[size];
+                for (int i = 0; i < size; i++) {
+                    orderCounts[i] = shards[order][shardOf(orderKeys[i])].get(orderKeys[i]);
+                }
+                keys[order] = orderKeys;
+                counts[order] = orderCounts;
+            }
+            return new NGramCounts(vocabulary, unigrams, totalTokens, keys, counts, pruneThreshold,
+                    outOfVocabularyTokens, uncountedTrigrams);
+        }
+    }
+
+    private static int shardOf(long key) {
+        // The tables index slots with the high half of the mixed key, so shards use the low bits
+        return (int) LongCountTable.mix(key) & (SHARDS - 1);
+    }
+
+    /**
+     * Shared counts of a slice of the key space, guarded by its own monitor. The table is allocated on
+     * the first flush into the shard, so shards of key ranges a run never reaches cost nothing.
+     */
+    private static final class Shard {
+        final int capacity;
+        LongCountTable table;
+        long pruneThreshold;
+
+        Shard(int capacity) {
+            this.capacity = capacity;
+        }
+
+        synchronized void addAll(long[] keys, long[] counts, int from, int to) {
+            if (table == null) {
+                table = new LongCountTable(Math.min(capacity, to - from));
+            }
+            for (int i = from; i < to; i++) {
+                table.add(keys[i], counts[i]);
+            }
+            if (table.size() > capacity) {
+                // Leave headroom so the next flushes do not prune again right away
+                int target = capacity - capacity / 4;
+                long threshold = table.pruneThresholdFor(table.size() - target);
+                table.prune(threshold);
+                pruneThreshold = Math.max(pruneThreshold, threshold);
+            }
+        }
+
+        int size() {
+            return table == null ? 0 : table.size();
+        }
+
+        long get(long key) {
+            return table == null ? 0 : table.get(key);
+        }
+
+        void forEach(LongCountTable.EntryConsumer consumer) {
+            if (table != null) {
+                table.forEach(consumer);
+            }
+        }
+    }
+
+    /**
+     * Counting state confined to one thread
+     */
+    private final class Worker implements WordTokenizer.TokenConsumer {
+        private final CountingRun run;
+        private final LongCountTable[] local = new LongCountTable[maxOrder + 1];
+        private final long[] flushKeys = new long[LOCAL_FLUSH_SIZE];
+        private final long[] flushCounts = new long[LOCAL_FLUSH_SIZE];
+        private final int[] shardEnds = new int[SHARDS];
+        long tokens;
+        long outOfVocabularyTokens;
+        long uncountedTrigrams;
+        private String text;
+        private int previousEnd;
+        private int previousId;
+        private int secondPreviousId;
+
+        Worker(CountingRun run) {
+            this.run = run;
+            for (int order = 1; order <= maxOrder; order++) {
+                local[order] = new LongCountTable(LOCAL_FLUSH_SIZE);
+            }
+        }
+
+        void count(String content) {
+            Cancellation.checkpoint();
+            text = content;
+            previousEnd = 0;
+            previousId = 0;
+            secondPreviousId = 0;
+            WordTokenizer.forEachToken(content, this);
+            text = null;
+        }
+
+        @Override
+        public void accept(int start, int end) {
+            if (endsSentence(previousEnd, start)) {
+                previousId = 0;
+                secondPreviousId = 0;
+            }
+            previousEnd = end;
+            int id = run.wordId(WordTokenizer.normalize(text, start, end));
+            if ((++tokens & (CHECKPOINT_TOKENS - 1)) == 0) {
+                Cancellation.checkpoint();
+            }
+            if (id == 0) {
+                outOfVocabularyTokens++;
+                previousId = 0;
+                secondPreviousId = 0;
+                return;
+            }
+            add(1, id);
+
+            if (previousId != 0) {
+                add(2, NGramCounts.pack(previousId, id));
+                if (maxOrder >= 3 && secondPreviousId != 0) {
+                    if (secondPreviousId <= NGramCounts.MAX_TRIGRAM_WORD_ID && previousId <= NGramCounts.MAX_TRIGRAM_WORD_ID
+                            && id <= NGramCounts.MAX_TRIGRAM_WORD_ID) {
+                        add(3, NGramCounts.pack(secondPreviousId, previousId, id));
+                    } else {
+                        uncountedTrigrams++;
+                    }
+                }
+            }
+            secondPreviousId = previousId;
+            previousId = id;
+        }
+
+        private boolean endsSentence(int from, int to) {
+            for (int i = from; i < to; i++) {
+                char c = text.charAt(i);
+                if (c == '.' || c == '!' || c == '?') {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void add(int order, long key) {
+            LongCountTable table = local[order];
+            table.add(key, 1);
+            if (table.size() >= LOCAL_FLUSH_SIZE) {
+                flush(order);
+            }
+        }
+
+        /**
+         * Move the buffered counts of an order into the shared unigram counts or shards, grouped so each
+         * shard is locked once
+         */
+        void flush(int order) {
+            LongCountTable table = local[order];
+            if (table.size() == 0) {
+                return;
+            }
+            Cancellation.checkpoint();
+            if (order == 1) {
+                int[] next = {0};
+                table.forEach((id, count) -> {
+                    flushKeys[next[0]] = id;
+                    flushCounts[next[0]++] = count;
+                });
+                run.addUnigrams(flushKeys, flushCounts, next[0]);
+                table.clear();
+                return;
+            }
+            Arrays.fill(shardEnds, 0);
+            table.forEach((key, count) -> shardEnds[shardOf(key)]++);
+            for (int i = 1; i < SHARDS; i++) {
+                shardEnds[i] += shardEnds[i - 1];
+            }
+            table.forEach((key, count) -> {
+                int index = --shardEnds[shardOf(key)];
+                flushKeys[index] = key;
+                flushCounts[index] = count;
+            });
+            // shardEnds now holds the start of each shard's range
+            for (int shard = 0; shard < SHARDS; shard++) {
+                int from = shardEnds[shard];
+                int to = shard + 1 < SHARDS ? shardEnds[shard + 1] : table.size();
+                if (to > from) {
+                    run.shards[order][shard].addAll(flushKeys, flushCounts, from, to);
+                }
+            }
+            table.clear();
+        }
+    }
+}
@@ -0,0 +1,696 @@
+package com.dataflow.textprocessing.service.impl;
+
+import com.dataflow.textprocessing.service.TextProcessingService;
+import com.dataflow.textprocessing.util.Cancellation;
+import com.dataflow.textprocessing.util.TextProcessingUtils;
+import com.dataflow.textprocessing.util.WordTokenizer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Operators of a pipeline run. Lines are pushed through a chain of operators: each receives a line
+ * in a builder it may change or replace, and passes a line on or drops it. A receiver must not keep
+ * the builder after returning, so a line is copied only by operators that hold lines. Operators keep
+ * the state of one run and are not shared between threads.
+ */
+final class PipelineOperators {
+    private static final int CHECKPOINT_LINES = 4096;
+
+    private PipelineOperators() {
+    }
+
+    abstract static class Operator {
+        Operator next;
+
+        abstract void line(StringBuilder line);
+
+        /**
+         * Called after the last line
+         */
+        void end() {
+            next.end();
+        }
+    }
+
+    /**
+     * Push the lines of a text, split at {@code \n}, through an operator chain; a text of n line
+     * breaks has n + 1 lines
+     * @return Number of lines pushed
+     */
+    static long feed(CharSequence text, Operator head) {
+        StringBuilder line = new StringBuilder();
+        long lines = 0;
+        int start = 0;
+        int length = text.length();
+        while (true) {
+            int end = indexOf(text, '\n', start);
+            line.setLength(0);
+            line.append(text, start, end < 0 ? length : end);
+            head.line(line);
+            if (++lines % CHECKPOINT_LINES == 0) {
+                Cancellation.checkpoint();
+            }
+            if (end < 0) {
+                break;
+            }
+            start = end + 1;
+        }
+        head.end();
+        return lines;
+    }
+
+    private static int indexOf(CharSequence text, char c, int from) {
+        if (text instanceof String) {
+            return ((String) text).indexOf(c, from);
+        }
+        for (int i = from; i < text.length(); i++) {
+            if (text.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Measures the time spent in a step and all steps after it
+     */
+    static final class Timed extends Operator {
+        private final Operator inner;
+        private final long[] nanos;
+        private final int slot;
+
+        Timed(Operator inner, long[] nanos, int slot) {
+            this.inner = inner;
+            this.nanos = nanos;
+            this.slot = slot;
+        }
+
+        @Override
+        void line(StringBuilder line) {
+            long start = System.nanoTime();
+            inner.line(line);
+            nanos[slot] += System.nanoTime() - start;
+        }
+
+        @Override
+        void end() {
+            long start = System.nanoTime();
+            inner.end();
+            nanos[slot] += System.nanoTime() - start;
+        }
+    }
+
+    // Character stages, fused into one pass over each line
+
+    abstract static class CharStage {
+        CharStage next;
+
+        abstract void accept(char c);
+
+        void startLine() {
+            next.startLine();
+        }
+
+        void endLine() {
+            next.endLine();
+        }
+    }
+
+    /**
+     * Runs a chain of character stages over each line in a single pass
+     */
+    static final class FusedChars extends Operator {
+        private final CharStage head;
+        private final StringBuilder out = new StringBuilder();
+
+        FusedChars(List<CharStage> stages) {
+            for (int i = 0; i < stages.size() - 1; i++) {
+                stages.get(i).next = stages.get(i + 1);
+            }
+            stages.get(stages.size() - 1).next = new Emit(out);
+            this.head = stages.get(0);
+        }
+
+        @Override
+        void line(StringBuilder line) {
+            out.setLength(0);
+            head.startLine();
+            for (int i = 0, length = line.length(); i < length; i++) {
+                head.accept(line.charAt(i));
+            }
+            head.endLine();
+            next.line(out);
+        }
+    }
+
+    private static final class Emit extends CharStage {
+        private final StringBuilder out;
+
+        Emit(StringBuilder out) {
+            this.out = out;
+        }
+
+        @Override
+        void accept(char c) {
+            out.append(c);
+        }
+
+        @Override
+        void startLine() {
+        }
+
+        @Override
+        void endLine() {
+        }
+    }
+
+    /**
+     * Converts each line with full string case mapping, as {@link TextProcessingServiceImpl#convertCase}
+     * does for a whole text, so characters may map to several (ß to SS) and a final sigma stays final.
+     * The line is buffered until its end, since the mapping of a character depends on its neighbours.
+     * TITLE collapses whitespace within a line as the service does, but keeps the line breaks that the
+     * service joins with spaces.
+     */
+    static final class ConvertCase extends CharStage {
+        private final TextProcessingService.CaseMode mode;
+        private final StringBuilder line = new StringBuilder();
+        private boolean capitalize = true;
+
+        ConvertCase(TextProcessingService.CaseMode mode) {
+            this.mode = mode;
+        }
+
+        @Override
+        void startLine() {
+            line.setLength(0);
+            next.startLine();
+        }
+
+        @Override
+        void accept(char c) {
+            line.append(c);
+        }
+
+        @Override
+        void endLine() {
+            String converted = convert(line.toString());
+            for (int i = 0, length = converted.length(); i < length; i++) {
+                next.accept(converted.charAt(i));
+            }
+            next.endLine();
+        }
+
+        private String convert(String text) {
+            switch (mode) {
+                case UPPER:
+                    return text.toUpperCase();
+                case LOWER:
+                    return text.toLowerCase();
+                case TITLE:
+                    return TextProcessingUtils.toTitleCase(text);
+                default:
+                    return toSentenceCase(text);
+            }
+        }
+
+        /**
+         * Upper case the first letter after each sentence terminator and lower case the rest; a
+         * sentence may continue on the next line
+         */
+        private String toSentenceCase(String text) {
+            StringBuilder out = new StringBuilder(text.length());
+            int converted = 0;
+            for (int i = 0, length = text.length(); i < length; ) {
+                int c = text.codePointAt(i);
+                int end = i + Character.charCount(c);
+                if (c == '.' || c == '!' || c == '?') {
+                    capitalize = true;
+                } else if (capitalize && Character.isLetter(c)) {
+                    out.append(text.substring(converted, i).toLowerCase()).append(text.substring(i, end).toUpperCase());
+                    converted = end;
+                    capitalize = false;
+                }
+                i = end;
+            }
+            return out.append(text.substring(converted).toLowerCase()).toString();
+        }
+    }
+
+    static final class CollapseSpaces extends CharStage {
+        private boolean seenText;
+        private boolean pendingSpace;
+
+        @Override
+        void startLine() {
+            seenText = false;
+            pendingSpace = false;
+            next.startLine();
+        }
+
+        @Override
+        void accept(char c) {
+            if (Character.isWhitespace(c)) {
+                pendingSpace = seenText;
+                return;
+            }
+            if (pendingSpace) {
+                next.accept(' ');
+                pendingSpace = false;
+            }
+            seenText = true;
+            next.accept(c);
+        }
+    }
+
+    // Line stages
+
+    static final class TrimLines extends Operator {
+        @Override
+        void line(StringBuilder line) {
+            int end = line.length();
+            while (end > 0 && line.charAt(end - 1) <= ' ') {
+                end--;
+            }
+            int start = 0;
+            while (start < end && line.charAt(start) <= ' ') {
+                start++;
+            }
+            line.setLength(end);
+            line.delete(0, start);
+            next.line(line);
+        }
+    }
+
+    static final class RemoveBlankLines extends Operator {
+        @Override
+        void line(StringBuilder line) {
+            for (int i = 0, length = line.length(); i < length; i++) {
+                if (!Character.isWhitespace(line.charAt(i))) {
+                    next.line(line);
+                    return;
+                }
+            }
+        }
+    }
+
+    static final class KeepLines extends Operator {
+        private final Matcher matcher;
+
+        KeepLines(Pattern pattern) {
+            this.matcher = pattern.matcher("");
+        }
+
+        @Override
+        void line(StringBuilder line) {
+            if (matcher.reset(line).find()) {
+                next.line(line);
+            }
+        }
+    }
+
+    /**
+     * Regex replacement within each line; a replacement holding a line break splits the line, as it
+     * would for a stage reading the replaced text
+     */
+    static final class ReplaceInLines extends Operator {
+        private final Matcher matcher;
+        private final String replacement;
+        private final boolean breaksLines;
+        private final StringBuilder out = new StringBuilder();
+        private final StringBuilder part = new StringBuilder();
+
+        ReplaceInLines(Pattern pattern, String replacement) {
+            this.matcher = pattern.matcher("");
+            this.replacement = replacement;
+            this.breaksLines = replacement.indexOf('\n') >= 0;
+        }
+
+        @Override
+        void line(StringBuilder line) {
+            if (!matcher.reset(line).find()) {
+                next.line(line);
+                return;
+            }
+            out.setLength(0);
+            do {
+                matcher.appendReplacement(out, replacement);
+            } while (matcher.find());
+            matcher.appendTail(out);
+            if (!breaksLines) {
+                next.line(out);
+                return;
+            }
+            int start = 0;
+            for (int end = out.indexOf("\n"); end >= 0; end = out.indexOf("\n", start)) {
+                part.setLength(0);
+                next.line(part.append(out, start, end));
+                start = end + 1;
+            }
+            part.setLength(0);
+            next.line(part.append(out, start, out.length()));
+        }
+    }
+
+    /**
+     * Replacement of a literal without regex syntax, found by plain search
+     */
+    static final class ReplaceLiteral extends Operator {
+        private final String target;
+        private final String replacement;
+        private final StringBuilder out = new StringBuilder();
+
+        ReplaceLiteral(String target, String replacement) {
+            this.target = target;
+            this.replacement = replacement;
+        }
+
+        @Override
+        void line(StringBuilder line) {
+            int match = line.indexOf(target);
+            if (match < 0) {
+                next.line(line);
+                return;
+            }
+            out.setLength(0);
+            int from = 0;
+            while (match >= 0) {
+                out.append(line, from, match).append(replacement);
+                from = match + target.length();
+                match = line.indexOf(target, from);
+            }
+            out.append(line, from, line.length());
+            next.line(out);
+        }
+    }
+
+    static final class RemoveDuplicateLines extends Operator {
+        private final Set<String> seen = new HashSet<>();
+
+        @Override
+        void line(StringBuilder line) {
+            if (seen.add(line.toString())) {
+                next.line(line);
+            }
+        }
+    }
+
+    /**
+     * Duplicate removal on sorted lines, where duplicates are adjacent, without remembering every line
+     */
+    static final class RemoveAdjacentDuplicateLines extends Operator {
+        private final StringBuilder previous = new StringBuilder();
+        private boolean first = true;
+
+        @Override
+        void line(StringBuilder line) {
+            if (!first && previous.compareTo(line) == 0) {
+                return;
+            }
+            first = false;
+            previous.setLength(0);
+            previous.append(line);
+            next.line(line);
+        }
+    }
+
+    /**
+     * Statistics of the text passing through, with the keys of
+     * {@link TextProcessingService#getTextStatistics}; counts are longs
+     */
+    static final class Statistics extends Operator {
+        private final List<Map<String, Object>> results;
+        private final long[] asciiFrequency = new long[128];
+        private final Map<Character, Long> otherFrequency = new HashMap<>();
+        private long[] wordLengths = new long[32];
+        private long characters;
+        private long words;
+        private long sentences;
+        private long paragraphs;
+        private int wordLength;
+        private boolean sentenceBody;
+        private boolean inParagraph;
+        private boolean firstLine = true;
+
+        Statistics(List<Map<String, Object>> results) {
+            this.results = results;
+        }
+
+        @Override
+        void line(StringBuilder line) {
+            if (!firstLine) {
+                count('\n');
+            }
+            firstLine = false;
+            boolean blank = true;
+            for (int i = 0, length = line.length(); i < length; i++) {
+                char c = line.charAt(i);
+                count(c);
+                blank &= Character.isWhitespace(c);
+            }
+            if (!blank && !inParagraph) {
+                paragraphs++;
+            }
+            inParagraph = !blank;
+            next.line(line);
+        }
+
+        @Override
+        void end() {
+            endWord();
+            Map<Integer, Long> wordLengthDistribution = new HashMap<>();
+            for (int length = 1; length < wordLengths.length; length++) {
+                if (wordLengths[length] > 0) {
+                    wordLengthDistribution.put(length, wordLengths[length]);
+                }
+            }
+            Map<Character, Long> characterFrequency = new HashMap<>(otherFrequency);
+            for (char c = 0; c < asciiFrequency.length; c++) {
+                if (asciiFrequency[c] > 0) {
+                    characterFrequency.put(c, asciiFrequency[c]);
+                }
+            }
+            Map<String, Object> stats = new HashMap<>();
+            stats.put("totalCharacters", characters);
+            stats.put("totalWords", words);
+            stats.put("totalSentences", sentences);
+            stats.put("totalParagraphs", paragraphs);
+            stats.put("wordLengthDistribution", wordLengthDistribution);
+            stats.put("characterFrequency", characterFrequency);
+            results.add(stats);
+            next.end();
+        }
+
+        private void count(char c) {
+            characters++;
+            char lower = Character.toLowerCase(c);
+            if (lower < asciiFrequency.length) {
+                asciiFrequency[lower]++;
+            } else {
+                otherFrequency.merge(lower, 1L, Long::sum);
+            }
+            if (WordTokenizer.isWordChar(c)) {
+                wordLength++;
+            } else {
+                endWord();
+            }
+            if (c == '.' || c == '!' || c == '?') {
+                if (sentenceBody) {
+                    sentences++;
+                    sentenceBody = false;
+                }
+            } else {
+                sentenceBody = true;
+            }
+        }
+
+        private void endWord() {
+            if (wordLength > 0) {
+                words++;
+                if (wordLength >= wordLengths.length) {
+                    wordLengths = Arrays.copyOf(wordLengths, Math.max(wordLength + 1, wordLengths.length * 2));
+                }
+                wordLengths[wordLength]++;
+                wordLength = 0;
+            }
+        }
+    }
+
+    // Steps needing every line before producing output
+
+    static final class SortLines extends Operator {
+        private final boolean ascending;
+        private final List<String> lines = new ArrayList<>();
+
+        SortLines(boolean ascending) {
+            this.ascending = ascending;
+        }
+
+        @Override
+        void line(StringBuilder line) {
+            lines.add(line.toString());
+        }
+
+        @Override
+        void end() {
+            lines.sort(ascending ? null : Collections.reverseOrder());
+            StringBuilder line = new StringBuilder();
+            for (int i = 0; i < lines.size(); i++) {
+                line.setLength(0);
+                line.append(lines.get(i));
+                next.line(line);
+                if ((i + 1) % CHECKPOINT_LINES == 0) {
+                    Cancellation.checkpoint();
+                }
+            }
+            lines.clear();
+            next.end();
+        }
+    }
+
+    /**
+     * Regex replacement over the whole text, for patterns that may match across lines
+     */
+    static final class ReplaceInText extends Operator {
+        private final Pattern pattern;
+        private final String replacement;
+        private final StringBuilder text = new StringBuilder();
+        private boolean firstLine = true;
+
+        ReplaceInText(Pattern pattern, String replacement) {
+            this.pattern = pattern;
+            this.replacement = replacement;
+        }
+
+        @Override
+        void line(StringBuilder line) {
+            if (!firstLine) {
+                text.append('\n');
+            }
+            firstLine = false;
+            text.append(line);
+        }
+
+        @Override
+        void end() {
+            Matcher matcher = pattern.matcher(text);
+            StringBuilder out = new StringBuilder(text.length());
+            while (matcher.find()) {
+                matcher.appendReplacement(out, replacement);
+            }
+            matcher.appendTail(out);
+            text.setLength(0);
+            text.trimToSize();
+            feed(out, next);
+        }
+    }
+
+    /**
+     * Whitespace normalization over the whole text: line breaks become spaces, so the output is one line
+     */
+    static final class NormalizeWhitespace extends Operator {
+        private final StringBuilder out = new StringBuilder();
+        private boolean seenText;
+        private boolean pendingSpace;
+        private boolean firstLine = true;
+
+        @Override
+        void line(StringBuilder line) {
+            if (!firstLine) {
+                pendingSpace = seenText;
+            }
+            firstLine = false;
+            for (int i = 0, length = line.length(); i < length; i++) {
+                char c = line.charAt(i);
+                if (Character.isWhitespace(c)) {
+                    pendingSpace = seenText;
+                } else {
+                    if (pendingSpace) {
+                        out.append(' ');
+                        pendingSpace = false;
+                    }
+                    seenText = true;
+                    out.append(c);
+                }
+            }
+        }
+
+        @Override
+        void end() {
+            next.line(out);
+            next.end();
+        }
+    }
+
+    // Sinks
+
+    /**
+     * Collects the output lines into a text
+     */
+    static final class TextSink extends Operator {
+        final StringBuilder text = new StringBuilder();
+        long lines;
+
+        @Override
+        void line(StringBuilder line) {
+            if (lines++ > 0) {
+                text.append('\n');
+            }
+            text.append(line);
+        }
+
+        @Override
+        void end() {
+        }
+    }
+
+    /**
+     * Writes the output lines as they arrive
+     */
+    static final class WriterSink extends Operator {
+        private final Writer writer;
+        private char[] buffer = new char[256];
+        long lines;
+
+        WriterSink(Writer writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        void line(StringBuilder line) {
+            try {
+                if (lines++ > 0) {
+                    writer.write('\n');
+                }
+                int length = line.length();
+                if (length > buffer.length) {
+                    buffer = new char[Math.max(length, buffer.length * 2)];
+                }
+                line.getChars(0, length, buffer, 0);
+                writer.write(buffer, 0, length);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        void end() {
+            try {
+                writer.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.dataflow.textprocessing.service.impl;
+
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.stream.IntStream;
+
+/**
+ * Bit vector with constant time rank, backed by heap or memory mapped buffers.
+ * A cumulative count is kept for every 512 bits, the remainder is counted with popcount.
+ */
+final class RankBitVector {
+    static final int BLOCK_SHIFT = 9;
+    private static final int WORDS_PER_BLOCK = 1 << (BLOCK_SHIFT - 6);
+
+    private final LongBuffer words;
+    private final IntBuffer blockRanks;
+    private final int length;
+
+    RankBitVector(LongBuffer words, IntBuffer blockRanks, int length) {
+        this.words = words;
+        this.blockRanks = blockRanks;
+        this.length = length;
+    }
+
+    /**
+     * Build the rank directory for the given bits, counting blocks in parallel
+     */
+    static RankBitVector build(long[] words, int length) {
+        int blocks = blockCount(length);
+        int[] ranks = new int[blocks];
+        IntStream.range(1, blocks).parallel().forEach(block -> {
+            int count = 0;
+            int from = (block - 1) * WORDS_PER_BLOCK;
+            int to = Math.min(from + WORDS_PER_BLOCK, words.length);
+            for (int w = from; w < to; w++) {
+                count += Long.bitCount(words[w]);
+            }
+            ranks[block] = count;
+        });
+        for (int block = 1; block < blocks; block++) {
+            ranks[block] += ranks[block - 1];
+        }
+        return new RankBitVector(LongBuffer.wrap(words), IntBuffer.wrap(ranks), length);
+    }
+
+    static int wordCount(int length) {
+        return (length + 63) >>> 6;
+    }
+
+    static int blockCount(int length) {
+        return (length >>> BLOCK_SHIFT) + 1;
+    }
+
+    boolean get(int i) {
+        return ((words.get(i >>> 6) >>> (i & 63)) & 1L) != 0;
+    }
+
+    /**
+     * Number of set bits in [0, i)
+     */
+    int rank1(int i) {
+        int block = i >>> BLOCK_SHIFT;
+        int rank = blockRanks.get(block);
+        int end = i >>> 6;
+        for (int w = block * WORDS_PER_BLOCK; w < end; w++) {
+            rank += Long.bitCount(words.get(w));
+        }
+        int bit = i & 63;
+        if (bit != 0) {
+            rank += Long.bitCount(words.get(end) & ((1L << bit) - 1));
+        }
+        return rank;
+    }
+
+    /**
+     * Number of clear bits in [0, i)
+     */
+    int rank0(int i) {
+        return i - rank1(i);
+    }
+
+    int length() {
+        return length;
+    }
+
+    LongBuffer words() {
+        return words.duplicate().rewind();
+    }
+
+    IntBuffer blockRanks() {
+        return blockRanks.duplicate().rewind();
+    }
+}
@@ -0,0 +1,514 @@
+package com.dataflow.textprocessing.service.impl;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Derives a {@link TrigramQuery} from a regular expression, following the approach of Google Code Search:
+ * each sub-expression is summarised by the exact strings, prefixes and suffixes it can match, and
+ * the trigrams those strings must contain are folded into the query as the expression is combined.
+ * All strings are lower cased, so the query is valid against an index of lower cased text regardless
+ * of case sensitivity. Constructs the parser does not understand degrade to {@link TrigramQuery#ALL}, as
+ * do Unicode case-insensitive patterns ({@code (?iu)}), under which ASCII letters also match characters
+ * such as 'ſ' and 'ı' that lower case to themselves.
+ */
+final class RegexTrigramExtractor {
+    private static final int MAX_SET_SIZE = 32;
+    private static final int MAX_EXACT_LENGTH = 64;
+    private static final int MAX_CLASS_SIZE = 8;
+
+    private final String pattern;
+    private int pos;
+    private boolean caseInsensitive;
+    private boolean unicodeCase;
+
+    private RegexTrigramExtractor(String pattern) {
+        this.pattern = pattern;
+    }
+
+    /**
+     * Build the trigram query for a pattern that already compiled successfully
+     */
+    static TrigramQuery extract(String pattern) {
+        try {
+            RegexTrigramExtractor extractor = new RegexTrigramExtractor(pattern);
+            Info info = extractor.parseAlternation();
+            if (extractor.pos != pattern.length() || extractor.caseInsensitive && extractor.unicodeCase) {
+                return TrigramQuery.ALL;
+            }
+            return info.toQuery();
+        } catch (UnsupportedSyntaxException | IndexOutOfBoundsException | NumberFormatException e) {
+            return TrigramQuery.ALL;
+        }
+    }
+
+    private Info parseAlternation() {
+        Info result = parseConcatenation();
+        while (pos < pattern.length() && pattern.charAt(pos) == '|') {
+            pos++;
+            result = Info.alternate(result, parseConcatenation());
+        }
+        return result;
+    }
+
+    private Info parseConcatenation() {
+        Info result = Info.emptyString();
+        while (pos < pattern.length() && pattern.charAt(pos) != '|' && pattern.charAt(pos) != ')') {
+            result = Info.concat(result, parseRepetition());
+        }
+        return result;
+    }
+
+    private Info parseRepetition() {
+        Info atom = parseAtom();
+        while (pos < pattern.length()) {
+            char c = pattern.charAt(pos);
+            if (c == '*') {
+                pos++;
+                atom = Info.anyString();
+            } else if (c == '+') {
+                pos++;
+                atom = Info.plus(atom);
+            } else if (c == '?') {
+                pos++;
+                atom = Info.alternate(atom, Info.emptyString());
+            } else if (c == '{') {
+                int close = pattern.indexOf('}', pos);
+                if (close < 0) {
+                    throw new UnsupportedSyntaxException();
+                }
+                String[] bounds = pattern.substring(pos + 1, close).split(",", -1);
+                int min = Integer.parseInt(bounds[0].trim());
+                pos = close + 1;
+                atom = min == 0 ? Info.anyString() : Info.plus(atom);
+            } else {
+                break;
+            }
+            // Lazy and possessive modifiers do not change what can match
+            if (pos < pattern.length() && (pattern.charAt(pos) == '?' || pattern.charAt(pos) == '+')) {
+                pos++;
+            }
+        }
+        return atom;
+    }
+
+    private Info parseAtom() {
+        char c = pattern.charAt(pos++);
+        switch (c) {
+            case '(':
+                return parseGroup();
+            case '[':
+                return parseClass();
+            case '.':
+                return Info.anyChar();
+            case '^':
+            case '$':
+                return Info.emptyString();
+            case '\\':
+                return parseEscape();
+            case '*':
+            case '+':
+            case '?':
+            case '{':
+            case ')':
+                throw new UnsupportedSyntaxException();
+            default:
+                return literal(c);
+        }
+    }
+
+    private Info parseGroup() {
+        boolean zeroWidth = false;
+        if (pattern.startsWith("?", pos)) {
+            pos++;
+            if (pattern.startsWith("=", pos) || pattern.startsWith("!", pos)) {
+                pos++;
+                zeroWidth = true;
+            } else if (pattern.startsWith("<=", pos) || pattern.startsWith("<!", pos)) {
+                pos += 2;
+                zeroWidth = true;
+            } else if (pattern.startsWith("<", pos)) {
+                pos = pattern.indexOf('>', pos) + 1;
+            } else if (pattern.startsWith(":", pos) || pattern.startsWith(">", pos)) {
+                pos++;
+            } else {
+                return parseFlags();
+            }
+        }
+        Info inner = parseAlternation();
+        expect(')');
+        return zeroWidth ? Info.emptyString() : inner;
+    }
+
+    private Info parseFlags() {
+        boolean enable = true;
+        while (true) {
+            char c = pattern.charAt(pos++);
+            if (c == ')') {
+                return Info.emptyString();
+            } else if (c == ':') {
+                Info inner = parseAlternation();
+                expect(')');
+                return inner;
+            } else if (c == '-') {
+                enable = false;
+            } else if (c == 'x') {
+                // Comments mode changes how the rest of the pattern is tokenized
+                throw new UnsupportedSyntaxException();
+            } else if (c == 'i' && enable) {
+                caseInsensitive = true;
+            } else if ((c == 'u' || c == 'U') && enable) {
+                // Unicode character classes imply Unicode case folding
+                unicodeCase = true;
+            }
+        }
+    }
+
+    private Info parseClass() {
+        Set<String> chars = new HashSet<>();
+        boolean exact = true;
+        if (pattern.startsWith("^", pos)) {
+            pos++;
+            exact = false;
+        }
+        boolean first = true;
+        int depth = 1;
+        while (depth > 0) {
+            char c = pattern.charAt(pos++);
+            if (c == ']' && !first) {
+                depth--;
+            } else if (c == '[') {
+                depth++;
+                exact = false;
+            } else if (c == '&' && pattern.startsWith("&", pos)) {
+                exact = false;
+            } else if (c == '\\') {
+                if (pattern.startsWith("Q", pos)) {
+                    int end = pattern.indexOf("\\E", pos);
+                    pos = end < 0 ? pattern.length() : end + 2;
+                    exact = false;
+                } else {
+                    char escaped = pattern.charAt(pos++);
+                    if (Character.isLetterOrDigit(escaped)) {
+                        exact = false;
+                    } else {
+                        addClassChar(chars, escaped);
+                    }
+                }
+            } else if (pattern.startsWith("-", pos) && pos + 1 < pattern.length()
+                    && pattern.charAt(pos + 1) != ']' && pattern.charAt(pos + 1) != '[') {
+                char end = pattern.charAt(pos + 1);
+                pos += 2;
+                if (end == '\\' || end - c >= MAX_CLASS_SIZE || end < c) {
+                    exact = false;
+                    if (end == '\\') {
+                        pos++;
+                    }
+                } else {
+                    for (char r = c; r <= end; r++) {
+                        addClassChar(chars, r);
+                    }
+                }
+            } else {
+                addClassChar(chars, c);
+            }
+            first = false;
+        }
+        if (!exact || chars.contains(null) || chars.isEmpty() || chars.size() > MAX_CLASS_SIZE) {
+            return Info.anyChar();
+        }
+        return Info.literal(chars);
+    }
+
+    private void addClassChar(Set<String> chars, char c) {
+        if (caseInsensitive && c >= 128) {
+            // Unicode case folding can match characters whose lower case form differs
+            chars.add(null);
+        } else {
+            chars.add(String.valueOf(Character.toLowerCase(c)));
+        }
+    }
+
+    private Info parseEscape() {
+        char c = pattern.charAt(pos++);
+        switch (c) {
+            case 'Q': {
+                int end = pattern.indexOf("\\E", pos);
+                String quoted = pattern.substring(pos, end < 0 ? pattern.length() : end);
+                pos = end < 0 ? pattern.length() : end + 2;
+                Info result = Info.emptyString();
+                for (int i = 0; i < quoted.length(); i++) {
+                    result = Info.concat(result, literal(quoted.charAt(i)));
+                }
+                return result;
+            }
+            case 'b':
+            case 'B':
+            case 'A':
+            case 'G':
+            case 'z':
+            case 'Z':
+                return Info.emptyString();
+            case 't':
+                return literal('\t');
+            case 'n':
+                return literal('\n');
+            case 'r':
+                return literal('\r');
+            case 'f':
+                return literal('\f');
+            case 'a':
+                return literal('\u0007');
+            case 'e':
+                return literal('\u001B');
+            case 'c':
+                return literal((char) (pattern.charAt(pos++) ^ 64));
+            case 'x': {
+                int codePoint;
+                if (pattern.startsWith("{", pos)) {
+                    int close = pattern.indexOf('}', pos);
+                    codePoint = Integer.parseInt(pattern.substring(pos + 1, close), 16);
+                    pos = close + 1;
+                } else {
+                    codePoint = Integer.parseInt(pattern.substring(pos, pos + 2), 16);
+                    pos += 2;
+                }
+                return literalCodePoint(codePoint);
+            }
+            case 'u': {
+                int codePoint = Integer.parseInt(pattern.substring(pos, pos + 4), 16);
+                pos += 4;
+                return literal((char) codePoint);
+            }
+            case '0': {
+                int end = pos;
+                while (end < pattern.length() && end - pos < 3 && pattern.charAt(end) >= '0' && pattern.charAt(end) <= '7') {
+                    end++;
+                }
+                int codePoint = Integer.parseInt(pattern.substring(pos, end), 8);
+                pos = end;
+                return literal((char) codePoint);
+            }
+            case 'p':
+            case 'P':
+            case 'N':
+                if (pattern.startsWith("{", pos)) {
+                    pos = pattern.indexOf('}', pos) + 1;
+                } else if (c != 'N') {
+                    pos++;
+                }
+                return Info.anyChar();
+            case 'k':
+                pos = pattern.indexOf('>', pos) + 1;
+                return Info.anyString();
+            default:
+                if (c >= '1' && c <= '9') {
+                    // Back references can match anything, including nothing
+                    while (pos < pattern.length() && Character.isDigit(pattern.charAt(pos))) {
+                        pos++;
+                    }
+                    return Info.anyString();
+                }
+                if (Character.isLetter(c)) {
+                    // \d, \w, \s, \h, \v, \R, \X and their negations
+                    return Info.anyChar();
+                }
+                return literal(c);
+        }
+    }
+
+    private Info literalCodePoint(int codePoint) {
+        if (Character.isBmpCodePoint(codePoint)) {
+            return literal((char) codePoint);
+        }
+        return Info.concat(literal(Character.highSurrogate(codePoint)), literal(Character.lowSurrogate(codePoint)));
+    }
+
+    private Info literal(char c) {
+        if (caseInsensitive && c >= 128) {
+            return Info.anyChar();
+        }
+        return Info.literal(Set.of(String.valueOf(Character.toLowerCase(c))));
+    }
+
+    private void expect(char c) {
+        if (pos >= pattern.length() || pattern.charAt(pos) != c) {
+            throw new UnsupportedSyntaxException();
+        }
+        pos++;
+    }
+
+    private static class UnsupportedSyntaxException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        UnsupportedSyntaxException() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * What is known about the strings a sub-expression matches. {@code exact} is null when unknown;
+     * {@code prefix} and {@code suffix} always hold valid (possibly empty) prefixes and suffixes.
+     */
+    private static final class Info {
+        boolean emptyable;
+        Set<String> exact;
+        Set<String> prefix;
+        Set<String> suffix;
+        TrigramQuery match = TrigramQuery.ALL;
+
+        static Info emptyString() {
+            Info info = new Info();
+            info.emptyable = true;
+            info.exact = Set.of("");
+            info.prefix = Set.of("");
+            info.suffix = Set.of("");
+            return info;
+        }
+
+        static Info anyChar() {
+            Info info = new Info();
+            info.prefix = Set.of("");
+            info.suffix = Set.of("");
+            return info;
+        }
+
+        static Info anyString() {
+            Info info = anyChar();
+            info.emptyable = true;
+            return info;
+        }
+
+        static Info literal(Set<String> chars) {
+            Info info = new Info();
+            info.exact = chars;
+            info.prefix = chars;
+            info.suffix = chars;
+            return info;
+        }
+
+        static Info concat(Info x, Info y) {
+            Info info = new Info();
+            info.emptyable = x.emptyable && y.emptyable;
+            info.match = TrigramQuery.and(x.match, y.match);
+            if (x.exact != null && y.exact != null) {
+                Set<String> exact = cross(x.exact, y.exact);
+                if (exact != null && exact.size() <= MAX_SET_SIZE) {
+                    info.exact = exact;
+                }
+            }
+
+            Set<String> prefix = x.exact != null ? cross(x.exact, y.prefix) : null;
+            if (prefix == null) {
+                prefix = x.emptyable ? union(x.prefix, y.prefix) : x.prefix;
+            }
+            Set<String> suffix = y.exact != null ? cross(x.suffix, y.exact) : null;
+            if (suffix == null) {
+                suffix = y.emptyable ? union(x.suffix, y.suffix) : y.suffix;
+            }
+            info.prefix = prefix;
+            info.suffix = suffix;
+
+            if (info.exact == null) {
+                // Every match contains a suffix of x immediately followed by a prefix of y
+                Set<String> boundary = cross(x.suffix, y.prefix);
+                if (boundary != null) {
+                    info.match = TrigramQuery.and(info.match, TrigramQuery.anyOf(boundary));
+                }
+            }
+            return info.simplify();
+        }
+
+        static Info alternate(Info x, Info y) {
+            Info info = new Info();
+            info.emptyable = x.emptyable || y.emptyable;
+            if (x.exact != null && y.exact != null) {
+                info.exact = union(x.exact, y.exact);
+                info.match = TrigramQuery.or(x.match, y.match);
+            } else {
+                info.match = TrigramQuery.or(x.foldExact(), y.foldExact());
+            }
+            info.prefix = union(x.prefix, y.prefix);
+            info.suffix = union(x.suffix, y.suffix);
+            return info.simplify();
+        }
+
+        static Info plus(Info x) {
+            Info info = new Info();
+            info.emptyable = x.emptyable;
+            info.match = x.foldExact();
+            info.prefix = x.prefix;
+            info.suffix = x.suffix;
+            return info;
+        }
+
+        /**
+         * The match query with the exact strings folded in, for use once the exact set is dropped
+         */
+        TrigramQuery foldExact() {
+            return exact == null ? match : TrigramQuery.and(match, TrigramQuery.anyOf(exact));
+        }
+
+        TrigramQuery toQuery() {
+            if (exact != null) {
+                return foldExact();
+            }
+            return TrigramQuery.and(match, TrigramQuery.and(TrigramQuery.anyOf(prefix), TrigramQuery.anyOf(suffix)));
+        }
+
+        private Info simplify() {
+            if (exact != null && (exact.size() > MAX_SET_SIZE || exact.stream().anyMatch(s -> s.length() > MAX_EXACT_LENGTH))) {
+                match = foldExact();
+                exact = null;
+            }
+            if (exact == null) {
+                prefix = shrink(prefix, true);
+                suffix = shrink(suffix, false);
+            }
+            return this;
+        }
+
+        /**
+         * Save the trigrams of long prefixes (or suffixes) into the match query, then keep only their
+         * first (or last) two characters, shortening further while the set is too large
+         */
+        private Set<String> shrink(Set<String> strings, boolean keepStart) {
+            if (strings.stream().anyMatch(s -> s.length() >= 3)) {
+                match = TrigramQuery.and(match, TrigramQuery.anyOf(strings));
+            }
+            for (int keep = 2; keep >= 0; keep--) {
+                Set<String> shortened = new HashSet<>();
+                for (String s : strings) {
+                    if (s.length() <= keep) {
+                        shortened.add(s);
+                    } else {
+                        shortened.add(keepStart ? s.substring(0, keep) : s.substring(s.length() - keep));
+                    }
+                }
+                if (shortened.size() <= MAX_SET_SIZE) {
+                    return shortened;
+                }
+            }
+            return Set.of("");
+        }
+
+        private static Set<String> cross(Set<String> a, Set<String> b) {
+            if ((long) a.size() * b.size() > MAX_SET_SIZE * MAX_SET_SIZE) {
+                return null;
+            }
+            Set<String> result = new HashSet<>();
+            for (String left : a) {
+                for (String right : b) {
+                    result.add(left + right);
+                }
+            }
+            return result;
+        }
+
+        private static Set<String> union(Set<String> a, Set<String> b) {
+            Set<String> result = new HashSet<>(a);
+            result.addAll(b);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.dataflow.textprocessing.service.impl;
+
+import java.io.ObjectInputFilter;
+
+/**
+ * Deserialization filters for results read back from disk or from worker processes. Results are
+ * expected to be collections, strings and boxed primitives; any other class is rejected before it is
+ * instantiated.
+ */
+final class ResultFilters {
+    private static final String LIMITS = "maxdepth=16;maxrefs=50000000;maxarray=50000000;";
+    // Map$Entry and Object appear as array component types inside collections
+    private static final String VALUE_CLASSES =
+            "java.lang.String;java.lang.Number;java.lang.Long;java.lang.Integer;java.lang.Short;java.lang.Byte;"
+            + "java.lang.Double;java.lang.Float;java.lang.Boolean;java.lang.Character;java.lang.Object;"
+            + "java.util.Map$Entry;java.util.HashMap;java.util.LinkedHashMap;java.util.TreeMap;"
+            + "java.util.ArrayList;java.util.LinkedList;java.util.HashSet;java.util.LinkedHashSet;java.util.TreeSet;"
+            + "java.util.Arrays$ArrayList;java.util.Collections$Unmodifiable*;java.util.Collections$Empty*;"
+            + "java.util.Collections$Singleton*;java.util.ImmutableCollections$*;java.util.CollSer;";
+
+    /**
+     * Collections, strings and boxed primitives only
+     */
+    static final ObjectInputFilter VALUES = ObjectInputFilter.Config.createFilter(LIMITS + VALUE_CLASSES + "!*");
+
+    private ResultFilters() {
+    }
+
+    /**
+     * Collections, strings and boxed primitives, and the classes of one package
+     * @param packageName Package whose classes are also allowed, such as that of the operation
+     *                    producing the results
+     */
+    static ObjectInputFilter valuesAnd(String packageName) {
+        return ObjectInputFilter.Config.createFilter(LIMITS + VALUE_CLASSES + packageName + ".*;!*");
+    }
+}
@@ -0,0 +1,614 @@
+package com.dataflow.textprocessing.service.impl;
+
+import com.dataflow.textprocessing.exception.TextProcessingException;
+import com.dataflow.textprocessing.model.TextDocument;
+import com.dataflow.textprocessing.service.BatchProcessingService;
+import com.dataflow.textprocessing.util.Cancellation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs batches in worker JVMs started as child processes, so a large batch is spread over several
+ * heaps instead of filling one. The documents are split into shards sent to the workers over their
+ * standard input and output. Each worker takes the next shard as soon as it returns one. For an
+ * {@link IdempotentOperation}, once no shards are left an idle worker runs a copy of the shard that
+ * has been running longest and the first copy to finish wins, so a slow worker cannot hold up the end
+ * of a batch. A worker that dies is restarted and its shard handed out again, so documents of that
+ * shard may be processed more than once; a shard that kills {@value #MAX_SHARD_ATTEMPTS} workers fails
+ * instead. Results are delivered in document order per shard, and callbacks run on the calling thread.
+ * <p>
+ * Operations cross the process boundary by class name, so they must be classes with a public
+ * no-argument constructor rather than lambdas. Results other than documents must be serializable, and
+ * are only deserialized as collections, strings, boxed primitives or classes of the operation's own
+ * package. Workers start with the first batch and stay up for later ones. Batches run one at a time.
+ */
+public class ShardedBatchProcessingService implements BatchProcessingService {
+    private static final Logger logger = LoggerFactory.getLogger(ShardedBatchProcessingService.class);
+    private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+
+    static final int DEFAULT_SHARD_SIZE = 64;
+    private static final long MAX_SHARD_CHARS = 2L * 1024 * 1024;
+    private static final int MAX_SHARD_ATTEMPTS = 3;
+    private static final int MAX_RESTARTS = 3;
+    private static final int MAX_COPIES = 2;
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+    private static final long SHUTDOWN_WAIT_MILLIS = 2000;
+
+    private final List<String> command;
+    private final int shardSize;
+    private final Worker[] workers;
+
+    /**
+     * @param workers Number of worker processes
+     */
+    public ShardedBatchProcessingService(int workers) {
+        this(workers, DEFAULT_SHARD_SIZE, List.of());
+    }
+
+    /**
+     * @param workers Number of worker processes
+     * @param shardSize Maximum number of documents per shard; shards also stop at about 2M characters
+     * @param jvmOptions Options of the worker JVMs, such as their heap size
+     */
+    public ShardedBatchProcessingService(int workers, int shardSize, List<String> jvmOptions) {
+        if (workers < 1 || shardSize < 1) {
+            throw new IllegalArgumentException("Workers and shard size must be positive");
+        }
+        this.command = workerCommand(jvmOptions);
+        this.shardSize = shardSize;
+        this.workers = new Worker[workers];
+        int pool = POOL_NUMBER.incrementAndGet();
+        for (int i = 0; i < workers; i++) {
+            this.workers[i] = new Worker("sharded-batch-" + pool + "-worker-" + (i + 1));
+        }
+    }
+
+    @Override
+    public List<TextDocument> processBatch(List<TextDocument> documents) {
+        return processBatchWithOperation(documents, new ProcessTextOperation());
+    }
+
+    @Override
+    public CompletableFuture<List<TextDocument>> processBatchAsync(List<TextDocument> documents) {
+        return CompletableFuture.supplyAsync(() -> processBatch(documents));
+    }
+
+    @Override
+    public void processBatchWithProgress(List<TextDocument> documents, BatchProcessingCallback callback) {
+        logger.info("Starting sharded batch processing of {} documents", documents.size());
+        TextDocument[] results = new TextDocument[documents.size()];
+        int[] done = {0};
+        int failed = run(documents, new ProcessTextOperation(), BatchWorker.PER_DOCUMENT, (shard, values, errors) -> {
+            for (int i = 0; i < shard.count; i++) {
+                int index = shard.start + i;
+                if (errors[i] != null) {
+                    logger.error("Error processing document {}: {}", documents.get(index).getId(), errors[i].getMessage());
+                    callback.onError(documents.get(index), errors[i]);
+                } else {
+                    results[index] = (TextDocument) values[i];
+                    callback.onDocumentProcessed(results[index]);
+                }
+                callback.onProgress(++done[0], documents.size());
+            }
+        });
+        List<TextDocument> processed = new ArrayList<>(documents.size() - failed);
+        for (TextDocument result : results) {
+            if (result != null) {
+                processed.add(result);
+            }
+        }
+        logger.info("Finished sharded batch processing: {} processed, {} failed", processed.size(), failed);
+        callback.onComplete(processed);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> List<T> processBatchWithOperation(List<TextDocument> documents, BatchOperation<T> operation) {
+        List<T> results = new ArrayList<>(documents.size());
+        for (int i = 0; i < documents.size(); i++) {
+            results.add(null);
+        }
+        run(documents, operation, BatchWorker.PER_DOCUMENT, (shard, values, errors) -> {
+            for (int i = 0; i < shard.count; i++) {
+                if (errors[i] != null) {
+                    logger.error("Error processing document {}: {}", documents.get(shard.start + i).getId(), errors[i].getMessage());
+                    throw new TextProcessingException("Batch processing failed", errors[i]);
+                }
+                results.set(shard.start + i, (T) values[i]);
+            }
+        });
+        return results;
+    }
+
+    /**
+     * Run an aggregate over all documents: each worker merges the results of a shard, and the shard
+     * results are merged into one
+     * @param documents Documents to aggregate
+     * @param operation Aggregate to compute
+     * @return The merged result, or null for no documents
+     */
+    @SuppressWarnings("unchecked")
+    public <A> A aggregate(List<TextDocument> documents, AggregateOperation<A> operation) {
+        Object[] merged = {null};
+        run(documents, operation, BatchWorker.AGGREGATE, (shard, values, errors) -> {
+            if (errors[0] != null) {
+                throw new TextProcessingException("Batch aggregation failed", errors[0]);
+            }
+            A result = (A) values[0];
+            merged[0] = merged[0] == null ? result : operation.merge((A) merged[0], result);
+        });
+        return (A) merged[0];
+    }
+
+    /**
+     * Count the words of all documents, lower cased as in word frequency analysis
+     * @param documents Documents to analyse
+     * @return Occurrences of each word over all documents
+     */
+    public Map<String, Long> wordFrequencies(List<TextDocument> documents) {
+        Map<String, Long> frequencies = aggregate(documents, new WordFrequencyOperation());
+        return frequencies == null ? new HashMap<>() : frequencies;
+    }
+
+    /**
+     * Number of worker processes running
+     */
+    public int getRunningWorkers() {
+        int running = 0;
+        for (Worker worker : workers) {
+            running += worker.isRunning() ? 1 : 0;
+        }
+        return running;
+    }
+
+    /**
+     * Stop the worker processes; batches still running are cancelled
+     */
+    public void shutdown() {
+        for (Worker worker : workers) {
+            worker.shutdown();
+        }
+    }
+
+    /**
+     * Split the documents into shards, run them on the workers and hand each shard's outcome to the
+     * consumer on the calling thread
+     * @return Number of failed documents
+     */
+    private synchronized int run(List<TextDocument> documents, BatchOperation<?> operation, byte mode,
+                                 ShardConsumer consumer) {
+        Class<?> operationClass = operation.getClass();
+        if (operationClass.isSynthetic() || operationClass.isAnonymousClass() || operationClass.isLocalClass()) {
+            throw new IllegalArgumentException("Operations of a sharded batch must be named classes: " + operationClass.getName());
+        }
+        Batch batch = new Batch(operationClass.getName(), mode, operation instanceof IdempotentOperation,
+                ResultFilters.valuesAnd(operationClass.getPackageName()), documents, shard(documents));
+        if (batch.shards.isEmpty()) {
+            return 0;
+        }
+        for (Worker worker : workers) {
+            worker.executor.execute(() -> worker.dispatch(batch));
+        }
+        int failed = 0;
+        try {
+            for (int done = 0; done < batch.shards.size(); done++) {
+                Cancellation.checkpoint();
+                Object outcome = batch.completed.take();
+                if (outcome instanceof RuntimeException) {
+                    throw (RuntimeException) outcome;
+                }
+                ShardResult result = (ShardResult) outcome;
+                for (Exception error : result.errors) {
+                    failed += error != null ? 1 : 0;
+                }
+                consumer.accept(result.shard, result.values, result.errors);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Batch processing cancelled");
+        } finally {
+            // Workers finish the shard they are running and take no more
+            batch.stop();
+        }
+        return failed;
+    }
+
+    /**
+     * Split documents into consecutive shards of at most the shard size and about the character limit
+     */
+    private List<Shard> shard(List<TextDocument> documents) {
+        List<Shard> shards = new ArrayList<>();
+        int start = 0;
+        long chars = 0;
+        for (int i = 0; i < documents.size(); i++) {
+            chars += documents.get(i).getContent().length();
+            if (i + 1 - start == shardSize || chars >= MAX_SHARD_CHARS || i == documents.size() - 1) {
+                shards.add(new Shard(shards.size(), start, i + 1 - start));
+                start = i + 1;
+                chars = 0;
+            }
+        }
+        return shards;
+    }
+
+    private static List<String> workerCommand(List<String> jvmOptions) {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(jvmOptions);
+        Module module = BatchWorker.class.getModule();
+        String modulePath = System.getProperty("jdk.module.path");
+        String classPath = System.getProperty("java.class.path", "");
+        if (module.isNamed() && modulePath != null) {
+            command.add("--module-path");
+            command.add(modulePath);
+            if (!classPath.isEmpty()) {
+                command.add("-cp");
+                command.add(classPath);
+            }
+            command.add("--module");
+            command.add(module.getName() + "/" + BatchWorker.class.getName());
+        } else {
+            command.add("-cp");
+            command.add(classPath);
+            command.add(BatchWorker.class.getName());
+        }
+        return command;
+    }
+
+    /**
+     * Operation that may safely run more than once on the same document, having no effects besides its
+     * result, so that copies of straggling shards may run on idle workers
+     */
+    public interface IdempotentOperation<T> extends BatchOperation<T> {
+    }
+
+    /**
+     * Operation whose results merge into one, so workers return one merged result per shard
+     */
+    public interface AggregateOperation<A> extends BatchOperation<A> {
+        /**
+         * Merge two results; may update and return the first
+         */
+        A merge(A left, A right);
+    }
+
+    /**
+     * The default processing of {@link BatchProcessingServiceImpl}, run in a worker
+     */
+    public static final class ProcessTextOperation implements IdempotentOperation<TextDocument> {
+        private final TextProcessingServiceImpl processingService = new TextProcessingServiceImpl();
+
+        @Override
+        public TextDocument process(TextDocument document) {
+            return processingService.processBatch(List.of(document)).get(0);
+        }
+    }
+
+    /**
+     * Word counts of documents, merged by adding the counts
+     */
+    public static final class WordFrequencyOperation
+            implements AggregateOperation<Map<String, Long>>, IdempotentOperation<Map<String, Long>> {
+        private final TextAnalysisServiceImpl analysisService = new TextAnalysisServiceImpl();
+
+        @Override
+        public Map<String, Long> process(TextDocument document) {
+            return analysisService.analyzeWordFrequency(document);
+        }
+
+        @Override
+        public Map<String, Long> merge(Map<String, Long> left, Map<String, Long> right) {
+            if (left.size() < right.size()) {
+                Map<String, Long> smaller = left;
+                left = right;
+                right = smaller;
+            }
+            Map<String, Long> merged = left;
+            right.forEach((word, count) -> merged.merge(word, count, Long::sum));
+            return merged;
+        }
+    }
+
+    /**
+     * Consecutive documents sent to a worker together
+     */
+    private static final class Shard {
+        final int id;
+        final int start;
+        final int count;
+        // Guarded by the batch
+        int copies;
+        int attempts;
+        long startedNanos;
+        boolean done;
+
+        Shard(int id, int start, int count) {
+            this.id = id;
+            this.start = start;
+            this.count = count;
+        }
+    }
+
+    private static final class ShardResult {
+        final Shard shard;
+        final Object[] values;
+        final Exception[] errors;
+
+        ShardResult(Shard shard, Object[] values, Exception[] errors) {
+            this.shard = shard;
+            this.values = values;
+            this.errors = errors;
+        }
+    }
+
+    /**
+     * Shards of one batch and their assignment to workers
+     */
+    private final class Batch {
+        final String operationClass;
+        final byte mode;
+        final boolean speculative;
+        final ObjectInputFilter resultFilter;
+        final List<TextDocument> documents;
+        final List<Shard> shards;
+        final BlockingQueue<Object> completed = new LinkedBlockingQueue<>();
+        private final ArrayDeque<Shard> queue;
+        private int remaining;
+        private int dispatchers = workers.length;
+        private boolean stopped;
+
+        Batch(String operationClass, byte mode, boolean speculative, ObjectInputFilter resultFilter,
+              List<TextDocument> documents, List<Shard> shards) {
+            this.operationClass = operationClass;
+            this.mode = mode;
+            this.speculative = speculative;
+            this.resultFilter = resultFilter;
+            this.documents = documents;
+            this.shards = shards;
+            this.queue = new ArrayDeque<>(shards);
+            this.remaining = shards.size();
+        }
+
+        /**
+         * Take the next shard, or for a speculative batch a copy of the longest running one once none
+         * are queued; waits while no shard can be taken, since a worker may still die and leave its
+         * shard queued
+         * @return The shard, or null once the batch is complete or stopped
+         */
+        synchronized Shard next() throws InterruptedException {
+            while (!stopped && remaining > 0) {
+                Shard shard = queue.poll();
+                if (shard == null && speculative) {
+                    for (Shard running : shards) {
+                        if (!running.done && running.copies > 0 && running.copies < MAX_COPIES
+                                && (shard == null || running.startedNanos < shard.startedNanos)) {
+                            shard = running;
+                        }
+                    }
+                    if (shard != null) {
+                        logger.debug("Running a copy of straggling shard {}", shard.id);
+                    }
+                }
+                if (shard != null) {
+                    if (shard.copies++ == 0) {
+                        shard.startedNanos = System.nanoTime();
+                    }
+                    return shard;
+                }
+                wait();
+            }
+            return null;
+        }
+
+        /**
+         * Deliver a shard's result unless another copy finished first
+         */
+        synchronized void complete(Shard shard, ShardResult result) {
+            shard.copies--;
+            if (!shard.done) {
+                shard.done = true;
+                remaining--;
+                completed.add(result);
+                notifyAll();
+            }
+        }
+
+        /**
+         * Hand a shard out again after the worker running it died, or fail it if it keeps killing workers
+         */
+        synchronized void workerDied(Shard shard) {
+            shard.copies--;
+            if (shard.done) {
+                return;
+            }
+            if (++shard.attempts >= MAX_SHARD_ATTEMPTS) {
+                int results = mode == BatchWorker.AGGREGATE ? 1 : shard.count;
+                Exception[] errors = new Exception[results];
+                for (int i = 0; i < results; i++) {
+                    errors[i] = new TextProcessingException("Worker process died " + shard.attempts + " times on this shard");
+                }
+                shard.done = true;
+                remaining--;
+                completed.add(new ShardResult(shard, new Object[results], errors));
+            } else if (shard.copies == 0) {
+                queue.addFirst(shard);
+            }
+            notifyAll();
+        }
+
+        synchronized void dispatcherExited() {
+            if (--dispatchers == 0 && remaining > 0 && !stopped) {
+                completed.add(new TextProcessingException("All batch worker processes failed"));
+            }
+        }
+
+        synchronized void stop() {
+            stopped = true;
+            notifyAll();
+        }
+    }
+
+    /**
+     * One worker process, restarted when it dies, and the thread exchanging shards with it
+     */
+    private final class Worker {
+        final String name;
+        final ExecutorService executor;
+        private volatile Process process;
+        private DataOutputStream out;
+        private DataInputStream in;
+
+        Worker(String name) {
+            this.name = name;
+            this.executor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        /**
+         * Run shards of the batch until it is complete or stopped, or this worker failed too often
+         */
+        void dispatch(Batch batch) {
+            int restarts = 0;
+            try {
+                Shard shard;
+                while ((shard = batch.next()) != null) {
+                    try {
+                        batch.complete(shard, execute(batch, shard));
+                    } catch (IOException | RuntimeException e) {
+                        logger.warn("Batch worker {} failed on shard {}: {}", name, shard.id, e.toString());
+                        destroy();
+                        batch.workerDied(shard);
+                        if (++restarts > MAX_RESTARTS) {
+                            logger.error("Batch worker {} failed {} times, leaving the batch to the other workers", name, restarts);
+                            return;
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                batch.dispatcherExited();
+            }
+        }
+
+        boolean isRunning() {
+            Process current = process;
+            return current != null && current.isAlive();
+        }
+
+        private ShardResult execute(Batch batch, Shard shard) throws IOException {
+            ensureStarted();
+            out.writeInt(shard.id);
+            out.writeByte(batch.mode);
+            BatchWorker.writeString(out, batch.operationClass);
+            out.writeInt(shard.count);
+            for (int i = shard.start; i < shard.start + shard.count; i++) {
+                TextDocument document = batch.documents.get(i);
+                BatchWorker.writeString(out, document.getName());
+                BatchWorker.writeString(out, document.getContent());
+            }
+            out.flush();
+            int shardId = in.readInt();
+            if (shardId != shard.id) {
+                throw new IOException("Worker answered shard " + shardId + " instead of " + shard.id);
+            }
+            int count = in.readInt();
+            Object[] values = new Object[count];
+            Exception[] errors = new Exception[count];
+            for (int i = 0; i < count; i++) {
+                byte tag = in.readByte();
+                if (tag == BatchWorker.RESULT_DOCUMENT) {
+                    values[i] = new TextDocument(BatchWorker.readString(in), BatchWorker.readString(in));
+                } else if (tag == BatchWorker.RESULT_OBJECT) {
+                    byte[] bytes = new byte[in.readInt()];
+                    in.readFully(bytes);
+                    try (ObjectInputStream objects = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+                        objects.setObjectInputFilter(batch.resultFilter);
+                        values[i] = objects.readObject();
+                    } catch (ClassNotFoundException e) {
+                        errors[i] = new TextProcessingException("Unknown result class", e);
+                    } catch (InvalidClassException e) {
+                        errors[i] = new TextProcessingException("Result is not a collection, string, boxed primitive "
+                                + "or class of the operation's package", e);
+                    }
+                } else if (tag == BatchWorker.RESULT_ERROR) {
+                    errors[i] = new TextProcessingException(BatchWorker.readString(in));
+                } else if (tag != BatchWorker.RESULT_NULL) {
+                    throw new IOException("Invalid result tag " + tag + " from worker");
+                }
+            }
+            return new ShardResult(shard, values, errors);
+        }
+
+        private void ensureStarted() throws IOException {
+            if (isRunning()) {
+                return;
+            }
+            Process started = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+            out = new DataOutputStream(new BufferedOutputStream(started.getOutputStream(), STREAM_BUFFER_SIZE));
+            in = new DataInputStream(new BufferedInputStream(started.getInputStream(), STREAM_BUFFER_SIZE));
+            process = started;
+            logger.info("Started batch worker {} as process {}", name, started.pid());
+        }
+
+        private void destroy() {
+            Process current = process;
+            if (current != null) {
+                current.destroyForcibly();
+                process = null;
+            }
+        }
+
+        void shutdown() {
+            executor.shutdownNow();
+            Process current = process;
+            if (current == null) {
+                return;
+            }
+            try {
+                // A worker exits at the end of its input
+                current.getOutputStream().close();
+                if (!current.waitFor(SHUTDOWN_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    current.destroyForcibly();
+                }
+            } catch (IOException e) {
+                current.destroyForcibly();
+            } catch (InterruptedException e) {
+                current.destroyForcibly();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface ShardConsumer {
+        void accept(Shard shard, Object[] values, Exception[] errors);
+    }
+}
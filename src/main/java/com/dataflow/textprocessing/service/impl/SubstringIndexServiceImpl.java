@@ -0,0 +1,247 @@
+package com.dataflow.textprocessing.service.impl;
+
+import com.dataflow.textprocessing.exception.TextProcessingException;
+import com.dataflow.textprocessing.model.TextDocument;
+import com.dataflow.textprocessing.service.SubstringIndexService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.IntStream;
+
+/**
+ * Builds {@link FmIndex} instances with SA-IS and stores them in a memory mappable file.
+ * Building needs about 13 bytes per character at its peak (text symbols, suffix array and SA-IS
+ * working arrays); the suffix array is released before the compressed structures are built.
+ */
+public class SubstringIndexServiceImpl implements SubstringIndexService {
+    private static final Logger logger = LoggerFactory.getLogger(SubstringIndexServiceImpl.class);
+    private static final int MAGIC = 0x5450464D; // "TPFM"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int DEFAULT_SAMPLE_RATE = 32;
+
+    private final int sampleRate;
+
+    public SubstringIndexServiceImpl() {
+        this(DEFAULT_SAMPLE_RATE);
+    }
+
+    /**
+     * @param sampleRate Keep every n-th suffix array entry; higher values save space but slow down locate
+     */
+    public SubstringIndexServiceImpl(int sampleRate) {
+        if (sampleRate < 1) {
+            throw new IllegalArgumentException("Sample rate must be positive: " + sampleRate);
+        }
+        this.sampleRate = sampleRate;
+    }
+
+    @Override
+    public SubstringIndex buildIndex(TextDocument document) {
+        long startTime = System.nanoTime();
+        String text = document.getContent();
+        int n = text.length();
+
+        boolean[] present = new boolean[Character.MAX_VALUE + 1];
+        for (int i = 0; i < n; i++) {
+            present[text.charAt(i)] = true;
+        }
+        int[] symbolOf = new int[Character.MAX_VALUE + 1];
+        int sigma = 0;
+        for (int c = 0; c <= Character.MAX_VALUE; c++) {
+            if (present[c]) {
+                symbolOf[c] = ++sigma;
+            }
+        }
+        char[] alphabet = new char[sigma];
+        for (int c = 0; c <= Character.MAX_VALUE; c++) {
+            if (present[c]) {
+                alphabet[symbolOf[c] - 1] = (char) c;
+            }
+        }
+
+        int[] symbols = new int[n];
+        IntStream.range(0, n).parallel().forEach(i -> symbols[i] = symbolOf[text.charAt(i)] - 1);
+        int[] counts = new int[sigma + 2];
+        counts[1] = 1;
+        for (int symbol : symbols) {
+            counts[symbol + 2]++;
+        }
+        for (int c = 1; c < counts.length; c++) {
+            counts[c] += counts[c - 1];
+        }
+
+        int[] sa = SuffixArrays.saIs(symbols, Math.max(sigma - 1, 0));
+
+        // Rows of the sorted rotations of text + sentinel: row 0 is the sentinel suffix, row r > 0 is sa[r - 1]
+        int rows = n + 1;
+        long[] sampledWords = new long[RankBitVector.wordCount(rows)];
+        IntStream.range(0, sampledWords.length).parallel().forEach(w -> {
+            long word = 0;
+            int end = Math.min(rows, (w + 1) << 6);
+            for (int row = w << 6; row < end; row++) {
+                int position = row == 0 ? n : sa[row - 1];
+                if (position % sampleRate == 0) {
+                    word |= 1L << (row & 63);
+                }
+            }
+            sampledWords[w] = word;
+        });
+        RankBitVector sampled = RankBitVector.build(sampledWords, rows);
+        int[] samples = new int[sampled.rank1(rows)];
+        IntStream.range(0, rows).parallel().forEach(row -> {
+            if (sampled.get(row)) {
+                samples[sampled.rank1(row)] = row == 0 ? n : sa[row - 1];
+            }
+        });
+
+        int[] bwt = new int[rows];
+        IntStream.range(0, rows).parallel().forEach(row -> {
+            int position = row == 0 ? n : sa[row - 1];
+            bwt[row] = position == 0 ? 0 : symbols[position - 1] + 1;
+        });
+        int bits = Math.max(1, 32 - Integer.numberOfLeadingZeros(sigma));
+        WaveletMatrix matrix = WaveletMatrix.build(bwt, bits);
+
+        FmIndex index = new FmIndex(alphabet, counts, matrix, sampled, IntBuffer.wrap(samples), sampleRate, n);
+        logger.debug("Built substring index for document {} ({} chars, {} symbols) in {} ms",
+                document.getId(), n, sigma, (System.nanoTime() - startTime) / 1_000_000);
+        return index;
+    }
+
+    @Override
+    public void save(SubstringIndex index, Path path) {
+        if (!(index instanceof FmIndex)) {
+            throw new TextProcessingException("Unsupported substring index type: " + index.getClass().getName());
+        }
+        FmIndex fm = (FmIndex) index;
+        try {
+            Path tempFile = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+            try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                RankBitVector[] levels = fm.bwt.levels();
+                ByteBuffer header = newBuffer(HEADER_SIZE);
+                header.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(fm.length()).putInt(fm.alphabet.length)
+                        .putInt(levels.length).putInt(fm.sampleRate).putInt(fm.samples.capacity()).putInt(0);
+                write(channel, header);
+
+                ByteBuffer alphabet = newBuffer(align(fm.alphabet.length * 2L));
+                alphabet.asCharBuffer().put(fm.alphabet);
+                write(channel, alphabet);
+                write(channel, intSection(IntBuffer.wrap(fm.counts)));
+                write(channel, intSection(IntBuffer.wrap(fm.bwt.zeros())));
+                for (RankBitVector level : levels) {
+                    writeBitVector(channel, level);
+                }
+                writeBitVector(channel, fm.sampled);
+                write(channel, intSection(fm.samples.duplicate().rewind()));
+            }
+            Files.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            logger.info("Saved substring index of {} chars to {}", fm.length(), path);
+        } catch (IOException e) {
+            logger.error("Error saving substring index to {}: {}", path, e.getMessage());
+            throw new TextProcessingException("Failed to save substring index", e);
+        }
+    }
+
+    @Override
+    public SubstringIndex load(Path path) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = map(channel, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC) {
+                throw new TextProcessingException("Not a substring index file: " + path);
+            }
+            int version = header.getInt();
+            if (version != FORMAT_VERSION) {
+                throw new TextProcessingException("Unsupported substring index format version: " + version);
+            }
+            int length = header.getInt();
+            int sigma = header.getInt();
+            int bits = header.getInt();
+            int rate = header.getInt();
+            int sampleCount = header.getInt();
+            int rows = length + 1;
+
+            long offset = HEADER_SIZE;
+            char[] alphabet = new char[sigma];
+            map(channel, offset, sigma * 2L).asCharBuffer().get(alphabet);
+            offset += align(sigma * 2L);
+            int[] counts = new int[sigma + 2];
+            map(channel, offset, counts.length * 4L).asIntBuffer().get(counts);
+            offset += align(counts.length * 4L);
+            int[] zeros = new int[bits];
+            map(channel, offset, bits * 4L).asIntBuffer().get(zeros);
+            offset += align(bits * 4L);
+
+            RankBitVector[] levels = new RankBitVector[bits];
+            for (int level = 0; level < bits; level++) {
+                levels[level] = mapBitVector(channel, offset, rows);
+                offset += bitVectorSize(rows);
+            }
+            RankBitVector sampled = mapBitVector(channel, offset, rows);
+            offset += bitVectorSize(rows);
+            IntBuffer samples = map(channel, offset, sampleCount * 4L).asIntBuffer();
+
+            logger.info("Mapped substring index of {} chars from {}", length, path);
+            return new FmIndex(alphabet, counts, new WaveletMatrix(levels, zeros), sampled, samples, rate, length);
+        } catch (IOException e) {
+            logger.error("Error loading substring index from {}: {}", path, e.getMessage());
+            throw new TextProcessingException("Failed to load substring index", e);
+        }
+    }
+
+    private static void writeBitVector(FileChannel channel, RankBitVector bitVector) throws IOException {
+        LongBuffer words = bitVector.words();
+        ByteBuffer buffer = newBuffer(RankBitVector.wordCount(bitVector.length()) * 8L);
+        buffer.asLongBuffer().put(words);
+        write(channel, buffer);
+        write(channel, intSection(bitVector.blockRanks()));
+    }
+
+    private static RankBitVector mapBitVector(FileChannel channel, long offset, int length) throws IOException {
+        long wordBytes = RankBitVector.wordCount(length) * 8L;
+        LongBuffer words = map(channel, offset, wordBytes).asLongBuffer();
+        IntBuffer ranks = map(channel, offset + wordBytes, RankBitVector.blockCount(length) * 4L).asIntBuffer();
+        return new RankBitVector(words, ranks, length);
+    }
+
+    private static long bitVectorSize(int length) {
+        return RankBitVector.wordCount(length) * 8L + align(RankBitVector.blockCount(length) * 4L);
+    }
+
+    private static ByteBuffer intSection(IntBuffer values) {
+        ByteBuffer buffer = newBuffer(align(values.remaining() * 4L));
+        buffer.asIntBuffer().put(values);
+        return buffer;
+    }
+
+    private static ByteBuffer newBuffer(long size) {
+        return ByteBuffer.allocate(Math.toIntExact(size)).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.rewind();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static ByteBuffer map(FileChannel channel, long offset, long size) throws IOException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+        return buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+}
@@ -0,0 +1,185 @@
+package com.dataflow.textprocessing.service.impl;
+
+import com.dataflow.textprocessing.model.TextDocument;
+import com.dataflow.textprocessing.service.TextAnalysisService;
+import com.dataflow.textprocessing.util.WordTokenizer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.ref.WeakReference;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Analysis operations built on a single {@link TextMetrics} pass per content. The metrics of the last
+ * analysed content are kept, so asking for statistics, readability and sentence structure of the same
+ * document scans its text once. They are kept for the same String object only and do not keep it
+ * reachable, so recognizing it costs no comparison of the text.
+ */
+public class TextAnalysisServiceImpl implements TextAnalysisService {
+    private static final Logger logger = LoggerFactory.getLogger(TextAnalysisServiceImpl.class);
+    private static final int LONG_WORD_LENGTH = 7;
+    private static final int TOP_WORDS = 10;
+    private static final Set<String> STOP_WORDS = Set.of(
+            "a", "an", "and", "are", "as", "at", "be", "but", "by", "for", "from", "has", "have", "he", "her",
+            "his", "i", "in", "is", "it", "its", "not", "of", "on", "or", "she", "that", "the", "their", "they",
+            "this", "to", "was", "we", "were", "which", "will", "with", "you");
+
+    private final TextRankSummarizer summarizer = new TextRankSummarizer();
+    private volatile ScannedContent lastScanned;
+
+    @Override
+    public Map<String, Long> analyzeWordFrequency(TextDocument document) {
+        logger.debug("Analyzing word frequency in document: {}", document.getName());
+        return countWords(document.getContent());
+    }
+
+    @Override
+    public Map<String, Object> getTextStatistics(TextDocument document) {
+        logger.debug("Getting text statistics for document: {}", document.getName());
+        TextMetrics metrics = metricsOf(document.getContent());
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("totalCharacters", metrics.characters);
+        stats.put("totalWords", metrics.words);
+        stats.put("totalSentences", metrics.sentences);
+        stats.put("totalParagraphs", metrics.paragraphs);
+        stats.put("wordLengthDistribution", metrics.getWordLengthDistribution());
+        stats.put("characterFrequency", metrics.getCharacterFrequency());
+        return stats;
+    }
+
+    @Override
+    public String generateSummary(TextDocument document, int maxSentences) {
+        logger.debug("Generating summary for document: {} with max {} sentences",
+                document.getName(), maxSentences);
+        return summarizer.summarize(document.getContent(), maxSentences);
+    }
+
+    @Override
+    public Map<String, Object> analyzeSentenceStructure(TextDocument document) {
+        logger.debug("Analyzing sentence structure of document: {}", document.getName());
+        TextMetrics metrics = metricsOf(document.getContent());
+        int sentences = metrics.sentences;
+        Map<String, Object> structure = new HashMap<>();
+        structure.put("sentenceCount", sentences);
+        structure.put("questionCount", metrics.questions);
+        structure.put("exclamationCount", metrics.exclamations);
+        structure.put("statementCount", sentences - metrics.questions - metrics.exclamations);
+        structure.put("averageSentenceLength", ratio(metrics.words, sentences));
+        structure.put("minSentenceLength", sentences == 0 ? 0 : metrics.minSentenceLength);
+        structure.put("maxSentenceLength", metrics.maxSentenceLength);
+        structure.put("averageClausesPerSentence", sentences == 0 ? 0.0 : 1.0 + ratio(metrics.clauseSeparators, sentences));
+        structure.put("sentenceLengthDistribution", metrics.getSentenceLengthDistribution());
+        return structure;
+    }
+
+    @Override
+    public Map<String, Double> analyzeReadability(TextDocument document) {
+        logger.debug("Analyzing readability of document: {}", document.getName());
+        TextMetrics metrics = metricsOf(document.getContent());
+        Map<String, Double> readability = new HashMap<>();
+        double words = metrics.words;
+        if (words == 0) {
+            for (String key : List.of("fleschReadingEase", "fleschKincaidGrade", "gunningFog", "smogIndex",
+                    "colemanLiauIndex", "automatedReadabilityIndex", "averageWordsPerSentence", "averageSyllablesPerWord")) {
+                readability.put(key, 0.0);
+            }
+            return readability;
+        }
+        // Text without a sentence terminator still reads as one sentence
+        double sentences = Math.max(metrics.sentences, 1);
+        double wordsPerSentence = words / sentences;
+        double syllablesPerWord = metrics.syllables / words;
+        double lettersPer100Words = metrics.letters * 100.0 / words;
+        double sentencesPer100Words = sentences * 100.0 / words;
+
+        readability.put("fleschReadingEase", 206.835 - 1.015 * wordsPerSentence - 84.6 * syllablesPerWord);
+        readability.put("fleschKincaidGrade", 0.39 * wordsPerSentence + 11.8 * syllablesPerWord - 15.59);
+        readability.put("gunningFog", 0.4 * (wordsPerSentence + 100.0 * metrics.complexWords / words));
+        readability.put("smogIndex", 1.0430 * Math.sqrt(metrics.complexWords * 30.0 / sentences) + 3.1291);
+        readability.put("colemanLiauIndex", 0.0588 * lettersPer100Words - 0.296 * sentencesPer100Words - 15.8);
+        readability.put("automatedReadabilityIndex", 4.71 * metrics.letters / words + 0.5 * wordsPerSentence - 21.43);
+        readability.put("averageWordsPerSentence", wordsPerSentence);
+        readability.put("averageSyllablesPerWord", syllablesPerWord);
+        return readability;
+    }
+
+    @Override
+    public Map<String, Object> analyzeLanguagePatterns(TextDocument document) {
+        logger.debug("Analyzing language patterns of document: {}", document.getName());
+        TextMetrics metrics = metricsOf(document.getContent(), true);
+        Map<String, Long> frequencies = metrics.wordFrequencies;
+        int words = metrics.words;
+
+        long longWords = 0;
+        for (int length = LONG_WORD_LENGTH; length < metrics.wordLengthCounts.length; length++) {
+            longWords += metrics.wordLengthCounts[length];
+        }
+        long stopWords = 0;
+        long hapaxLegomena = 0;
+        for (Map.Entry<String, Long> entry : frequencies.entrySet()) {
+            if (STOP_WORDS.contains(entry.getKey())) {
+                stopWords += entry.getValue();
+            }
+            if (entry.getValue() == 1) {
+                hapaxLegomena++;
+            }
+        }
+        List<String> mostFrequent = frequencies.entrySet().stream()
+                .filter(entry -> !STOP_WORDS.contains(entry.getKey()))
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()))
+                .limit(TOP_WORDS)
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+
+        Map<String, Object> patterns = new HashMap<>();
+        patterns.put("uniqueWords", frequencies.size());
+        patterns.put("typeTokenRatio", ratio(frequencies.size(), words));
+        patterns.put("hapaxLegomena", hapaxLegomena);
+        patterns.put("averageWordLength", ratio(metrics.letters, words));
+        patterns.put("longWordRatio", ratio(longWords, words));
+        patterns.put("complexWordRatio", ratio(metrics.complexWords, words));
+        patterns.put("stopWordRatio", ratio(stopWords, words));
+        patterns.put("mostFrequentWords", mostFrequent);
+        return patterns;
+    }
+
+    private TextMetrics metricsOf(String content) {
+        return metricsOf(content, false);
+    }
+
+    /**
+     * @param countWords Whether the metrics must include word frequencies
+     */
+    private TextMetrics metricsOf(String content, boolean countWords) {
+        ScannedContent scanned = lastScanned;
+        if (scanned != null && scanned.content.get() == content
+                && (!countWords || scanned.metrics.wordFrequencies != null)) {
+            return scanned.metrics;
+        }
+        TextMetrics metrics = TextMetrics.scan(content, countWords);
+        lastScanned = new ScannedContent(content, metrics);
+        return metrics;
+    }
+
+    private static Map<String, Long> countWords(String content) {
+        Map<String, Long> frequencies = new HashMap<>();
+        WordTokenizer.forEachToken(content,
+                (start, end) -> frequencies.merge(WordTokenizer.normalize(content, start, end), 1L, Long::sum));
+        return frequencies;
+    }
+
+    private static double ratio(double value, double total) {
+        return total == 0 ? 0.0 : value / total;
+    }
+
+    private static final class ScannedContent {
+        final WeakReference<String> content;
+        final TextMetrics metrics;
+
+        ScannedContent(String content, TextMetrics metrics) {
+            this.content = new WeakReference<>(content);
+            this.metrics = metrics;
+        }
+    }
+}
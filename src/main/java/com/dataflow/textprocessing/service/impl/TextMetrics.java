@@ -0,0 +1,309 @@
+package com.dataflow.textprocessing.service.impl;
+
+import com.dataflow.textprocessing.util.Cancellation;
+import com.dataflow.textprocessing.util.WordTokenizer;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Counts gathered in a single pass over a text: words, sentences and paragraphs with the same
+ * boundaries as {@code getTextStatistics}, character and word length histograms, syllables, and
+ * per-sentence word counts, and optionally word frequencies. Syllables are vowel groups counted
+ * branch-free while the word is scanned, corrected for silent endings through a table indexed by the
+ * codes of the last three characters; unless word frequencies are collected, nothing is allocated per
+ * word. Words are the same runs of {@code [A-Za-z0-9_]} as the tokens of {@link WordTokenizer}.
+ */
+final class TextMetrics {
+    /** Words with at least this many syllables count as complex (Gunning Fog) and polysyllabic (SMOG) */
+    static final int COMPLEX_WORD_SYLLABLES = 3;
+
+    private static final int LETTER_SHIFT = 1;
+    private static final int VOWEL_SHIFT = 2;
+    private static final byte WORD = 1;
+    private static final byte LETTER = 1 << LETTER_SHIFT;
+    private static final byte VOWEL = 1 << VOWEL_SHIFT;
+    private static final byte TERMINATOR = 8;
+    private static final byte WHITESPACE = 16;
+    private static final byte CLAUSE_SEPARATOR = 32;
+    private static final byte[] CHAR_CLASS = new byte[128];
+
+    // Codes of the last three characters of a word, deciding whether its final vowel group is silent
+    private static final int CHECKPOINT_INTERVAL = 1 << 16;
+    private static final int SUFFIX_BITS = 3;
+    private static final int SUFFIX_MASK = (1 << 3 * SUFFIX_BITS) - 1;
+    private static final int OTHER = 0;
+    private static final int E = 1;
+    private static final int L = 2;
+    private static final int T = 3;
+    private static final int D = 4;
+    private static final int S = 5;
+    private static final int SIBILANT = 6;
+    private static final int CONSONANT = 7;
+    private static final byte[] SUFFIX_CODE = new byte[128];
+    private static final byte[] SILENT_SUFFIX = new byte[1 << 3 * SUFFIX_BITS];
+
+    static {
+        for (char c = 'a'; c <= 'z'; c++) {
+            CHAR_CLASS[c] = WORD | LETTER;
+            CHAR_CLASS[Character.toUpperCase(c)] = WORD | LETTER;
+        }
+        for (char c : "aeiouyAEIOUY".toCharArray()) {
+            CHAR_CLASS[c] |= VOWEL;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            CHAR_CLASS[c] = WORD;
+        }
+        CHAR_CLASS['_'] = WORD;
+        CHAR_CLASS['.'] = TERMINATOR;
+        CHAR_CLASS['!'] = TERMINATOR;
+        CHAR_CLASS['?'] = TERMINATOR;
+        for (char c : " \t\n\u000B\f\r".toCharArray()) {
+            CHAR_CLASS[c] = WHITESPACE;
+        }
+        CHAR_CLASS[','] = CLAUSE_SEPARATOR;
+        CHAR_CLASS[';'] = CLAUSE_SEPARATOR;
+        CHAR_CLASS[':'] = CLAUSE_SEPARATOR;
+
+        for (char c = 'a'; c <= 'z'; c++) {
+            int code = (CHAR_CLASS[c] & VOWEL) != 0 ? OTHER : "xzcgh".indexOf(c) >= 0 ? SIBILANT : CONSONANT;
+            SUFFIX_CODE[c] = (byte) code;
+            SUFFIX_CODE[Character.toUpperCase(c)] = (byte) code;
+        }
+        int[][] letterCodes = {{'e', E}, {'l', L}, {'t', T}, {'d', D}, {'s', S}};
+        for (int[] letterCode : letterCodes) {
+            SUFFIX_CODE[letterCode[0]] = (byte) letterCode[1];
+            SUFFIX_CODE[Character.toUpperCase(letterCode[0])] = (byte) letterCode[1];
+        }
+        for (int third = 0; third < 8; third++) {
+            for (int second = 0; second < 8; second++) {
+                for (int last = 0; last < 8; last++) {
+                    boolean silent =
+                            // Silent final e (make), but not a syllabic -le (table)
+                            (last == E && second >= L && !(second == L && third >= L))
+                            // Silent -ed (jumped), but not after t or d (wanted)
+                            || (last == D && second == E && third >= L && third != T && third != D)
+                            // Silent -es (makes), but not after sibilants (boxes, wishes)
+                            || (last == S && second == E && third >= L && third != S && third != SIBILANT);
+                    SILENT_SUFFIX[third << 2 * SUFFIX_BITS | second << SUFFIX_BITS | last] = (byte) (silent ? 1 : 0);
+                }
+            }
+        }
+    }
+
+    int characters;
+    int words;
+    long letters;
+    long syllables;
+    int complexWords;
+    int sentences;
+    int questions;
+    int exclamations;
+    int paragraphs;
+    long clauseSeparators;
+    final long[] asciiCounts = new long[128];
+    final Map<Character, Long> otherCounts = new HashMap<>();
+    long[] wordLengthCounts = new long[32];
+    long[] sentenceLengthCounts = new long[64];
+    int minSentenceLength = Integer.MAX_VALUE;
+    int maxSentenceLength;
+    // Lower cased words and their counts; null unless requested
+    final Map<String, Long> wordFrequencies;
+
+    private TextMetrics(boolean countWords) {
+        wordFrequencies = countWords ? new HashMap<>() : null;
+    }
+
+    /**
+     * Scan a text once and collect all metrics except word frequencies
+     */
+    static TextMetrics scan(String text) {
+        return scan(text, false);
+    }
+
+    /**
+     * Scan a text once and collect all metrics
+     * @param countWords Whether to also collect word frequencies, as {@link WordTokenizer} tokens counted
+     */
+    static TextMetrics scan(String text, boolean countWords) {
+        TextMetrics metrics = new TextMetrics(countWords);
+        metrics.run(text);
+        return metrics;
+    }
+
+    private void run(String text) {
+        int length = text.length();
+        characters = length;
+        long[] ascii = asciiCounts;
+
+        boolean inTerminatorRun = false;
+        boolean textSinceSentence = false;
+        int sentenceWords = 0;
+        boolean seenText = false;
+        int newlines = 0;
+
+        int i = 0;
+        int nextCheckpoint = CHECKPOINT_INTERVAL;
+        while (i < length) {
+            if (i >= nextCheckpoint) {
+                Cancellation.checkpoint();
+                nextCheckpoint = i + CHECKPOINT_INTERVAL;
+            }
+            char c = text.charAt(i);
+            int type = c < 128 ? CHAR_CLASS[c] : 0;
+            if ((type & WORD) != 0) {
+                i = scanWord(text, i, length);
+                sentenceWords++;
+                inTerminatorRun = false;
+                textSinceSentence = true;
+                if (!seenText || newlines >= 2) {
+                    paragraphs++;
+                    seenText = true;
+                }
+                newlines = 0;
+                continue;
+            }
+
+            if (c < 128) {
+                ascii[c]++;
+            } else {
+                otherCounts.merge(c, 1L, Long::sum);
+            }
+            if ((type & TERMINATOR) != 0) {
+                if (!inTerminatorRun && textSinceSentence) {
+                    // Same boundaries as [^.!?]+[.!?]+: every terminator run ends a sentence, unless it opens the text
+                    endSentence(sentenceWords, c);
+                    sentenceWords = 0;
+                }
+                inTerminatorRun = true;
+            } else {
+                inTerminatorRun = false;
+                textSinceSentence = true;
+                if ((type & CLAUSE_SEPARATOR) != 0) {
+                    clauseSeparators++;
+                }
+            }
+            if ((type & WHITESPACE) != 0) {
+                if (c == '\n') {
+                    newlines++;
+                }
+            } else {
+                if (!seenText || newlines >= 2) {
+                    paragraphs++;
+                    seenText = true;
+                }
+                newlines = 0;
+            }
+            i++;
+        }
+    }
+
+    /**
+     * Count the characters, letters and syllables of the word starting at {@code start}
+     * @return The end of the word
+     */
+    private int scanWord(String text, int start, int length) {
+        long[] ascii = asciiCounts;
+        char c = text.charAt(start);
+        int type = CHAR_CLASS[c];
+        ascii[c]++;
+        // A leading y is a consonant (yes)
+        int previousVowel = (c | 0x20) == 'y' ? 0 : (type >> VOWEL_SHIFT) & 1;
+        int vowelGroups = previousVowel;
+        int letterCount = (type >> LETTER_SHIFT) & 1;
+        int suffix = SUFFIX_CODE[c];
+        int i = start + 1;
+        while (i < length) {
+            c = text.charAt(i);
+            if (c >= 128) {
+                break;
+            }
+            type = CHAR_CLASS[c];
+            if ((type & WORD) == 0) {
+                break;
+            }
+            ascii[c]++;
+            int vowel = (type >> VOWEL_SHIFT) & 1;
+            vowelGroups += vowel & ~previousVowel;
+            previousVowel = vowel;
+            letterCount += (type >> LETTER_SHIFT) & 1;
+            suffix = (suffix << SUFFIX_BITS | SUFFIX_CODE[c]) & SUFFIX_MASK;
+            i++;
+        }
+        letters += letterCount;
+        endWord(i - start, vowelGroups, suffix);
+        if (wordFrequencies != null) {
+            wordFrequencies.merge(WordTokenizer.normalize(text, start, i), 1L, Long::sum);
+        }
+        return i;
+    }
+
+    private void endWord(int length, int vowelGroups, int suffix) {
+        words++;
+        if (length >= wordLengthCounts.length) {
+            wordLengthCounts = Arrays.copyOf(wordLengthCounts, Math.max(length + 1, wordLengthCounts.length * 2));
+        }
+        wordLengthCounts[length]++;
+
+        // Branch-free: drop a silent final group when there is more than one, and count at least one syllable
+        int count = vowelGroups - (SILENT_SUFFIX[suffix] & (1 - vowelGroups) >>> 31);
+        count += (count - 1) >>> 31;
+        syllables += count;
+        complexWords += (COMPLEX_WORD_SYLLABLES - 1 - count) >>> 31;
+    }
+
+    private void endSentence(int sentenceWords, char terminator) {
+        sentences++;
+        if (terminator == '?') {
+            questions++;
+        } else if (terminator == '!') {
+            exclamations++;
+        }
+        if (sentenceWords >= sentenceLengthCounts.length) {
+            sentenceLengthCounts = Arrays.copyOf(sentenceLengthCounts,
+                    Math.max(sentenceWords + 1, sentenceLengthCounts.length * 2));
+        }
+        sentenceLengthCounts[sentenceWords]++;
+        minSentenceLength = Math.min(minSentenceLength, sentenceWords);
+        maxSentenceLength = Math.max(maxSentenceLength, sentenceWords);
+    }
+
+    /**
+     * Word lengths and their counts, as reported by {@code getTextStatistics}
+     */
+    Map<Integer, Long> getWordLengthDistribution() {
+        return toMap(wordLengthCounts);
+    }
+
+    /**
+     * Words per sentence and the number of sentences of that length
+     */
+    Map<Integer, Long> getSentenceLengthDistribution() {
+        return toMap(sentenceLengthCounts);
+    }
+
+    /**
+     * Character counts grouped by lower case character, as reported by {@code getTextStatistics}
+     */
+    Map<Character, Long> getCharacterFrequency() {
+        Map<Character, Long> frequencies = new HashMap<>();
+        for (int c = 0; c < asciiCounts.length; c++) {
+            if (asciiCounts[c] > 0) {
+                frequencies.merge(Character.toLowerCase((char) c), asciiCounts[c], Long::sum);
+            }
+        }
+        otherCounts.forEach((c, count) -> frequencies.merge(Character.toLowerCase(c), count, Long::sum));
+        return frequencies;
+    }
+
+    private static Map<Integer, Long> toMap(long[] counts) {
+        Map<Integer, Long> map = new HashMap<>();
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                map.put(i, counts[i]);
+            }
+        }
+        return map;
+    }
+}
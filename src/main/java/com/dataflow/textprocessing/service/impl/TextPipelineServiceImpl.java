@@ -0,0 +1,406 @@
+package com.dataflow.textprocessing.service.impl;
+
+import com.dataflow.textprocessing.exception.TextProcessingException;
+import com.dataflow.textprocessing.model.PipelineResult;
+import com.dataflow.textprocessing.model.PipelineStage;
+import com.dataflow.textprocessing.model.TextDocument;
+import com.dataflow.textprocessing.service.TextPipelineService;
+import com.dataflow.textprocessing.service.TextProcessingService;
+import com.dataflow.textprocessing.util.Cancellation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Plans and runs processing pipelines. Planning drops stages whose effect a later stage overrides or
+ * repeats, turns replacements of plain literals into line-level searches, and makes duplicate removal
+ * right after sorting compare neighbours instead of remembering every line. The remaining stages are
+ * grouped into steps: a run of line-level stages is one step executed in a single iteration over the
+ * lines, with consecutive character-level stages fused into one pass over each line's characters,
+ * while sorting, whole-text replacement and whitespace normalization are steps of their own that
+ * collect the lines before passing them on. No step materializes the document between stages.
+ * <p>
+ * Step timings are exclusive. A step after the first is timed around each line it receives, which
+ * costs two clock reads per line; a single-step plan is timed as a whole.
+ */
+public class TextPipelineServiceImpl implements TextPipelineService {
+    private static final Logger logger = LoggerFactory.getLogger(TextPipelineServiceImpl.class);
+    private static final int READ_BUFFER_SIZE = 8192;
+    private static final int CHECKPOINT_LINES = 4096;
+    private static final String REGEX_METACHARACTERS = "\\^$.|?*+()[]{}";
+    private static final Set<PipelineStage.Kind> IDEMPOTENT = EnumSet.of(PipelineStage.Kind.NORMALIZE_WHITESPACE,
+            PipelineStage.Kind.COLLAPSE_SPACES, PipelineStage.Kind.TRIM_LINES, PipelineStage.Kind.REMOVE_BLANK_LINES,
+            PipelineStage.Kind.REMOVE_DUPLICATE_LINES, PipelineStage.Kind.KEEP_LINES);
+
+    @Override
+    public Plan plan(List<PipelineStage> stages) {
+        List<CompiledStage> optimized = optimize(stages);
+        List<Step> steps = new ArrayList<>();
+        Step current = null;
+        for (CompiledStage stage : optimized) {
+            if (stage.barrier) {
+                steps.add(new Step(List.of(stage), true));
+                current = null;
+            } else {
+                if (current == null) {
+                    current = new Step(new ArrayList<>(), false);
+                    steps.add(current);
+                }
+                current.stages.add(stage);
+            }
+        }
+        CompiledPlan plan = new CompiledPlan(List.copyOf(stages), steps);
+        logger.debug("Planned pipeline of {} stages as {}", stages.size(), plan.describe());
+        return plan;
+    }
+
+    @Override
+    public PipelineResult execute(Plan plan, TextDocument document) {
+        CompiledPlan compiled = compiled(plan);
+        PipelineOperators.TextSink sink = new PipelineOperators.TextSink();
+        Run run = compiled.newRun(sink);
+        long start = System.nanoTime();
+        long linesRead = PipelineOperators.feed(document.getContent(), run.head);
+        long nanos = System.nanoTime() - start;
+        logger.debug("Ran pipeline over document {} in {} us", document.getId(), nanos / 1000);
+        return new PipelineResult(new TextDocument(document.getName(), sink.text.toString()), run.statistics,
+                run.stepNanos(nanos), linesRead, sink.lines);
+    }
+
+    @Override
+    public PipelineResult executeTo(Plan plan, Reader input, Writer output) {
+        CompiledPlan compiled = compiled(plan);
+        PipelineOperators.WriterSink sink = new PipelineOperators.WriterSink(output);
+        Run run = compiled.newRun(sink);
+        long start = System.nanoTime();
+        long linesRead = 0;
+        try {
+            char[] buffer = new char[READ_BUFFER_SIZE];
+            StringBuilder line = new StringBuilder();
+            int count;
+            while ((count = input.read(buffer)) >= 0) {
+                int from = 0;
+                for (int i = 0; i < count; i++) {
+                    if (buffer[i] == '\n') {
+                        line.append(buffer, from, i - from);
+                        run.head.line(line);
+                        line.setLength(0);
+                        from = i + 1;
+                        if (++linesRead % CHECKPOINT_LINES == 0) {
+                            Cancellation.checkpoint();
+                        }
+                    }
+                }
+                line.append(buffer, from, count - from);
+            }
+            run.head.line(line);
+            linesRead++;
+            run.head.end();
+        } catch (IOException | UncheckedIOException e) {
+            logger.error("Error streaming text through pipeline: {}", e.getMessage());
+            throw new TextProcessingException("Failed to stream text through pipeline", e);
+        }
+        return new PipelineResult(null, run.statistics, run.stepNanos(System.nanoTime() - start), linesRead, sink.lines);
+    }
+
+    private static CompiledPlan compiled(Plan plan) {
+        if (!(plan instanceof CompiledPlan)) {
+            throw new IllegalArgumentException("Plan was not created by this service");
+        }
+        return (CompiledPlan) plan;
+    }
+
+    /**
+     * Drop stages whose effect is repeated or overridden by the next stage, and pick the cheapest
+     * implementation of each remaining one
+     */
+    private static List<CompiledStage> optimize(List<PipelineStage> declared) {
+        List<CompiledStage> stages = new ArrayList<>();
+        for (PipelineStage stage : declared) {
+            PipelineStage.Kind kind = stage.getKind();
+            CompiledStage previous = stages.isEmpty() ? null : stages.get(stages.size() - 1);
+            PipelineStage.Kind previousKind = previous == null ? null : previous.stage.getKind();
+            if (IDEMPOTENT.contains(kind) && previous != null && previous.stage.equals(stage)) {
+                continue;
+            }
+            if (kind == PipelineStage.Kind.CONVERT_CASE && previous != null && previous.stage.equals(stage)
+                    && stage.getCaseMode() != TextProcessingService.CaseMode.TITLE
+                    && stage.getCaseMode() != TextProcessingService.CaseMode.SENTENCE) {
+                // Upper and lower casing are idempotent; other conversions are not, since full case
+                // mapping may change the length of a word (ß capitalizes to SS, which titles to Ss)
+                continue;
+            }
+            if (kind == PipelineStage.Kind.SORT_LINES && previousKind == kind) {
+                // A sort decides the order of every line
+                stages.remove(stages.size() - 1);
+                previousKind = stages.isEmpty() ? null : stages.get(stages.size() - 1).stage.getKind();
+            }
+            stages.add(compile(stage, previousKind));
+        }
+        return stages;
+    }
+
+    private static CompiledStage compile(PipelineStage stage, PipelineStage.Kind previousKind) {
+        try {
+            switch (stage.getKind()) {
+                case REPLACE:
+                    if (isLiteral(stage.getPattern(), stage.getReplacement())) {
+                        return new CompiledStage(stage, StageType.LITERAL_REPLACE, null, false);
+                    }
+                    return new CompiledStage(stage, StageType.TEXT_REPLACE, Pattern.compile(stage.getPattern()), true);
+                case REPLACE_IN_LINES:
+                    if (isLiteral(stage.getPattern(), stage.getReplacement())) {
+                        return new CompiledStage(stage, StageType.LITERAL_REPLACE, null, false);
+                    }
+                    return new CompiledStage(stage, StageType.LINE_REPLACE, Pattern.compile(stage.getPattern()), false);
+                case KEEP_LINES:
+                    return new CompiledStage(stage, StageType.LINE, Pattern.compile(stage.getPattern()), false);
+                case CONVERT_CASE:
+                case COLLAPSE_SPACES:
+                    return new CompiledStage(stage, StageType.CHAR, null, false);
+                case REMOVE_DUPLICATE_LINES:
+                    return new CompiledStage(stage, previousKind == PipelineStage.Kind.SORT_LINES
+                            ? StageType.ADJACENT_DEDUPLICATION : StageType.LINE, null, false);
+                case SORT_LINES:
+                case NORMALIZE_WHITESPACE:
+                    return new CompiledStage(stage, StageType.LINE, null, true);
+                default:
+                    return new CompiledStage(stage, StageType.LINE, null, false);
+            }
+        } catch (PatternSyntaxException e) {
+            throw new IllegalArgumentException("Invalid pattern in pipeline stage " + stage + ": " + e.getDescription(), e);
+        }
+    }
+
+    /**
+     * Check whether a replacement is of plain text: no regex syntax, no line break in the pattern or
+     * the replacement, since a line holds none, and no group references
+     */
+    private static boolean isLiteral(String pattern, String replacement) {
+        if (pattern.isEmpty() || pattern.indexOf('\n') >= 0 || replacement.indexOf('\n') >= 0
+                || replacement.indexOf('$') >= 0 || replacement.indexOf('\\') >= 0) {
+            return false;
+        }
+        for (int i = 0; i < pattern.length(); i++) {
+            if (REGEX_METACHARACTERS.indexOf(pattern.charAt(i)) >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private enum StageType {
+        CHAR,
+        LINE,
+        LINE_REPLACE,
+        LITERAL_REPLACE,
+        TEXT_REPLACE,
+        ADJACENT_DEDUPLICATION
+    }
+
+    private static final class CompiledStage {
+        final PipelineStage stage;
+        final StageType type;
+        final Pattern pattern;
+        final boolean barrier;
+
+        CompiledStage(PipelineStage stage, StageType type, Pattern pattern, boolean barrier) {
+            this.stage = stage;
+            this.type = type;
+            this.pattern = pattern;
+            this.barrier = barrier;
+        }
+
+        String describe() {
+            switch (type) {
+                case LITERAL_REPLACE:
+                    return "replace_literal(" + stage.getPattern() + " -> " + stage.getReplacement() + ")";
+                case ADJACENT_DEDUPLICATION:
+                    return "remove_adjacent_duplicate_lines";
+                default:
+                    return stage.toString();
+            }
+        }
+
+        PipelineOperators.CharStage newCharStage() {
+            if (stage.getKind() == PipelineStage.Kind.CONVERT_CASE) {
+                return new PipelineOperators.ConvertCase(stage.getCaseMode());
+            }
+            return new PipelineOperators.CollapseSpaces();
+        }
+
+        PipelineOperators.Operator newOperator(List<Map<String, Object>> statistics) {
+            switch (type) {
+                case LINE_REPLACE:
+                    return new PipelineOperators.ReplaceInLines(pattern, stage.getReplacement());
+                case LITERAL_REPLACE:
+                    return new PipelineOperators.ReplaceLiteral(stage.getPattern(), stage.getReplacement());
+                case TEXT_REPLACE:
+                    return new PipelineOperators.ReplaceInText(pattern, stage.getReplacement());
+                case ADJACENT_DEDUPLICATION:
+                    return new PipelineOperators.RemoveAdjacentDuplicateLines();
+                default:
+                    break;
+            }
+            switch (stage.getKind()) {
+                case NORMALIZE_WHITESPACE:
+                    return new PipelineOperators.NormalizeWhitespace();
+                case TRIM_LINES:
+                    return new PipelineOperators.TrimLines();
+                case REMOVE_BLANK_LINES:
+                    return new PipelineOperators.RemoveBlankLines();
+                case KEEP_LINES:
+                    return new PipelineOperators.KeepLines(pattern);
+                case REMOVE_DUPLICATE_LINES:
+                    return new PipelineOperators.RemoveDuplicateLines();
+                case SORT_LINES:
+                    return new PipelineOperators.SortLines(stage.isAscending());
+                case STATISTICS:
+                    return new PipelineOperators.Statistics(statistics);
+                default:
+                    throw new IllegalStateException("No operator for " + stage);
+            }
+        }
+    }
+
+    /**
+     * Stages run together: line-level stages in one iteration over the lines, or a single stage that
+     * needs every line
+     */
+    private static final class Step {
+        final List<CompiledStage> stages;
+        final boolean barrier;
+
+        Step(List<CompiledStage> stages, boolean barrier) {
+            this.stages = stages;
+            this.barrier = barrier;
+        }
+
+        String describe() {
+            if (barrier) {
+                return stages.get(0).describe();
+            }
+            StringBuilder description = new StringBuilder("lines[");
+            for (int i = 0; i < stages.size(); i++) {
+                if (i > 0) {
+                    boolean fused = stages.get(i).type == StageType.CHAR && stages.get(i - 1).type == StageType.CHAR;
+                    description.append(fused ? " + " : " | ");
+                }
+                description.append(stages.get(i).describe());
+            }
+            return description.append(']').toString();
+        }
+
+        /**
+         * Create the operators of this step for one run, with character stages fused
+         */
+        List<PipelineOperators.Operator> newOperators(List<Map<String, Object>> statistics) {
+            List<PipelineOperators.Operator> operators = new ArrayList<>();
+            List<PipelineOperators.CharStage> chars = new ArrayList<>();
+            for (CompiledStage stage : stages) {
+                if (stage.type == StageType.CHAR) {
+                    chars.add(stage.newCharStage());
+                    continue;
+                }
+                if (!chars.isEmpty()) {
+                    operators.add(new PipelineOperators.FusedChars(chars));
+                    chars = new ArrayList<>();
+                }
+                operators.add(stage.newOperator(statistics));
+            }
+            if (!chars.isEmpty()) {
+                operators.add(new PipelineOperators.FusedChars(chars));
+            }
+            return operators;
+        }
+    }
+
+    private static final class CompiledPlan implements Plan {
+        private final List<PipelineStage> stages;
+        private final List<Step> steps;
+        private final List<String> descriptions;
+
+        CompiledPlan(List<PipelineStage> stages, List<Step> steps) {
+            this.stages = stages;
+            this.steps = steps;
+            List<String> descriptions = new ArrayList<>(steps.size());
+            for (int i = 0; i < steps.size(); i++) {
+                descriptions.add((i + 1) + ". " + steps.get(i).describe());
+            }
+            this.descriptions = Collections.unmodifiableList(descriptions);
+        }
+
+        @Override
+        public List<PipelineStage> getStages() {
+            return stages;
+        }
+
+        @Override
+        public List<String> describe() {
+            return descriptions;
+        }
+
+        /**
+         * Link fresh operators of every step into a chain ending in the sink
+         */
+        Run newRun(PipelineOperators.Operator sink) {
+            Run run = new Run(descriptions, new long[steps.size()]);
+            PipelineOperators.Operator head = sink;
+            for (int i = steps.size() - 1; i >= 0; i--) {
+                List<PipelineOperators.Operator> operators = steps.get(i).newOperators(run.statistics);
+                for (int j = operators.size() - 1; j >= 0; j--) {
+                    operators.get(j).next = head;
+                    head = operators.get(j);
+                }
+                if (i > 0) {
+                    head = new PipelineOperators.Timed(head, run.inclusiveNanos, i);
+                }
+            }
+            run.head = head;
+            return run;
+        }
+    }
+
+    /**
+     * Operator chain and measurements of one run
+     */
+    private static final class Run {
+        final List<String> descriptions;
+        final long[] inclusiveNanos;
+        final List<Map<String, Object>> statistics = new ArrayList<>();
+        PipelineOperators.Operator head;
+
+        Run(List<String> descriptions, long[] inclusiveNanos) {
+            this.descriptions = descriptions;
+            this.inclusiveNanos = inclusiveNanos;
+        }
+
+        /**
+         * Exclusive time of each step: its time including later steps, less the time of the next step
+         */
+        Map<String, Long> stepNanos(long totalNanos) {
+            Map<String, Long> nanos = new LinkedHashMap<>();
+            if (inclusiveNanos.length > 0) {
+                inclusiveNanos[0] = totalNanos;
+            }
+            for (int i = 0; i < inclusiveNanos.length; i++) {
+                long next = i + 1 < inclusiveNanos.length ? inclusiveNanos[i + 1] : 0;
+                nanos.put(descriptions.get(i), Math.max(0, inclusiveNanos[i] - next));
+            }
+            return nanos;
+        }
+    }
+}
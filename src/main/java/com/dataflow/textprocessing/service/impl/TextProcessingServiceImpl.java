@@ -1,8 +1,13 @@
 package com.dataflow.textprocessing.service.impl;
 
+import com.dataflow.textprocessing.model.CompiledReplacement;
 import com.dataflow.textprocessing.model.TextDocument;
 import com.dataflow.textprocessing.service.TextProcessingService;
 import com.dataflow.textprocessing.exception.TextProcessingException;
+import com.dataflow.textprocessing.util.Cancellation;
+import com.dataflow.textprocessing.util.CharClasses;
+import com.dataflow.textprocessing.util.TextProcessingUtils;
+import com.dataflow.textprocessing.util.WordTokenizer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -15,7 +20,11 @@ import java.util.stream.Collectors;
 public class TextProcessingServiceImpl implements TextProcessingService {
     private static final Logger logger = LoggerFactory.getLogger(TextProcessingServiceImpl.class);
     private static final Pattern SENTENCE_PATTERN = Pattern.compile("[^.!?]+[.!?]+");
-    private static final Pattern WORD_PATTERN = Pattern.compile("\\b\\w+\\b");
+    private static final int REPLACEMENT_CACHE_SIZE = 64;
+
+    private final TextRankSummarizer summarizer = new TextRankSummarizer();
+    // Access ordered, so the first entry is the least recently used
+    private final LinkedHashMap<List<String>, CompiledReplacement> replacements = new LinkedHashMap<>(16, 0.75f, true);
 
     @Override
     public List<String> searchPattern(TextDocument document, String pattern) {
@@ -25,6 +34,7 @@ public class TextProcessingServiceImpl implements TextProcessingService {
         List<String> matches = new ArrayList<>();
         
         while (matcher.find()) {
+            Cancellation.checkpoint();
             matches.add(matcher.group());
         }
         
@@ -34,7 +44,7 @@ public class TextProcessingServiceImpl implements TextProcessingService {
     @Override
     public TextDocument replacePattern(TextDocument document, String pattern, String replacement) {
         logger.debug("Replacing pattern: {} with: {} in document: {}", pattern, replacement, document.getName());
-        String newContent = document.getContent().replaceAll(pattern, replacement);
+        String newContent = compileReplacement(pattern, replacement).replace(document.getContent());
         document.setContent(newContent);
         return document;
     }
@@ -42,12 +52,11 @@ public class TextProcessingServiceImpl implements TextProcessingService {
     @Override
     public Map<String, Long> analyzeWordFrequency(TextDocument document) {
         logger.debug("Analyzing word frequency in document: {}", document.getName());
-        return Arrays.stream(document.getContent().toLowerCase().split("\\W+"))
-                .filter(word -> !word.isEmpty())
-                .collect(Collectors.groupingBy(
-                        word -> word,
-                        Collectors.counting()
-                ));
+        String content = document.getContent();
+        Map<String, Long> frequencies = new HashMap<>();
+        WordTokenizer.forEachToken(content,
+                (start, end) -> frequencies.merge(WordTokenizer.normalize(content, start, end), 1L, Long::sum));
+        return frequencies;
     }
 
     @Override
@@ -62,6 +71,7 @@ public class TextProcessingServiceImpl implements TextProcessingService {
         
         Matcher startMatcher = start.matcher(content);
         while (startMatcher.find()) {
+            Cancellation.checkpoint();
             int startIndex = startMatcher.end();
             String remainingText = content.substring(startIndex);
             Matcher endMatcher = end.matcher(remainingText);
@@ -79,18 +89,7 @@ public class TextProcessingServiceImpl implements TextProcessingService {
         logger.debug("Generating summary for document: {} with max {} sentences", 
                 document.getName(), maxSentences);
         
-        String content = document.getContent();
-        List<String> sentences = new ArrayList<>();
-        Matcher matcher = SENTENCE_PATTERN.matcher(content);
-        
-        while (matcher.find()) {
-            sentences.add(matcher.group().trim());
-        }
-        
-        // Simple summary: take first N sentences
-        return sentences.stream()
-                .limit(maxSentences)
-                .collect(Collectors.joining(" "));
+        return summarizer.summarize(document.getContent(), maxSentences);
     }
 
     @Override
@@ -108,11 +107,7 @@ public class TextProcessingServiceImpl implements TextProcessingService {
                 convertedContent = content.toLowerCase();
                 break;
             case TITLE:
-                convertedContent = Arrays.stream(content.split("\\s+"))
-                        .map(word -> word.isEmpty() ? "" : 
-                            Character.toUpperCase(word.charAt(0)) + 
-                            word.substring(1).toLowerCase())
-                        .collect(Collectors.joining(" "));
+                convertedContent = TextProcessingUtils.toTitleCase(content);
                 break;
             case SENTENCE:
                 convertedContent = SENTENCE_PATTERN.matcher(content)
@@ -137,29 +132,21 @@ public class TextProcessingServiceImpl implements TextProcessingService {
         String content = document.getContent();
         Map<String, Object> stats = new HashMap<>();
         
+        // Word statistics, from the runs of word characters
+        Map<Integer, Long> wordLengths = new HashMap<>();
+        int[] words = {0};
+        WordTokenizer.forEachToken(content, (start, end) -> {
+            words[0]++;
+            wordLengths.merge(end - start, 1L, Long::sum);
+        });
+
         // Basic statistics
         stats.put("totalCharacters", content.length());
-        stats.put("totalWords", countWords(content));
+        stats.put("totalWords", words[0]);
         stats.put("totalSentences", countSentences(content));
         stats.put("totalParagraphs", countParagraphs(content));
-        
-        // Word length statistics
-        Map<Integer, Long> wordLengths = Arrays.stream(content.split("\\W+"))
-                .filter(word -> !word.isEmpty())
-                .collect(Collectors.groupingBy(
-                        String::length,
-                        Collectors.counting()
-                ));
         stats.put("wordLengthDistribution", wordLengths);
-        
-        // Character frequency
-        Map<Character, Long> charFreq = content.chars()
-                .mapToObj(c -> (char) c)
-                .collect(Collectors.groupingBy(
-                        Character::toLowerCase,
-                        Collectors.counting()
-                ));
-        stats.put("characterFrequency", charFreq);
+        stats.put("characterFrequency", characterFrequency(content));
         
         return stats;
     }
@@ -184,10 +171,11 @@ public class TextProcessingServiceImpl implements TextProcessingService {
             List<String> matches = new ArrayList<>();
             
             while (matcher.find()) {
+                Cancellation.checkpoint();
                 matches.add(matcher.group());
             }
             
-            logger.info("Extracted {} matches from document {}", matches.size(), document.getId());
+            logger.debug("Extracted {} matches from document {}", matches.size(), document.getId());
             return matches;
         } catch (Exception e) {
             logger.error("Error extracting matches from document {}: {}", document.getId(), e.getMessage());
@@ -198,16 +186,37 @@ public class TextProcessingServiceImpl implements TextProcessingService {
     @Override
     public String replaceAllMatches(TextDocument document, String pattern, String replacement) {
         try {
-            Pattern regex = Pattern.compile(pattern);
-            String result = regex.matcher(document.getContent()).replaceAll(replacement);
-            logger.info("Replaced matches in document {}", document.getId());
-            return result;
+            StringBuilder result = new StringBuilder(document.getContent().length() + 16);
+            long count = compileReplacement(pattern, replacement).replaceTo(document.getContent(), result);
+            logger.debug("Replaced {} matches in document {}", count, document.getId());
+            return result.toString();
         } catch (Exception e) {
             logger.error("Error replacing matches in document {}: {}", document.getId(), e.getMessage());
             throw new TextProcessingException("Failed to replace matches", e);
         }
     }
 
+    @Override
+    public CompiledReplacement compileReplacement(String pattern, String replacement) {
+        List<String> key = List.of(pattern, replacement);
+        synchronized (replacements) {
+            CompiledReplacement compiled = replacements.get(key);
+            if (compiled != null) {
+                return compiled;
+            }
+        }
+        CompiledReplacement compiled = CompiledReplacement.compile(pattern, replacement);
+        synchronized (replacements) {
+            replacements.put(key, compiled);
+            if (replacements.size() > REPLACEMENT_CACHE_SIZE) {
+                Iterator<List<String>> eldest = replacements.keySet().iterator();
+                eldest.next();
+                eldest.remove();
+            }
+        }
+        return compiled;
+    }
+
     @Override
     public boolean isValidRegexPattern(String pattern) {
         try {
@@ -227,7 +236,7 @@ public class TextProcessingServiceImpl implements TextProcessingService {
             String result = String.join("\n", uniqueLines);
             
             TextDocument newDoc = new TextDocument(document.getName() + " (deduplicated)", result);
-            logger.info("Removed duplicates from document {}", document.getId());
+            logger.debug("Removed duplicates from document {}", document.getId());
             return newDoc;
         } catch (Exception e) {
             logger.error("Error removing duplicates from document {}: {}", document.getId(), e.getMessage());
@@ -243,7 +252,7 @@ public class TextProcessingServiceImpl implements TextProcessingService {
             Collections.sort(sortedLines, (a, b) -> ascending ? a.compareTo(b) : b.compareTo(a));
             
             TextDocument newDoc = new TextDocument(document.getName() + " (sorted)", String.join("\n", sortedLines));
-            logger.info("Sorted lines in document {}", document.getId());
+            logger.debug("Sorted lines in document {}", document.getId());
             return newDoc;
         } catch (Exception e) {
             logger.error("Error sorting lines in document {}: {}", document.getId(), e.getMessage());
@@ -272,7 +281,7 @@ public class TextProcessingServiceImpl implements TextProcessingService {
             }
             
             TextDocument newDoc = new TextDocument(document.getName() + " (formatted JSON)", formatted.toString());
-            logger.info("Formatted JSON in document {}", document.getId());
+            logger.debug("Formatted JSON in document {}", document.getId());
             return newDoc;
         } catch (Exception e) {
             logger.error("Error formatting JSON in document {}: {}", document.getId(), e.getMessage());
@@ -301,7 +310,7 @@ public class TextProcessingServiceImpl implements TextProcessingService {
             }
             
             TextDocument newDoc = new TextDocument(document.getName() + " (formatted XML)", formatted.toString());
-            logger.info("Formatted XML in document {}", document.getId());
+            logger.debug("Formatted XML in document {}", document.getId());
             return newDoc;
         } catch (Exception e) {
             logger.error("Error formatting XML in document {}: {}", document.getId(), e.getMessage());
@@ -311,9 +320,10 @@ public class TextProcessingServiceImpl implements TextProcessingService {
 
     @Override
     public List<TextDocument> processBatch(List<TextDocument> documents) {
-        logger.info("Starting batch processing of {} documents", documents.size());
+        logger.debug("Starting batch processing of {} documents", documents.size());
         return documents.stream()
                 .map(doc -> {
+                    Cancellation.checkpoint();
                     try {
                         return processText(doc);
                     } catch (Exception e) {
@@ -348,22 +358,42 @@ public class TextProcessingServiceImpl implements TextProcessingService {
 
     private TextDocument processText(TextDocument document) {
         // Basic text processing - can be extended with more operations
-        String content = document.getContent();
-        content = content.trim()
-                        .replaceAll("\\s+", " ")
-                        .replaceAll("\\n\\s*\\n", "\n\n");
+        String content = TextProcessingUtils.normalizeWhitespace(document.getContent());
         
         TextDocument processed = new TextDocument(document.getName() + " (processed)", content);
-        logger.info("Processed document {}", document.getId());
+        logger.debug("Processed document {}", document.getId());
         return processed;
     }
 
-    private int countWords(String text) {
-        return (int) WORD_PATTERN.matcher(text).results().count();
+    /**
+     * Count the matches of [^.!?]+[.!?]+: every run of terminators ends a sentence, unless it opens the
+     * text
+     */
+    private int countSentences(String text) {
+        int runs = CharClasses.countRuns(text, CharClasses.TERMINATOR);
+        return runs > 0 && ".!?".indexOf(text.charAt(0)) >= 0 ? runs - 1 : runs;
     }
 
-    private int countSentences(String text) {
-        return (int) SENTENCE_PATTERN.matcher(text).results().count();
+    /**
+     * Count the characters of a text by their lower case form
+     */
+    private Map<Character, Long> characterFrequency(String text) {
+        long[] ascii = new long[128];
+        Map<Character, Long> frequencies = new HashMap<>();
+        for (int i = 0, length = text.length(); i < length; i++) {
+            char c = text.charAt(i);
+            if (c < 128) {
+                ascii[c]++;
+            } else {
+                frequencies.merge(Character.toLowerCase(c), 1L, Long::sum);
+            }
+        }
+        for (char c = 0; c < 128; c++) {
+            if (ascii[c] > 0) {
+                frequencies.merge(Character.toLowerCase(c), ascii[c], Long::sum);
+            }
+        }
+        return frequencies;
     }
 
     private int countParagraphs(String text) {
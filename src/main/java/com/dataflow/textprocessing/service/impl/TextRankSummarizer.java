@@ -0,0 +1,327 @@
+package com.dataflow.textprocessing.service.impl;
+
+import com.dataflow.textprocessing.util.Cancellation;
+import com.dataflow.textprocessing.util.WordTokenizer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Extractive summarizer ranking sentences with TextRank over TF-IDF cosine similarity. Sentences are
+ * sparse vectors of sorted term ids and normalised weights. Small documents compare every sentence pair;
+ * larger ones only compare sentences within a window of each other and sentences sharing a SimHash band,
+ * with capped buckets, so the graph has O(n) edges. Similarities and rank iterations run in parallel.
+ */
+final class TextRankSummarizer {
+    private static final Pattern SENTENCE_PATTERN = Pattern.compile("[^.!?]+[.!?]+");
+    private static final int ALL_PAIRS_LIMIT = 2000;
+    private static final int WINDOW = 16;
+    private static final int BANDS = 4;
+    private static final int BAND_BITS = 16;
+    private static final int MAX_BUCKET_SIZE = 16;
+    private static final float MIN_SIMILARITY = 0.05f;
+    private static final double DAMPING = 0.85;
+    private static final double TOLERANCE = 1e-4;
+    private static final int MAX_ITERATIONS = 50;
+
+    /**
+     * Pick the highest ranked sentences of the content
+     * @param content The text to summarise
+     * @param maxSentences Maximum number of sentences in the summary
+     * @return The selected sentences, trimmed and joined in document order
+     */
+    String summarize(String content, int maxSentences) {
+        List<String> sentences = new ArrayList<>();
+        Matcher matcher = SENTENCE_PATTERN.matcher(content);
+        while (matcher.find()) {
+            Cancellation.checkpoint();
+            sentences.add(matcher.group().trim());
+        }
+        if (maxSentences <= 0) {
+            return "";
+        }
+        if (sentences.size() <= maxSentences) {
+            return String.join(" ", sentences);
+        }
+
+        Map<String, Integer> termIds = new HashMap<>();
+        SparseVector[] vectors = vectorize(sentences, termIds);
+        int[][] neighbors = new int[vectors.length][];
+        float[][] weights = new float[vectors.length][];
+        Cancellation.checkpoint();
+        buildGraph(vectors, termIds.size(), neighbors, weights);
+        Cancellation.checkpoint();
+        double[] scores = rank(neighbors, weights);
+
+        return Arrays.stream(topK(scores, maxSentences))
+                .sorted()
+                .mapToObj(sentences::get)
+                .collect(Collectors.joining(" "));
+    }
+
+    private static SparseVector[] vectorize(List<String> sentences, Map<String, Integer> termIds) {
+        int[][] terms = new int[sentences.size()][];
+        for (int s = 0; s < terms.length; s++) {
+            String sentence = sentences.get(s);
+            List<Integer> ids = new ArrayList<>();
+            WordTokenizer.forEachToken(sentence, (start, end) ->
+                    ids.add(termIds.computeIfAbsent(WordTokenizer.normalize(sentence, start, end), t -> termIds.size())));
+            terms[s] = ids.stream().mapToInt(Integer::intValue).sorted().toArray();
+        }
+
+        int[] documentFrequency = new int[termIds.size()];
+        for (int[] sentenceTerms : terms) {
+            for (int i = 0; i < sentenceTerms.length; i++) {
+                if (i == 0 || sentenceTerms[i] != sentenceTerms[i - 1]) {
+                    documentFrequency[sentenceTerms[i]]++;
+                }
+            }
+        }
+        float[] idf = new float[documentFrequency.length];
+        for (int t = 0; t < idf.length; t++) {
+            idf[t] = (float) (Math.log((1.0 + terms.length) / (1.0 + documentFrequency[t])) + 1.0);
+        }
+
+        return IntStream.range(0, terms.length).parallel()
+                .mapToObj(s -> SparseVector.of(terms[s], idf))
+                .toArray(SparseVector[]::new);
+    }
+
+    private static void buildGraph(SparseVector[] vectors, int vocabularySize, int[][] neighbors, float[][] weights) {
+        int n = vectors.length;
+        int[][] bucketMates = n <= ALL_PAIRS_LIMIT ? null : bucketMates(vectors);
+        // Each worker scatters the current sentence into a dense array, so a similarity is a gather over the other sentence
+        ThreadLocal<float[]> denseVectors = ThreadLocal.withInitial(() -> new float[vocabularySize]);
+        IntStream.range(0, n).parallel().forEach(i -> {
+            float[] dense = denseVectors.get();
+            vectors[i].scatter(dense);
+            // Each sentence collects its own edges, so the graph is built without synchronisation
+            int[] candidates;
+            if (bucketMates == null) {
+                candidates = IntStream.range(0, n).toArray();
+            } else {
+                int from = Math.max(0, i - WINDOW);
+                int to = Math.min(n, i + WINDOW + 1);
+                candidates = Arrays.copyOf(bucketMates[i], bucketMates[i].length + to - from);
+                for (int j = from; j < to; j++) {
+                    candidates[bucketMates[i].length + j - from] = j;
+                }
+                Arrays.sort(candidates);
+            }
+            int[] edgeTargets = new int[candidates.length];
+            float[] edgeWeights = new float[candidates.length];
+            int edges = 0;
+            for (int c = 0; c < candidates.length; c++) {
+                int j = candidates[c];
+                if (j != i && (c == 0 || j != candidates[c - 1])) {
+                    float similarity = vectors[j].dot(dense);
+                    if (similarity >= MIN_SIMILARITY) {
+                        edgeTargets[edges] = j;
+                        edgeWeights[edges++] = similarity;
+                    }
+                }
+            }
+            vectors[i].clear(dense);
+            neighbors[i] = Arrays.copyOf(edgeTargets, edges);
+            weights[i] = Arrays.copyOf(edgeWeights, edges);
+        });
+    }
+
+    /**
+     * Group sentences whose SimHash signatures agree on any band; each sentence gets the members of its
+     * buckets, at most {@link #MAX_BUCKET_SIZE} per bucket
+     */
+    private static int[][] bucketMates(SparseVector[] vectors) {
+        long[] signatures = IntStream.range(0, vectors.length).parallel()
+                .mapToLong(s -> vectors[s].simHash())
+                .toArray();
+        List<Map<Integer, int[]>> bands = new ArrayList<>();
+        boolean[][] members = new boolean[BANDS][vectors.length];
+        for (int band = 0; band < BANDS; band++) {
+            Map<Integer, int[]> buckets = new HashMap<>();
+            for (int s = 0; s < vectors.length; s++) {
+                if (vectors[s].isEmpty()) {
+                    continue;
+                }
+                int key = (int) (signatures[s] >>> band * BAND_BITS) & ((1 << BAND_BITS) - 1);
+                int[] bucket = buckets.computeIfAbsent(key, k -> new int[MAX_BUCKET_SIZE + 1]);
+                // Slot 0 holds the size; sentences beyond a full bucket only fall back on the window
+                if (bucket[0] < MAX_BUCKET_SIZE) {
+                    bucket[++bucket[0]] = s;
+                    members[band][s] = true;
+                }
+            }
+            bands.add(buckets);
+        }
+        int[][] mates = new int[vectors.length][];
+        IntStream.range(0, vectors.length).parallel().forEach(s -> {
+            if (vectors[s].isEmpty()) {
+                mates[s] = new int[0];
+                return;
+            }
+            int[] all = new int[BANDS * MAX_BUCKET_SIZE];
+            int count = 0;
+            for (int band = 0; band < BANDS; band++) {
+                if (!members[band][s]) {
+                    // Keep the graph symmetric: only members see the other members of a bucket
+                    continue;
+                }
+                int key = (int) (signatures[s] >>> band * BAND_BITS) & ((1 << BAND_BITS) - 1);
+                int[] bucket = bands.get(band).get(key);
+                System.arraycopy(bucket, 1, all, count, bucket[0]);
+                count += bucket[0];
+            }
+            mates[s] = Arrays.copyOf(all, count);
+        });
+        return mates;
+    }
+
+    private static double[] rank(int[][] neighbors, float[][] weights) {
+        int n = neighbors.length;
+        double[] outWeight = new double[n];
+        for (int i = 0; i < n; i++) {
+            for (float weight : weights[i]) {
+                outWeight[i] += weight;
+            }
+        }
+        double[] scores = new double[n];
+        Arrays.fill(scores, 1.0);
+        double[] next = new double[n];
+        for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+            Cancellation.checkpoint();
+            double[] current = scores;
+            double[] updated = next;
+            // The graph is symmetric, so a sentence's neighbours are also the sentences voting for it
+            double delta = IntStream.range(0, n).parallel().mapToDouble(i -> {
+                double sum = 0;
+                int[] adjacent = neighbors[i];
+                float[] adjacentWeights = weights[i];
+                for (int k = 0; k < adjacent.length; k++) {
+                    int j = adjacent[k];
+                    sum += adjacentWeights[k] / outWeight[j] * current[j];
+                }
+                updated[i] = 1 - DAMPING + DAMPING * sum;
+                return Math.abs(updated[i] - current[i]);
+            }).max().orElse(0);
+            next = scores;
+            scores = updated;
+            if (delta < TOLERANCE) {
+                break;
+            }
+        }
+        return scores;
+    }
+
+    /**
+     * Indices of the k highest scores, earlier sentences winning ties
+     */
+    private static int[] topK(double[] scores, int k) {
+        PriorityQueue<Integer> heap = new PriorityQueue<>(k + 1, (a, b) -> scores[a] != scores[b]
+                ? Double.compare(scores[a], scores[b]) : Integer.compare(b, a));
+        for (int i = 0; i < scores.length; i++) {
+            heap.add(i);
+            if (heap.size() > k) {
+                heap.poll();
+            }
+        }
+        return heap.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * L2-normalised TF-IDF vector with ascending term ids
+     */
+    private static final class SparseVector {
+        final int[] terms;
+        final float[] weights;
+
+        private SparseVector(int[] terms, float[] weights) {
+            this.terms = terms;
+            this.weights = weights;
+        }
+
+        static SparseVector of(int[] sortedTerms, float[] idf) {
+            int distinct = 0;
+            int[] terms = new int[sortedTerms.length];
+            float[] weights = new float[sortedTerms.length];
+            for (int i = 0; i < sortedTerms.length; i++) {
+                if (distinct > 0 && terms[distinct - 1] == sortedTerms[i]) {
+                    weights[distinct - 1] += idf[sortedTerms[i]];
+                } else {
+                    terms[distinct] = sortedTerms[i];
+                    weights[distinct++] = idf[sortedTerms[i]];
+                }
+            }
+            double norm = 0;
+            for (int i = 0; i < distinct; i++) {
+                norm += (double) weights[i] * weights[i];
+            }
+            float scale = norm == 0 ? 0 : (float) (1 / Math.sqrt(norm));
+            for (int i = 0; i < distinct; i++) {
+                weights[i] *= scale;
+            }
+            return new SparseVector(Arrays.copyOf(terms, distinct), Arrays.copyOf(weights, distinct));
+        }
+
+        boolean isEmpty() {
+            return terms.length == 0;
+        }
+
+        void scatter(float[] dense) {
+            for (int i = 0; i < terms.length; i++) {
+                dense[terms[i]] = weights[i];
+            }
+        }
+
+        void clear(float[] dense) {
+            for (int term : terms) {
+                dense[term] = 0;
+            }
+        }
+
+        /**
+         * Dot product with a vector scattered into a dense array
+         */
+        float dot(float[] dense) {
+            float sum = 0;
+            for (int i = 0; i < terms.length; i++) {
+                sum += weights[i] * dense[terms[i]];
+            }
+            return sum;
+        }
+
+        /**
+         * Random hyperplane signature: bit b is set when the weighted sum of the terms' b-th hash bits leans positive
+         */
+        long simHash() {
+            float[] sums = new float[64];
+            for (int i = 0; i < terms.length; i++) {
+                long hash = mix(terms[i]);
+                for (int bit = 0; bit < 64; bit++) {
+                    sums[bit] += weights[i] * ((int) (hash >>> bit & 1) * 2 - 1);
+                }
+            }
+            long signature = 0;
+            for (int bit = 0; bit < 64; bit++) {
+                if (sums[bit] > 0) {
+                    signature |= 1L << bit;
+                }
+            }
+            return signature;
+        }
+
+        private static long mix(long value) {
+            long z = value * 0x9E3779B97F4A7C15L;
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            return z ^ (z >>> 31);
+        }
+    }
+}
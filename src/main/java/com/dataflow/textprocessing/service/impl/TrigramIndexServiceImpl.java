@@ -0,0 +1,585 @@
+package com.dataflow.textprocessing.service.impl;
+
+import com.dataflow.textprocessing.exception.TextProcessingException;
+import com.dataflow.textprocessing.model.SearchHit;
+import com.dataflow.textprocessing.model.TextDocument;
+import com.dataflow.textprocessing.service.TrigramIndexService;
+import com.dataflow.textprocessing.util.CompressedFiles;
+import com.dataflow.textprocessing.util.VarIntCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Trigram index over lower cased document content. A regex search derives the trigrams every match
+ * must contain, intersects their posting lists to find candidate documents and only runs
+ * {@link java.util.regex} over those candidates.
+ * <p>
+ * The index keeps no content. Documents indexed in this session are held weakly, and those changed
+ * since they were indexed are re-indexed before a search; the check only walks them after some
+ * document changed ({@link TextDocument#getLastVersion()}). The content of candidates no longer held,
+ * such as those of a loaded index, comes from the document loader.
+ */
+public class TrigramIndexServiceImpl implements TrigramIndexService {
+    private static final Logger logger = LoggerFactory.getLogger(TrigramIndexServiceImpl.class);
+    private static final int MAGIC = 0x54505447; // "TPTG"
+    private static final int FORMAT_VERSION = 1;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, WeakReference<TextDocument>> liveDocuments = new ConcurrentHashMap<>();
+    private final Function<String, TextDocument> documentLoader;
+    private volatile long refreshedVersion;
+    private Map<Long, DocumentList> postings = new HashMap<>();
+    private Map<String, IndexedDocument> documentsById = new HashMap<>();
+    private Map<Integer, IndexedDocument> documentsByOrdinal = new HashMap<>();
+    private int nextOrdinal;
+
+    /**
+     * @param documentLoader Resolves ids of indexed documents that are no longer in memory, such as
+     *                       those of a loaded index; returns null for documents that no longer exist
+     */
+    public TrigramIndexServiceImpl(Function<String, TextDocument> documentLoader) {
+        this.documentLoader = Objects.requireNonNull(documentLoader, "A trigram index needs a document loader");
+    }
+
+    @Override
+    public boolean indexDocument(TextDocument document) {
+        WeakReference<TextDocument> live = liveDocuments.get(document.getId());
+        if (live == null || live.get() != document) {
+            liveDocuments.put(document.getId(), new WeakReference<>(document));
+        }
+        if (isUpToDate(document)) {
+            return false;
+        }
+
+        long[] trigrams = extractTrigrams(document.getContent());
+        lock.writeLock().lock();
+        try {
+            IndexedDocument previous = documentsById.get(document.getId());
+            if (previous != null) {
+                if (previous.isCurrent(document)) {
+                    return false;
+                }
+                unindex(previous);
+            }
+            IndexedDocument indexed = new IndexedDocument(nextOrdinal++, document.getId(), document.getName(),
+                    document.getModifiedAt(), document.getVersion(), trigrams);
+            for (long trigram : trigrams) {
+                postings.computeIfAbsent(trigram, t -> new DocumentList()).add(indexed.ordinal);
+            }
+            documentsById.put(indexed.id, indexed);
+            documentsByOrdinal.put(indexed.ordinal, indexed);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        logger.debug("Indexed {} trigrams of document {}", trigrams.length, document.getId());
+        return true;
+    }
+
+    @Override
+    public int indexDocuments(Collection<TextDocument> documents) {
+        int indexed = 0;
+        for (TextDocument document : documents) {
+            if (indexDocument(document)) {
+                indexed++;
+            }
+        }
+        logger.info("Trigram indexed {} of {} documents", indexed, documents.size());
+        return indexed;
+    }
+
+    @Override
+    public boolean removeDocument(String documentId) {
+        liveDocuments.remove(documentId);
+        lock.writeLock().lock();
+        try {
+            IndexedDocument indexed = documentsById.get(documentId);
+            if (indexed == null) {
+                return false;
+            }
+            unindex(indexed);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<SearchHit> searchPattern(String pattern) {
+        Pattern compiled = compile(pattern);
+        List<SearchHit> hits = new ArrayList<>();
+        for (IndexedDocument candidate : plan(pattern)) {
+            TextDocument document = resolve(candidate.id);
+            if (document == null) {
+                logger.warn("Skipping indexed document {} which can no longer be loaded", candidate.id);
+                continue;
+            }
+            Matcher matcher = compiled.matcher(document.getContent());
+            while (matcher.find()) {
+                hits.add(new SearchHit(document.getId(), document.getName(), matcher.start(), matcher.end() - matcher.start()));
+            }
+        }
+        return hits;
+    }
+
+    @Override
+    public Set<String> findCandidates(String pattern) {
+        compile(pattern);
+        Set<String> ids = new LinkedHashSet<>();
+        for (IndexedDocument candidate : plan(pattern)) {
+            ids.add(candidate.id);
+        }
+        return ids;
+    }
+
+    @Override
+    public int getDocumentCount() {
+        lock.readLock().lock();
+        try {
+            return documentsById.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void save(Path path) {
+        lock.readLock().lock();
+        try {
+            Path tempFile = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    CompressedFiles.newOutputStream(tempFile, CompressedFiles.hasGzipExtension(path))))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                writeDocuments(out);
+                writePostings(out);
+            }
+            Files.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            logger.info("Saved trigram index with {} documents and {} trigrams to {}", documentsById.size(), postings.size(), path);
+        } catch (IOException e) {
+            logger.error("Error saving trigram index to {}: {}", path, e.getMessage());
+            throw new TextProcessingException("Failed to save trigram index", e);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void load(Path path) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(CompressedFiles.newInputStream(path)))) {
+            if (in.readInt() != MAGIC) {
+                throw new TextProcessingException("Not a trigram index file: " + path);
+            }
+            int version = in.readInt();
+            if (version != FORMAT_VERSION) {
+                throw new TextProcessingException("Unsupported trigram index format version: " + version);
+            }
+            Map<Integer, IndexedDocument> loadedByOrdinal = new HashMap<>();
+            int loadedNextOrdinal = readDocuments(in, loadedByOrdinal);
+            Map<Integer, LongHashSet> trigramsByOrdinal = new HashMap<>();
+            Map<Long, DocumentList> loadedPostings = readPostings(in, trigramsByOrdinal);
+
+            Map<String, IndexedDocument> loadedById = new HashMap<>();
+            for (IndexedDocument document : loadedByOrdinal.values()) {
+                LongHashSet trigrams = trigramsByOrdinal.get(document.ordinal);
+                document.trigrams = trigrams == null ? new long[0] : trigrams.toArray();
+                loadedById.put(document.id, document);
+            }
+
+            lock.writeLock().lock();
+            try {
+                postings = loadedPostings;
+                documentsById = loadedById;
+                documentsByOrdinal = loadedByOrdinal;
+                nextOrdinal = loadedNextOrdinal;
+                liveDocuments.keySet().retainAll(loadedById.keySet());
+                refreshedVersion = 0;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            logger.info("Loaded trigram index with {} documents and {} trigrams from {}",
+                    loadedById.size(), loadedPostings.size(), path);
+        } catch (IOException e) {
+            logger.error("Error loading trigram index from {}: {}", path, e.getMessage());
+            throw new TextProcessingException("Failed to load trigram index", e);
+        }
+    }
+
+    private List<IndexedDocument> plan(String pattern) {
+        refreshModifiedDocuments();
+        TrigramQuery query = RegexTrigramExtractor.extract(pattern);
+        lock.readLock().lock();
+        try {
+            List<IndexedDocument> candidates = new ArrayList<>();
+            int[] ordinals = evaluate(query);
+            if (ordinals == null) {
+                candidates.addAll(new TreeMap<>(documentsByOrdinal).values());
+            } else {
+                for (int ordinal : ordinals) {
+                    candidates.add(documentsByOrdinal.get(ordinal));
+                }
+            }
+            logger.debug("Trigram query {} narrowed {} documents to {} candidates",
+                    query, documentsById.size(), candidates.size());
+            return candidates;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Re-index documents of this session that were edited since they were indexed, so the index never
+     * filters out a document whose new content matches; does nothing while no document changed
+     */
+    private void refreshModifiedDocuments() {
+        long version = TextDocument.getLastVersion();
+        if (version == refreshedVersion) {
+            return;
+        }
+        for (Iterator<WeakReference<TextDocument>> live = liveDocuments.values().iterator(); live.hasNext(); ) {
+            TextDocument document = live.next().get();
+            if (document == null) {
+                live.remove();
+            } else if (document.getVersion() > refreshedVersion) {
+                indexDocument(document);
+            }
+        }
+        refreshedVersion = version;
+    }
+
+    /**
+     * @return Sorted ordinals of the documents satisfying the query, or null if every document does
+     */
+    private int[] evaluate(TrigramQuery query) {
+        switch (query.op) {
+            case ALL:
+                return null;
+            case NONE:
+                return new int[0];
+            case AND: {
+                List<DocumentList> lists = new ArrayList<>();
+                for (String trigram : query.trigrams) {
+                    DocumentList list = postings.get(pack(trigram.charAt(0), trigram.charAt(1), trigram.charAt(2)));
+                    if (list == null) {
+                        return new int[0];
+                    }
+                    lists.add(list);
+                }
+                lists.sort(Comparator.comparingInt(list -> list.size));
+                int[] result = null;
+                for (DocumentList list : lists) {
+                    result = result == null ? Arrays.copyOf(list.ordinals, list.size) : intersect(result, list.ordinals, list.size);
+                }
+                for (TrigramQuery subquery : query.subqueries) {
+                    int[] sub = evaluate(subquery);
+                    if (sub != null) {
+                        result = result == null ? sub : intersect(result, sub, sub.length);
+                    }
+                }
+                return result;
+            }
+            case OR: {
+                int[] result = new int[0];
+                for (String trigram : query.trigrams) {
+                    DocumentList list = postings.get(pack(trigram.charAt(0), trigram.charAt(1), trigram.charAt(2)));
+                    if (list != null) {
+                        result = union(result, list.ordinals, list.size);
+                    }
+                }
+                for (TrigramQuery subquery : query.subqueries) {
+                    int[] sub = evaluate(subquery);
+                    if (sub == null) {
+                        return null;
+                    }
+                    result = union(result, sub, sub.length);
+                }
+                return result;
+            }
+            default:
+                throw new IllegalStateException("Unknown query operator: " + query.op);
+        }
+    }
+
+    private static int[] intersect(int[] a, int[] b, int bLength) {
+        int[] result = new int[Math.min(a.length, bLength)];
+        int i = 0;
+        int j = 0;
+        int n = 0;
+        while (i < a.length && j < bLength) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    private static int[] union(int[] a, int[] b, int bLength) {
+        int[] result = new int[a.length + bLength];
+        int i = 0;
+        int j = 0;
+        int n = 0;
+        while (i < a.length || j < bLength) {
+            if (j >= bLength || (i < a.length && a[i] < b[j])) {
+                result[n++] = a[i++];
+            } else if (i >= a.length || b[j] < a[i]) {
+                result[n++] = b[j++];
+            } else {
+                result[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    private TextDocument resolve(String id) {
+        WeakReference<TextDocument> live = liveDocuments.get(id);
+        TextDocument document = live == null ? null : live.get();
+        return document != null ? document : documentLoader.apply(id);
+    }
+
+    private static Pattern compile(String pattern) {
+        try {
+            return Pattern.compile(pattern);
+        } catch (PatternSyntaxException e) {
+            throw new TextProcessingException("Invalid pattern: " + pattern, e);
+        }
+    }
+
+    private boolean isUpToDate(TextDocument document) {
+        lock.readLock().lock();
+        try {
+            IndexedDocument indexed = documentsById.get(document.getId());
+            return indexed != null && indexed.isCurrent(document);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void unindex(IndexedDocument document) {
+        for (long trigram : document.trigrams) {
+            DocumentList list = postings.get(trigram);
+            if (list != null && list.remove(document.ordinal) && list.size == 0) {
+                postings.remove(trigram);
+            }
+        }
+        documentsById.remove(document.id);
+        documentsByOrdinal.remove(document.ordinal);
+    }
+
+    private static long[] extractTrigrams(String content) {
+        LongHashSet trigrams = new LongHashSet();
+        if (content.length() >= 3) {
+            char c1 = Character.toLowerCase(content.charAt(0));
+            char c2 = Character.toLowerCase(content.charAt(1));
+            for (int i = 2; i < content.length(); i++) {
+                char c3 = Character.toLowerCase(content.charAt(i));
+                trigrams.add(pack(c1, c2, c3));
+                c1 = c2;
+                c2 = c3;
+            }
+        }
+        return trigrams.toArray();
+    }
+
+    private static long pack(char c1, char c2, char c3) {
+        return ((long) c1 << 32) | ((long) c2 << 16) | c3;
+    }
+
+    private void writeDocuments(DataOutputStream out) throws IOException {
+        VarIntCodec.writeVarInt(out, nextOrdinal);
+        VarIntCodec.writeVarInt(out, documentsByOrdinal.size());
+        int previousOrdinal = 0;
+        for (IndexedDocument document : new TreeMap<>(documentsByOrdinal).values()) {
+            VarIntCodec.writeVarInt(out, document.ordinal - previousOrdinal);
+            previousOrdinal = document.ordinal;
+            VarIntCodec.writeString(out, document.id);
+            VarIntCodec.writeString(out, document.name);
+            VarIntCodec.writeVarLong(out, document.modifiedAt.toEpochSecond(ZoneOffset.UTC));
+            VarIntCodec.writeVarInt(out, document.modifiedAt.getNano());
+        }
+    }
+
+    private static int readDocuments(DataInputStream in, Map<Integer, IndexedDocument> byOrdinal) throws IOException {
+        int nextOrdinal = VarIntCodec.readVarInt(in);
+        int count = VarIntCodec.readVarInt(in);
+        int ordinal = 0;
+        for (int i = 0; i < count; i++) {
+            ordinal += VarIntCodec.readVarInt(in);
+            String id = VarIntCodec.readString(in);
+            String name = VarIntCodec.readString(in);
+            LocalDateTime modifiedAt = LocalDateTime.ofEpochSecond(
+                    VarIntCodec.readVarLong(in), VarIntCodec.readVarInt(in), ZoneOffset.UTC);
+            // Versions only count changes within a session; a restored document has version 0
+            byOrdinal.put(ordinal, new IndexedDocument(ordinal, id, name, modifiedAt, 0, null));
+        }
+        return nextOrdinal;
+    }
+
+    private void writePostings(DataOutputStream out) throws IOException {
+        long[] trigrams = postings.keySet().stream().mapToLong(Long::longValue).sorted().toArray();
+        VarIntCodec.writeVarInt(out, trigrams.length);
+        long previousTrigram = 0;
+        for (long trigram : trigrams) {
+            VarIntCodec.writeVarLong(out, trigram - previousTrigram);
+            previousTrigram = trigram;
+            DocumentList list = postings.get(trigram);
+            VarIntCodec.writeVarInt(out, list.size);
+            int previousOrdinal = 0;
+            for (int i = 0; i < list.size; i++) {
+                VarIntCodec.writeVarInt(out, list.ordinals[i] - previousOrdinal);
+                previousOrdinal = list.ordinals[i];
+            }
+        }
+    }
+
+    private static Map<Long, DocumentList> readPostings(DataInputStream in,
+            Map<Integer, LongHashSet> trigramsByOrdinal) throws IOException {
+        int count = VarIntCodec.readVarInt(in);
+        Map<Long, DocumentList> loaded = new HashMap<>(count * 2);
+        long trigram = 0;
+        for (int t = 0; t < count; t++) {
+            trigram += VarIntCodec.readVarLong(in);
+            DocumentList list = new DocumentList();
+            int size = VarIntCodec.readVarInt(in);
+            int ordinal = 0;
+            for (int i = 0; i < size; i++) {
+                ordinal += VarIntCodec.readVarInt(in);
+                list.add(ordinal);
+                trigramsByOrdinal.computeIfAbsent(ordinal, o -> new LongHashSet()).add(trigram);
+            }
+            loaded.put(trigram, list);
+        }
+        return loaded;
+    }
+
+    private static class IndexedDocument {
+        final int ordinal;
+        final String id;
+        final String name;
+        final LocalDateTime modifiedAt;
+        final long version;
+        long[] trigrams;
+
+        IndexedDocument(int ordinal, String id, String name, LocalDateTime modifiedAt, long version, long[] trigrams) {
+            this.ordinal = ordinal;
+            this.id = id;
+            this.name = name;
+            this.modifiedAt = modifiedAt;
+            this.version = version;
+            this.trigrams = trigrams;
+        }
+
+        boolean isCurrent(TextDocument document) {
+            return version == document.getVersion() && modifiedAt.equals(document.getModifiedAt());
+        }
+    }
+
+    /**
+     * Sorted document ordinals containing a trigram
+     */
+    private static class DocumentList {
+        int[] ordinals = new int[2];
+        int size;
+
+        void add(int ordinal) {
+            if (size == ordinals.length) {
+                ordinals = Arrays.copyOf(ordinals, size * 2);
+            }
+            ordinals[size++] = ordinal;
+        }
+
+        boolean remove(int ordinal) {
+            int index = Arrays.binarySearch(ordinals, 0, size, ordinal);
+            if (index < 0) {
+                return false;
+            }
+            System.arraycopy(ordinals, index + 1, ordinals, index, size - index - 1);
+            size--;
+            return true;
+        }
+    }
+
+    /**
+     * Open addressing set of primitive longs, used to collect the distinct trigrams of a document
+     */
+    private static class LongHashSet {
+        private static final long EMPTY = -1L;
+        private long[] slots = newSlots(64);
+        private int size;
+
+        void add(long value) {
+            if ((size + 1) * 2 > slots.length) {
+                rehash();
+            }
+            int mask = slots.length - 1;
+            int index = mix(value) & mask;
+            while (slots[index] != EMPTY) {
+                if (slots[index] == value) {
+                    return;
+                }
+                index = (index + 1) & mask;
+            }
+            slots[index] = value;
+            size++;
+        }
+
+        long[] toArray() {
+            long[] values = new long[size];
+            int n = 0;
+            for (long slot : slots) {
+                if (slot != EMPTY) {
+                    values[n++] = slot;
+                }
+            }
+            return values;
+        }
+
+        private void rehash() {
+            long[] old = slots;
+            slots = newSlots(old.length * 2);
+            size = 0;
+            for (long value : old) {
+                if (value != EMPTY) {
+                    add(value);
+                }
+            }
+        }
+
+        private static long[] newSlots(int capacity) {
+            long[] slots = new long[capacity];
+            Arrays.fill(slots, EMPTY);
+            return slots;
+        }
+
+        private static int mix(long value) {
+            long h = value * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+}
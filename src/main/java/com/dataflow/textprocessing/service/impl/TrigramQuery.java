@@ -0,0 +1,103 @@
+package com.dataflow.textprocessing.service.impl;
+
+import java.util.*;
+
+/**
+ * Boolean query over trigrams that every match of a regular expression must satisfy.
+ * An AND node requires all of its trigrams and subqueries, an OR node any of them.
+ */
+final class TrigramQuery {
+    enum Op {
+        ALL,
+        NONE,
+        AND,
+        OR
+    }
+
+    static final TrigramQuery ALL = new TrigramQuery(Op.ALL, Set.of(), List.of());
+    static final TrigramQuery NONE = new TrigramQuery(Op.NONE, Set.of(), List.of());
+
+    final Op op;
+    final Set<String> trigrams;
+    final List<TrigramQuery> subqueries;
+
+    private TrigramQuery(Op op, Set<String> trigrams, List<TrigramQuery> subqueries) {
+        this.op = op;
+        this.trigrams = trigrams;
+        this.subqueries = subqueries;
+    }
+
+    /**
+     * Query matching text that contains one of the given strings
+     */
+    static TrigramQuery anyOf(Set<String> strings) {
+        TrigramQuery result = NONE;
+        for (String s : strings) {
+            if (s.length() < 3) {
+                return ALL;
+            }
+            result = or(result, allTrigramsOf(s));
+        }
+        return result;
+    }
+
+    static TrigramQuery allTrigramsOf(String s) {
+        Set<String> trigrams = new TreeSet<>();
+        for (int i = 0; i + 3 <= s.length(); i++) {
+            trigrams.add(s.substring(i, i + 3));
+        }
+        return trigrams.isEmpty() ? ALL : new TrigramQuery(Op.AND, trigrams, List.of());
+    }
+
+    static TrigramQuery and(TrigramQuery a, TrigramQuery b) {
+        if (a.op == Op.NONE || b.op == Op.NONE) {
+            return NONE;
+        }
+        if (a.op == Op.ALL) {
+            return b;
+        }
+        if (b.op == Op.ALL) {
+            return a;
+        }
+        return combine(Op.AND, a, b);
+    }
+
+    static TrigramQuery or(TrigramQuery a, TrigramQuery b) {
+        if (a.op == Op.ALL || b.op == Op.ALL) {
+            return ALL;
+        }
+        if (a.op == Op.NONE) {
+            return b;
+        }
+        if (b.op == Op.NONE) {
+            return a;
+        }
+        return combine(Op.OR, a, b);
+    }
+
+    private static TrigramQuery combine(Op op, TrigramQuery a, TrigramQuery b) {
+        Set<String> trigrams = new TreeSet<>();
+        List<TrigramQuery> subqueries = new ArrayList<>();
+        for (TrigramQuery q : List.of(a, b)) {
+            if (q.op == op || (q.trigrams.size() == 1 && q.subqueries.isEmpty())) {
+                // Same operator, or a single trigram which reads the same under either operator
+                trigrams.addAll(q.trigrams);
+                subqueries.addAll(q.subqueries);
+            } else {
+                subqueries.add(q);
+            }
+        }
+        return new TrigramQuery(op, trigrams, subqueries);
+    }
+
+    @Override
+    public String toString() {
+        if (op == Op.ALL || op == Op.NONE) {
+            return "+" + op;
+        }
+        StringJoiner joiner = new StringJoiner(op == Op.AND ? " " : "|", "(", ")");
+        trigrams.forEach(t -> joiner.add('"' + t + '"'));
+        subqueries.forEach(q -> joiner.add(q.toString()));
+        return joiner.toString();
+    }
+}
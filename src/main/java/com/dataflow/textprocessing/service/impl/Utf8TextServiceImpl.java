@@ -0,0 +1,462 @@
+package com.dataflow.textprocessing.service.impl;
+
+import com.dataflow.textprocessing.exception.TextProcessingException;
+import com.dataflow.textprocessing.model.TextDocument;
+import com.dataflow.textprocessing.service.TextProcessingService;
+import com.dataflow.textprocessing.service.Utf8TextService;
+import com.dataflow.textprocessing.util.Cancellation;
+import com.dataflow.textprocessing.util.Utf8;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Byte-level implementation of the hot text operations. Line breaks, words, whitespace and sentence
+ * terminators are all ASCII, and no byte of a multi-byte UTF-8 sequence is ASCII, so these operations
+ * scan the bytes without decoding. Line breaks are found eight bytes at a time. Words of up to eight
+ * bytes are counted packed into a {@code long} without creating strings.
+ * <p>
+ * Statistics, sorting and duplicate removal depend on how each character decodes, so they check that
+ * the text is well-formed UTF-8 first; malformed text is decoded with replacement characters and
+ * handed to the string operations instead. Lines are sorted by UTF-16 code unit order like
+ * {@link String#compareTo}: byte order except that lead bytes of supplementary characters sort
+ * before those of U+E000 to U+FFFF.
+ */
+public class Utf8TextServiceImpl implements Utf8TextService {
+    private static final Logger logger = LoggerFactory.getLogger(Utf8TextServiceImpl.class);
+    private static final int CHECKPOINT_INTERVAL = 1 << 20;
+    private static final byte WORD = 1;
+    private static final byte WHITESPACE = 2;
+    private static final byte TERMINATOR = 4;
+    private static final byte[] CLASS = new byte[256];
+
+    static {
+        for (char c = 'a'; c <= 'z'; c++) {
+            CLASS[c] = WORD;
+            CLASS[Character.toUpperCase(c)] = WORD;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            CLASS[c] = WORD;
+        }
+        CLASS['_'] = WORD;
+        for (char c : " \t\n\u000B\f\r".toCharArray()) {
+            CLASS[c] = WHITESPACE;
+        }
+        for (char c : ".!?".toCharArray()) {
+            CLASS[c] = TERMINATOR;
+        }
+    }
+
+    private final TextProcessingService fallback;
+
+    public Utf8TextServiceImpl() {
+        this(new TextProcessingServiceImpl());
+    }
+
+    /**
+     * @param fallback String operations used for malformed text
+     */
+    public Utf8TextServiceImpl(TextProcessingService fallback) {
+        this.fallback = fallback;
+    }
+
+    @Override
+    public ByteBuffer map(Path path) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new TextProcessingException("File too large to map: " + path + " (" + size + " bytes)");
+            }
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (size >= 3 && (buffer.get(0) & 0xFF) == 0xEF && (buffer.get(1) & 0xFF) == 0xBB
+                    && (buffer.get(2) & 0xFF) == 0xBF) {
+                buffer.position(3);
+            }
+            logger.debug("Mapped {} bytes of {}", size, path);
+            return buffer;
+        } catch (IOException e) {
+            logger.error("Error mapping file {}: {}", path, e.getMessage());
+            throw new TextProcessingException("Failed to map file: " + path, e);
+        }
+    }
+
+    @Override
+    public long countLines(ByteBuffer text) {
+        int from = text.position();
+        int to = text.limit();
+        if (from == to) {
+            return 0;
+        }
+        ByteBuffer longs = text.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        long breaks = 0;
+        int i = from;
+        int nextCheckpoint = from + CHECKPOINT_INTERVAL;
+        while (to - i >= Long.BYTES) {
+            if (i >= nextCheckpoint) {
+                Cancellation.checkpoint();
+                nextCheckpoint = i + CHECKPOINT_INTERVAL;
+            }
+            breaks += Long.bitCount(LineOffsetIndex.zeroBytes(longs.getLong(i) ^ LineOffsetIndex.ONES * '\n'));
+            i += Long.BYTES;
+        }
+        for (; i < to; i++) {
+            if (text.get(i) == '\n') {
+                breaks++;
+            }
+        }
+        return text.get(to - 1) == '\n' ? breaks : breaks + 1;
+    }
+
+    @Override
+    public long countOccurrences(ByteBuffer text, String literal) {
+        byte[] target = encodeLiteral(literal);
+        ByteBuffer longs = text.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int to = text.limit();
+        long count = 0;
+        int i = text.position();
+        while ((i = indexOf(text, longs, target, i, to)) >= 0) {
+            if (++count % CHECKPOINT_INTERVAL == 0) {
+                Cancellation.checkpoint();
+            }
+            i += target.length;
+        }
+        logger.debug("Found {} occurrences of {}", count, literal);
+        return count;
+    }
+
+    @Override
+    public List<String> findLines(ByteBuffer text, String literal, int maxLines) {
+        byte[] target = encodeLiteral(literal);
+        ByteBuffer longs = text.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int from = text.position();
+        int to = text.limit();
+        List<String> lines = new ArrayList<>();
+        int i = from;
+        while (lines.size() < maxLines && (i = indexOf(text, longs, target, i, to)) >= 0) {
+            Cancellation.checkpoint();
+            int start = i;
+            while (start > from && text.get(start - 1) != '\n') {
+                start--;
+            }
+            int end = indexOfByte(text, longs, (byte) '\n', i + target.length, to);
+            if (end < 0) {
+                end = to;
+            }
+            lines.add(decode(text, start, end));
+            i = end + 1;
+        }
+        return lines;
+    }
+
+    @Override
+    public Map<String, Long> analyzeWordFrequency(ByteBuffer text) {
+        int to = text.limit();
+        LongCountTable shortWords = new LongCountTable(1024);
+        Map<String, Long> frequencies = new HashMap<>();
+        int i = text.position();
+        int nextCheckpoint = i + CHECKPOINT_INTERVAL;
+        while (i < to) {
+            if (CLASS[text.get(i) & 0xFF] != WORD) {
+                i++;
+                continue;
+            }
+            if (i >= nextCheckpoint) {
+                Cancellation.checkpoint();
+                nextCheckpoint = i + CHECKPOINT_INTERVAL;
+            }
+            int start = i;
+            long packed = 0;
+            byte b;
+            while (i < to && CLASS[(b = text.get(i)) & 0xFF] == WORD) {
+                if (i - start < Long.BYTES) {
+                    packed |= (long) (b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b) << 8 * (i - start);
+                }
+                i++;
+            }
+            if (i - start <= Long.BYTES) {
+                // Word bytes are never zero, so the packed word is a non-zero key holding its length
+                shortWords.add(packed, 1);
+            } else {
+                frequencies.merge(lowerCaseAscii(text, start, i), 1L, Long::sum);
+            }
+        }
+        shortWords.forEach((key, count) -> frequencies.put(unpack(key), count));
+        logger.debug("Counted {} distinct words", frequencies.size());
+        return frequencies;
+    }
+
+    @Override
+    public Map<String, Object> getTextStatistics(ByteBuffer text) {
+        int from = text.position();
+        int to = text.limit();
+        int malformed = Utf8.firstMalformed(text, from, to);
+        if (malformed >= 0) {
+            logger.debug("Malformed UTF-8 at byte {}, computing statistics on decoded text", malformed);
+            return fallback.getTextStatistics(new TextDocument("", decode(text, from, to)));
+        }
+
+        long characters = 0;
+        long[] ascii = new long[128];
+        LongCountTable otherCharacters = new LongCountTable(64);
+        long[] wordLengths = new long[64];
+        Map<Integer, Long> longWordLengths = new HashMap<>();
+        long words = 0;
+        long terminatorRuns = 0;
+        int previousClass = 0;
+        int wordStart = -1;
+        int nextCheckpoint = from;
+        for (int i = from; i < to; i++) {
+            if (i >= nextCheckpoint) {
+                Cancellation.checkpoint();
+                nextCheckpoint = i + CHECKPOINT_INTERVAL;
+            }
+            int b = text.get(i) & 0xFF;
+            int charClass = CLASS[b];
+            if (b < 0x80) {
+                characters++;
+                ascii[b]++;
+            } else if (b >= 0xC0) {
+                // Lead byte of a well-formed sequence
+                int codePoint = decodeSequence(text, i, b);
+                if (codePoint < 0x10000) {
+                    characters++;
+                    otherCharacters.add(Character.toLowerCase((char) codePoint), 1);
+                } else {
+                    characters += 2;
+                    otherCharacters.add(Character.highSurrogate(codePoint), 1);
+                    otherCharacters.add(Character.lowSurrogate(codePoint), 1);
+                }
+            }
+            if (charClass == WORD && previousClass != WORD) {
+                wordStart = i;
+            } else if (charClass != WORD && previousClass == WORD) {
+                words++;
+                countLength(i - wordStart, wordLengths, longWordLengths);
+            }
+            if (charClass == TERMINATOR && previousClass != TERMINATOR) {
+                terminatorRuns++;
+            }
+            previousClass = charClass;
+        }
+        if (previousClass == WORD) {
+            words++;
+            countLength(to - wordStart, wordLengths, longWordLengths);
+        }
+        // Every run of terminators ends a sentence, unless it opens the text
+        long sentences = terminatorRuns > 0 && CLASS[text.get(from) & 0xFF] == TERMINATOR ? terminatorRuns - 1 : terminatorRuns;
+
+        Map<Integer, Long> lengthDistribution = new HashMap<>(longWordLengths);
+        for (int length = 1; length < wordLengths.length; length++) {
+            if (wordLengths[length] > 0) {
+                lengthDistribution.put(length, wordLengths[length]);
+            }
+        }
+        Map<Character, Long> characterFrequency = new HashMap<>();
+        for (char c = 0; c < 128; c++) {
+            if (ascii[c] > 0) {
+                characterFrequency.merge(Character.toLowerCase(c), ascii[c], Long::sum);
+            }
+        }
+        otherCharacters.forEach((c, count) -> characterFrequency.merge((char) c, count, Long::sum));
+
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("totalCharacters", (int) characters);
+        stats.put("totalWords", (int) words);
+        stats.put("totalSentences", (int) sentences);
+        stats.put("totalParagraphs", countParagraphs(text, from, to));
+        stats.put("wordLengthDistribution", lengthDistribution);
+        stats.put("characterFrequency", characterFrequency);
+        return stats;
+    }
+
+    @Override
+    public long sortLines(ByteBuffer text, boolean ascending, OutputStream output) {
+        int from = text.position();
+        int to = text.limit();
+        int malformed = Utf8.firstMalformed(text, from, to);
+        if (malformed >= 0) {
+            logger.debug("Malformed UTF-8 at byte {}, sorting decoded lines", malformed);
+            TextDocument sorted = fallback.sortLines(new TextDocument("", decode(text, from, to)), ascending);
+            return write(sorted.getContent(), output);
+        }
+        LineOffsetIndex lines = LineOffsetIndex.build(text);
+        long written = lines.sortLines(0, lines.splitLineCount(), ascending, output);
+        logger.debug("Sorted {} lines", written);
+        return written;
+    }
+
+    @Override
+    public long removeDuplicateLines(ByteBuffer text, OutputStream output) {
+        int from = text.position();
+        int to = text.limit();
+        int malformed = Utf8.firstMalformed(text, from, to);
+        if (malformed >= 0) {
+            logger.debug("Malformed UTF-8 at byte {}, removing duplicates from decoded lines", malformed);
+            TextDocument unique = fallback.removeDuplicates(new TextDocument("", decode(text, from, to)));
+            return write(unique.getContent(), output);
+        }
+        LineOffsetIndex lines = LineOffsetIndex.build(text);
+        int count = lines.splitLineCount();
+        long written = lines.removeDuplicateLines(0, count, output);
+        logger.debug("Kept {} of {} lines", written, count);
+        return written;
+    }
+
+    /**
+     * Count the non-blank parts of the text split by {@code \n\s*\n}: a line break followed by
+     * whitespace holding another line break separates paragraphs, up to the last break in the
+     * whitespace
+     */
+    private static int countParagraphs(ByteBuffer text, int from, int to) {
+        int paragraphs = 0;
+        boolean hasText = false;
+        int i = from;
+        while (i < to) {
+            int b = text.get(i) & 0xFF;
+            if (b != '\n') {
+                hasText |= b > ' ';
+                i++;
+                continue;
+            }
+            int lastBreak = -1;
+            int j = i + 1;
+            while (j < to && CLASS[text.get(j) & 0xFF] == WHITESPACE) {
+                if (text.get(j) == '\n') {
+                    lastBreak = j;
+                }
+                j++;
+            }
+            if (lastBreak < 0) {
+                i = j;
+                continue;
+            }
+            if (hasText) {
+                paragraphs++;
+            }
+            hasText = false;
+            i = lastBreak + 1;
+        }
+        return hasText ? paragraphs + 1 : paragraphs;
+    }
+
+    private static void countLength(int length, long[] lengths, Map<Integer, Long> longLengths) {
+        if (length < lengths.length) {
+            lengths[length]++;
+        } else {
+            longLengths.merge(length, 1L, Long::sum);
+        }
+    }
+
+    /**
+     * Decode the well-formed sequence starting with a lead byte
+     */
+    private static int decodeSequence(ByteBuffer text, int i, int lead) {
+        if (lead < 0xE0) {
+            return (lead & 0x1F) << 6 | text.get(i + 1) & 0x3F;
+        }
+        if (lead < 0xF0) {
+            return (lead & 0x0F) << 12 | (text.get(i + 1) & 0x3F) << 6 | text.get(i + 2) & 0x3F;
+        }
+        return (lead & 0x07) << 18 | (text.get(i + 1) & 0x3F) << 12 | (text.get(i + 2) & 0x3F) << 6 | text.get(i + 3) & 0x3F;
+    }
+
+
+    /**
+     * Find a byte sequence, looking for its first byte eight bytes at a time
+     * @return Index of the first occurrence at or after from, or -1
+     */
+    private static int indexOf(ByteBuffer text, ByteBuffer longs, byte[] target, int from, int to) {
+        int last = to - target.length;
+        int i = from;
+        while (i <= last) {
+            i = indexOfByte(text, longs, target[0], i, last + 1);
+            if (i < 0) {
+                return -1;
+            }
+            int k = 1;
+            while (k < target.length && text.get(i + k) == target[k]) {
+                k++;
+            }
+            if (k == target.length) {
+                return i;
+            }
+            i++;
+        }
+        return -1;
+    }
+
+    private static int indexOfByte(ByteBuffer text, ByteBuffer longs, byte value, int from, int to) {
+        long pattern = LineOffsetIndex.ONES * (value & 0xFF);
+        int i = from;
+        while (to - i >= Long.BYTES) {
+            long zeros = LineOffsetIndex.zeroBytes(longs.getLong(i) ^ pattern);
+            if (zeros != 0) {
+                return i + Long.numberOfTrailingZeros(zeros) / 8;
+            }
+            i += Long.BYTES;
+        }
+        for (; i < to; i++) {
+            if (text.get(i) == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+
+    private static byte[] encodeLiteral(String literal) {
+        if (literal.isEmpty()) {
+            throw new IllegalArgumentException("Literal to find must not be empty");
+        }
+        return literal.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String decode(ByteBuffer text, int from, int to) {
+        if (text.hasArray()) {
+            return new String(text.array(), text.arrayOffset() + from, to - from, StandardCharsets.UTF_8);
+        }
+        byte[] bytes = new byte[to - from];
+        text.get(from, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static String lowerCaseAscii(ByteBuffer text, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        for (int i = from; i < to; i++) {
+            byte b = text.get(i);
+            bytes[i - from] = b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+        }
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    private static String unpack(long packed) {
+        byte[] bytes = new byte[Long.BYTES - Long.numberOfLeadingZeros(packed) / 8];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (packed >>> 8 * i);
+        }
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    private static long write(String text, OutputStream output) {
+        try {
+            output.write(text.getBytes(StandardCharsets.UTF_8));
+            output.flush();
+        } catch (IOException e) {
+            logger.error("Error writing lines: {}", e.getMessage());
+            throw new TextProcessingException("Failed to write lines", e);
+        }
+        return text.isEmpty() ? 0 : text.split("\n").length;
+    }
+}
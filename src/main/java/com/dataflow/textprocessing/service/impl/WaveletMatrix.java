@@ -0,0 +1,111 @@
+package com.dataflow.textprocessing.service.impl;
+
+import java.util.stream.IntStream;
+
+/**
+ * Wavelet matrix over a sequence of small integers, answering rank queries in O(bits) time
+ * while storing one bit per symbol and level.
+ */
+final class WaveletMatrix {
+    private final RankBitVector[] levels;
+    private final int[] zeros;
+
+    WaveletMatrix(RankBitVector[] levels, int[] zeros) {
+        this.levels = levels;
+        this.zeros = zeros;
+    }
+
+    /**
+     * Build the matrix, reordering the given symbols in place
+     * @param symbols The sequence, every value below 2^bits
+     * @param bits Number of bits per symbol
+     */
+    static WaveletMatrix build(int[] symbols, int bits) {
+        int n = symbols.length;
+        RankBitVector[] levels = new RankBitVector[bits];
+        int[] zeros = new int[bits];
+        int[] current = symbols;
+        int[] next = new int[n];
+        for (int level = 0; level < bits; level++) {
+            int shift = bits - 1 - level;
+            int[] source = current;
+            long[] words = new long[RankBitVector.wordCount(n)];
+            IntStream.range(0, words.length).parallel().forEach(w -> {
+                long word = 0;
+                int end = Math.min(n, (w + 1) << 6);
+                for (int i = w << 6; i < end; i++) {
+                    word |= (long) ((source[i] >>> shift) & 1) << (i & 63);
+                }
+                words[w] = word;
+            });
+            levels[level] = RankBitVector.build(words, n);
+            zeros[level] = levels[level].rank0(n);
+
+            // Stable partition: symbols with a clear bit first
+            int zeroIndex = 0;
+            int oneIndex = zeros[level];
+            for (int i = 0; i < n; i++) {
+                if (((current[i] >>> shift) & 1) == 0) {
+                    next[zeroIndex++] = current[i];
+                } else {
+                    next[oneIndex++] = current[i];
+                }
+            }
+            int[] swap = current;
+            current = next;
+            next = swap;
+        }
+        return new WaveletMatrix(levels, zeros);
+    }
+
+    /**
+     * Number of occurrences of the symbol in [0, i)
+     */
+    int rank(int symbol, int i) {
+        int start = 0;
+        int end = i;
+        int bits = levels.length;
+        for (int level = 0; level < bits; level++) {
+            RankBitVector bitVector = levels[level];
+            if (((symbol >>> (bits - 1 - level)) & 1) == 0) {
+                start = bitVector.rank0(start);
+                end = bitVector.rank0(end);
+            } else {
+                start = zeros[level] + bitVector.rank1(start);
+                end = zeros[level] + bitVector.rank1(end);
+            }
+        }
+        return end - start;
+    }
+
+    /**
+     * Read the symbol at position i together with its number of occurrences in [0, i)
+     * @return The symbol in the upper 32 bits and the rank in the lower 32 bits
+     */
+    long accessAndRank(int i) {
+        int start = 0;
+        int position = i;
+        int symbol = 0;
+        for (int level = 0; level < levels.length; level++) {
+            RankBitVector bitVector = levels[level];
+            if (bitVector.get(position)) {
+                symbol = (symbol << 1) | 1;
+                start = zeros[level] + bitVector.rank1(start);
+                position = zeros[level] + bitVector.rank1(position);
+            } else {
+                symbol <<= 1;
+                start = bitVector.rank0(start);
+                position = bitVector.rank0(position);
+            }
+        }
+        return ((long) symbol << 32) | (position - start);
+    }
+
+    RankBitVector[] levels() {
+        return levels;
+    }
+
+    int[] zeros() {
+        return zeros;
+    }
+}
@@ -0,0 +1,71 @@
+package com.dataflow.textprocessing.service.impl;
+
+import com.dataflow.textprocessing.model.DocumentBatch;
+import com.dataflow.textprocessing.model.TextDocument;
+import com.dataflow.textprocessing.model.WordFrequencySketch;
+import com.dataflow.textprocessing.service.WordFrequencySketchService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.stream.IntStream;
+
+/**
+ * Builds {@link WordFrequencySketch} instances with a fixed configuration. Batches are sketched in
+ * parallel with one sketch per worker, merged at the end.
+ */
+public class WordFrequencySketchServiceImpl implements WordFrequencySketchService {
+    private static final Logger logger = LoggerFactory.getLogger(WordFrequencySketchServiceImpl.class);
+
+    private final int topKCapacity;
+    private final double epsilon;
+    private final double delta;
+    private final int hllPrecision;
+
+    public WordFrequencySketchServiceImpl() {
+        this(WordFrequencySketch.DEFAULT_TOP_K_CAPACITY, WordFrequencySketch.DEFAULT_EPSILON,
+                WordFrequencySketch.DEFAULT_DELTA, WordFrequencySketch.DEFAULT_HLL_PRECISION);
+    }
+
+    /**
+     * @param topKCapacity Number of heavy hitter counters
+     * @param epsilon Count error bound, relative to the total word count
+     * @param delta Probability of exceeding the count error bound
+     * @param hllPrecision Distinct count precision
+     */
+    public WordFrequencySketchServiceImpl(int topKCapacity, double epsilon, double delta, int hllPrecision) {
+        this.topKCapacity = topKCapacity;
+        this.epsilon = epsilon;
+        this.delta = delta;
+        this.hllPrecision = hllPrecision;
+        // Fail fast on an invalid configuration
+        newSketch();
+    }
+
+    @Override
+    public WordFrequencySketch sketch(TextDocument document) {
+        logger.debug("Sketching word frequencies of document: {}", document.getName());
+        WordFrequencySketch sketch = newSketch();
+        sketch.addText(document.getContent());
+        return sketch;
+    }
+
+    @Override
+    public WordFrequencySketch sketchAll(Collection<TextDocument> documents) {
+        logger.debug("Sketching word frequencies of {} documents", documents.size());
+        if (documents instanceof DocumentBatch) {
+            // Read the contents in place instead of copying each into a string
+            DocumentBatch batch = (DocumentBatch) documents;
+            return IntStream.range(0, batch.size()).parallel().collect(this::newSketch,
+                    (sketch, index) -> sketch.addText(batch.contentView(index)),
+                    WordFrequencySketch::merge);
+        }
+        return documents.parallelStream().collect(this::newSketch,
+                (sketch, document) -> sketch.addText(document.getContent()),
+                WordFrequencySketch::merge);
+    }
+
+    private WordFrequencySketch newSketch() {
+        return new WordFrequencySketch(topKCapacity, epsilon, delta, hllPrecision);
+    }
+}
@@ -0,0 +1,71 @@
+package com.dataflow.textprocessing.util;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Cooperative cancellation for long-running service loops. A caller cancels work by interrupting the
+ * thread running it; loops call {@link #checkpoint()} between units of work, which turns a pending
+ * interrupt into a {@link CancellationException}. The interrupt flag stays set, so enclosing loops
+ * and blocking calls stop too.
+ */
+public final class Cancellation {
+    private Cancellation() {
+        // Private constructor to prevent instantiation
+    }
+
+    /**
+     * Stop the current operation if its thread was interrupted
+     * @throws CancellationException If the current thread was interrupted
+     */
+    public static void checkpoint() {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new CancellationException("Operation cancelled");
+        }
+    }
+
+    /**
+     * Wrap text so code that only reads it through {@link CharSequence#charAt(int)}, like regex
+     * matching, stops when the current thread is interrupted
+     * @param text The text to wrap
+     * @return A view of the text checking for cancellation every few thousand character reads
+     */
+    public static CharSequence interruptible(CharSequence text) {
+        return new InterruptibleCharSequence(text);
+    }
+
+    private static final class InterruptibleCharSequence implements CharSequence {
+        private static final int CHECKPOINT_INTERVAL = 1 << 12;
+
+        private final CharSequence text;
+        // Reads left until the next check; a view is read by one thread, and a lost update only delays a check
+        private int untilCheckpoint = CHECKPOINT_INTERVAL;
+
+        InterruptibleCharSequence(CharSequence text) {
+            this.text = text;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (--untilCheckpoint <= 0) {
+                untilCheckpoint = CHECKPOINT_INTERVAL;
+                checkpoint();
+            }
+            return text.charAt(index);
+        }
+
+        @Override
+        public int length() {
+            return text.length();
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new InterruptibleCharSequence(text.subSequence(start, end));
+        }
+
+        @Override
+        public String toString() {
+            return text.toString();
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package com.dataflow.textprocessing.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.Optional;
+
+/**
+ * Classifies text 64 characters at a time into bit masks of the regex classes {@code \w},
+ * {@code \s} and sentence terminators ({@code .!?}), and walks the runs of a class through the mask
+ * transitions instead of testing characters one by one. Bit {@code i} of a mask describes character
+ * {@code offset + i}.
+ * <p>
+ * Masks are computed with a lookup table, or with the Vector API when the project is built with the
+ * {@code vector} profile and the JVM runs with
+ * {@code -Dtextprocessing.vector=true --add-modules jdk.incubator.vector}; both give the same masks.
+ */
+public final class CharClasses {
+    private static final Logger logger = LoggerFactory.getLogger(CharClasses.class);
+
+    public static final String VECTOR_PROPERTY = "textprocessing.vector";
+    public static final int WORD = 0;
+    public static final int WHITESPACE = 1;
+    public static final int TERMINATOR = 2;
+    static final int BLOCK = 64;
+
+    private static final int BUFFER_SIZE = 64 * BLOCK;
+    private static final int CHECKPOINT_INTERVAL = 1 << 16;
+    private static final String VECTOR_MODULE = "jdk.incubator.vector";
+    private static final String VECTOR_CLASSIFIER = "com.dataflow.textprocessing.util.VectorClassifier";
+    private static final Classifier CLASSIFIER = selectClassifier();
+
+    private CharClasses() {
+        // Private constructor to prevent instantiation
+    }
+
+    /**
+     * Callback receiving the bounds of each run found in a text
+     */
+    @FunctionalInterface
+    public interface RunConsumer {
+        void accept(int start, int end);
+    }
+
+    /**
+     * Computes the class masks of blocks of 64 characters
+     */
+    interface Classifier {
+        /**
+         * @param chars Characters to classify; at least 64 must follow the offset
+         * @param offset First character of the block
+         * @param charClass {@link #WORD}, {@link #WHITESPACE} or {@link #TERMINATOR}
+         * @return Mask with the bits of the characters in the class set
+         */
+        long mask(char[] chars, int offset, int charClass);
+    }
+
+    /**
+     * Whether masks are computed with the Vector API
+     */
+    public static boolean isVectorized() {
+        return !(CLASSIFIER instanceof ScalarClassifier);
+    }
+
+    /**
+     * Walk over every maximal run of characters of a class
+     * @param text Text to scan
+     * @param charClass {@link #WORD}, {@link #WHITESPACE} or {@link #TERMINATOR}
+     * @param consumer Receives the start (inclusive) and end (exclusive) offset of each run
+     */
+    public static void forEachRun(CharSequence text, int charClass, RunConsumer consumer) {
+        forEachRun(text, 0, text.length(), charClass, consumer);
+    }
+
+    /**
+     * Walk over every maximal run of characters of a class within a range of a text; runs are cut at
+     * the range bounds
+     * @param text Text to scan
+     * @param from Start of the range (inclusive)
+     * @param to End of the range (exclusive)
+     * @param charClass {@link #WORD}, {@link #WHITESPACE} or {@link #TERMINATOR}
+     * @param consumer Receives the start (inclusive) and end (exclusive) offset of each run
+     */
+    public static void forEachRun(CharSequence text, int from, int to, int charClass, RunConsumer consumer) {
+        char[] buffer = newBuffer(to - from);
+        int runStart = -1;
+        int nextCheckpoint = from + CHECKPOINT_INTERVAL;
+        for (int base = from; base < to; base += buffer.length) {
+            if (base >= nextCheckpoint) {
+                Cancellation.checkpoint();
+                nextCheckpoint = base + CHECKPOINT_INTERVAL;
+            }
+            int count = fill(text, base, Math.min(to, base + buffer.length), buffer);
+            for (int offset = 0; offset < count; offset += BLOCK) {
+                long mask = blockMask(buffer, offset, count, charClass);
+                // Bits where the class changes from the previous character: run starts and ends
+                long edges = mask ^ (mask << 1 | (runStart >= 0 ? 1 : 0));
+                while (edges != 0) {
+                    int position = base + offset + Long.numberOfTrailingZeros(edges);
+                    edges &= edges - 1;
+                    if (runStart < 0) {
+                        runStart = position;
+                    } else {
+                        consumer.accept(runStart, position);
+                        runStart = -1;
+                    }
+                }
+            }
+        }
+        if (runStart >= 0) {
+            consumer.accept(runStart, to);
+        }
+    }
+
+    /**
+     * Count the maximal runs of characters of a class
+     * @param text Text to scan
+     * @param charClass {@link #WORD}, {@link #WHITESPACE} or {@link #TERMINATOR}
+     * @return Number of runs
+     */
+    public static int countRuns(CharSequence text, int charClass) {
+        int length = text.length();
+        char[] buffer = newBuffer(length);
+        int runs = 0;
+        long previous = 0;
+        int nextCheckpoint = CHECKPOINT_INTERVAL;
+        for (int base = 0; base < length; base += buffer.length) {
+            if (base >= nextCheckpoint) {
+                Cancellation.checkpoint();
+                nextCheckpoint = base + CHECKPOINT_INTERVAL;
+            }
+            int count = fill(text, base, Math.min(length, base + buffer.length), buffer);
+            for (int offset = 0; offset < count; offset += BLOCK) {
+                long mask = blockMask(buffer, offset, count, charClass);
+                runs += Long.bitCount(mask & ~(mask << 1 | previous >>> 63));
+                previous = mask;
+            }
+        }
+        return runs;
+    }
+
+    /**
+     * Trim the text and replace every run of whitespace ({@code \s}) with one space, like
+     * {@code text.trim().replaceAll("\\s+", " ")}
+     * @param text Text to normalize
+     * @return Normalized text
+     */
+    public static String collapseWhitespace(CharSequence text) {
+        int start = 0;
+        int end = text.length();
+        while (start < end && text.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && text.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        StringBuilder result = new StringBuilder(end - start);
+        int[] written = {start};
+        forEachRun(text, start, end, WHITESPACE, (runStart, runEnd) -> {
+            result.append(text, written[0], runStart).append(' ');
+            written[0] = runEnd;
+        });
+        return result.append(text, written[0], end).toString();
+    }
+
+    private static long blockMask(char[] buffer, int offset, int count, int charClass) {
+        long mask = CLASSIFIER.mask(buffer, offset, charClass);
+        int valid = count - offset;
+        return valid >= BLOCK ? mask : mask & ((1L << valid) - 1);
+    }
+
+    /**
+     * Buffer for a whole number of blocks, no larger than needed for short texts
+     */
+    private static char[] newBuffer(int length) {
+        return new char[Math.min(BUFFER_SIZE, Math.max(BLOCK, (length + BLOCK - 1) / BLOCK * BLOCK))];
+    }
+
+    /**
+     * Copy a range of the text to the start of the buffer
+     * @return Number of characters copied
+     */
+    private static int fill(CharSequence text, int from, int to, char[] buffer) {
+        if (text instanceof String) {
+            ((String) text).getChars(from, to, buffer, 0);
+        } else if (text instanceof StringBuilder) {
+            ((StringBuilder) text).getChars(from, to, buffer, 0);
+        } else {
+            for (int i = from; i < to; i++) {
+                buffer[i - from] = text.charAt(i);
+            }
+        }
+        return to - from;
+    }
+
+    private static Classifier selectClassifier() {
+        if (!Boolean.parseBoolean(System.getProperty(VECTOR_PROPERTY, "false"))) {
+            return new ScalarClassifier();
+        }
+        Optional<Module> vectorModule = ModuleLayer.boot().findModule(VECTOR_MODULE);
+        if (vectorModule.isEmpty()) {
+            logger.warn("{} is set but the {} module is not loaded; add it with --add-modules",
+                    VECTOR_PROPERTY, VECTOR_MODULE);
+            return new ScalarClassifier();
+        }
+        try {
+            // The module does not require the incubator, so it has to read it before the classifier links
+            CharClasses.class.getModule().addReads(vectorModule.get());
+            Classifier classifier = (Classifier) Class.forName(VECTOR_CLASSIFIER).getDeclaredConstructor().newInstance();
+            logger.info("Classifying characters with the Vector API ({})", classifier);
+            return classifier;
+        } catch (ClassNotFoundException e) {
+            logger.warn("{} is set but this build has no Vector API classifier; build with -Pvector", VECTOR_PROPERTY);
+            return new ScalarClassifier();
+        } catch (InvocationTargetException e) {
+            logger.warn("Vector API unavailable, classifying characters with lookup tables: {}", e.getCause().toString());
+            return new ScalarClassifier();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            logger.warn("Vector API unavailable, classifying characters with lookup tables: {}", e.toString());
+            return new ScalarClassifier();
+        }
+    }
+
+    /**
+     * Builds masks one character at a time from a table of class bits, without branches
+     */
+    static final class ScalarClassifier implements Classifier {
+        private static final byte[] CLASS_BITS = new byte[1 << 16];
+
+        static {
+            for (char c = 'a'; c <= 'z'; c++) {
+                CLASS_BITS[c] = 1 << WORD;
+                CLASS_BITS[Character.toUpperCase(c)] = 1 << WORD;
+            }
+            for (char c = '0'; c <= '9'; c++) {
+                CLASS_BITS[c] = 1 << WORD;
+            }
+            CLASS_BITS['_'] = 1 << WORD;
+            for (char c : " \t\n\u000B\f\r".toCharArray()) {
+                CLASS_BITS[c] = 1 << WHITESPACE;
+            }
+            for (char c : ".!?".toCharArray()) {
+                CLASS_BITS[c] = 1 << TERMINATOR;
+            }
+        }
+
+        @Override
+        public long mask(char[] chars, int offset, int charClass) {
+            long mask = 0;
+            for (int i = 0; i < BLOCK; i++) {
+                mask |= (long) (CLASS_BITS[chars[offset + i]] >> charClass & 1) << i;
+            }
+            return mask;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.dataflow.textprocessing.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Transparent gzip for file-based operations. Input is recognized as gzip by its magic number and
+ * output is compressed when the target file name ends in {@code .gz}; both go through the parallel
+ * gzip streams and stream without holding the whole file.
+ */
+public final class CompressedFiles {
+    private static final String GZIP_EXTENSION = ".gz";
+
+    private CompressedFiles() {
+        // Private constructor to prevent instantiation
+    }
+
+    /**
+     * Whether bytes start with the gzip magic number; no text in a supported encoding does
+     */
+    public static boolean isGzip(byte[] bytes) {
+        return bytes.length >= 2 && (bytes[0] & 0xFF) == GzipFormat.MAGIC_1 && (bytes[1] & 0xFF) == GzipFormat.MAGIC_2;
+    }
+
+    /**
+     * Whether output to a file should be compressed, judged by its name
+     */
+    public static boolean hasGzipExtension(Path path) {
+        return path.getFileName().toString().toLowerCase().endsWith(GZIP_EXTENSION);
+    }
+
+    /**
+     * File name without a trailing {@code .gz}, naming the content rather than the archive
+     */
+    public static String stripGzipExtension(String fileName) {
+        return fileName.toLowerCase().endsWith(GZIP_EXTENSION)
+                ? fileName.substring(0, fileName.length() - GZIP_EXTENSION.length()) : fileName;
+    }
+
+    /**
+     * Decompress gzip data of one or more members
+     */
+    public static byte[] decompress(byte[] bytes) throws IOException {
+        try (InputStream in = new ParallelGzipInputStream(new ByteArrayInputStream(bytes))) {
+            return in.readAllBytes();
+        }
+    }
+
+    /**
+     * Compress data into gzip members
+     */
+    public static byte[] compress(byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 3 + 64);
+        try (OutputStream gzip = new ParallelGzipOutputStream(out)) {
+            gzip.write(bytes);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Open a file for reading, decompressing it if it is gzip
+     */
+    public static InputStream newInputStream(Path path) throws IOException {
+        BufferedInputStream in = new BufferedInputStream(Files.newInputStream(path));
+        try {
+            in.mark(2);
+            int first = in.read();
+            int second = in.read();
+            in.reset();
+            return first == GzipFormat.MAGIC_1 && second == GzipFormat.MAGIC_2 ? new ParallelGzipInputStream(in) : in;
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Open a file for writing
+     * @param path File to write
+     * @param compress Whether to write gzip; usually {@link #hasGzipExtension(Path)} of the final target
+     */
+    public static OutputStream newOutputStream(Path path, boolean compress) throws IOException {
+        OutputStream out = Files.newOutputStream(path);
+        return compress ? new ParallelGzipOutputStream(out) : out;
+    }
+
+    /**
+     * Open a file for writing text
+     * @param path File to write
+     * @param charset Encoding of the text
+     * @param compress Whether to write gzip; usually {@link #hasGzipExtension(Path)} of the final target
+     */
+    public static BufferedWriter newBufferedWriter(Path path, Charset charset, boolean compress) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(newOutputStream(path, compress), charset));
+    }
+}
@@ -0,0 +1,148 @@
+package com.dataflow.textprocessing.util;
+
+import java.util.Objects;
+
+/**
+ * 128-bit MurmurHash3 (x64 variant) of text content, hashing the UTF-16 code units
+ * of the text in little-endian order.
+ */
+public final class ContentHash {
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private final long high;
+    private final long low;
+
+    public ContentHash(long high, long low) {
+        this.high = high;
+        this.low = low;
+    }
+
+    /**
+     * Hash the given text
+     * @param text The text to hash
+     * @return The 128-bit content hash
+     */
+    public static ContentHash of(CharSequence text) {
+        int length = text.length();
+        long h1 = 0;
+        long h2 = 0;
+        int blocks = length / 8;
+        for (int block = 0; block < blocks; block++) {
+            int i = block * 8;
+            long k1 = chars(text, i);
+            long k2 = chars(text, i + 4);
+
+            k1 *= C1;
+            k1 = Long.rotateLeft(k1, 31);
+            k1 *= C2;
+            h1 ^= k1;
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+
+            k2 *= C2;
+            k2 = Long.rotateLeft(k2, 33);
+            k2 *= C1;
+            h2 ^= k2;
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        long k1 = 0;
+        long k2 = 0;
+        int tail = blocks * 8;
+        for (int i = length - 1; i >= tail; i--) {
+            int shift = (i - tail) * 16;
+            if (shift >= 64) {
+                k2 |= (long) text.charAt(i) << (shift - 64);
+            } else {
+                k1 |= (long) text.charAt(i) << shift;
+            }
+        }
+        if (length - tail > 4) {
+            k2 *= C2;
+            k2 = Long.rotateLeft(k2, 33);
+            k2 *= C1;
+            h2 ^= k2;
+        }
+        if (length > tail) {
+            k1 *= C1;
+            k1 = Long.rotateLeft(k1, 31);
+            k1 *= C2;
+            h1 ^= k1;
+        }
+
+        long byteLength = length * 2L;
+        h1 ^= byteLength;
+        h2 ^= byteLength;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix(h1);
+        h2 = fmix(h2);
+        h1 += h2;
+        h2 += h1;
+        return new ContentHash(h1, h2);
+    }
+
+    /**
+     * Parse a hash formatted by {@link #toHex()}
+     */
+    public static ContentHash fromHex(String hex) {
+        if (hex.length() != 32) {
+            throw new IllegalArgumentException("Expected 32 hex digits: " + hex);
+        }
+        return new ContentHash(Long.parseUnsignedLong(hex.substring(0, 16), 16),
+                Long.parseUnsignedLong(hex.substring(16), 16));
+    }
+
+    private static long chars(CharSequence text, int i) {
+        return (long) text.charAt(i)
+                | (long) text.charAt(i + 1) << 16
+                | (long) text.charAt(i + 2) << 32
+                | (long) text.charAt(i + 3) << 48;
+    }
+
+    private static long fmix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    public long getHigh() {
+        return high;
+    }
+
+    public long getLow() {
+        return low;
+    }
+
+    /**
+     * Format the hash as 32 lower case hex digits
+     */
+    public String toHex() {
+        return String.format("%016x%016x", high, low);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ContentHash that = (ContentHash) o;
+        return high == that.high && low == that.low;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(high, low);
+    }
+
+    @Override
+    public String toString() {
+        return toHex();
+    }
+}
@@ -0,0 +1,92 @@
+package com.dataflow.textprocessing.util;
+
+/**
+ * Count-Min Sketch over 64-bit item hashes. With total count N, an estimate exceeds the true count
+ * by more than {@code epsilon * N} with probability at most {@code delta}; it never underestimates.
+ * Sketches with the same dimensions merge by adding their tables.
+ */
+public final class CountMinSketch {
+    private final double epsilon;
+    private final double delta;
+    private final int width;
+    private final int depth;
+    private final long[] table;
+    private long totalCount;
+
+    /**
+     * @param epsilon Error bound, relative to the total count
+     * @param delta Probability of exceeding the error bound
+     */
+    public CountMinSketch(double epsilon, double delta) {
+        if (!(epsilon > 0 && epsilon < 1) || !(delta > 0 && delta < 1)) {
+            throw new IllegalArgumentException("epsilon and delta must be in (0, 1): " + epsilon + ", " + delta);
+        }
+        this.epsilon = epsilon;
+        this.delta = delta;
+        this.width = (int) Math.ceil(Math.E / epsilon);
+        this.depth = (int) Math.ceil(Math.log(1 / delta));
+        this.table = new long[width * depth];
+    }
+
+    /**
+     * Add occurrences of an item
+     * @param hash 64-bit hash of the item
+     * @param count Number of occurrences
+     */
+    public void add(long hash, long count) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int row = 0; row < depth; row++) {
+            table[row * width + Math.floorMod(h1 + row * h2, width)] += count;
+        }
+        totalCount += count;
+    }
+
+    /**
+     * Estimate the count of an item, never below the true count
+     * @param hash 64-bit hash of the item
+     */
+    public long estimate(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        long min = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            min = Math.min(min, table[row * width + Math.floorMod(h1 + row * h2, width)]);
+        }
+        return min;
+    }
+
+    /**
+     * Add the counts of another sketch with the same dimensions
+     */
+    public void merge(CountMinSketch other) {
+        if (other.width != width || other.depth != depth) {
+            throw new IllegalArgumentException("Cannot merge sketches of different dimensions: "
+                    + width + "x" + depth + " and " + other.width + "x" + other.depth);
+        }
+        for (int i = 0; i < table.length; i++) {
+            table[i] += other.table[i];
+        }
+        totalCount += other.totalCount;
+    }
+
+    public double getEpsilon() {
+        return epsilon;
+    }
+
+    public double getDelta() {
+        return delta;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public long getTotalCount() {
+        return totalCount;
+    }
+}
@@ -0,0 +1,186 @@
+package com.dataflow.textprocessing.util;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Gzip member layout (RFC 1952) shared by the parallel gzip streams. A member written here carries an
+ * extra subfield {@code 'T','P'} with the little-endian size of the whole member, so a reader can
+ * find the next member without decompressing; the {@code 'B','C'} subfield of bgzip files is read the
+ * same way.
+ */
+final class GzipFormat {
+    static final int MAGIC_1 = 0x1F;
+    static final int MAGIC_2 = 0x8B;
+    static final int FIXED_HEADER_LENGTH = 10;
+    static final int SIZED_HEADER_LENGTH = FIXED_HEADER_LENGTH + 2 + 8;
+    static final int TRAILER_LENGTH = 8;
+
+    private static final int METHOD_DEFLATE = 8;
+    private static final int FLAG_HCRC = 0x02;
+    private static final int FLAG_EXTRA = 0x04;
+    private static final int FLAG_NAME = 0x08;
+    private static final int FLAG_COMMENT = 0x10;
+    private static final int OS_UNKNOWN = 255;
+    // Deflate expands at most about 1032 times, so a larger trailer length cannot be right
+    private static final int MAX_DEFLATE_RATIO = 1032;
+    private static final int MIN_INITIAL_CAPACITY = 64 * 1024;
+
+    private GzipFormat() {
+        // Private constructor to prevent instantiation
+    }
+
+    static void writeSizedHeader(byte[] member, int memberSize) {
+        member[0] = (byte) MAGIC_1;
+        member[1] = (byte) MAGIC_2;
+        member[2] = METHOD_DEFLATE;
+        member[3] = FLAG_EXTRA;
+        writeIntLE(member, 4, 0);
+        member[8] = 0;
+        member[9] = (byte) OS_UNKNOWN;
+        writeShortLE(member, 10, 8);
+        member[12] = 'T';
+        member[13] = 'P';
+        writeShortLE(member, 14, 4);
+        writeIntLE(member, 16, memberSize);
+    }
+
+    /**
+     * Check the fixed part of a member header
+     * @throws ZipException If the header is not a deflate gzip header
+     */
+    static void checkFixedHeader(byte[] header) throws ZipException {
+        if ((header[0] & 0xFF) != MAGIC_1 || (header[1] & 0xFF) != MAGIC_2) {
+            throw new ZipException("Not in GZIP format");
+        }
+        if (header[2] != METHOD_DEFLATE) {
+            throw new ZipException("Unsupported compression method " + header[2]);
+        }
+    }
+
+    static boolean hasExtra(byte[] header) {
+        return (header[3] & FLAG_EXTRA) != 0;
+    }
+
+    /**
+     * Size of the whole member recorded in its extra field
+     * @param extra Extra field without its length
+     * @return The member size, or -1 if no subfield records it
+     */
+    static long recordedMemberSize(byte[] extra, int length) {
+        int i = 0;
+        while (i + 4 <= length) {
+            int subfieldLength = readShortLE(extra, i + 2);
+            int data = i + 4;
+            if (data + subfieldLength > length) {
+                break;
+            }
+            if (extra[i] == 'T' && extra[i + 1] == 'P' && subfieldLength == 4) {
+                return readIntLE(extra, data) & 0xFFFFFFFFL;
+            }
+            if (extra[i] == 'B' && extra[i + 1] == 'C' && subfieldLength == 2) {
+                return readShortLE(extra, data) + 1;
+            }
+            i = data + subfieldLength;
+        }
+        return -1;
+    }
+
+    /**
+     * Decompress one complete member, checking its CRC and length. The trailer length is not trusted
+     * for the allocation: the output starts at a few times the compressed size and grows as data is
+     * inflated, up to the trailer length.
+     */
+    static byte[] inflateMember(byte[] member) throws IOException {
+        checkFixedHeader(member);
+        int flags = member[3];
+        int offset = FIXED_HEADER_LENGTH;
+        if ((flags & FLAG_EXTRA) != 0) {
+            offset += 2 + readShortLE(member, offset);
+        }
+        if ((flags & FLAG_NAME) != 0) {
+            offset = skipZeroTerminated(member, offset);
+        }
+        if ((flags & FLAG_COMMENT) != 0) {
+            offset = skipZeroTerminated(member, offset);
+        }
+        if ((flags & FLAG_HCRC) != 0) {
+            offset += 2;
+        }
+        int trailer = member.length - TRAILER_LENGTH;
+        if (offset > trailer) {
+            throw new ZipException("Truncated GZIP member");
+        }
+        int expectedCrc = readIntLE(member, trailer);
+        int expectedLength = readIntLE(member, trailer + 4);
+        if (expectedLength < 0 || expectedLength > Integer.MAX_VALUE - 8) {
+            throw new ZipException("GZIP member too large for parallel decompression");
+        }
+        int compressedLength = trailer - offset;
+        if (expectedLength > (long) compressedLength * MAX_DEFLATE_RATIO + MIN_INITIAL_CAPACITY) {
+            throw new ZipException("GZIP member length does not match its trailer");
+        }
+        byte[] data = new byte[(int) Math.min(expectedLength,
+                Math.max(MIN_INITIAL_CAPACITY, 4L * compressedLength))];
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(member, offset, compressedLength);
+            int length = 0;
+            while (length < expectedLength && !inflater.finished()) {
+                if (length == data.length) {
+                    data = Arrays.copyOf(data, (int) Math.min(expectedLength, 2L * data.length));
+                }
+                int count = inflater.inflate(data, length, data.length - length);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += count;
+            }
+            if (length != expectedLength || (!inflater.finished() && inflater.inflate(new byte[1]) > 0)) {
+                throw new ZipException("GZIP member length does not match its trailer");
+            }
+        } catch (DataFormatException e) {
+            throw new ZipException("Corrupt GZIP member: " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        if ((int) crc.getValue() != expectedCrc) {
+            throw new ZipException("Corrupt GZIP member: CRC mismatch");
+        }
+        return data;
+    }
+
+    static int readShortLE(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) | (bytes[offset + 1] & 0xFF) << 8;
+    }
+
+    static int readIntLE(byte[] bytes, int offset) {
+        return readShortLE(bytes, offset) | readShortLE(bytes, offset + 2) << 16;
+    }
+
+    static void writeShortLE(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) value;
+        bytes[offset + 1] = (byte) (value >>> 8);
+    }
+
+    static void writeIntLE(byte[] bytes, int offset, int value) {
+        writeShortLE(bytes, offset, value);
+        writeShortLE(bytes, offset + 2, value >>> 16);
+    }
+
+    private static int skipZeroTerminated(byte[] bytes, int offset) throws ZipException {
+        while (offset < bytes.length && bytes[offset] != 0) {
+            offset++;
+        }
+        if (offset == bytes.length) {
+            throw new ZipException("Truncated GZIP header");
+        }
+        return offset + 1;
+    }
+}
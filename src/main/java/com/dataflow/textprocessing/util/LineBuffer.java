@@ -0,0 +1,165 @@
+package com.dataflow.textprocessing.util;
+
+import java.util.Arrays;
+
+/**
+ * Append-only text buffer indexed by line, for showing large results without building one String.
+ * Text is stored in fixed-size chunks, so appending never copies what is already stored, and the
+ * start offset of every line is recorded as it is appended, so any line is found in O(1). Lines are
+ * separated by {@code '\n'}; a trailing {@code '\r'} is dropped from returned lines. Safe to append
+ * from one thread while another reads.
+ */
+public final class LineBuffer {
+    private static final int CHUNK_BITS = 16;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private char[][] chunks = new char[16][];
+    private long length;
+    private long[] lineStarts = new long[1024];
+    private int lineBreaks;
+
+    /**
+     * Append texts in order, as one unit with respect to concurrent appends
+     */
+    public synchronized void append(CharSequence... texts) {
+        for (CharSequence text : texts) {
+            appendText(text);
+        }
+    }
+
+    /**
+     * Number of lines; an empty buffer has none, and text not ending in a line break ends in a partial line
+     */
+    public synchronized int getLineCount() {
+        return length == 0 ? 0 : lineBreaks + 1;
+    }
+
+    /**
+     * Get a line without its line break
+     * @param index Line number, starting at 0
+     */
+    public synchronized String getLine(int index) {
+        return getLine(index, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Get the start of a line without its line break, copying only the characters returned
+     * @param index Line number, starting at 0
+     * @param maxChars Maximum number of characters to return
+     */
+    public synchronized String getLine(int index, int maxChars) {
+        if (maxChars < 0) {
+            throw new IllegalArgumentException("Negative line length: " + maxChars);
+        }
+        long start = lineStarts[checkLine(index)];
+        return substring(start, start + Math.min(lineLength(index), maxChars));
+    }
+
+    /**
+     * Get the length of a line without its line break
+     * @param index Line number, starting at 0
+     */
+    public synchronized long getLineLength(int index) {
+        return lineLength(checkLine(index));
+    }
+
+    /**
+     * Number of characters stored
+     */
+    public synchronized long length() {
+        return length;
+    }
+
+    public synchronized void clear() {
+        chunks = new char[16][];
+        length = 0;
+        lineStarts = new long[1024];
+        lineBreaks = 0;
+    }
+
+    /**
+     * Copy the whole buffer into a String; only for buffers known to be small
+     */
+    @Override
+    public synchronized String toString() {
+        return substring(0, length);
+    }
+
+    private void appendText(CharSequence text) {
+        int offset = 0;
+        int remaining = text.length();
+        while (remaining > 0) {
+            int chunkIndex = (int) (length >>> CHUNK_BITS);
+            if (chunkIndex == chunks.length) {
+                chunks = Arrays.copyOf(chunks, chunks.length * 2);
+            }
+            if (chunks[chunkIndex] == null) {
+                chunks[chunkIndex] = new char[CHUNK_SIZE];
+            }
+            char[] chunk = chunks[chunkIndex];
+            int position = (int) (length & CHUNK_MASK);
+            int count = Math.min(remaining, CHUNK_SIZE - position);
+            if (text instanceof String) {
+                ((String) text).getChars(offset, offset + count, chunk, position);
+            } else {
+                for (int i = 0; i < count; i++) {
+                    chunk[position + i] = text.charAt(offset + i);
+                }
+            }
+            for (int i = position; i < position + count; i++) {
+                if (chunk[i] == '\n') {
+                    addLineStart(length + (i - position) + 1);
+                }
+            }
+            length += count;
+            offset += count;
+            remaining -= count;
+        }
+    }
+
+    private void addLineStart(long start) {
+        if (lineBreaks + 1 == lineStarts.length) {
+            lineStarts = Arrays.copyOf(lineStarts, lineStarts.length * 2);
+        }
+        lineStarts[++lineBreaks] = start;
+    }
+
+    private int checkLine(int index) {
+        if (index < 0 || index >= getLineCount()) {
+            throw new IndexOutOfBoundsException("Line " + index + " of " + getLineCount());
+        }
+        return index;
+    }
+
+    private long lineLength(int index) {
+        long start = lineStarts[index];
+        long end = index < lineBreaks ? lineStarts[index + 1] - 1 : length;
+        if (end > start && charAt(end - 1) == '\r') {
+            end--;
+        }
+        return end - start;
+    }
+
+    private char charAt(long index) {
+        return chunks[(int) (index >>> CHUNK_BITS)][(int) (index & CHUNK_MASK)];
+    }
+
+    private String substring(long start, long end) {
+        long size = end - start;
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException("Text too large for a String: " + size + " characters");
+        }
+        char[] chars = new char[(int) size];
+        int copied = 0;
+        long position = start;
+        while (position < end) {
+            int offset = (int) (position & CHUNK_MASK);
+            int count = (int) Math.min(end - position, CHUNK_SIZE - offset);
+            System.arraycopy(chunks[(int) (position >>> CHUNK_BITS)], offset, chars, copied, count);
+            copied += count;
+            position += count;
+        }
+        return new String(chars);
+    }
+}
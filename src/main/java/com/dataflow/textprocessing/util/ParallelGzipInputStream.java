@@ -0,0 +1,190 @@
+package com.dataflow.textprocessing.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Gzip input decompressing multi-member streams in parallel. Members that record their own size, as
+ * written by {@link ParallelGzipOutputStream} or bgzip, are read whole and inflated on the executor
+ * while earlier members are consumed; a bounded number is in flight at a time, so arbitrarily large
+ * input streams through. From the first member without a recorded size on, the rest of the stream is
+ * decompressed sequentially by {@link GZIPInputStream}, so any gzip file can be read.
+ */
+public final class ParallelGzipInputStream extends InputStream {
+    private static final int MAX_HEADER_LENGTH = GzipFormat.FIXED_HEADER_LENGTH + 2 + 0xFFFF;
+    // Larger members are not block-compressed output; they, and corrupt sizes, go to the sequential path
+    private static final int MAX_SIZED_MEMBER_LENGTH = 64 * 1024 * 1024;
+
+    private final PushbackInputStream in;
+    private final Executor executor;
+    private final int maxPending;
+    private final ArrayDeque<CompletableFuture<byte[]>> pending = new ArrayDeque<>();
+    private final byte[] header = new byte[MAX_HEADER_LENGTH];
+    private InputStream sequential;
+    private boolean membersEnded;
+    private boolean firstMember = true;
+    private byte[] current = new byte[0];
+    private int position;
+    private boolean closed;
+
+    /**
+     * Decompress on the common pool
+     */
+    public ParallelGzipInputStream(InputStream in) {
+        this(in, ForkJoinPool.commonPool(), 2 * ForkJoinPool.getCommonPoolParallelism() + 1);
+    }
+
+    /**
+     * @param in Gzip stream
+     * @param executor Executor inflating the members
+     * @param maxPending Maximum number of members being inflated at a time
+     */
+    public ParallelGzipInputStream(InputStream in, Executor executor, int maxPending) {
+        this.in = new PushbackInputStream(in, MAX_HEADER_LENGTH);
+        this.executor = executor;
+        this.maxPending = maxPending;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position < current.length) {
+            return current[position++] & 0xFF;
+        }
+        byte[] one = new byte[1];
+        return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (length == 0) {
+            return 0;
+        }
+        while (position == current.length) {
+            fillPending();
+            if (pending.isEmpty()) {
+                return sequential == null ? -1 : sequential.read(bytes, offset, length);
+            }
+            current = takeMember(pending.poll());
+            position = 0;
+        }
+        int count = Math.min(length, current.length - position);
+        System.arraycopy(current, position, bytes, offset, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return current.length - position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        pending.forEach(member -> member.cancel(false));
+        pending.clear();
+        if (sequential != null) {
+            sequential.close();
+        } else {
+            in.close();
+        }
+    }
+
+    private void fillPending() throws IOException {
+        while (!membersEnded && pending.size() < maxPending) {
+            byte[] member = readSizedMember();
+            if (member != null) {
+                pending.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return GzipFormat.inflateMember(member);
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                }, executor));
+            }
+        }
+    }
+
+    /**
+     * Read the next member if it records its size; otherwise hand the rest of the stream to a
+     * sequential decompressor and end the sized members
+     * @return The member, or null when sized members have ended
+     */
+    private byte[] readSizedMember() throws IOException {
+        int headerLength = readFully(header, 0, GzipFormat.FIXED_HEADER_LENGTH);
+        if (!firstMember && (headerLength < GzipFormat.FIXED_HEADER_LENGTH
+                || (header[0] & 0xFF) != GzipFormat.MAGIC_1 || (header[1] & 0xFF) != GzipFormat.MAGIC_2)) {
+            // Like GZIPInputStream, ignore trailing data that is not another member
+            membersEnded = true;
+            return null;
+        }
+        if (headerLength < GzipFormat.FIXED_HEADER_LENGTH) {
+            throw new EOFException("Truncated GZIP header");
+        }
+        GzipFormat.checkFixedHeader(header);
+        firstMember = false;
+        long memberSize = -1;
+        if (GzipFormat.hasExtra(header)) {
+            headerLength += readFully(header, headerLength, 2);
+            int extraLength = GzipFormat.readShortLE(header, GzipFormat.FIXED_HEADER_LENGTH);
+            int extraStart = headerLength;
+            headerLength += readFully(header, headerLength, extraLength);
+            if (headerLength < extraStart + extraLength) {
+                throw new EOFException("Truncated GZIP header");
+            }
+            byte[] extra = Arrays.copyOfRange(header, extraStart, headerLength);
+            memberSize = GzipFormat.recordedMemberSize(extra, extra.length);
+        }
+        if (memberSize < headerLength + GzipFormat.TRAILER_LENGTH || memberSize > MAX_SIZED_MEMBER_LENGTH) {
+            in.unread(header, 0, headerLength);
+            sequential = new GZIPInputStream(in);
+            membersEnded = true;
+            return null;
+        }
+        byte[] member = new byte[(int) memberSize];
+        System.arraycopy(header, 0, member, 0, headerLength);
+        if (readFully(member, headerLength, member.length - headerLength) < member.length - headerLength) {
+            throw new EOFException("Truncated GZIP member");
+        }
+        return member;
+    }
+
+    private byte[] takeMember(CompletableFuture<byte[]> member) throws IOException {
+        try {
+            return member.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new ZipException("Decompression failed: " + e.getCause());
+        }
+    }
+
+    private int readFully(byte[] bytes, int offset, int length) throws IOException {
+        int total = 0;
+        while (total < length) {
+            int count = in.read(bytes, offset + total, length - total);
+            if (count < 0) {
+                break;
+            }
+            total += count;
+        }
+        return total;
+    }
+}
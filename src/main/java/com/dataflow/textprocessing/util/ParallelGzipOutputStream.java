@@ -0,0 +1,170 @@
+package com.dataflow.textprocessing.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Gzip output compressed in parallel, block by block, in the way of pigz and bgzip: input is cut into
+ * fixed-size blocks, each block is compressed on its own as a complete gzip member, and the members
+ * are written in order. Any gzip reader decompresses the concatenated members as one stream; each
+ * member also records its own compressed size in an extra field, which lets
+ * {@link ParallelGzipInputStream} decompress members in parallel. At most a bounded number of blocks
+ * is held in memory, so arbitrarily large output streams through.
+ */
+public final class ParallelGzipOutputStream extends OutputStream {
+    static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+
+    private final OutputStream out;
+    private final Executor executor;
+    private final int level;
+    private final int blockSize;
+    private final int maxPending;
+    private final ArrayDeque<CompletableFuture<byte[]>> pending = new ArrayDeque<>();
+    private byte[] block;
+    private int blockLength;
+    private boolean membersWritten;
+    private boolean closed;
+
+    /**
+     * Compress on the common pool at the default level
+     */
+    public ParallelGzipOutputStream(OutputStream out) {
+        this(out, ForkJoinPool.commonPool(), Deflater.DEFAULT_COMPRESSION, DEFAULT_BLOCK_SIZE,
+                2 * ForkJoinPool.getCommonPoolParallelism() + 1);
+    }
+
+    /**
+     * @param out Stream receiving the gzip members
+     * @param executor Executor compressing the blocks
+     * @param level Deflate compression level
+     * @param blockSize Uncompressed size of each member
+     * @param maxPending Maximum number of blocks being compressed at a time
+     */
+    public ParallelGzipOutputStream(OutputStream out, Executor executor, int level, int blockSize, int maxPending) {
+        this.out = out;
+        this.executor = executor;
+        this.level = level;
+        this.blockSize = blockSize;
+        this.maxPending = maxPending;
+        this.block = new byte[blockSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        block[blockLength++] = (byte) b;
+        if (blockLength == blockSize) {
+            submitBlock();
+        }
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        ensureOpen();
+        while (length > 0) {
+            int count = Math.min(length, blockSize - blockLength);
+            System.arraycopy(bytes, offset, block, blockLength, count);
+            blockLength += count;
+            offset += count;
+            length -= count;
+            if (blockLength == blockSize) {
+                submitBlock();
+            }
+        }
+    }
+
+    /**
+     * Compress and write everything written so far; the current block is ended early, so frequent
+     * flushes cost compression ratio
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        if (blockLength > 0) {
+            submitBlock();
+        }
+        while (!pending.isEmpty()) {
+            writeMember(pending.poll());
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            flush();
+            if (!membersWritten) {
+                // A gzip stream holds at least one member, even for no data
+                out.write(compressMember(new byte[0], 0, level));
+            }
+        } finally {
+            closed = true;
+            out.close();
+        }
+    }
+
+    private void submitBlock() throws IOException {
+        byte[] data = block;
+        int length = blockLength;
+        pending.add(CompletableFuture.supplyAsync(() -> compressMember(data, length, level), executor));
+        block = new byte[blockSize];
+        blockLength = 0;
+        if (pending.size() >= maxPending) {
+            writeMember(pending.poll());
+        }
+    }
+
+    private void writeMember(CompletableFuture<byte[]> member) throws IOException {
+        try {
+            out.write(member.join());
+            membersWritten = true;
+        } catch (CompletionException e) {
+            throw new IOException("Compression failed", e.getCause());
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    /**
+     * Compress data into one gzip member whose extra field holds the size of the whole member
+     */
+    static byte[] compressMember(byte[] data, int length, int level) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(data, 0, length);
+            deflater.finish();
+            byte[] member = new byte[GzipFormat.SIZED_HEADER_LENGTH + length + length / 1000 + 64];
+            int size = GzipFormat.SIZED_HEADER_LENGTH;
+            while (!deflater.finished()) {
+                if (size == member.length) {
+                    member = Arrays.copyOf(member, member.length * 2);
+                }
+                size += deflater.deflate(member, size, member.length - size);
+            }
+            CRC32 crc = new CRC32();
+            crc.update(data, 0, length);
+            member = Arrays.copyOf(member, size + GzipFormat.TRAILER_LENGTH);
+            GzipFormat.writeSizedHeader(member, member.length);
+            GzipFormat.writeIntLE(member, size, (int) crc.getValue());
+            GzipFormat.writeIntLE(member, size + 4, length);
+            return member;
+        } finally {
+            deflater.end();
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.dataflow.textprocessing.util;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Space-Saving heavy hitters summary with a fixed number of counters. When all counters are taken, a
+ * new item replaces the item with the smallest count and inherits that count as its error, so a
+ * reported count is an upper bound and {@code count - error} a lower bound. Every item occurring more
+ * than {@code total / capacity} times is tracked. The counters form an indexed min-heap, so updates
+ * cost O(log capacity).
+ */
+public final class SpaceSaving {
+    private final int capacity;
+    private final Map<String, Counter> counters;
+    private final Counter[] heap;
+    private int size;
+
+    /**
+     * @param capacity Number of counters kept
+     */
+    public SpaceSaving(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.counters = new HashMap<>(capacity * 2);
+        this.heap = new Counter[capacity];
+    }
+
+    /**
+     * Add occurrences of an item
+     * @param item The item
+     * @param count Number of occurrences
+     */
+    public void add(String item, long count) {
+        Counter counter = counters.get(item);
+        if (counter != null) {
+            counter.count += count;
+            siftDown(counter.index);
+        } else if (size < capacity) {
+            counter = new Counter(item, count, 0);
+            counter.index = size;
+            heap[size++] = counter;
+            counters.put(item, counter);
+            siftUp(counter.index);
+        } else {
+            Counter min = heap[0];
+            counters.remove(min.item);
+            min.error = min.count;
+            min.count += count;
+            min.item = item;
+            counters.put(item, min);
+            siftDown(0);
+        }
+    }
+
+    /**
+     * Get the tracked count of an item, an upper bound of its true count
+     * @return The count, or -1 if the item is not tracked
+     */
+    public long count(String item) {
+        Counter counter = counters.get(item);
+        return counter == null ? -1 : counter.count;
+    }
+
+    /**
+     * Smallest tracked count once all counters are taken, and an upper bound for any untracked item
+     */
+    public long minCount() {
+        return size < capacity ? 0 : heap[0].count;
+    }
+
+    /**
+     * Get the tracked items with the highest counts
+     * @param k Maximum number of items
+     * @return Items in descending order of count
+     */
+    public List<Entry> top(int k) {
+        List<Entry> entries = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            entries.add(new Entry(heap[i].item, heap[i].count, heap[i].error));
+        }
+        entries.sort(Comparator.comparingLong(Entry::getCount).reversed().thenComparing(Entry::getItem));
+        return entries.subList(0, Math.min(k, entries.size()));
+    }
+
+    /**
+     * Combine with another summary. An item missing from a full summary is counted with that summary's
+     * minimum, keeping counts upper bounds; the largest {@code capacity} combined counts are kept.
+     */
+    public void merge(SpaceSaving other) {
+        long thisMin = minCount();
+        long otherMin = other.minCount();
+        Set<String> items = new HashSet<>(counters.keySet());
+        items.addAll(other.counters.keySet());
+        List<Counter> combined = new ArrayList<>(items.size());
+        for (String item : items) {
+            Counter mine = counters.get(item);
+            Counter theirs = other.counters.get(item);
+            long count = (mine != null ? mine.count : thisMin) + (theirs != null ? theirs.count : otherMin);
+            long error = (mine != null ? mine.error : thisMin) + (theirs != null ? theirs.error : otherMin);
+            combined.add(new Counter(item, count, error));
+        }
+        combined.sort(Comparator.comparingLong((Counter counter) -> counter.count).reversed());
+
+        counters.clear();
+        size = 0;
+        for (Counter counter : combined.subList(0, Math.min(capacity, combined.size()))) {
+            counter.index = size;
+            heap[size++] = counter;
+            counters.put(counter.item, counter);
+        }
+        // Descending order is the reverse of a heap, so rebuild it bottom-up
+        for (int i = size / 2 - 1; i >= 0; i--) {
+            siftDown(i);
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    private void siftUp(int index) {
+        Counter counter = heap[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (heap[parent].count <= counter.count) {
+                break;
+            }
+            place(heap[parent], index);
+            index = parent;
+        }
+        place(counter, index);
+    }
+
+    private void siftDown(int index) {
+        Counter counter = heap[index];
+        int half = size >>> 1;
+        while (index < half) {
+            int child = 2 * index + 1;
+            if (child + 1 < size && heap[child + 1].count < heap[child].count) {
+                child++;
+            }
+            if (counter.count <= heap[child].count) {
+                break;
+            }
+            place(heap[child], index);
+            index = child;
+        }
+        place(counter, index);
+    }
+
+    private void place(Counter counter, int index) {
+        heap[index] = counter;
+        counter.index = index;
+    }
+
+    private static final class Counter {
+        String item;
+        long count;
+        long error;
+        int index;
+
+        Counter(String item, long count, long error) {
+            this.item = item;
+            this.count = count;
+            this.error = error;
+        }
+    }
+
+    /**
+     * Snapshot of a tracked item
+     */
+    public static final class Entry {
+        private final String item;
+        private final long count;
+        private final long error;
+
+        Entry(String item, long count, long error) {
+            this.item = item;
+            this.count = count;
+            this.error = error;
+        }
+
+        public String getItem() {
+            return item;
+        }
+
+        /**
+         * Upper bound of the item's count
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Maximum overestimation of the count
+         */
+        public long getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return item + "=" + count + (error > 0 ? " (±" + error + ")" : "");
+        }
+    }
+}
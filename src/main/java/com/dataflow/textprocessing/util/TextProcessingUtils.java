@@ -1,8 +1,12 @@
 package com.dataflow.textprocessing.util;
 
+import java.util.Arrays;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 public final class TextProcessingUtils {
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
     private TextProcessingUtils() {
         // Private constructor to prevent instantiation
     }
@@ -42,6 +46,29 @@ public final class TextProcessingUtils {
         if (input == null) {
             return "";
         }
-        return input.replaceAll("\\s+", " ").trim();
+        return CharClasses.collapseWhitespace(input);
+    }
+
+    /**
+     * Capitalizes each word and lower cases the rest, with full case mapping, so that "ß" capitalizes
+     * to "SS" and a final sigma stays final. Runs of whitespace ({@code \s}) become one space.
+     * @param input The input text to convert
+     * @return Title cased text
+     */
+    public static String toTitleCase(String input) {
+        if (input == null) {
+            return "";
+        }
+        return Arrays.stream(WHITESPACE.split(input))
+                .map(TextProcessingUtils::capitalize)
+                .collect(Collectors.joining(" "));
+    }
+
+    private static String capitalize(String word) {
+        if (word.isEmpty()) {
+            return "";
+        }
+        int first = Character.charCount(word.codePointAt(0));
+        return word.substring(0, first).toUpperCase() + word.substring(first).toLowerCase();
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,148 @@
+package com.dataflow.textprocessing.util;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * UTF-8 validation over byte arrays. Runs of ASCII are skipped eight bytes at a time by testing the
+ * high bit of a whole {@code long}, so mostly-ASCII text costs about one load per eight bytes; the
+ * remaining sequences are checked against the well-formed byte ranges of the Unicode standard
+ * (Table 3-7), which rejects overlong forms, surrogates and code points above U+10FFFF.
+ */
+public final class Utf8 {
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final long HIGH_BITS = 0x8080808080808080L;
+    private static final int BUFFER_CHUNK_SIZE = 1 << 16;
+
+    private Utf8() {
+        // Private constructor to prevent instantiation
+    }
+
+    /**
+     * Find the first byte that is not ASCII
+     * @return Index of the first byte with the high bit set, or {@code to} if there is none
+     */
+    public static int skipAscii(byte[] bytes, int from, int to) {
+        int i = from;
+        while (to - i >= Long.BYTES) {
+            if (((long) LONGS.get(bytes, i) & HIGH_BITS) != 0) {
+                break;
+            }
+            i += Long.BYTES;
+        }
+        while (i < to && bytes[i] >= 0) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Find the first malformed sequence
+     * @param bytes Bytes to check
+     * @param from First byte to check
+     * @param to End of the bytes to check; a sequence cut off here is malformed
+     * @return Index of the lead byte of the first malformed or truncated sequence, or -1 if the range
+     *         is well-formed UTF-8
+     */
+    public static int firstMalformed(byte[] bytes, int from, int to) {
+        int i = from;
+        while (true) {
+            i = skipAscii(bytes, i, to);
+            if (i == to) {
+                return -1;
+            }
+            int length = sequenceLength(bytes, i, to);
+            if (length == 0) {
+                return i;
+            }
+            i += length;
+        }
+    }
+
+    /**
+     * Find the first malformed sequence in a buffer, which may be direct or memory mapped; the bytes
+     * are checked in chunks copied to the heap
+     * @param buffer Bytes to check
+     * @param from Index of the first byte to check
+     * @param to End index of the bytes to check; a sequence cut off here is malformed
+     * @return Index of the lead byte of the first malformed or truncated sequence, or -1 if the range
+     *         is well-formed UTF-8
+     */
+    public static int firstMalformed(ByteBuffer buffer, int from, int to) {
+        byte[] chunk = new byte[Math.min(BUFFER_CHUNK_SIZE, to - from)];
+        int i = from;
+        while (i < to) {
+            int count = Math.min(chunk.length, to - i);
+            buffer.get(i, chunk, 0, count);
+            // Leave a sequence cut by the chunk end to the next chunk
+            int end = i + count < to ? alignToSequenceStart(chunk, count - 1) : count;
+            if (end == 0) {
+                end = count;
+            }
+            int malformed = firstMalformed(chunk, 0, end);
+            if (malformed >= 0) {
+                return i + malformed;
+            }
+            i += end;
+        }
+        return -1;
+    }
+
+    /**
+     * Move a split position back to the start of the sequence it falls into, so both sides hold whole
+     * characters; positions within runs of more than three continuation bytes, which are malformed
+     * anyway, are returned unchanged
+     */
+    public static int alignToSequenceStart(byte[] bytes, int position) {
+        for (int back = 0; back < 4 && position - back > 0; back++) {
+            if ((bytes[position - back] & 0xC0) != 0x80) {
+                return position - back;
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Length of the well-formed multi-byte sequence at an index, or 0 if it is malformed or truncated
+     */
+    private static int sequenceLength(byte[] bytes, int i, int to) {
+        int lead = bytes[i] & 0xFF;
+        int length;
+        int secondMin = 0x80;
+        int secondMax = 0xBF;
+        if (lead >= 0xC2 && lead <= 0xDF) {
+            length = 2;
+        } else if (lead >= 0xE0 && lead <= 0xEF) {
+            length = 3;
+            if (lead == 0xE0) {
+                secondMin = 0xA0;
+            } else if (lead == 0xED) {
+                secondMax = 0x9F;
+            }
+        } else if (lead >= 0xF0 && lead <= 0xF4) {
+            length = 4;
+            if (lead == 0xF0) {
+                secondMin = 0x90;
+            } else if (lead == 0xF4) {
+                secondMax = 0x8F;
+            }
+        } else {
+            return 0;
+        }
+        if (to - i < length) {
+            return 0;
+        }
+        int second = bytes[i + 1] & 0xFF;
+        if (second < secondMin || second > secondMax) {
+            return 0;
+        }
+        for (int k = 2; k < length; k++) {
+            if ((bytes[i + k] & 0xC0) != 0x80) {
+                return 0;
+            }
+        }
+        return length;
+    }
+}
@@ -0,0 +1,63 @@
+package com.dataflow.textprocessing.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public final class WordTokenizer {
+    private WordTokenizer() {
+        // Private constructor to prevent instantiation
+    }
+
+    /**
+     * Callback receiving the bounds of each token found in a text
+     */
+    @FunctionalInterface
+    public interface TokenConsumer {
+        void accept(int start, int end);
+    }
+
+    /**
+     * Checks if a character is a word character, using the same class as the regex {@code \w}
+     * @param c The character to check
+     * @return true if the character belongs to a word
+     */
+    public static boolean isWordChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+
+    /**
+     * Walks over every word in the text without allocating substrings
+     * @param text The text to tokenize
+     * @param consumer Receives the start (inclusive) and end (exclusive) offset of each word
+     */
+    public static void forEachToken(CharSequence text, TokenConsumer consumer) {
+        CharClasses.forEachRun(text, CharClasses.WORD, consumer::accept);
+    }
+
+    /**
+     * Splits the text into lower case words, matching the tokens used for word frequency analysis
+     * @param text The text to tokenize
+     * @return List of lower case words in document order
+     */
+    public static List<String> tokenize(CharSequence text) {
+        List<String> tokens = new ArrayList<>();
+        forEachToken(text, (start, end) -> tokens.add(normalize(text, start, end)));
+        return tokens;
+    }
+
+    /**
+     * Lower cases a word range of the text
+     * @param text The source text
+     * @param start Start offset (inclusive)
+     * @param end End offset (exclusive)
+     * @return The normalized word
+     */
+    public static String normalize(CharSequence text, int start, int end) {
+        char[] chars = new char[end - start];
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            chars[i - start] = (c >= 'A' && c <= 'Z') ? (char) (c + ('a' - 'A')) : c;
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,183 @@
+package com.dataflow.textprocessing.view;
+
+import com.dataflow.textprocessing.util.LineBuffer;
+import javafx.application.Platform;
+import javafx.collections.ObservableListBase;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.control.SelectionMode;
+import javafx.scene.input.Clipboard;
+import javafx.scene.input.ClipboardContent;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyCodeCombination;
+import javafx.scene.input.KeyCombination;
+import javafx.scene.input.KeyEvent;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Read-only view of a {@link LineBuffer} that creates cells only for the visible lines, so results of
+ * any size show without laying out their whole text. The items are line numbers generated on demand.
+ * Text may be appended from any thread; the view catches up at most once per pulse of the FX thread,
+ * so results stream in while the producing operation runs.
+ */
+public class OutputView extends ListView<Integer> {
+    private static final int MAX_DISPLAYED_LINE_LENGTH = 4096;
+    private static final KeyCombination COPY = new KeyCodeCombination(KeyCode.C, KeyCombination.SHORTCUT_DOWN);
+
+    private final LineBuffer buffer = new LineBuffer();
+    private final LineList lines = new LineList();
+    private final AtomicBoolean syncPending = new AtomicBoolean();
+
+    public OutputView() {
+        getStyleClass().add("output-view");
+        setItems(lines);
+        setCellFactory(view -> new LineCell());
+        getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
+        addEventHandler(KeyEvent.KEY_PRESSED, event -> {
+            if (COPY.match(event)) {
+                copySelection();
+                event.consume();
+            }
+        });
+    }
+
+    /**
+     * Replace the shown text; call on the FX thread
+     */
+    public void setText(CharSequence text) {
+        buffer.clear();
+        buffer.append(text);
+        syncLines(true);
+    }
+
+    /**
+     * Append text; may be called from any thread
+     */
+    public void append(CharSequence... texts) {
+        buffer.append(texts);
+        if (Platform.isFxApplicationThread()) {
+            syncLines(false);
+        } else if (syncPending.compareAndSet(false, true)) {
+            Platform.runLater(() -> syncLines(false));
+        }
+    }
+
+    /**
+     * Remove all text; call on the FX thread
+     */
+    public void clear() {
+        buffer.clear();
+        syncLines(true);
+    }
+
+    /**
+     * Copy the whole text into a String; only for output known to be small
+     */
+    public String getText() {
+        return buffer.toString();
+    }
+
+    private void syncLines(boolean replaced) {
+        syncPending.set(false);
+        lines.sync(buffer.getLineCount(), buffer.length(), replaced);
+    }
+
+    private void copySelection() {
+        List<Integer> selected = getSelectionModel().getSelectedIndices();
+        if (selected.isEmpty()) {
+            return;
+        }
+        StringBuilder text = new StringBuilder();
+        for (int index : selected.stream().sorted().toArray(Integer[]::new)) {
+            text.append(buffer.getLine(index)).append('\n');
+        }
+        ClipboardContent content = new ClipboardContent();
+        content.putString(text.toString());
+        Clipboard.getSystemClipboard().setContent(content);
+    }
+
+    /**
+     * Observable list of the line numbers 0 to the shown line count, holding no elements
+     */
+    private final class LineList extends ObservableListBase<Integer> {
+        private int size;
+        private long length;
+
+        @Override
+        public Integer get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Line " + index + " of " + size);
+            }
+            return index;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Catch up with the buffer
+         * @param replaced Whether the text was replaced rather than appended to
+         */
+        void sync(int lineCount, long textLength, boolean replaced) {
+            if (!replaced && lineCount == size && textLength == length) {
+                return;
+            }
+            int oldSize = size;
+            replaced |= textLength < length;
+            length = textLength;
+            // Separate changes keep the skin from treating the new lines as replaced ones and
+            // redrawing them one by one
+            if (replaced && oldSize > 0) {
+                size = 0;
+                beginChange();
+                nextRemove(0, range(oldSize));
+                endChange();
+            } else if (oldSize > 0) {
+                // The old last line may have been partial and grown; a replacement makes the skin
+                // redraw its cell
+                beginChange();
+                nextSet(oldSize - 1, oldSize - 1);
+                endChange();
+            }
+            int shownSize = size;
+            size = lineCount;
+            if (lineCount > shownSize) {
+                beginChange();
+                nextAdd(shownSize, lineCount);
+                endChange();
+            }
+        }
+
+        private List<Integer> range(int count) {
+            return new AbstractList<>() {
+                @Override
+                public Integer get(int index) {
+                    return index;
+                }
+
+                @Override
+                public int size() {
+                    return count;
+                }
+            };
+        }
+    }
+
+    private final class LineCell extends ListCell<Integer> {
+        @Override
+        protected void updateItem(Integer index, boolean empty) {
+            super.updateItem(index, empty);
+            if (empty || index == null || index >= buffer.getLineCount()) {
+                setText(null);
+                return;
+            }
+            String line = buffer.getLine(index, MAX_DISPLAYED_LINE_LENGTH);
+            setText(buffer.getLineLength(index) > MAX_DISPLAYED_LINE_LENGTH ? line + "…" : line);
+        }
+    }
+}
@@ -2,6 +2,8 @@ module com.dataflow.textprocessing {
     requires javafx.controls;
     requires javafx.fxml;
     requires org.slf4j;
+    requires jdk.jfr;
+    requires jdk.management;
 
     opens com.dataflow.textprocessing to javafx.fxml;
     opens com.dataflow.textprocessing.controller to javafx.fxml;
@@ -11,4 +13,5 @@ module com.dataflow.textprocessing {
     exports com.dataflow.textprocessing.service;
     exports com.dataflow.textprocessing.service.impl;
     exports com.dataflow.textprocessing.model;
+    exports com.dataflow.textprocessing.metrics;
 }
@@ -0,0 +1,65 @@
+package com.dataflow.textprocessing.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Replacement templates against {@link String#replaceAll}, on whole and streamed text
+ */
+class CompiledReplacementTest {
+    private static final String TEXT = "a1b22c333 d-4444 e\n(f) $5 \\6 7a7";
+
+    @Test
+    void groupReferencesMatchReplaceAll() throws IOException {
+        assertSameAsReplaceAll("(\\d)(\\d)", "$2$1");
+        assertSameAsReplaceAll("(\\d)(\\d)", "$21");
+        assertSameAsReplaceAll("(\\d)", "$10");
+        assertSameAsReplaceAll("(?<digit>\\d)(?<letter>[a-z])?", "<${digit}|${letter}>");
+        assertSameAsReplaceAll("(x)?(\\d)", "[$1$2]");
+        assertSameAsReplaceAll("\\d+", "$0$0");
+    }
+
+    @Test
+    void escapesMatchReplaceAll() throws IOException {
+        assertSameAsReplaceAll("\\d", "\\$");
+        assertSameAsReplaceAll("\\d", "\\\\");
+        assertSameAsReplaceAll("\\$", "\\$\\$");
+        assertSameAsReplaceAll("[()]", "\\x");
+    }
+
+    @Test
+    void emptyMatchesMatchReplaceAll() throws IOException {
+        assertSameAsReplaceAll("", "-");
+        assertSameAsReplaceAll("\\d*", "#");
+        assertSameAsReplaceAll("\\b", "|");
+        assertSameAsReplaceAll("(?m)^", "> ");
+        assertSameAsReplaceAll("x*$", "!");
+    }
+
+    @Test
+    void invalidTemplatesFailOnlyWhenAMatchIsReplaced() {
+        for (String template : new String[] {"$2", "tail\\", "$", "${unclosed", "${1st}", "$x"}) {
+            CompiledReplacement compiled = CompiledReplacement.compile("(a)", template);
+            assertEquals("none", compiled.replace("none"), template);
+            Class<? extends Exception> expected = assertThrows(RuntimeException.class,
+                    () -> "a".replaceAll("(a)", template), template).getClass();
+            assertThrows(expected, () -> compiled.replace("a"), template);
+        }
+        assertThrows(IllegalArgumentException.class, () -> CompiledReplacement.compile("(a", "$1"));
+    }
+
+    private static void assertSameAsReplaceAll(String regex, String template) throws IOException {
+        CompiledReplacement compiled = CompiledReplacement.compile(regex, template);
+        String expected = TEXT.replaceAll(regex, template);
+        assertEquals(expected, compiled.replace(TEXT), regex + " -> " + template);
+
+        StringBuilder streamed = new StringBuilder();
+        compiled.replaceTo(new StringReader(TEXT), streamed);
+        assertEquals(expected, streamed.toString(), "streamed " + regex + " -> " + template);
+    }
+}
@@ -0,0 +1,87 @@
+package com.dataflow.textprocessing.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.CharBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Documents of a batch read lazily from it, and changes to them staying out of the batch
+ */
+class DocumentBatchTest {
+    private final DocumentBatch batch = DocumentBatch.builder(1, 1)
+            .add("first.txt", "alpha beta")
+            .add("empty.txt", "")
+            .add(new StringBuilder("third.txt"), new StringBuilder("naïve 😀 text"))
+            .build();
+
+    @Test
+    void viewsReadTheirFieldsFromTheBatch() {
+        assertEquals(3, batch.size());
+        assertEquals("alpha beta".length() + "naïve 😀 text".length(), batch.getTotalContentLength());
+        LocalDateTime created = LocalDateTime.ofInstant(Instant.ofEpochMilli(batch.getCreatedMillis()), ZoneId.systemDefault());
+
+        Set<String> ids = new HashSet<>();
+        for (int i = 0; i < batch.size(); i++) {
+            TextDocument document = batch.get(i);
+            assertEquals(batch.getContentLength(i), document.getContentLength());
+            assertEquals(batch.getName(i), document.getName());
+            assertEquals(batch.getContent(i), document.getContent());
+            assertEquals(batch.getId(i), document.getId());
+            assertEquals(created, document.getCreatedAt());
+            assertEquals(created, document.getModifiedAt());
+            assertEquals(0, document.getVersion());
+            assertEquals(document, batch.get(i));
+            assertEquals(document.hashCode(), batch.get(i).hashCode());
+            ids.add(document.getId());
+        }
+        assertEquals(3, ids.size());
+        assertEquals("naïve 😀 text", batch.get(2).getContent());
+        assertEquals("", batch.get(1).getContent());
+        assertNotEquals(batch.getId(0), DocumentBatch.builder().add("first.txt", "alpha beta").build().getId(0));
+    }
+
+    @Test
+    void changingAViewLeavesTheBatchUnchanged() {
+        TextDocument document = batch.get(0);
+        document.setContent("changed content");
+        document.setName("renamed.txt");
+
+        assertEquals("changed content", document.getContent());
+        assertEquals("changed content".length(), document.getContentLength());
+        assertEquals("renamed.txt", document.getName());
+        assertTrue(document.getVersion() > 0);
+        assertEquals(batch.getId(0), document.getId());
+
+        TextDocument fresh = batch.get(0);
+        assertEquals("alpha beta", fresh.getContent());
+        assertEquals("first.txt", fresh.getName());
+        assertEquals(0, fresh.getVersion());
+        assertEquals("alpha beta", batch.getContent(0));
+    }
+
+    @Test
+    void contentViewsAreReadOnly() {
+        CharBuffer view = batch.contentView(2);
+        assertEquals("naïve 😀 text", view.toString());
+        assertThrows(ReadOnlyBufferException.class, () -> view.put(0, 'x'));
+        assertEquals("", batch.contentView(1).toString());
+    }
+
+    @Test
+    void indexesOutsideTheBatchAreRejected() {
+        assertThrows(IndexOutOfBoundsException.class, () -> batch.get(3));
+        assertThrows(IndexOutOfBoundsException.class, () -> batch.getContent(-1));
+        assertThrows(IndexOutOfBoundsException.class, () -> batch.contentView(3));
+    }
+}
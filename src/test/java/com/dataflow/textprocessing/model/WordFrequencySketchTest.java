@@ -0,0 +1,129 @@
+package com.dataflow.textprocessing.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The error bounds the sketch reports, checked against exact counts of a Zipf distributed text
+ */
+class WordFrequencySketchTest {
+    private static final int VOCABULARY = 20_000;
+    private static final int WORDS = 200_000;
+    private static final double EPSILON = 0.001;
+    private static final double DELTA = 0.01;
+
+    @Test
+    void countEstimatesStayWithinTheirBound() {
+        Map<String, Long> exact = new HashMap<>();
+        WordFrequencySketch sketch = sketch(zipfWords(new Random(1), WORDS), exact);
+
+        assertEquals(WORDS, sketch.getTotalWords());
+        long bound = sketch.getCountErrorBound();
+        assertEquals((long) Math.ceil(EPSILON * WORDS), bound);
+        int beyondBound = 0;
+        for (Map.Entry<String, Long> word : exact.entrySet()) {
+            long estimate = sketch.estimateCount(word.getKey());
+            assertTrue(estimate >= word.getValue(), word.getKey());
+            if (estimate - word.getValue() > bound) {
+                beyondBound++;
+            }
+        }
+        // Each estimate exceeds the bound with probability at most delta
+        assertTrue(beyondBound <= 2 * DELTA * exact.size(), beyondBound + " of " + exact.size());
+        assertTrue(sketch.estimateCount("neverseen") <= bound);
+    }
+
+    @Test
+    void distinctEstimateIsWithinFourStandardErrors() {
+        Map<String, Long> exact = new HashMap<>();
+        WordFrequencySketch sketch = sketch(zipfWords(new Random(2), WORDS), exact);
+
+        double error = Math.abs(sketch.estimateDistinctWords() - exact.size()) / (double) exact.size();
+        assertTrue(error <= 4 * sketch.getDistinctRelativeError(),
+                sketch.estimateDistinctWords() + " estimated for " + exact.size());
+
+        WordFrequencySketch unique = new WordFrequencySketch(100, EPSILON, DELTA, 12);
+        for (int i = 0; i < 100_000; i++) {
+            unique.add("w" + i);
+        }
+        error = Math.abs(unique.estimateDistinctWords() - 100_000) / 100_000.0;
+        assertTrue(error <= 4 * unique.getDistinctRelativeError(), unique.estimateDistinctWords() + " for 100000");
+    }
+
+    @Test
+    void topWordsBoundTheirCountsAndIncludeEveryHeavyHitter() {
+        Map<String, Long> exact = new HashMap<>();
+        StringBuilder text = zipfWords(new Random(3), WORDS);
+        WordFrequencySketch sketch = sketch(text, exact);
+
+        List<WordCount> top = sketch.getTopWords(100);
+        for (WordCount entry : top) {
+            long count = exact.getOrDefault(entry.getWord(), 0L);
+            assertTrue(entry.getCount() >= count && entry.getCount() - entry.getError() <= count, entry.toString());
+        }
+        // Space-Saving keeps every word occurring more than total / capacity times
+        List<String> tracked = sketch.getTopWords(1000).stream().map(WordCount::getWord).toList();
+        exact.forEach((word, count) -> {
+            if (count > WORDS / 1000) {
+                assertTrue(tracked.contains(word), word + " occurs " + count + " times");
+            }
+        });
+        assertEquals(exact.entrySet().stream().max(Map.Entry.comparingByValue()).orElseThrow().getKey(),
+                top.get(0).getWord());
+    }
+
+    @Test
+    void mergedSketchesKeepTheBounds() {
+        Map<String, Long> exact = new HashMap<>();
+        WordFrequencySketch merged = sketch(zipfWords(new Random(4), WORDS / 2), exact)
+                .merge(sketch(zipfWords(new Random(5), WORDS / 2), exact));
+
+        assertEquals(WORDS, merged.getTotalWords());
+        long bound = merged.getCountErrorBound();
+        long beyondBound = exact.entrySet().stream()
+                .filter(word -> merged.estimateCount(word.getKey()) < word.getValue()
+                        || merged.estimateCount(word.getKey()) - word.getValue() > bound)
+                .count();
+        assertTrue(beyondBound <= 2 * DELTA * exact.size(), beyondBound + " of " + exact.size());
+        double error = Math.abs(merged.estimateDistinctWords() - exact.size()) / (double) exact.size();
+        assertTrue(error <= 4 * merged.getDistinctRelativeError());
+    }
+
+    private static WordFrequencySketch sketch(CharSequence text, Map<String, Long> exact) {
+        WordFrequencySketch sketch = new WordFrequencySketch(1000, EPSILON, DELTA, 12);
+        sketch.addText(text);
+        for (String word : text.toString().split(" ")) {
+            if (!word.isEmpty()) {
+                exact.merge(word.toLowerCase(), 1L, Long::sum);
+            }
+        }
+        return sketch;
+    }
+
+    /**
+     * Words whose rank r is drawn with probability proportional to 1 / r, some capitalized
+     */
+    private static StringBuilder zipfWords(Random random, int count) {
+        double[] cumulative = new double[VOCABULARY];
+        double sum = 0;
+        for (int rank = 1; rank <= VOCABULARY; rank++) {
+            sum += 1.0 / rank;
+            cumulative[rank - 1] = sum;
+        }
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            int index = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+            int rank = index >= 0 ? index : -index - 1;
+            text.append(rank % 7 == 0 ? "Word" : "word").append(rank).append(' ');
+        }
+        return text;
+    }
+}
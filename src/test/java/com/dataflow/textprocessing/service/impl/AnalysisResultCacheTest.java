@@ -0,0 +1,38 @@
+package com.dataflow.textprocessing.service.impl;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class AnalysisResultCacheTest {
+    @Test
+    void resultsAreKeyedByContentOperationAndParameters() {
+        AnalysisResultCache cache = new AnalysisResultCache(100, 1 << 20);
+
+        assertEquals("ab", cache.getOrCompute("ab", "echo", List.of(), () -> "ab"));
+        assertEquals("ab", cache.getOrCompute("ab", "echo", List.of(), () -> "recomputed"));
+        assertEquals("ba", cache.getOrCompute("ba", "echo", List.of(), () -> "ba"));
+        assertEquals("ab!", cache.getOrCompute("ab", "echo", List.of(1), () -> "ab!"));
+        assertEquals("", cache.getOrCompute("", "echo", List.of(), () -> ""));
+
+        AnalysisResultCache.Statistics statistics = cache.getStatistics();
+        assertEquals(1, statistics.getHits());
+        assertEquals(4, statistics.getMisses());
+    }
+
+    @Test
+    void diskTierServesAFreshCache(@TempDir Path directory) {
+        String content = "long enough content to digest in several chunks ".repeat(500);
+        new AnalysisResultCache(100, 1 << 20, directory).getOrCompute(content, "count", List.of(), () -> Map.of("a", 1L));
+
+        AnalysisResultCache restarted = new AnalysisResultCache(100, 1 << 20, directory);
+        assertEquals(Map.of("a", 1L), restarted.getOrCompute(content, "count", List.of(), () -> Map.of()));
+        assertEquals(Map.of(), restarted.getOrCompute(content + ".", "count", List.of(), () -> Map.of()));
+        assertEquals(1, restarted.getStatistics().getDiskHits());
+    }
+}
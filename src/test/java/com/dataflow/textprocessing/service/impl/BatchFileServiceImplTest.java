@@ -0,0 +1,122 @@
+package com.dataflow.textprocessing.service.impl;
+
+import com.dataflow.textprocessing.model.FileResult;
+import com.dataflow.textprocessing.model.TextDocument;
+import com.dataflow.textprocessing.service.BatchProcessingService.BatchOperation;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Journaled batches resuming where they stopped, and outputs that must not overwrite each other
+ */
+class BatchFileServiceImplTest {
+    private final BatchFileServiceImpl service = new BatchFileServiceImpl(new DocumentIngestionServiceImpl(), 4, 4, 2);
+
+    @AfterEach
+    void shutdown() {
+        service.shutdown();
+    }
+
+    @Test
+    void sourcesOfTheSameNameAreRejected(@TempDir Path directory) throws IOException {
+        Path first = write(directory.resolve("a").resolve("notes.txt"), "first");
+        Path second = write(directory.resolve("b").resolve("notes.txt"), "second");
+        Path output = Files.createDirectory(directory.resolve("out"));
+
+        assertThrows(IllegalArgumentException.class, () -> service.processFiles(List.of(first, second), output,
+                document -> document, (result, processed) -> { }));
+        assertThrows(IllegalArgumentException.class, () -> service.processFiles(List.of(first, second), output,
+                document -> document, directory.resolve("batch.journal"), (result, processed) -> { }));
+        assertFalse(Files.exists(output.resolve("notes.txt")));
+        assertEquals(2, service.processFiles(List.of(first, second), null, document -> document,
+                (result, processed) -> { }).size());
+    }
+
+    @Test
+    void resumedBatchSkipsUnchangedFiles(@TempDir Path directory) throws IOException {
+        List<Path> sources = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            sources.add(write(directory.resolve("in").resolve("file" + i + ".txt"), "content of file " + i));
+        }
+        Path output = Files.createDirectory(directory.resolve("out"));
+        Path journal = directory.resolve("batch.journal");
+        Set<String> processed = ConcurrentHashMap.newKeySet();
+
+        List<FileResult> first = service.processFiles(sources, output, upperCase(processed), journal, (result, document) -> { });
+        assertEquals(5, first.size());
+        assertTrue(first.stream().allMatch(FileResult::isSuccessful));
+        assertEquals("CONTENT OF FILE 3", Files.readString(output.resolve("file3.txt")));
+
+        processed.clear();
+        assertEquals(0, service.processFiles(sources, output, upperCase(processed), journal, (result, document) -> { }).size());
+        assertEquals(Set.of(), processed);
+
+        write(sources.get(1), "changed source");
+        Files.setLastModifiedTime(sources.get(1), FileTime.fromMillis(System.currentTimeMillis() + 5000));
+        Files.writeString(output.resolve("file4.txt"), "edited output");
+        List<FileResult> resumed = service.processFiles(sources, output, upperCase(processed), journal, (result, document) -> { });
+        assertEquals(Set.of("file1.txt", "file4.txt"), processed);
+        assertEquals(2, resumed.size());
+        assertEquals("CHANGED SOURCE", Files.readString(output.resolve("file1.txt")));
+        assertEquals("CONTENT OF FILE 4", Files.readString(output.resolve("file4.txt")));
+    }
+
+    @Test
+    void failedFilesWaitForRetry(@TempDir Path directory) throws IOException {
+        Path good = write(directory.resolve("good.txt"), "fine");
+        Path bad = write(directory.resolve("bad.txt"), "broken");
+        Path output = Files.createDirectory(directory.resolve("out"));
+        Path journal = directory.resolve("batch.journal");
+
+        List<FileResult> results = service.processFiles(List.of(good, bad), output, failOn("broken"), journal,
+                (result, document) -> { });
+        assertTrue(results.get(0).isSuccessful());
+        assertFalse(results.get(1).isSuccessful());
+        assertEquals(List.of(bad), service.getRetryQueue(journal));
+        assertEquals(0, service.processFiles(List.of(good, bad), output, document -> document, journal,
+                (result, document) -> { }).size());
+
+        List<FileResult> retried = service.retryFailedFiles(journal, output, document -> document, (result, document) -> { });
+        assertEquals(1, retried.size());
+        assertTrue(retried.get(0).isSuccessful());
+        assertEquals(List.of(), service.getRetryQueue(journal));
+        assertEquals("broken", Files.readString(output.resolve("bad.txt")));
+    }
+
+    private static BatchOperation<TextDocument> upperCase(Set<String> processed) {
+        return document -> {
+            processed.add(document.getName());
+            return new TextDocument(document.getName(), document.getContent().toUpperCase());
+        };
+    }
+
+    private static BatchOperation<TextDocument> failOn(String content) {
+        return document -> {
+            if (document.getContent().equals(content)) {
+                throw new IllegalStateException("cannot process " + document.getName());
+            }
+            return document;
+        };
+    }
+
+    private static Path write(Path file, String content) throws IOException {
+        Files.createDirectories(file.getParent());
+        return Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+}
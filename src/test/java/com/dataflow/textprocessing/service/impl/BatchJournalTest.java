@@ -0,0 +1,128 @@
+package com.dataflow.textprocessing.service.impl;
+
+import com.dataflow.textprocessing.exception.TextProcessingException;
+import com.dataflow.textprocessing.model.FileResult;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Replay of the journal after a crash: records up to the first incomplete or corrupt one survive
+ */
+class BatchJournalTest {
+    @Test
+    void recordsSurviveReopening(@TempDir Path directory) throws IOException {
+        Path journalFile = directory.resolve("job.journal");
+        Path done = source(directory, "done.txt");
+        Path failed = source(directory, "failed.txt");
+        try (BatchJournal journal = BatchJournal.open(journalFile)) {
+            completed(journal, done, 5);
+            journal.record(BatchJournal.SourceState.of(failed), failure(failed));
+        }
+
+        try (BatchJournal journal = BatchJournal.open(journalFile)) {
+            assertTrue(journal.canSkip(done, BatchJournal.SourceState.of(done), output(done)));
+            assertTrue(journal.canSkip(failed, BatchJournal.SourceState.of(failed), output(failed)));
+            assertEquals(List.of(failed.toAbsolutePath()), journal.failedSources());
+            // A changed source is processed again
+            Files.writeString(done, "changed content");
+            assertFalse(journal.canSkip(done, BatchJournal.SourceState.of(done), output(done)));
+        }
+    }
+
+    @Test
+    void truncatedLastRecordIsDiscarded(@TempDir Path directory) throws IOException {
+        Path journalFile = directory.resolve("job.journal");
+        Path first = source(directory, "first.txt");
+        Path second = source(directory, "second.txt");
+        try (BatchJournal journal = BatchJournal.open(journalFile)) {
+            completed(journal, first, 5);
+        }
+        long firstEnd = Files.size(journalFile);
+        try (BatchJournal journal = BatchJournal.open(journalFile)) {
+            completed(journal, second, 6);
+        }
+        try (FileChannel channel = FileChannel.open(journalFile, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+
+        try (BatchJournal journal = BatchJournal.open(journalFile)) {
+            assertEquals(firstEnd, Files.size(journalFile));
+            assertTrue(journal.canSkip(first, BatchJournal.SourceState.of(first), output(first)));
+            assertFalse(journal.canSkip(second, BatchJournal.SourceState.of(second), output(second)));
+            completed(journal, second, 6);
+        }
+        try (BatchJournal journal = BatchJournal.open(journalFile)) {
+            assertTrue(journal.canSkip(second, BatchJournal.SourceState.of(second), output(second)));
+        }
+    }
+
+    @Test
+    void recordsFromACorruptOneOnAreDiscarded(@TempDir Path directory) throws IOException {
+        Path journalFile = directory.resolve("job.journal");
+        Path first = source(directory, "first.txt");
+        Path second = source(directory, "second.txt");
+        Path third = source(directory, "third.txt");
+        try (BatchJournal journal = BatchJournal.open(journalFile)) {
+            completed(journal, first, 5);
+        }
+        long firstEnd = Files.size(journalFile);
+        try (BatchJournal journal = BatchJournal.open(journalFile)) {
+            completed(journal, second, 6);
+            completed(journal, third, 7);
+        }
+        // Flip a byte in the body of the second record, past its 8 byte length and CRC header
+        try (FileChannel channel = FileChannel.open(journalFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer bodyByte = ByteBuffer.allocate(1);
+            channel.read(bodyByte, firstEnd + 12);
+            bodyByte.put(0, (byte) (bodyByte.get(0) ^ 0x5A)).rewind();
+            channel.write(bodyByte, firstEnd + 12);
+        }
+
+        try (BatchJournal journal = BatchJournal.open(journalFile)) {
+            assertEquals(firstEnd, Files.size(journalFile));
+            assertTrue(journal.canSkip(first, BatchJournal.SourceState.of(first), output(first)));
+            assertFalse(journal.canSkip(second, BatchJournal.SourceState.of(second), output(second)));
+            assertFalse(journal.canSkip(third, BatchJournal.SourceState.of(third), output(third)));
+        }
+    }
+
+    @Test
+    void journalIsUsedByOneJobAtATime(@TempDir Path directory) {
+        Path journalFile = directory.resolve("job.journal");
+        try (BatchJournal journal = BatchJournal.open(journalFile)) {
+            assertThrows(TextProcessingException.class, () -> BatchJournal.open(journalFile));
+        }
+        BatchJournal.open(journalFile).close();
+    }
+
+    private static Path source(Path directory, String name) throws IOException {
+        return Files.writeString(directory.resolve(name), "content of " + name);
+    }
+
+    private static Path output(Path source) {
+        return source.resolveSibling(source.getFileName() + ".out");
+    }
+
+    private static void completed(BatchJournal journal, Path source, int outputSize) throws IOException {
+        Files.write(output(source), new byte[outputSize]);
+        journal.record(BatchJournal.SourceState.of(source),
+                new FileResult(source, output(source), Files.size(source), outputSize, 0, 0, 0, null));
+    }
+
+    private static FileResult failure(Path source) {
+        return new FileResult(source, null, 0, 0, 0, 0, 0, new IllegalStateException("bad input"));
+    }
+}
@@ -0,0 +1,80 @@
+package com.dataflow.textprocessing.service.impl;
+
+import com.dataflow.textprocessing.model.TextDocument;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Interrupting the thread running a batch cancels the documents not processed yet
+ */
+class BatchProcessingServiceImplTest {
+    private final BatchProcessingServiceImpl service = new BatchProcessingServiceImpl(new TextProcessingServiceImpl(), 2);
+
+    @AfterEach
+    void shutdown() {
+        service.shutdown();
+    }
+
+    @Test
+    void interruptingTheCallerCancelsTheRestOfTheBatch() throws Exception {
+        List<TextDocument> documents = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            documents.add(new TextDocument("document " + i, "content " + i));
+        }
+        CountDownLatch started = new CountDownLatch(2);
+        AtomicInteger begun = new AtomicInteger();
+        AtomicInteger interrupted = new AtomicInteger();
+        AtomicReference<Thread> caller = new AtomicReference<>();
+
+        CompletableFuture<List<String>> batch = CompletableFuture.supplyAsync(() -> {
+            caller.set(Thread.currentThread());
+            return service.processBatchWithOperation(documents, document -> {
+                begun.incrementAndGet();
+                started.countDown();
+                try {
+                    // Blocks until the batch is cancelled
+                    new CountDownLatch(1).await();
+                } catch (InterruptedException e) {
+                    interrupted.incrementAndGet();
+                    throw e;
+                }
+                return document.getName();
+            });
+        }, runnable -> new Thread(runnable, "batch-caller").start());
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        caller.get().interrupt();
+
+        ExecutionException failure = assertThrows(ExecutionException.class, () -> batch.get(10, TimeUnit.SECONDS));
+        assertInstanceOf(CancellationException.class, failure.getCause());
+        assertTrue(waitFor(() -> interrupted.get() == 2));
+        assertEquals(2, begun.get());
+        assertEquals(0, service.getQueueDepth());
+    }
+
+    private static boolean waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+}
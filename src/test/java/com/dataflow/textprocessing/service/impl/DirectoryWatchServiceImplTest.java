@@ -0,0 +1,94 @@
+package com.dataflow.textprocessing.service.impl;
+
+import com.dataflow.textprocessing.model.TextDocument;
+import com.dataflow.textprocessing.service.DirectoryWatchService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Files are processed once they stop changing, and again when rewritten later
+ */
+class DirectoryWatchServiceImplTest {
+    private static final long QUIET_PERIOD_MILLIS = 300;
+
+    private final BatchFileServiceImpl batchFileService = new BatchFileServiceImpl(new DocumentIngestionServiceImpl(), 4, 4, 2);
+    private final DirectoryWatchServiceImpl watchService = new DirectoryWatchServiceImpl(batchFileService, null,
+            QUIET_PERIOD_MILLIS, 8, 1024 * 1024, 2);
+    private final Map<String, List<String>> processed = new ConcurrentHashMap<>();
+
+    @AfterEach
+    void shutdown() {
+        batchFileService.shutdown();
+    }
+
+    @Test
+    void rapidRewritesAreProcessedOnceAfterTheQuietPeriod(@TempDir Path directory) throws Exception {
+        Path watched = Files.createDirectory(directory.resolve("in"));
+        Path output = Files.createDirectory(directory.resolve("out"));
+        Files.writeString(watched.resolve("existing.txt"), "already here");
+        DirectoryWatchService.WatchSession session = watch(watched, output);
+        try {
+            assertTrue(waitFor(() -> processed.containsKey("existing.txt")));
+
+            Path arriving = watched.resolve("arriving.txt");
+            for (int i = 0; i < 5; i++) {
+                Files.writeString(arriving, "draft " + i);
+                Thread.sleep(QUIET_PERIOD_MILLIS / 5);
+            }
+            Files.writeString(watched.resolve("partial.tmp"), "ignored");
+            assertTrue(waitFor(() -> processed.containsKey("arriving.txt")));
+            Thread.sleep(2 * QUIET_PERIOD_MILLIS);
+
+            assertEquals(List.of("DRAFT 4"), processed.get("arriving.txt"));
+            assertEquals("DRAFT 4", Files.readString(output.resolve("arriving.txt")));
+            assertEquals(List.of("ALREADY HERE"), processed.get("existing.txt"));
+            assertFalse(processed.containsKey("partial.tmp"));
+
+            Files.writeString(arriving, "final version");
+            assertTrue(waitFor(() -> processed.get("arriving.txt").size() == 2));
+            assertEquals(List.of("DRAFT 4", "FINAL VERSION"), processed.get("arriving.txt"));
+            assertTrue(waitFor(() -> session.getProcessedCount() == 3));
+            assertEquals(0, session.getPendingCount());
+            assertTrue(session.getLatencyNanos(0.5) >= TimeUnit.MILLISECONDS.toNanos(QUIET_PERIOD_MILLIS));
+        } finally {
+            session.stop();
+        }
+    }
+
+    private DirectoryWatchService.WatchSession watch(Path watched, Path output) {
+        return watchService.watch(watched, output,
+                document -> new TextDocument(document.getName(), document.getContent().toUpperCase()),
+                (result, document) -> {
+                    if (document != null) {
+                        processed.computeIfAbsent(result.getSource().getFileName().toString(),
+                                name -> new CopyOnWriteArrayList<>()).add(document.getContent());
+                    }
+                });
+    }
+
+    private static boolean waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            Thread.sleep(20);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,86 @@
+package com.dataflow.textprocessing.service.impl;
+
+import com.dataflow.textprocessing.exception.TextProcessingException;
+import com.dataflow.textprocessing.service.DocumentIngestionService.MalformedInputPolicy;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Encoding detection from byte order marks and content, and the policies for malformed UTF-8
+ */
+class DocumentIngestionServiceImplTest {
+    private static final String TEXT = "naïve café 😀 Ωmega\r\nline two";
+    private static final byte[] UTF8_BOM = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+
+    private final DocumentIngestionServiceImpl service = new DocumentIngestionServiceImpl();
+
+    @Test
+    void byteOrderMarksSelectTheEncodingAndAreDropped() {
+        assertEquals(TEXT, service.decode(concat(UTF8_BOM, TEXT.getBytes(StandardCharsets.UTF_8))));
+        assertEquals(TEXT, service.decode(concat(new byte[] {(byte) 0xFF, (byte) 0xFE}, TEXT.getBytes(StandardCharsets.UTF_16LE))));
+        assertEquals(TEXT, service.decode(concat(new byte[] {(byte) 0xFE, (byte) 0xFF}, TEXT.getBytes(StandardCharsets.UTF_16BE))));
+        assertEquals(TEXT, service.decode(concat(new byte[] {(byte) 0xFF, (byte) 0xFE, 0, 0},
+                TEXT.getBytes(Charset.forName("UTF-32LE")))));
+        assertEquals(Charset.forName("UTF-32BE"), service.detectCharset(concat(new byte[] {0, 0, (byte) 0xFE, (byte) 0xFF},
+                TEXT.getBytes(Charset.forName("UTF-32BE")))));
+    }
+
+    @Test
+    void encodingIsDetectedWithoutAByteOrderMark() {
+        assertEquals(TEXT, service.decode(TEXT.getBytes(StandardCharsets.UTF_8)));
+        assertEquals("plain latin text", service.decode("plain latin text".getBytes(StandardCharsets.UTF_16LE)));
+        assertEquals("plain latin text", service.decode("plain latin text".getBytes(StandardCharsets.UTF_16BE)));
+        // Not valid UTF-8, so a single byte encoding
+        assertEquals("café déjà", service.decode("café déjà".getBytes(StandardCharsets.ISO_8859_1)));
+        assertEquals(Charset.forName("windows-1252"), service.detectCharset(new byte[] {'a', (byte) 0x80, 'b'}));
+    }
+
+    @Test
+    void malformedUtf8FollowsThePolicy() {
+        byte[] malformed = concat(UTF8_BOM, new byte[] {'o', 'k', ' ', (byte) 0xC3, ' ', (byte) 0xE2, (byte) 0x82, ' ', 'e', 'n', 'd'});
+
+        assertEquals("ok � � end", service.decode(malformed));
+        assertEquals("ok   end", new DocumentIngestionServiceImpl(MalformedInputPolicy.SKIP,
+                DocumentIngestionServiceImpl.DEFAULT_PARALLEL_THRESHOLD).decode(malformed));
+        TextProcessingException error = assertThrows(TextProcessingException.class, () -> new DocumentIngestionServiceImpl(
+                MalformedInputPolicy.REPORT, DocumentIngestionServiceImpl.DEFAULT_PARALLEL_THRESHOLD).decode(malformed));
+        assertTrue(error.getMessage().contains("at byte 6"), error.getMessage());
+    }
+
+    @Test
+    void gzipInputAndChunkedDecodingGiveTheSameText() throws IOException {
+        StringBuilder large = new StringBuilder();
+        while (large.length() < 3_000_000) {
+            large.append(TEXT).append(' ');
+        }
+        byte[] bytes = large.toString().getBytes(StandardCharsets.UTF_8);
+        DocumentIngestionServiceImpl chunked = new DocumentIngestionServiceImpl(MalformedInputPolicy.REPORT, 1);
+
+        assertEquals(large.toString(), chunked.decode(bytes));
+        assertEquals(large.toString(), service.decode(gzip(bytes)));
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(bytes);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] result = new byte[first.length + second.length];
+        System.arraycopy(first, 0, result, 0, first.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+}
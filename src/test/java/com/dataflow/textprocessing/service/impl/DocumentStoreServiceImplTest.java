@@ -0,0 +1,96 @@
+package com.dataflow.textprocessing.service.impl;
+
+import com.dataflow.textprocessing.model.TextDocument;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Recovery of the log after a crash and sharing of repeated content
+ */
+class DocumentStoreServiceImplTest {
+    @Test
+    void tornLastRecordIsDiscardedOnOpen(@TempDir Path directory) throws IOException {
+        Path log = directory.resolve("store.log");
+        TextDocument kept = new TextDocument("kept", "survives the crash");
+        TextDocument torn = new TextDocument("torn", "half written when the power went out");
+        DocumentStoreServiceImpl store = new DocumentStoreServiceImpl(log);
+        store.save(kept);
+        long keptEnd = store.getLogSize();
+        store.save(torn);
+        long tornEnd = store.getLogSize();
+        store.close();
+        try (FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+            channel.truncate(tornEnd - 7);
+        }
+
+        DocumentStoreServiceImpl recovered = new DocumentStoreServiceImpl(log);
+        try {
+            // The version record is cut off; the content record before it may survive, unreferenced
+            assertTrue(recovered.getLogSize() >= keptEnd && recovered.getLogSize() < tornEnd - 7);
+            assertEquals(recovered.getLogSize(), Files.size(log));
+            assertEquals("survives the crash", recovered.load(kept.getId()).getContent());
+            assertNull(recovered.load(torn.getId()));
+            recovered.save(torn);
+        } finally {
+            recovered.close();
+        }
+        DocumentStoreServiceImpl reopened = new DocumentStoreServiceImpl(log);
+        try {
+            assertEquals(torn.getContent(), reopened.load(torn.getId()).getContent());
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    void garbageAfterTheLastRecordIsDiscardedOnOpen(@TempDir Path directory) throws IOException {
+        Path log = directory.resolve("store.log");
+        TextDocument document = new TextDocument("document", "content");
+        DocumentStoreServiceImpl store = new DocumentStoreServiceImpl(log);
+        store.save(document);
+        long end = store.getLogSize();
+        store.close();
+        try (FileChannel channel = FileChannel.open(log, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap(new byte[] {2, 0, 0, 0, 40, 1, 2, 3, 4, 5, 6}));
+        }
+
+        DocumentStoreServiceImpl recovered = new DocumentStoreServiceImpl(log);
+        try {
+            assertEquals(end, recovered.getLogSize());
+            assertEquals(end, Files.size(log));
+            assertEquals("content", recovered.load(document.getId()).getContent());
+        } finally {
+            recovered.close();
+        }
+    }
+
+    @Test
+    void repeatedContentIsStoredOnce(@TempDir Path directory) {
+        String content = "the same long text ".repeat(1000);
+        DocumentStoreServiceImpl store = new DocumentStoreServiceImpl(directory.resolve("store.log"));
+        try {
+            TextDocument first = new TextDocument("first", content);
+            TextDocument second = new TextDocument("second", content);
+            store.save(first);
+            long afterFirst = store.getLogSize();
+            store.save(second);
+
+            assertTrue(store.getLogSize() - afterFirst < content.length());
+            assertEquals(content, store.load(first.getId()).getContent());
+            assertEquals(content, store.load(second.getId()).getContent());
+        } finally {
+            store.close();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.dataflow.textprocessing.service.impl;
+
+import com.dataflow.textprocessing.model.TextDocument;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Statistics kept across edits against a full analysis of the edited text
+ */
+class IncrementalTextAnalyzerTest {
+    private static final String[] PIECES = {"word", " ", "  ", "\n", "\n\n", "\n \n", ".", "...", "!", "?", "Ünïcödé",
+            "under_score", "42", "\t", "a", "Σ", "😀"};
+
+    private final TextProcessingServiceImpl fullAnalysis = new TextProcessingServiceImpl();
+
+    @Test
+    void randomEditsMatchAFullRecompute() {
+        Random random = new Random(7);
+        String text = randomText(random, 6000);
+        IncrementalTextAnalyzer analyzer = new IncrementalTextAnalyzer(text);
+        assertMatchesFullAnalysis(analyzer, text);
+
+        for (int i = 0; i < 300; i++) {
+            int offset = random.nextInt(text.length() + 1);
+            int removed = random.nextInt(Math.min(text.length() - offset, 200) + 1);
+            String inserted = randomText(random, random.nextInt(i % 50 == 0 ? 3000 : 20));
+            analyzer.applyEdit(offset, removed, inserted);
+            text = text.substring(0, offset) + inserted + text.substring(offset + removed);
+            assertEquals(text, analyzer.getContent());
+            if (i % 10 == 0) {
+                assertMatchesFullAnalysis(analyzer, text);
+            }
+        }
+        assertMatchesFullAnalysis(analyzer, text);
+    }
+
+    @Test
+    void updatesSplittingAndJoiningWordsAndSentences() {
+        IncrementalTextAnalyzer analyzer = new IncrementalTextAnalyzer("");
+        for (String text : new String[] {"one two", "one  two", "onetwo", "one.two", "one..two. ", "one.\n\ntwo",
+                "one.\n \ntwo.", "\n\n", "", "x".repeat(10000), "x".repeat(5000) + " " + "x".repeat(4999),
+                ". " + "x".repeat(9000) + "."}) {
+            analyzer.update(text);
+            assertMatchesFullAnalysis(analyzer, text);
+        }
+    }
+
+    @Test
+    void releaseDropsTheStateOfADocument() {
+        IncrementalAnalysisServiceImpl service = new IncrementalAnalysisServiceImpl();
+        TextDocument document = new TextDocument("live", "some words here. More words");
+        assertEquals(5, service.getTextStatistics(document).get("totalWords"));
+        document.setContent("fewer words");
+        assertEquals(2L, service.analyzeWordFrequency(document).values().stream().mapToLong(Long::longValue).sum());
+
+        assertTrue(service.release(document.getId()));
+        assertFalse(service.release(document.getId()));
+        assertEquals(2, service.getTextStatistics(document).get("totalWords"));
+    }
+
+    private void assertMatchesFullAnalysis(IncrementalTextAnalyzer analyzer, String text) {
+        TextDocument document = new TextDocument("sample", text);
+        assertEquals(fullAnalysis.getTextStatistics(document), analyzer.getStatistics());
+        assertEquals(fullAnalysis.analyzeWordFrequency(document), analyzer.getWordFrequency());
+    }
+
+    private static String randomText(Random random, int pieces) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < pieces; i++) {
+            text.append(PIECES[random.nextInt(PIECES.length)]);
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,81 @@
+package com.dataflow.textprocessing.service.impl;
+
+import com.dataflow.textprocessing.model.SearchHit;
+import com.dataflow.textprocessing.model.TextDocument;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Term, phrase and prefix queries, persistence, and re-indexing of edited documents
+ */
+class InvertedIndexServiceImplTest {
+    @Test
+    void findsTermsPhrasesAndPrefixes() {
+        TextDocument first = new TextDocument("first", "The quick brown fox. A quick, brown dog!");
+        TextDocument second = new TextDocument("second", "Brown bread and quicksand");
+        InvertedIndexServiceImpl index = new InvertedIndexServiceImpl();
+        assertEquals(2, index.indexDocuments(List.of(first, second)));
+
+        List<SearchHit> brown = index.searchTerm("BROWN");
+        assertEquals(3, brown.size());
+        assertEquals(Set.of(first.getId(), second.getId()), Set.of(brown.get(0).getDocumentId(), brown.get(2).getDocumentId()));
+
+        List<SearchHit> phrase = index.searchPhrase("quick brown");
+        assertEquals(2, phrase.size());
+        assertEquals(first.getContent().indexOf("quick, brown"), phrase.get(1).getOffset());
+        assertEquals("quick, brown".length(), phrase.get(1).getLength());
+        assertEquals(0, index.searchPhrase("brown quick").size());
+
+        assertEquals(3, index.searchPrefix("quick").size());
+        assertEquals(0, index.searchTerm("cat").size());
+    }
+
+    @Test
+    void savedIndexAnswersTheSameAfterLoading(@TempDir Path directory) {
+        TextDocument document = new TextDocument("poem", "so much depends upon a red wheel barrow glazed with rain water");
+        InvertedIndexServiceImpl built = new InvertedIndexServiceImpl();
+        built.indexDocument(document);
+        Path file = directory.resolve("index.tpix.gz");
+        built.save(file);
+
+        InvertedIndexServiceImpl loaded = new InvertedIndexServiceImpl();
+        loaded.load(file);
+
+        assertEquals(built.getTermCount(), loaded.getTermCount());
+        assertEquals(Set.of(document.getId()), loaded.getIndexedDocumentIds());
+        assertEquals(built.searchPhrase("red wheel barrow").get(0).getOffset(),
+                loaded.searchPhrase("red wheel barrow").get(0).getOffset());
+        assertEquals(2, loaded.searchPrefix("wa").size() + loaded.searchPrefix("wh").size());
+        assertFalse(loaded.indexDocument(new TextDocument(document.getId(), document.getName(), document.getContent(),
+                document.getCreatedAt(), document.getModifiedAt())));
+    }
+
+    @Test
+    void editedDocumentIsReindexedEvenWithinOneClockTick() {
+        TextDocument document = new TextDocument("notes", "alpha beta");
+        InvertedIndexServiceImpl index = new InvertedIndexServiceImpl();
+        assertTrue(index.indexDocument(document));
+        assertFalse(index.indexDocument(document));
+
+        for (int i = 0; i < 100; i++) {
+            document.setContent("gamma " + i);
+            assertTrue(index.indexDocument(document));
+            document.setContent("delta " + i);
+            assertTrue(index.indexDocument(document));
+        }
+
+        assertEquals(0, index.searchTerm("alpha").size());
+        assertEquals(0, index.searchTerm("gamma").size());
+        assertEquals(1, index.searchTerm("delta").size());
+        assertTrue(index.removeDocument(document.getId()));
+        assertEquals(0, index.getTermCount());
+    }
+}
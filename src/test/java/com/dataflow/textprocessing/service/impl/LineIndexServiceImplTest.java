@@ -0,0 +1,66 @@
+package com.dataflow.textprocessing.service.impl;
+
+import com.dataflow.textprocessing.exception.TextProcessingException;
+import com.dataflow.textprocessing.service.LineIndexService.LineIndex;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Reuse of sidecar line indexes only while they describe the file as it is
+ */
+class LineIndexServiceImplTest {
+    private static final FileTime EPOCH = FileTime.fromMillis(1_000_000_000_000L);
+
+    @Test
+    void sidecarIsRebuiltWhenTheFileChangesWithoutGrowing(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("text.txt");
+        Files.writeString(file, "one\ntwo\nthree\n");
+        Files.setLastModifiedTime(file, EPOCH);
+        LineIndexServiceImpl service = new LineIndexServiceImpl();
+        assertEquals(List.of("one", "two", "three"), lines(service.open(file)));
+
+        // Same size, and a modification time older than the sidecar
+        Files.writeString(file, "o\nne\ntwo three\n");
+        Files.setLastModifiedTime(file, FileTime.fromMillis(EPOCH.toMillis() + 1000));
+
+        assertEquals(List.of("o", "ne", "two three"), lines(service.open(file)));
+        assertEquals(List.of("o", "ne", "two three"), lines(service.open(file)));
+    }
+
+    @Test
+    void offsetsOutOfOrderAreRejected(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("text.txt");
+        byte[] text = "alpha\nbeta\ngamma\n".getBytes(StandardCharsets.UTF_8);
+        Files.write(file, text);
+        Path sidecar = directory.resolve("text.txt.lines");
+        LineIndexServiceImpl service = new LineIndexServiceImpl();
+        service.open(file);
+
+        // Swap the starts of the second and third line
+        try (FileChannel channel = FileChannel.open(sidecar, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer offsets = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putInt(11).putInt(6).flip();
+            channel.write(offsets, 32 + 4);
+        }
+
+        assertThrows(TextProcessingException.class, () -> service.load(sidecar, ByteBuffer.wrap(text)));
+        assertEquals(List.of("alpha", "beta", "gamma"), lines(service.open(file)));
+    }
+
+    private static List<String> lines(LineIndex index) {
+        return index.getLines(0, index.getLineCount());
+    }
+}
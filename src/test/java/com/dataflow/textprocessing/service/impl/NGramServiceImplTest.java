@@ -0,0 +1,142 @@
+package com.dataflow.textprocessing.service.impl;
+
+import com.dataflow.textprocessing.model.NGramCounts;
+import com.dataflow.textprocessing.model.TextDocument;
+import com.dataflow.textprocessing.util.CompressedFiles;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * N-gram counts against naive counting, and the round trips of the export formats
+ */
+class NGramServiceImplTest {
+    @Test
+    void countsMatchNaiveCounting() {
+        List<TextDocument> documents = randomDocuments(new Random(1), 40);
+        NGramCounts counts = new NGramServiceImpl().countNGrams(documents);
+
+        Map<String, Long> expected = naiveCounts(documents);
+        assertEquals(expected.entrySet().stream().filter(e -> e.getKey().indexOf(' ') < 0)
+                .mapToLong(Map.Entry::getValue).sum(), counts.getTotalTokens());
+        assertEquals(expected, countsOf(expected.keySet(), counts));
+        assertEquals(0, counts.count("nosuch", "words"));
+    }
+
+    @Test
+    void packedKeysRoundTrip() {
+        int[] ids = new int[3];
+        for (int[] words : new int[][] {{1, 2}, {NGramCounts.MAX_BIGRAM_WORD_ID, 1}, {1, 2, 3},
+                {NGramCounts.MAX_TRIGRAM_WORD_ID, 0, NGramCounts.MAX_TRIGRAM_WORD_ID}}) {
+            NGramCounts.unpack(NGramCounts.pack(words), words.length, ids);
+            assertArrayEquals(words, Arrays.copyOf(ids, words.length));
+        }
+    }
+
+    @Test
+    void binaryExportRoundTrips(@TempDir Path directory) {
+        NGramServiceImpl service = new NGramServiceImpl();
+        NGramCounts counts = service.countNGrams(randomDocuments(new Random(2), 25));
+        for (String name : new String[] {"counts.bin", "counts.bin.gz"}) {
+            Path file = directory.resolve(name);
+            service.exportBinary(counts, file);
+            NGramCounts loaded = service.loadBinary(file);
+
+            assertEquals(counts.getTotalTokens(), loaded.getTotalTokens(), name);
+            assertEquals(counts.getPruneThreshold(), loaded.getPruneThreshold(), name);
+            assertEquals(counts.getMaxOrder(), loaded.getMaxOrder(), name);
+            for (int order = 1; order <= counts.getMaxOrder(); order++) {
+                assertEquals(entries(counts, order), entries(loaded, order), name + " order " + order);
+            }
+        }
+    }
+
+    @Test
+    void tsvExportHasOneLinePerNGram(@TempDir Path directory) throws IOException {
+        NGramServiceImpl service = new NGramServiceImpl();
+        NGramCounts counts = service.countNGrams(randomDocuments(new Random(3), 10));
+        Path file = directory.resolve("counts.tsv.gz");
+        service.exportTsv(counts, file);
+
+        Map<String, Long> exported = new HashMap<>();
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(CompressedFiles.newInputStream(file),
+                StandardCharsets.UTF_8))) {
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                String[] fields = line.split("\t");
+                exported.put(fields[0] + ":" + fields[1], Long.parseLong(fields[2]));
+            }
+        }
+        Map<String, Long> expected = new HashMap<>();
+        for (int order = 1; order <= counts.getMaxOrder(); order++) {
+            int currentOrder = order;
+            entries(counts, order).forEach((ngram, count) -> expected.put(currentOrder + ":" + ngram, count));
+        }
+        assertEquals(expected, exported);
+    }
+
+    private static Map<String, Long> entries(NGramCounts counts, int order) {
+        Map<String, Long> entries = new HashMap<>();
+        counts.forEach(order, (ids, count) -> {
+            List<String> words = new ArrayList<>();
+            for (int id : ids) {
+                words.add(counts.getWord(id));
+            }
+            entries.put(String.join(" ", words), count);
+        });
+        return entries;
+    }
+
+    private static Map<String, Long> countsOf(Set<String> ngrams, NGramCounts counts) {
+        Map<String, Long> actual = new HashMap<>();
+        ngrams.forEach(ngram -> actual.put(ngram, counts.count(ngram.split(" "))));
+        return actual;
+    }
+
+    /**
+     * Words, bigrams and trigrams within each document, which has no sentence terminators
+     */
+    private static Map<String, Long> naiveCounts(List<TextDocument> documents) {
+        Map<String, Long> counts = new HashMap<>();
+        for (TextDocument document : documents) {
+            String[] words = document.getContent().toLowerCase().split(" +");
+            for (int i = 0; i < words.length; i++) {
+                counts.merge(words[i], 1L, Long::sum);
+                if (i + 1 < words.length) {
+                    counts.merge(words[i] + " " + words[i + 1], 1L, Long::sum);
+                }
+                if (i + 2 < words.length) {
+                    counts.merge(words[i] + " " + words[i + 1] + " " + words[i + 2], 1L, Long::sum);
+                }
+            }
+        }
+        return counts;
+    }
+
+    private static List<TextDocument> randomDocuments(Random random, int count) {
+        String[] vocabulary = {"the", "cat", "sat", "on", "mat", "a", "dog", "Ran", "far", "away", "new", "york"};
+        List<TextDocument> documents = new ArrayList<>();
+        for (int d = 0; d < count; d++) {
+            StringBuilder text = new StringBuilder();
+            for (int w = 0, words = 1 + random.nextInt(60); w < words; w++) {
+                text.append(w > 0 ? " " : "").append(vocabulary[random.nextInt(vocabulary.length)]);
+            }
+            documents.add(new TextDocument("document " + d, text.toString()));
+        }
+        return documents;
+    }
+}
@@ -0,0 +1,78 @@
+package com.dataflow.textprocessing.service.impl;
+
+import com.dataflow.textprocessing.model.PipelineStage;
+import com.dataflow.textprocessing.model.TextDocument;
+import com.dataflow.textprocessing.service.TextPipelineService;
+import com.dataflow.textprocessing.service.TextProcessingService.CaseMode;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * The convert case stage of a pipeline against {@link TextProcessingServiceImpl#convertCase}
+ */
+class PipelineConvertCaseTest {
+    private static final String[] SAMPLES = {
+            "straße STRASSE Straße",
+            "ΟΔΟΣ οδος Σ ΣΑΣ.",
+            "𐐨𐐩 𐐀bc",
+            "İstanbul ıi KELVIN K",
+            "  leading   and\tinner  whitespace  ",
+            "mIxEd CaSe wOrDs, with punctuation! and more?",
+            "",
+    };
+
+    private final TextPipelineServiceImpl pipelineService = new TextPipelineServiceImpl();
+    private final TextProcessingServiceImpl processingService = new TextProcessingServiceImpl();
+
+    @Test
+    void upperAndLowerCaseMatchTheServiceOnWholeTexts() {
+        String text = String.join("\n", SAMPLES) + "\n" + randomText(new Random(1), 5000);
+        for (CaseMode mode : List.of(CaseMode.UPPER, CaseMode.LOWER)) {
+            assertEquals(service(text, mode), pipeline(text, mode), mode.name());
+        }
+    }
+
+    @Test
+    void titleCaseMatchesTheServiceOnEachLine() {
+        Random random = new Random(2);
+        for (String sample : SAMPLES) {
+            assertEquals(service(sample, CaseMode.TITLE), pipeline(sample, CaseMode.TITLE), sample);
+        }
+        for (int i = 0; i < 200; i++) {
+            String line = randomText(random, 40).replace('\n', ' ');
+            assertEquals(service(line, CaseMode.TITLE), pipeline(line, CaseMode.TITLE), line);
+        }
+    }
+
+    @Test
+    void mapsCharactersToSeveral() {
+        assertEquals("STRASSE", pipeline("straße", CaseMode.UPPER));
+        assertEquals("οδος", pipeline("ΟΔΟΣ", CaseMode.LOWER));
+        assertEquals("𐐀𐐁", pipeline("𐐨𐐩", CaseMode.UPPER));
+        assertEquals("SSe Word", pipeline("ßE   word", CaseMode.TITLE));
+        assertEquals("First line. Second\nline! Third", pipeline("fIRST LINE. second\nLINE! third", CaseMode.SENTENCE));
+    }
+
+    private String service(String text, CaseMode mode) {
+        return processingService.convertCase(new TextDocument("sample", text), mode).getContent();
+    }
+
+    private String pipeline(String text, CaseMode mode) {
+        TextPipelineService.Plan plan = pipelineService.plan(List.of(PipelineStage.convertCase(mode)));
+        return pipelineService.execute(plan, new TextDocument("sample", text)).getDocument().getContent();
+    }
+
+    private static String randomText(Random random, int codePoints) {
+        String alphabet = "aZß ΣσςΟİıKK\t.!?𐐨𐐀\n";
+        int[] choices = alphabet.codePoints().toArray();
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < codePoints; i++) {
+            text.appendCodePoint(choices[random.nextInt(choices.length)]);
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,102 @@
+package com.dataflow.textprocessing.service.impl;
+
+import com.dataflow.textprocessing.model.PipelineStage;
+import com.dataflow.textprocessing.model.TextDocument;
+import com.dataflow.textprocessing.service.TextPipelineService;
+import com.dataflow.textprocessing.service.TextProcessingService.CaseMode;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * A planned pipeline against its stages applied one at a time, each reading the text the previous
+ * one wrote
+ */
+class PipelineOptimizerTest {
+    private static final String TEXT = "b a\nc b\n\u0001 x  y\u0002\nb a\n  c b  \n\nB A";
+
+    private final TextPipelineServiceImpl pipelineService = new TextPipelineServiceImpl();
+
+    @Test
+    void replacementsWithLineBreaksSplitLines() {
+        assertSameOutput(PipelineStage.replace("b", "x\ny"), PipelineStage.sortLines(true));
+        assertSameOutput(PipelineStage.replace("b+", "x\ny"), PipelineStage.sortLines(true));
+        assertSameOutput(PipelineStage.replaceInLines("b", "x\ny"), PipelineStage.sortLines(true));
+        assertSameOutput(PipelineStage.replaceInLines("b+", "x\ny"), PipelineStage.removeDuplicateLines());
+    }
+
+    @Test
+    void replacementsWithGroupReferencesAndEscapes() {
+        assertSameOutput(PipelineStage.replace("b", "\\$"), PipelineStage.sortLines(false));
+        assertSameOutput(PipelineStage.replace("(b) (a)", "$2 $1"));
+        assertSameOutput(PipelineStage.replaceInLines("b", "\\\\"));
+        assertSameOutput(PipelineStage.replaceInLines("c", "$0$0"));
+        assertSameOutput(PipelineStage.replaceInLines("a", "plain"), PipelineStage.replace("b", "plain"));
+    }
+
+    @Test
+    void trimmingAfterCollapsingIsKept() {
+        assertSameOutput(PipelineStage.collapseSpaces(), PipelineStage.trimLines());
+        assertSameOutput(PipelineStage.trimLines(), PipelineStage.collapseSpaces());
+    }
+
+    @Test
+    void repeatedStagesAreDroppedWithoutChangingOutput() {
+        assertSameOutput(PipelineStage.trimLines(), PipelineStage.trimLines(), PipelineStage.removeBlankLines(),
+                PipelineStage.removeBlankLines());
+        assertSameOutput(PipelineStage.convertCase(CaseMode.UPPER), PipelineStage.convertCase(CaseMode.UPPER));
+        assertSameOutput(PipelineStage.convertCase(CaseMode.TITLE), PipelineStage.convertCase(CaseMode.TITLE));
+        assertSameOutput(PipelineStage.sortLines(true), PipelineStage.sortLines(false));
+        assertSameOutput(PipelineStage.normalizeWhitespace(), PipelineStage.normalizeWhitespace());
+    }
+
+    @Test
+    void deduplicationAfterSortingComparesNeighbours() {
+        assertSameOutput(PipelineStage.sortLines(true), PipelineStage.removeDuplicateLines());
+        assertSameOutput(PipelineStage.convertCase(CaseMode.LOWER), PipelineStage.sortLines(false),
+                PipelineStage.removeDuplicateLines());
+    }
+
+    @Test
+    void fusedCharacterStagesMatchSeparatePasses() {
+        assertSameOutput(PipelineStage.collapseSpaces(), PipelineStage.convertCase(CaseMode.TITLE));
+        assertSameOutput(PipelineStage.convertCase(CaseMode.LOWER), PipelineStage.collapseSpaces(),
+                PipelineStage.convertCase(CaseMode.UPPER), PipelineStage.keepLines("A"));
+    }
+
+    private void assertSameOutput(PipelineStage... stages) {
+        List<PipelineStage> declared = List.of(stages);
+        TextPipelineService.Plan plan = pipelineService.plan(declared);
+        String optimized = pipelineService.execute(plan, new TextDocument("sample", TEXT)).getDocument().getContent();
+        assertEquals(sequential(declared, TEXT), optimized, plan.describe().toString());
+    }
+
+    /**
+     * Apply each stage to the whole output of the one before, replacements with {@link String#replaceAll}
+     */
+    private String sequential(List<PipelineStage> stages, String text) {
+        for (PipelineStage stage : stages) {
+            switch (stage.getKind()) {
+                case REPLACE:
+                    text = text.replaceAll(stage.getPattern(), stage.getReplacement());
+                    break;
+                case REPLACE_IN_LINES:
+                    List<String> lines = new ArrayList<>();
+                    for (String line : text.split("\n", -1)) {
+                        lines.add(Pattern.compile(stage.getPattern()).matcher(line).replaceAll(stage.getReplacement()));
+                    }
+                    text = String.join("\n", lines);
+                    break;
+                default:
+                    TextPipelineService.Plan plan = pipelineService.plan(List.of(stage));
+                    text = pipelineService.execute(plan, new TextDocument("sample", text)).getDocument().getContent();
+                    break;
+            }
+        }
+        return text;
+    }
+}
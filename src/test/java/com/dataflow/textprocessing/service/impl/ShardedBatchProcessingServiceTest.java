@@ -0,0 +1,153 @@
+package com.dataflow.textprocessing.service.impl;
+
+import com.dataflow.textprocessing.exception.TextProcessingException;
+import com.dataflow.textprocessing.model.TextDocument;
+import com.dataflow.textprocessing.service.BatchProcessingService.BatchOperation;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs batches on real worker processes started from the test class path
+ */
+@Timeout(value = 120, unit = TimeUnit.SECONDS)
+class ShardedBatchProcessingServiceTest {
+    private ShardedBatchProcessingService service;
+
+    @AfterEach
+    void shutdown() {
+        if (service != null) {
+            service.shutdown();
+        }
+    }
+
+    @Test
+    void processesAllShardsInDocumentOrder() {
+        service = new ShardedBatchProcessingService(2, 7, List.of());
+        List<TextDocument> documents = documents(100);
+
+        List<TextDocument> results = service.processBatchWithOperation(documents, new UpperCaseOperation());
+
+        assertEquals(documents.size(), results.size());
+        for (int i = 0; i < documents.size(); i++) {
+            assertEquals(documents.get(i).getName(), results.get(i).getName());
+            assertEquals(documents.get(i).getContent().toUpperCase(), results.get(i).getContent());
+        }
+        assertEquals(2, service.getRunningWorkers());
+    }
+
+    @Test
+    void aggregatesWordFrequenciesAcrossWorkers() {
+        service = new ShardedBatchProcessingService(2, 5, List.of());
+        List<TextDocument> documents = documents(40);
+        Map<String, Long> expected = new HashMap<>();
+        TextAnalysisServiceImpl analysisService = new TextAnalysisServiceImpl();
+        for (TextDocument document : documents) {
+            analysisService.analyzeWordFrequency(document).forEach((word, count) -> expected.merge(word, count, Long::sum));
+        }
+
+        assertEquals(expected, service.wordFrequencies(documents));
+    }
+
+    @Test
+    void failsShardThatKeepsKillingWorkers() {
+        service = new ShardedBatchProcessingService(2, 4, List.of());
+        List<TextDocument> documents = documents(20);
+        documents.set(9, new TextDocument("poison", "poison pill"));
+
+        TextProcessingException error = assertThrows(TextProcessingException.class,
+                () -> service.processBatchWithOperation(documents, new PoisonOperation()));
+        assertTrue(error.getCause().getMessage().contains("died 3 times"), error.getCause().getMessage());
+
+        // The workers are restarted and take later batches
+        List<TextDocument> healthy = documents(12);
+        List<TextDocument> results = service.processBatchWithOperation(healthy, new PoisonOperation());
+        assertEquals(healthy.get(11).getContent().toUpperCase(), results.get(11).getContent());
+    }
+
+    @Test
+    void restartsKilledWorkerAndRerunsItsShard() throws Exception {
+        service = new ShardedBatchProcessingService(2, 2, List.of());
+        List<TextDocument> documents = documents(60);
+
+        CompletableFuture<List<Integer>> batch = CompletableFuture.supplyAsync(
+                () -> service.processBatchWithOperation(documents, new SlowLengthOperation()));
+        while (service.getRunningWorkers() < 2) {
+            Thread.sleep(10);
+        }
+        ProcessHandle victim = ProcessHandle.current().children().filter(ProcessHandle::isAlive).findFirst().orElseThrow();
+        victim.destroyForcibly();
+        List<Integer> results = batch.get(90, TimeUnit.SECONDS);
+
+        for (int i = 0; i < documents.size(); i++) {
+            assertEquals(documents.get(i).getContent().length(), results.get(i));
+        }
+        assertTrue(ProcessHandle.current().children().noneMatch(child -> child.pid() == victim.pid()));
+        assertEquals(2, service.getRunningWorkers());
+    }
+
+    @Test
+    void rejectsResultClassesOutsideTheAllowedTypes() {
+        service = new ShardedBatchProcessingService(1, 8, List.of());
+
+        TextProcessingException error = assertThrows(TextProcessingException.class,
+                () -> service.processBatchWithOperation(documents(3), new DateOperation()));
+        assertTrue(error.getCause().getMessage().contains("Result is not a collection"), error.getCause().getMessage());
+    }
+
+    private static List<TextDocument> documents(int count) {
+        List<TextDocument> documents = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            documents.add(new TextDocument("doc-" + i, "Document " + i + " has some words, and the words repeat: "
+                    + "alpha beta gamma " + (i % 7) + " beta gamma"));
+        }
+        return documents;
+    }
+
+    public static final class UpperCaseOperation implements ShardedBatchProcessingService.IdempotentOperation<TextDocument> {
+        @Override
+        public TextDocument process(TextDocument document) {
+            return new TextDocument(document.getName(), document.getContent().toUpperCase());
+        }
+    }
+
+    /**
+     * Kills the worker process on a poisoned document
+     */
+    public static final class PoisonOperation implements BatchOperation<TextDocument> {
+        @Override
+        public TextDocument process(TextDocument document) {
+            if (document.getContent().contains("poison")) {
+                Runtime.getRuntime().halt(3);
+            }
+            return new TextDocument(document.getName(), document.getContent().toUpperCase());
+        }
+    }
+
+    public static final class SlowLengthOperation implements BatchOperation<Integer> {
+        @Override
+        public Integer process(TextDocument document) throws InterruptedException {
+            Thread.sleep(25);
+            return document.getContent().length();
+        }
+    }
+
+    public static final class DateOperation implements BatchOperation<Date> {
+        @Override
+        public Date process(TextDocument document) {
+            return new Date(0);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.dataflow.textprocessing.service.impl;
+
+import com.dataflow.textprocessing.model.TextDocument;
+import com.dataflow.textprocessing.service.SubstringIndexService.SubstringIndex;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * SA-IS and the FM-index against naive suffix sorting and {@link String#indexOf}
+ */
+class SubstringIndexServiceImplTest {
+    @Test
+    void suffixArrayMatchesNaiveSort() {
+        Random random = new Random(1);
+        for (int trial = 0; trial < 200; trial++) {
+            int upper = 1 + random.nextInt(5);
+            int[] s = random.ints(random.nextInt(300), 0, upper + 1).toArray();
+            Integer[] expected = IntStream.range(0, s.length).boxed().toArray(Integer[]::new);
+            Arrays.sort(expected, Comparator.comparing(start -> Arrays.copyOfRange(s, start, s.length), Arrays::compare));
+
+            assertArrayEquals(Arrays.stream(expected).mapToInt(Integer::intValue).toArray(), SuffixArrays.saIs(s, upper),
+                    Arrays.toString(s));
+        }
+    }
+
+    @Test
+    void countAndLocateMatchIndexOf() {
+        Random random = new Random(2);
+        String text = randomText(random, 20_000, "abcab\n é€");
+        // A small sample rate and a large one exercise both short and long walks to a sample
+        for (int sampleRate : new int[] {1, 7, 32}) {
+            SubstringIndex index = new SubstringIndexServiceImpl(sampleRate).buildIndex(new TextDocument("text", text));
+            assertEquals(text.length(), index.length());
+            for (int query = 0; query < 300; query++) {
+                String substring = query % 10 == 0 ? randomText(random, 3, "xyz")
+                        : text.substring(random.nextInt(text.length() - 8)).substring(0, 1 + random.nextInt(8));
+                int[] expected = occurrences(text, substring);
+                assertEquals(expected.length, index.count(substring), substring);
+                assertArrayEquals(expected, index.locate(substring), substring);
+            }
+        }
+    }
+
+    @Test
+    void pagesCoverEveryOccurrenceOnce() {
+        String text = "abracadabra ".repeat(500);
+        SubstringIndex index = new SubstringIndexServiceImpl(5).buildIndex(new TextDocument("text", text));
+        List<Integer> located = new ArrayList<>();
+        for (int from = 0; from < index.count("abra"); from += 64) {
+            int[] page = index.locate("abra", from, 64);
+            assertEquals(Math.min(64, index.count("abra") - from), page.length);
+            Arrays.stream(page).forEach(located::add);
+        }
+        located.sort(null);
+
+        assertArrayEquals(occurrences(text, "abra"), located.stream().mapToInt(Integer::intValue).toArray());
+        assertEquals(0, index.locate("abra", index.count("abra") + 5, 10).length);
+        assertEquals(0, index.locate("zzz", 0, 10).length);
+    }
+
+    @Test
+    void savedIndexAnswersLikeTheBuiltOne(@TempDir Path directory) {
+        String text = randomText(new Random(3), 5_000, "ACGT");
+        SubstringIndexServiceImpl service = new SubstringIndexServiceImpl(8);
+        SubstringIndex built = service.buildIndex(new TextDocument("text", text));
+        Path file = directory.resolve("text.fm");
+        service.save(built, file);
+        SubstringIndex loaded = service.load(file);
+
+        for (String substring : new String[] {"A", "ACG", "TTTT", "GATTACA", "N"}) {
+            assertEquals(built.count(substring), loaded.count(substring), substring);
+            assertArrayEquals(occurrences(text, substring), loaded.locate(substring), substring);
+        }
+    }
+
+    private static int[] occurrences(String text, String substring) {
+        List<Integer> positions = new ArrayList<>();
+        for (int position = text.indexOf(substring); position >= 0; position = text.indexOf(substring, position + 1)) {
+            positions.add(position);
+        }
+        return positions.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static String randomText(Random random, int length, String alphabet) {
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return text.toString();
+    }
+}
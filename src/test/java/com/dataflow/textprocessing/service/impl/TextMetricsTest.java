@@ -0,0 +1,47 @@
+package com.dataflow.textprocessing.service.impl;
+
+import com.dataflow.textprocessing.model.TextDocument;
+import com.dataflow.textprocessing.util.WordTokenizer;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class TextMetricsTest {
+    private static final String[] TEXTS = {
+        "",
+        "The cat and THE Dog. the_end 42 times!",
+        "naïve café—déjà vu; x1 X1 x_1\n\nSecond paragraph?",
+        "trailing word",
+    };
+
+    @Test
+    void wordFrequenciesMatchTheTokenizer() {
+        for (String text : TEXTS) {
+            Map<String, Long> expected = WordTokenizer.tokenize(text).stream()
+                    .collect(Collectors.groupingBy(Function.identity(), Collectors.counting()));
+            TextMetrics metrics = TextMetrics.scan(text, true);
+
+            assertEquals(expected, metrics.wordFrequencies, text);
+            assertEquals(expected.values().stream().mapToLong(Long::longValue).sum(), metrics.words, text);
+            assertNull(TextMetrics.scan(text).wordFrequencies);
+        }
+    }
+
+    @Test
+    void languagePatternsCountWordsOfTheScan() {
+        TextAnalysisServiceImpl service = new TextAnalysisServiceImpl();
+        TextDocument document = new TextDocument("text", "the cat saw the other cat. A dog saw nothing");
+        // Metrics without word frequencies are cached first, and must not be reused without them
+        service.getTextStatistics(document);
+        Map<String, Object> patterns = service.analyzeLanguagePatterns(document);
+
+        assertEquals(7, patterns.get("uniqueWords"));
+        assertEquals(4L, patterns.get("hapaxLegomena"));
+        assertEquals(service.analyzeWordFrequency(document).size(), patterns.get("uniqueWords"));
+    }
+}
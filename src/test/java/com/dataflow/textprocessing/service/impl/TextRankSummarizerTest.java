@@ -0,0 +1,66 @@
+package com.dataflow.textprocessing.service.impl;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Sentence selection and the order of the selected sentences
+ */
+class TextRankSummarizerTest {
+    private final TextRankSummarizer summarizer = new TextRankSummarizer();
+
+    @Test
+    void picksTheSentencesSharingTheMostWithTheOthers() {
+        String text = "Bananas are yellow. "
+                + "The river flows through the old stone town. "
+                + "My cat sleeps all day! "
+                + "The old stone bridge crosses the river in the town. "
+                + "Quantum computers use qubits? "
+                + "Boats on the river pass under the old stone bridge of the town.";
+
+        assertEquals("The old stone bridge crosses the river in the town. "
+                + "Boats on the river pass under the old stone bridge of the town.", summarizer.summarize(text, 2));
+    }
+
+    @Test
+    void keepsDocumentOrderAndShortTexts() {
+        String text = "Alpha beta gamma. Gamma beta alpha again! Unrelated words here? Beta gamma alpha once more.";
+        String summary = summarizer.summarize(text, 3);
+        assertFalse(summary.contains("Unrelated"));
+        assertTrue(summary.indexOf("Alpha beta") < summary.indexOf("Gamma beta"));
+        assertTrue(summary.indexOf("Gamma beta") < summary.indexOf("Beta gamma"));
+
+        assertEquals("One sentence. Two sentences!", summarizer.summarize("  One sentence.   Two sentences!", 5));
+        assertEquals("", summarizer.summarize(text, 0));
+        assertEquals("", summarizer.summarize("no terminator at all", 3));
+    }
+
+    @Test
+    void largeTextsSelectSentencesInDocumentOrder() {
+        String[] topics = {"river bridge town stone", "apple orange banana pear", "engine wheel brake gear"};
+        StringBuilder text = new StringBuilder();
+        List<String> sentences = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            String sentence = "Sentence " + i + " about " + topics[i % 3] + " " + topics[i % 3].split(" ")[i % 4] + ".";
+            sentences.add(sentence);
+            text.append(sentence).append(' ');
+        }
+
+        String summary = summarizer.summarize(text.toString(), 5);
+        String[] selected = summary.split("(?<=\\.) ");
+        assertEquals(5, selected.length);
+        int previous = -1;
+        for (String sentence : selected) {
+            int index = sentences.indexOf(sentence);
+            assertTrue(index > previous, () -> Arrays.toString(selected));
+            previous = index;
+        }
+    }
+}
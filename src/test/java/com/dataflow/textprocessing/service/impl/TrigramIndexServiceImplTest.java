@@ -0,0 +1,68 @@
+package com.dataflow.textprocessing.service.impl;
+
+import com.dataflow.textprocessing.model.TextDocument;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Candidate filtering must never drop a document the pattern matches
+ */
+class TrigramIndexServiceImplTest {
+    @Test
+    void editedDocumentIsFoundByItsNewContent() {
+        TextDocument document = new TextDocument("notes", "the quick brown fox");
+        TrigramIndexServiceImpl index = new TrigramIndexServiceImpl(id -> null);
+        index.indexDocument(document);
+        assertEquals(Set.of(), index.findCandidates("lazy dog"));
+
+        document.setContent("the lazy dog");
+
+        assertEquals(Set.of(document.getId()), index.findCandidates("lazy dog"));
+        assertEquals(1, index.searchPattern("lazy dog").size());
+        assertEquals(0, index.searchPattern("brown").size());
+    }
+
+    @Test
+    void unicodeCaseInsensitivePatternsAreNotFiltered() {
+        TextDocument longS = new TextDocument("long s", "claſſ");
+        TextDocument kelvin = new TextDocument("kelvin", "300 K");
+        TrigramIndexServiceImpl index = new TrigramIndexServiceImpl(id -> null);
+        index.indexDocument(longS);
+        index.indexDocument(kelvin);
+
+        assertEquals(1, index.searchPattern("(?iu)class").size());
+        assertEquals(1, index.searchPattern("(?iu)300 k").size());
+    }
+
+    @Test
+    void unicodeCharacterClassPatternsFoldCaseLikeUnicodeCase() {
+        TextDocument document = new TextDocument("long s", "ſſſ");
+        TrigramIndexServiceImpl index = new TrigramIndexServiceImpl(id -> null);
+        index.indexDocument(document);
+
+        assertEquals(1, index.searchPattern("(?iU)sss").size());
+        assertEquals(1, index.searchPattern("(?i)(?U)sss").size());
+    }
+
+    @Test
+    void loadedIndexReadsContentThroughTheLoader(@TempDir Path directory) {
+        TextDocument document = new TextDocument("poem", "so much depends upon a red wheel barrow");
+        TrigramIndexServiceImpl built = new TrigramIndexServiceImpl(id -> null);
+        built.indexDocument(document);
+        Path file = directory.resolve("index.tg");
+        built.save(file);
+
+        TrigramIndexServiceImpl loaded = new TrigramIndexServiceImpl(Map.of(document.getId(), document)::get);
+        loaded.load(file);
+
+        assertEquals(1, loaded.searchPattern("wheel ?barrow").size());
+        assertThrows(NullPointerException.class, () -> new TrigramIndexServiceImpl(null));
+    }
+}
@@ -0,0 +1,95 @@
+package com.dataflow.textprocessing.service.impl;
+
+import com.dataflow.textprocessing.model.TextDocument;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Operations on UTF-8 bytes against the string operations on the decoded text
+ */
+class Utf8TextServiceImplTest {
+    private static final String SUPPLEMENTARY = "𐐨 word 😀 Ｚ é. Ａ 😀😀\nnext 𝒳 line!\n\n😀 last\nＺ sorts after 😀 in UTF-16";
+    private static final String CRLF = "beta\r\nalpha\r\nbeta\r\n\r\nGamma words here.\r\n";
+
+    private final Utf8TextServiceImpl utf8Service = new Utf8TextServiceImpl();
+    private final TextProcessingServiceImpl stringService = new TextProcessingServiceImpl();
+
+    @Test
+    void surrogatePairsCountAsTwoCharacters() {
+        ByteBuffer text = utf8(SUPPLEMENTARY);
+        assertEquals(stringService.getTextStatistics(document(SUPPLEMENTARY)), utf8Service.getTextStatistics(text));
+        assertEquals(5, utf8Service.countOccurrences(text, "😀"));
+        assertEquals(List.of("next 𝒳 line!"), utf8Service.findLines(text, "𝒳", 10));
+        assertEquals(5, utf8Service.countLines(text));
+        assertSameLineOperations(SUPPLEMENTARY, text);
+    }
+
+    @Test
+    void malformedBytesAreProcessedAsDecoded() {
+        byte[] bytes = {'b', ' ', (byte) 0xFF, '\n', 'a', (byte) 0xE2, (byte) 0x82, '\n', (byte) 0xC0, (byte) 0xAF,
+                '.', '\n', 'b', ' ', (byte) 0xFF, '\n', (byte) 0xED, (byte) 0xA0, (byte) 0x80, 'z'};
+        String decoded = new String(bytes, StandardCharsets.UTF_8);
+        ByteBuffer text = ByteBuffer.wrap(bytes);
+
+        assertEquals(stringService.getTextStatistics(document(decoded)), utf8Service.getTextStatistics(text));
+        assertEquals(List.of("b �", "b �"), utf8Service.findLines(text, "b ", 10));
+        assertSameLineOperations(decoded, text);
+    }
+
+    @Test
+    void carriageReturnsStayPartOfTheLine() {
+        ByteBuffer text = utf8(CRLF);
+        assertEquals(stringService.getTextStatistics(document(CRLF)), utf8Service.getTextStatistics(text));
+        assertEquals(stringService.analyzeWordFrequency(document(CRLF)), utf8Service.analyzeWordFrequency(text));
+        assertEquals(List.of("beta\r", "beta\r"), utf8Service.findLines(text, "beta", 10));
+        assertEquals(5, utf8Service.countLines(text));
+        assertSameLineOperations(CRLF, text);
+    }
+
+    @Test
+    void mappedFilesSkipTheByteOrderMark(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("bom.txt");
+        byte[] content = SUPPLEMENTARY.getBytes(StandardCharsets.UTF_8);
+        byte[] withBom = new byte[content.length + 3];
+        withBom[0] = (byte) 0xEF;
+        withBom[1] = (byte) 0xBB;
+        withBom[2] = (byte) 0xBF;
+        System.arraycopy(content, 0, withBom, 3, content.length);
+        Files.write(file, withBom);
+
+        ByteBuffer text = utf8Service.map(file);
+        assertEquals(stringService.getTextStatistics(document(SUPPLEMENTARY)), utf8Service.getTextStatistics(text));
+        assertSameLineOperations(SUPPLEMENTARY, text);
+        assertEquals(3, text.position());
+    }
+
+    private void assertSameLineOperations(String decoded, ByteBuffer text) {
+        for (boolean ascending : new boolean[] {true, false}) {
+            ByteArrayOutputStream sorted = new ByteArrayOutputStream();
+            utf8Service.sortLines(text, ascending, sorted);
+            assertEquals(stringService.sortLines(document(decoded), ascending).getContent(),
+                    sorted.toString(StandardCharsets.UTF_8), "ascending " + ascending);
+        }
+        ByteArrayOutputStream unique = new ByteArrayOutputStream();
+        utf8Service.removeDuplicateLines(text, unique);
+        assertEquals(stringService.removeDuplicates(document(decoded)).getContent(), unique.toString(StandardCharsets.UTF_8));
+    }
+
+    private static ByteBuffer utf8(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static TextDocument document(String content) {
+        return new TextDocument("sample", content);
+    }
+}
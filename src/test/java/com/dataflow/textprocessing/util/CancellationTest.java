@@ -0,0 +1,37 @@
+package com.dataflow.textprocessing.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CancellationException;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CancellationTest {
+    @Test
+    void interruptedMatchStops() {
+        // Catastrophic backtracking: without cancellation this match would run for ages
+        CharSequence text = Cancellation.interruptible("x".repeat(40));
+        Pattern pattern = Pattern.compile("(x+x+)+y");
+        Thread.currentThread().interrupt();
+        try {
+            assertThrows(CancellationException.class, () -> pattern.matcher(text).find());
+            assertTrue(Thread.currentThread().isInterrupted());
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
+    @Test
+    void uninterruptedTextReadsThrough() {
+        String original = "x".repeat(10_000);
+        CharSequence text = Cancellation.interruptible(original);
+        StringBuilder copy = new StringBuilder();
+        for (int i = 0; i < text.length(); i++) {
+            copy.append(text.charAt(i));
+        }
+        assertEquals(original, copy.toString());
+    }
+}
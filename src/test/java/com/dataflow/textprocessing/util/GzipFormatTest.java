@@ -0,0 +1,44 @@
+package com.dataflow.textprocessing.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class GzipFormatTest {
+    @Test
+    void inflatesMembersLargerThanTheInitialBuffer() throws IOException {
+        // Highly compressible data makes the output outgrow the first allocation several times
+        byte[] repetitive = "all work and no play ".repeat(200_000).getBytes();
+        byte[] random = new byte[300_000];
+        new Random(1).nextBytes(random);
+
+        assertArrayEquals(repetitive, GzipFormat.inflateMember(gzip(repetitive)));
+        assertArrayEquals(random, GzipFormat.inflateMember(gzip(random)));
+        assertArrayEquals(new byte[0], GzipFormat.inflateMember(gzip(new byte[0])));
+    }
+
+    @Test
+    void rejectsMembersWhoseTrailerLengthIsWrong() throws IOException {
+        byte[] data = "some text to compress".repeat(100).getBytes();
+        for (int wrongLength : new int[] {data.length - 1, data.length + 1, Integer.MAX_VALUE - 8}) {
+            byte[] member = gzip(data);
+            GzipFormat.writeIntLE(member, member.length - 4, wrongLength);
+            assertThrows(ZipException.class, () -> GzipFormat.inflateMember(member), String.valueOf(wrongLength));
+        }
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(data);
+        }
+        return bytes.toByteArray();
+    }
+}
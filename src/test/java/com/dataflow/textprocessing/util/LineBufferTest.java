@@ -0,0 +1,26 @@
+package com.dataflow.textprocessing.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class LineBufferTest {
+    @Test
+    void linesSpanningChunksAreCutAtTheLimit() {
+        LineBuffer buffer = new LineBuffer();
+        String longLine = "x".repeat(200_000);
+        buffer.append("first\r\n", longLine, "\nlast");
+
+        assertEquals(3, buffer.getLineCount());
+        assertEquals("first", buffer.getLine(0, 100));
+        assertEquals("fir", buffer.getLine(0, 3));
+        assertEquals(5, buffer.getLineLength(0));
+        assertEquals(longLine.length(), buffer.getLineLength(1));
+        assertEquals(longLine.substring(0, 4096), buffer.getLine(1, 4096));
+        assertEquals(longLine, buffer.getLine(1));
+        assertEquals("last", buffer.getLine(2, 4096));
+        assertThrows(IndexOutOfBoundsException.class, () -> buffer.getLine(3, 10));
+        assertThrows(IllegalArgumentException.class, () -> buffer.getLine(0, -1));
+    }
+}